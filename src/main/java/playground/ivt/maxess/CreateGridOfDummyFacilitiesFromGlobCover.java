@@ -37,6 +37,7 @@ import org.matsim.facilities.ActivityFacility;
 import org.matsim.facilities.ActivityOption;
 import org.matsim.facilities.FacilitiesUtils;
 import org.matsim.facilities.FacilitiesWriter;
+import playground.ivt.maxess.gisutils.Bounds;
 import playground.ivt.maxess.gisutils.GlobCoverTypeIdentifier;
 
 import java.util.Set;
@@ -97,47 +98,6 @@ public class CreateGridOfDummyFacilitiesFromGlobCover {
 		new FacilitiesWriter( facilities ).write( configGroup.getOutputFacilities() );
 	}
 
-	private static class Bounds {
-		private final double buffer;
-
-		private double minX = Double.POSITIVE_INFINITY;
-		private double minY = Double.POSITIVE_INFINITY;
-		private double maxX = Double.NEGATIVE_INFINITY;
-		private double maxY = Double.NEGATIVE_INFINITY;
-
-		private Bounds( double buffer ) {
-			if ( buffer < 0 ) log.warn( "negative buffer: facilities will not reach the envelope of the population!" );
-			this.buffer = buffer;
-		}
-
-		public void addCoord( final Coord c ) {
-			minX = Math.min( minX , c.getX() );
-			minY = Math.min( minY , c.getY() );
-
-			maxX = Math.max( maxX , c.getX() );
-			maxY = Math.max( maxY , c.getY() );
-
-			assert minX <= maxX;
-			assert minY <= maxY;
-		}
-
-		public double getMaxX() {
-			return maxX + buffer;
-		}
-
-		public double getMaxY() {
-			return maxY + buffer;
-		}
-
-		public double getMinX() {
-			return minX - buffer;
-		}
-
-		public double getMinY() {
-			return minY - buffer;
-		}
-	}
-
 	public static class GlobCoverFacilityCreationConfigGroup extends ReflectiveConfigGroup {
 		public static final String GROUP_NAME = "globcoverFacilityCreation";
 
@@ -0,0 +1,69 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.gisutils;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+
+/**
+ * Bounding box of a set of coordinates, extended by a buffer.
+ *
+ * @author thibautd
+ */
+public class Bounds {
+	private static final Logger log = Logger.getLogger( Bounds.class );
+	private final double buffer;
+
+	private double minX = Double.POSITIVE_INFINITY;
+	private double minY = Double.POSITIVE_INFINITY;
+	private double maxX = Double.NEGATIVE_INFINITY;
+	private double maxY = Double.NEGATIVE_INFINITY;
+
+	public Bounds( double buffer ) {
+		if ( buffer < 0 ) log.warn( "negative buffer: bounds will not reach the envelope of the coordinates!" );
+		this.buffer = buffer;
+	}
+
+	public void addCoord( final Coord c ) {
+		minX = Math.min( minX , c.getX() );
+		minY = Math.min( minY , c.getY() );
+
+		maxX = Math.max( maxX , c.getX() );
+		maxY = Math.max( maxY , c.getY() );
+
+		assert minX <= maxX;
+		assert minY <= maxY;
+	}
+
+	public double getMaxX() {
+		return maxX + buffer;
+	}
+
+	public double getMaxY() {
+		return maxY + buffer;
+	}
+
+	public double getMinX() {
+		return minX - buffer;
+	}
+
+	public double getMinY() {
+		return minY - buffer;
+	}
+}
@@ -0,0 +1,88 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.gisutils;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.core.utils.collections.QuadTree;
+import org.matsim.facilities.ActivityFacilities;
+import org.matsim.facilities.ActivityFacility;
+
+import java.util.DoubleSummaryStatistics;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * Spatial index of the facilities offering a given activity type, meant to be shared by all threads.
+ * The index of a type is built the first time it is requested, only once even if several threads request it at
+ * the same time. The quadtrees are never modified after construction, which makes concurrent queries safe.
+ * They must not be modified by users.
+ *
+ * @author thibautd
+ */
+public class FacilityIndex {
+	private static final Logger log = Logger.getLogger( FacilityIndex.class );
+
+	private final ActivityFacilities facilities;
+	private final ConcurrentMap<String, QuadTree<ActivityFacility>> quadTreesPerType = new ConcurrentHashMap<>();
+
+	public FacilityIndex( final ActivityFacilities facilities ) {
+		this.facilities = facilities;
+	}
+
+	public ActivityFacilities getAllFacilities() {
+		return facilities;
+	}
+
+	/**
+	 * @return a read-only quadtree of the facilities with an activity option of the given type
+	 */
+	public QuadTree<ActivityFacility> getFacilitiesWithType( final String activityType ) {
+		return quadTreesPerType.computeIfAbsent( activityType , this::buildQuadTree );
+	}
+
+	private QuadTree<ActivityFacility> buildQuadTree( final String activityType ) {
+		log.info( "build spatial index of facilities of type "+activityType );
+		// filtering and bounds in parallel. Insertion in the quadtree cannot be.
+		final List<ActivityFacility> matching =
+				facilities.getFacilities().values().parallelStream()
+						.filter( f -> f.getActivityOptions().containsKey( activityType ) )
+						.collect( Collectors.toList() );
+
+		if ( matching.isEmpty() ) {
+			log.warn( "no facility of type "+activityType );
+			return new QuadTree<>( 0 , 0 , 0 , 0 );
+		}
+
+		final DoubleSummaryStatistics xs = matching.parallelStream().mapToDouble( f -> f.getCoord().getX() ).summaryStatistics();
+		final DoubleSummaryStatistics ys = matching.parallelStream().mapToDouble( f -> f.getCoord().getY() ).summaryStatistics();
+
+		final QuadTree<ActivityFacility> quadTree =
+				new QuadTree<>( xs.getMin() , ys.getMin() , xs.getMax() , ys.getMax() );
+		for ( ActivityFacility f : matching ) {
+			final Coord c = f.getCoord();
+			quadTree.put( c.getX() , c.getY() , f );
+		}
+		log.info( "spatial index of facilities of type "+activityType+" contains "+quadTree.size()+" facilities" );
+
+		return quadTree;
+	}
+}
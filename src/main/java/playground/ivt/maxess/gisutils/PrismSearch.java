@@ -0,0 +1,281 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.gisutils;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.core.utils.collections.QuadTree;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.core.utils.misc.Counter;
+import org.matsim.facilities.ActivityFacility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Finds the smallest "prism" (ellipse with the two anchor points as foci) containing a minimum number of facilities,
+ * among ellipses which size is an integer multiple of a base size.
+ * <br>
+ * Trying multiples 1, 2, 3... until enough facilities are found re-queries the quadtree from scratch each time,
+ * which for isolated locations means dozens of full queries. Here, the size is doubled until enough facilities
+ * are found, and the smallest sufficient multiple is then determined in memory from the distances of the candidates.
+ * The result is the same as with the naive approach, in the same order.
+ * <br>
+ * The size is capped, to bound the cost of remote locations: at the cap, the prism is returned even if it contains
+ * less facilities than required.
+ * <br>
+ * Sizes can also be estimated without collecting facilities, from counts on a grid built at construction.
+ *
+ * @author thibautd
+ */
+public class PrismSearch {
+	private static final Logger log = Logger.getLogger( PrismSearch.class );
+	// bounds the memory of the count grid, whatever the extent of the facilities and the cell size
+	private static final int MAX_CELLS_PER_DIMENSION = 1024;
+
+	private final QuadTree<ActivityFacility> facilities;
+	private final double maxSize_m;
+
+	private final Counter cappedCounter = new Counter( "PrismSearch: prism capped at maximum size # " );
+	// only built if sizes are estimated
+	private final CountGrid countGrid;
+
+	/**
+	 * @param maxSize_m maximum size of the prism, in meters (sum of the distances to the two foci).
+	 * Use {@link Double#POSITIVE_INFINITY} for no cap: the size is then still bounded by the extent of the quadtree.
+	 */
+	public PrismSearch( final QuadTree<ActivityFacility> facilities, final double maxSize_m ) {
+		this( facilities , maxSize_m , null );
+	}
+
+	/**
+	 * Creates a search that can also estimate sizes with {@link #estimateSize(Coord, Coord, double, int)}.
+	 *
+	 * @param estimationCellSize_m size of the cells on which facilities are counted for estimation.
+	 * A fraction of the base size allows to distinguish multipliers. Increased if the grid would get too large.
+	 */
+	public PrismSearch(
+			final QuadTree<ActivityFacility> facilities,
+			final double maxSize_m,
+			final double estimationCellSize_m ) {
+		this( facilities , maxSize_m , new CountGrid( facilities , estimationCellSize_m ) );
+	}
+
+	private PrismSearch(
+			final QuadTree<ActivityFacility> facilities,
+			final double maxSize_m,
+			final CountGrid countGrid ) {
+		if ( maxSize_m <= 0 ) throw new IllegalArgumentException( "maximum prism size must be positive, got "+maxSize_m );
+		this.facilities = facilities;
+		this.maxSize_m = maxSize_m;
+		this.countGrid = countGrid;
+	}
+
+	public Prism find( final Coord f1, final Coord f2, final double baseSize, final int minCount ) {
+		checkBaseSize( baseSize );
+		final int maxMultiplier = calcMaxMultiplier( f1 , f2 , baseSize );
+
+		int multiplier = 1;
+		Collection<ActivityFacility> candidates = query( f1 , f2 , baseSize );
+		while ( candidates.size() < minCount && multiplier < maxMultiplier ) {
+			multiplier = (int) Math.min( 2L * multiplier , maxMultiplier );
+			candidates = query( f1 , f2 , multiplier * baseSize );
+		}
+
+		if ( candidates.size() < minCount ) {
+			if ( cappedCounter.getCounter() == 0 ) {
+				log.warn( "only "+candidates.size()+" facilities found in prism of maximum size "+( multiplier * baseSize )+
+						" around "+f1+" and "+f2+", while "+minCount+" were required. Using them anyway." );
+			}
+			cappedCounter.incCounter();
+			return new Prism( asList( candidates ) , multiplier * baseSize , true );
+		}
+
+		if ( multiplier == 1 ) return new Prism( asList( candidates ) , baseSize , false );
+
+		// smallest multiplier such that minCount candidates are in the prism: the minCount-th smallest needed multiplier
+		final List<ActivityFacility> list = asList( candidates );
+		final int[] needed = new int[ list.size() ];
+		for ( int i = 0; i < needed.length; i++ ) {
+			needed[ i ] = calcNeededMultiplier( list.get( i ).getCoord() , f1 , f2 , baseSize );
+		}
+		final int[] sorted = needed.clone();
+		Arrays.sort( sorted );
+		final int bestMultiplier = sorted[ minCount - 1 ];
+
+		final List<ActivityFacility> prism = new ArrayList<>( minCount );
+		for ( int i = 0; i < needed.length; i++ ) {
+			if ( needed[ i ] <= bestMultiplier ) prism.add( list.get( i ) );
+		}
+		return new Prism( prism , bestMultiplier * baseSize , false );
+	}
+
+	/**
+	 * Estimates the size of the prism returned by {@link #find(Coord, Coord, double, int)}, without collecting
+	 * any facility: facilities are counted on a coarse grid, with cells counted as a whole if their center is in
+	 * the prism. Much cheaper than {@link #find(Coord, Coord, double, int)}, but approximate, for instance
+	 * to estimate the cost of a computation.
+	 *
+	 * @throws IllegalStateException if no estimation cell size was given at construction
+	 */
+	public double estimateSize( final Coord f1, final Coord f2, final double baseSize, final int minCount ) {
+		if ( countGrid == null ) throw new IllegalStateException( "no estimation cell size given at construction" );
+		checkBaseSize( baseSize );
+		final CountGrid grid = countGrid;
+		final int maxMultiplier = calcMaxMultiplier( f1 , f2 , baseSize );
+
+		int multiplier = 1;
+		while ( grid.count( f1 , f2 , multiplier * baseSize ) < minCount && multiplier < maxMultiplier ) {
+			multiplier = (int) Math.min( 2L * multiplier , maxMultiplier );
+		}
+
+		// smallest sufficient multiplier between the last two tries
+		int low = multiplier / 2 + 1;
+		int high = multiplier;
+		while ( low < high ) {
+			final int mid = ( low + high ) >>> 1;
+			if ( grid.count( f1 , f2 , mid * baseSize ) >= minCount ) high = mid;
+			else low = mid + 1;
+		}
+		return high * baseSize;
+	}
+
+	private static void checkBaseSize( final double baseSize ) {
+		// the prism would never grow
+		if ( !( baseSize > 0 ) ) throw new IllegalArgumentException( "base size must be positive, got "+baseSize );
+	}
+
+	private Collection<ActivityFacility> query( final Coord f1, final Coord f2, final double size ) {
+		return facilities.getElliptical( f1.getX() , f1.getY() , f2.getX() , f2.getY() , size );
+	}
+
+	private int calcMaxMultiplier( final Coord f1, final Coord f2, final double baseSize ) {
+		// a prism that contains all corners of the quadtree contains all facilities
+		final double fullSize =
+				calcMaxCornerDistance( f1 ) + calcMaxCornerDistance( f2 );
+		final double maxSize = Math.min( maxSize_m , fullSize );
+		return (int) Math.max( 1 , Math.min( Integer.MAX_VALUE / 2 , Math.ceil( maxSize / baseSize ) ) );
+	}
+
+	private double calcMaxCornerDistance( final Coord c ) {
+		final double dx = Math.max( Math.abs( c.getX() - facilities.getMinEasting() ) , Math.abs( c.getX() - facilities.getMaxEasting() ) );
+		final double dy = Math.max( Math.abs( c.getY() - facilities.getMinNorthing() ) , Math.abs( c.getY() - facilities.getMaxNorthing() ) );
+		return Math.sqrt( dx * dx + dy * dy );
+	}
+
+	private static int calcNeededMultiplier( final Coord c, final Coord f1, final Coord f2, final double baseSize ) {
+		final double distance = CoordUtils.calcEuclideanDistance( c , f1 ) + CoordUtils.calcEuclideanDistance( c , f2 );
+		int m = Math.max( 1 , (int) Math.ceil( distance / baseSize ) );
+		// protect against rounding, to be consistent with the quadtree
+		while ( m > 1 && distance <= ( m - 1 ) * baseSize ) m--;
+		while ( distance > m * baseSize ) m++;
+		return m;
+	}
+
+	private static List<ActivityFacility> asList( final Collection<ActivityFacility> c ) {
+		return c instanceof List ? (List<ActivityFacility>) c : new ArrayList<>( c );
+	}
+
+	private static class CountGrid {
+		private final double minX;
+		private final double minY;
+		private final double cellSize;
+		private final int nX;
+		private final int nY;
+		private final int[] counts;
+
+		private CountGrid( final QuadTree<ActivityFacility> facilities, final double cellSize ) {
+			this.minX = facilities.getMinEasting();
+			this.minY = facilities.getMinNorthing();
+			if ( !( cellSize > 0 ) ) throw new IllegalArgumentException( "cell size must be positive, got "+cellSize );
+			final double width = facilities.getMaxEasting() - minX;
+			final double height = facilities.getMaxNorthing() - minY;
+			this.cellSize = Math.max( cellSize , Math.max( width , height ) / MAX_CELLS_PER_DIMENSION );
+			this.nX = 1 + (int) ( width / this.cellSize );
+			this.nY = 1 + (int) ( height / this.cellSize );
+			this.counts = new int[ nX * nY ];
+
+			for ( ActivityFacility f : facilities.values() ) {
+				counts[ cellX( f.getCoord().getX() ) * nY + cellY( f.getCoord().getY() ) ]++;
+			}
+		}
+
+		private int cellX( final double x ) {
+			return Math.max( 0 , Math.min( nX - 1 , (int) ( ( x - minX ) / cellSize ) ) );
+		}
+
+		private int cellY( final double y ) {
+			return Math.max( 0 , Math.min( nY - 1 , (int) ( ( y - minY ) / cellSize ) ) );
+		}
+
+		int count( final Coord f1, final Coord f2, final double size ) {
+			// the ellipse is contained in the bounding box of the two disks of radius size/2 around the foci
+			final double r = size / 2;
+			final int x0 = cellX( Math.min( f1.getX() , f2.getX() ) - r );
+			final int x1 = cellX( Math.max( f1.getX() , f2.getX() ) + r );
+			final int y0 = cellY( Math.min( f1.getY() , f2.getY() ) - r );
+			final int y1 = cellY( Math.max( f1.getY() , f2.getY() ) + r );
+
+			int count = 0;
+			for ( int x = x0; x <= x1; x++ ) {
+				final double cx = minX + ( x + 0.5 ) * cellSize;
+				for ( int y = y0; y <= y1; y++ ) {
+					final int c = counts[ x * nY + y ];
+					if ( c == 0 ) continue;
+					final double cy = minY + ( y + 0.5 ) * cellSize;
+					final double d = Math.hypot( cx - f1.getX() , cy - f1.getY() ) + Math.hypot( cx - f2.getX() , cy - f2.getY() );
+					if ( d <= size ) count += c;
+				}
+			}
+			return count;
+		}
+	}
+
+	public static class Prism {
+		private final List<ActivityFacility> facilities;
+		private final double size;
+		private final boolean capped;
+
+		private Prism( final List<ActivityFacility> facilities, final double size, final boolean capped ) {
+			this.facilities = facilities;
+			this.size = size;
+			this.capped = capped;
+		}
+
+		/**
+		 * @return the facilities in the prism, as a modifiable list
+		 */
+		public List<ActivityFacility> getFacilities() {
+			return facilities;
+		}
+
+		public double getSize() {
+			return size;
+		}
+
+		/**
+		 * @return true if the prism was limited by the maximum size, and might contain less facilities than required
+		 */
+		public boolean isCapped() {
+			return capped;
+		}
+	}
+}
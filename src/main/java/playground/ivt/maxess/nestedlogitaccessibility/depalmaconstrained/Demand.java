@@ -154,9 +154,10 @@ class Demand<N extends Enum<N>> {
 			final NestedChoiceSet<N> choiceSet ) {
 		final TObjectDoubleMap<Id<Alternative>> utilities = new TObjectDoubleHashMap<>();
 		final TObjectDoubleMap<N> nestLogsums = new TObjectDoubleHashMap<>();
+		final LogSumExpCalculator logsumNest = new LogSumExpCalculator();
 
 		for ( Nest<N> nest : choiceSet.getNests() ) {
-			final LogSumExpCalculator logsumNest = new LogSumExpCalculator( nest.getAlternatives().size() );
+			logsumNest.reset();
 
 			for ( Alternative<N> alternative : nest.getAlternatives() ) {
 				final double utility = model.getUtility().calcUtility( p, alternative );
@@ -169,22 +170,25 @@ class Demand<N extends Enum<N>> {
 					( model.getMu() / nest.getMu_n() ) * logsumNest.computeLogsumExp() );
 		}
 
+		// denominators are the same for all alternatives: accumulate them only once
+		final LogitProbabilityCalculator nestProbabilityCalculator = new LogitProbabilityCalculator();
+		choiceSet.getNests().stream()
+				.mapToDouble( n -> nestLogsums.get( n.getNestId() ) )
+				.forEach( nestProbabilityCalculator::addDenominatorUtility );
+
 		final TObjectDoubleMap<Id<ActivityFacility>> probabilities = new TObjectDoubleHashMap<>();
 		double sum = 0;
 		for ( Nest<N> nest : choiceSet.getNests() ) {
-			final LogitProbabilityCalculator nestProbabilityCalculator = new LogitProbabilityCalculator();
 			nestProbabilityCalculator.setNumeratorUtility( nestLogsums.get( nest.getNestId() ) );
-			choiceSet.getNests().stream()
-					.mapToDouble( n -> nestLogsums.get( n.getNestId() ) )
-					.forEach( nestProbabilityCalculator::addDenominatorUtility );
 			final double nestProba = nestProbabilityCalculator.calcProbability();
 
+			final LogitProbabilityCalculator inNestProbabilityCalculator = new LogitProbabilityCalculator();
+			nest.getAlternatives().stream()
+					.mapToDouble( a -> nest.getMu_n() * utilities.get( a.getAlternativeId() ) )
+					.forEach( inNestProbabilityCalculator::addDenominatorUtility );
+
 			for ( Alternative<N> alternative : nest.getAlternatives() ) {
-				final LogitProbabilityCalculator inNestProbabilityCalculator = new LogitProbabilityCalculator();
 				inNestProbabilityCalculator.setNumeratorUtility( nest.getMu_n() * utilities.get( alternative.getAlternativeId() ) );
-				nest.getAlternatives().stream()
-						.mapToDouble( a -> nest.getMu_n() * utilities.get( a.getAlternativeId() ) )
-						.forEach( inNestProbabilityCalculator::addDenominatorUtility );
 				final double prob = nestProba * inNestProbabilityCalculator.calcProbability();
 				probabilities.adjustOrPutValue(
 						alternative.getAlternative().getDestination().getId(),
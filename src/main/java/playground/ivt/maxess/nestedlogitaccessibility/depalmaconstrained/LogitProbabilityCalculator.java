@@ -18,24 +18,23 @@
  * *********************************************************************** */
 package playground.ivt.maxess.nestedlogitaccessibility.depalmaconstrained;
 
-import gnu.trove.iterator.TDoubleIterator;
 import gnu.trove.list.TDoubleList;
-import gnu.trove.list.array.TDoubleArrayList;
 import org.apache.log4j.Logger;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.LogSumExpCalculator;
 
 /**
+ * Computes logit probabilities. The denominator is accumulated in a streaming way, so that the same instance
+ * can be reused to compute the probabilities of all alternatives sharing the same denominator.
+ *
  * @author thibautd
  */
 class LogitProbabilityCalculator {
 	private static final Logger log = Logger.getLogger( LogitProbabilityCalculator.class );
 	private double numeratorUtility;
-	private final TDoubleList denominatorUtilities = new TDoubleArrayList();
-
-	private double max = Double.NEGATIVE_INFINITY;
+	private final LogSumExpCalculator denominator = new LogSumExpCalculator();
 
 	public void setNumeratorUtility( final double numeratorUtility ) {
 		this.numeratorUtility = numeratorUtility;
-		this.max = Math.max( max, numeratorUtility );
 	}
 
 	public void addDenominatorUtilities( TDoubleList us ) {
@@ -46,25 +45,17 @@ class LogitProbabilityCalculator {
 	}
 
 	public void addDenominatorUtility( final double u ) {
-		this.denominatorUtilities.add( u );
-		this.max = Math.max( max, u );
+		this.denominator.addTerm( u );
 	}
 
 	public double calcProbability() {
-		double denominator = 0;
-
-		for ( TDoubleIterator iterator = denominatorUtilities.iterator();
-			  iterator.hasNext(); ) {
-			denominator += Math.exp( iterator.next() - max );
-		}
-
-		final double numerator = Math.exp( numeratorUtility - max );
+		final double logDenominator = denominator.computeLogsumExp();
 
-		if ( numerator > denominator ) {
-			log.error( numerator+" > "+denominator );
+		if ( numeratorUtility > logDenominator ) {
+			log.error( numeratorUtility+" > "+logDenominator+" (log scale)" );
 			throw new IllegalStateException( "numerator of logit probability is greater than denominator. Please check the inputs.");
 		}
 
-		return numerator / denominator;
+		return Math.exp( numeratorUtility - logDenominator );
 	}
 }
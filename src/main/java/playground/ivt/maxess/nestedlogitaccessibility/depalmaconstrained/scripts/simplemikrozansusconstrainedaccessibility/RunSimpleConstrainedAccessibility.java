@@ -39,6 +39,7 @@ import playground.ivt.maxess.nestedlogitaccessibility.framework.AccessibilityCom
 import playground.ivt.maxess.nestedlogitaccessibility.framework.BaseNestedAccessibilityComputationModule;
 import playground.ivt.maxess.nestedlogitaccessibility.framework.InjectionUtils;
 import playground.ivt.maxess.nestedlogitaccessibility.framework.NestedLogitAccessibilityCalculator;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.NestedLogitComputationConfigGroup;
 import playground.ivt.maxess.nestedlogitaccessibility.scripts.NestedAccessibilityConfigGroup;
 import playground.ivt.maxess.nestedlogitaccessibility.writers.BasicPersonAccessibilityWriter;
 import playground.ivt.router.CachingFreespeedCarRouterModule;
@@ -65,7 +66,8 @@ public class RunSimpleConstrainedAccessibility {
 					configFile,
 					new UtilityConfigGroup(),
 					new ConstrainedAccessibilityConfigGroup(),
-					new NestedAccessibilityConfigGroup() );
+					new NestedAccessibilityConfigGroup(),
+					new NestedLogitComputationConfigGroup() );
 			final Scenario scenario = ScenarioUtils.loadScenario( config );
 			cutScenario( scenario );
 
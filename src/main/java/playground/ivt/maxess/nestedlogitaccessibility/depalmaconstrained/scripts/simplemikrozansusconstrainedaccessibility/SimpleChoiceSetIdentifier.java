@@ -28,6 +28,7 @@ import org.matsim.core.population.PersonUtils;
 import org.matsim.core.router.TripRouter;
 import org.matsim.facilities.ActivityFacility;
 import org.matsim.utils.objectattributes.ObjectAttributes;
+import playground.ivt.maxess.gisutils.FacilityIndex;
 import playground.ivt.maxess.nestedlogitaccessibility.depalmaconstrained.SingleNest;
 import playground.ivt.maxess.nestedlogitaccessibility.framework.Alternative;
 import playground.ivt.maxess.nestedlogitaccessibility.framework.ChoiceSetIdentifier;
@@ -36,6 +37,7 @@ import playground.ivt.maxess.nestedlogitaccessibility.framework.NestedChoiceSet;
 import playground.ivt.maxess.nestedlogitaccessibility.framework.PrismSampler;
 import playground.ivt.maxess.nestedlogitaccessibility.scripts.NestedAccessibilityConfigGroup;
 import playground.ivt.maxess.prepareforbiogeme.tripbased.Trip;
+import playground.ivt.utils.RandomStreams;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -56,6 +58,7 @@ public class SimpleChoiceSetIdentifier implements ChoiceSetIdentifier<SingleNest
 	public SimpleChoiceSetIdentifier(
 			final Provider<TripRouter> tripRouter,
 			final Scenario scenario,
+			final FacilityIndex facilityIndex,
 			final NestedAccessibilityConfigGroup configGroup) {
 		this.router = ThreadLocal.withInitial( tripRouter::get );
 		this.personAttributes = scenario.getPopulation().getPersonAttributes();
@@ -63,7 +66,7 @@ public class SimpleChoiceSetIdentifier implements ChoiceSetIdentifier<SingleNest
 				new PrismSampler(
 						configGroup.getActivityType(),
 						configGroup.getChoiceSetSize(),
-						scenario.getActivityFacilities(),
+						facilityIndex,
 						configGroup.getDistanceBudget() );
 		this.utilityConfigGroup = (UtilityConfigGroup) scenario.getConfig().getModule( UtilityConfigGroup.GROUP_NAME );
 	}
@@ -84,7 +87,7 @@ public class SimpleChoiceSetIdentifier implements ChoiceSetIdentifier<SingleNest
 
 	private Iterable<Alternative<SingleNest>> calcAlternatives( final Person p ) {
 		// for constraints to be valid, we need choice set for each person to be stable
-		prismSampler.resetRandomSeed( p.getId().toString().hashCode() );
+		prismSampler.resetRandomSeed( RandomStreams.hash64( p.getId().toString() ) );
 
 		final ActivityFacility origin = prismSampler.getOrigin( p );
 		final List<ActivityFacility> prism = prismSampler.calcSampledPrism( origin );
@@ -18,17 +18,13 @@
  * *********************************************************************** */
 package playground.ivt.maxess.nestedlogitaccessibility.depalmaconstrained.scripts.simplemikrozansusconstrainedaccessibility;
 
-import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.Person;
-import org.matsim.api.core.v01.population.PlanElement;
 import org.matsim.core.router.MainModeIdentifier;
 import org.matsim.utils.objectattributes.ObjectAttributes;
 import playground.ivt.maxess.nestedlogitaccessibility.depalmaconstrained.SingleNest;
 import playground.ivt.maxess.nestedlogitaccessibility.framework.Alternative;
 import playground.ivt.maxess.nestedlogitaccessibility.framework.Utility;
 
-import java.util.List;
-
 /**
  * @author thibautd
  */
@@ -62,15 +58,7 @@ public class SimpleUtility implements Utility<SingleNest> {
 	}
 
 	private double getTravelTime( Alternative<SingleNest> a ) {
-		final List<? extends PlanElement> trip = a.getAlternative().getTrip();
-
-		double tt = 0;
-
-		for ( PlanElement pe : trip ) {
-			if ( pe instanceof Leg )  {
-				tt += ( (Leg) pe ).getTravelTime();
-			}
-		}
+		final double tt = a.getAlternative().getTravelTime();
 
 		assert tt >= 0 : tt;
 
@@ -0,0 +1,207 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.core.utils.io.UncheckedIOException;
+import org.matsim.core.utils.misc.Counter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only file, where results are written as soon as persons are computed, such that a crashed or killed
+ * run can be resumed without computing the same persons again.
+ * <br>
+ * Each line contains the person id, the number of accessibility types, type and value pairs, optionally the number
+ * of diagnostic types and type and value pairs, and an end marker, all separated by tabs. Lines that do not respect this format, typically the last line of a run that was killed
+ * while writing, are ignored when reading.
+ * <br>
+ * Appending is thread safe.
+ *
+ * @author thibautd
+ */
+public class AccessibilityCheckpoint implements AutoCloseable {
+	private static final Logger log = Logger.getLogger( AccessibilityCheckpoint.class );
+	private static final String SEP = "\t";
+	// without it, a line truncated in the middle of the last value would look valid
+	private static final String END = "END";
+
+	private final BufferedWriter writer;
+	private final int flushInterval;
+	private int nonFlushed = 0;
+
+	/**
+	 * Opens the checkpoint file.
+	 *
+	 * @param resumeFrom if not null, results read from the file by {@link #read(String)}. The file is rewritten
+	 * with those results only, and new results are appended. If null, the file is overwritten.
+	 * @param flushInterval number of persons after which the file is flushed.
+	 */
+	public AccessibilityCheckpoint(
+			final String file,
+			final AccessibilityComputationResult resumeFrom,
+			final int flushInterval ) {
+		this.flushInterval = flushInterval;
+		try {
+			if ( resumeFrom != null ) {
+				// write only valid lines in a temporary file, and only then replace the old file,
+				// to avoid appending to a truncated line and never lose results
+				final File tmp = new File( file+".tmp" );
+				try ( BufferedWriter tmpWriter = IOUtils.getBufferedWriter( tmp.getPath() ) ) {
+					for ( Map.Entry<Id<Person>, AccessibilityComputationResult.PersonAccessibilityComputationResult> e :
+							resumeFrom.getResultsPerPerson().entrySet() ) {
+						writeRecord( tmpWriter , e.getKey() , e.getValue() );
+					}
+				}
+				Files.move( tmp.toPath() , new File( file ).toPath() , StandardCopyOption.REPLACE_EXISTING );
+				this.writer = IOUtils.getAppendingBufferedWriter( file );
+			}
+			else {
+				this.writer = IOUtils.getBufferedWriter( file );
+			}
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	public synchronized void append(
+			final Id<Person> personId,
+			final AccessibilityComputationResult.PersonAccessibilityComputationResult result ) {
+		try {
+			writeRecord( writer , personId , result );
+			if ( ++nonFlushed >= flushInterval ) {
+				writer.flush();
+				nonFlushed = 0;
+			}
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		try {
+			writer.close();
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	private static void writeRecord(
+			final BufferedWriter writer,
+			final Id<Person> personId,
+			final AccessibilityComputationResult.PersonAccessibilityComputationResult result ) throws IOException {
+		final StringBuilder line = new StringBuilder();
+		line.append( personId ).append( SEP ).append( result.getAccessibilities().size() );
+		for ( Map.Entry<String, Double> e : result.getAccessibilities().entrySet() ) {
+			line.append( SEP ).append( e.getKey() ).append( SEP ).append( e.getValue() );
+		}
+		if ( !result.getDiagnostics().isEmpty() ) {
+			line.append( SEP ).append( result.getDiagnostics().size() );
+			for ( Map.Entry<String, Double> e : result.getDiagnostics().entrySet() ) {
+				line.append( SEP ).append( e.getKey() ).append( SEP ).append( e.getValue() );
+			}
+		}
+		line.append( SEP ).append( END );
+		writer.write( line.toString() );
+		writer.newLine();
+	}
+
+	/**
+	 * @return the results found in the file, or an empty result if the file does not exist
+	 */
+	public static AccessibilityComputationResult read( final String file ) {
+		final Map<Id<Person>, AccessibilityComputationResult.PersonAccessibilityComputationResult> records = new LinkedHashMap<>();
+		if ( !new File( file ).exists() ) {
+			log.info( "No checkpoint file "+file+": start from scratch" );
+			return new AccessibilityComputationResult( Collections.emptyList() );
+		}
+
+		log.info( "Read checkpoint file "+file );
+		final Counter counter = new Counter( "Read checkpoint for person # " );
+		final Counter invalidCounter = new Counter( "Ignore invalid checkpoint line # " );
+		try ( BufferedReader reader = IOUtils.getBufferedReader( file ) ) {
+			for ( String line = reader.readLine(); line != null; line = reader.readLine() ) {
+				final AccessibilityComputationResult.PersonAccessibilityComputationResult personResult =
+						new AccessibilityComputationResult.PersonAccessibilityComputationResult();
+				final Id<Person> personId = parseRecord( line , personResult );
+				if ( personId == null ) {
+					invalidCounter.incCounter();
+					continue;
+				}
+				counter.incCounter();
+				records.put( personId , personResult );
+			}
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		counter.printCounter();
+		invalidCounter.printCounter();
+
+		final AccessibilityComputationResult result = new AccessibilityComputationResult( records.keySet() );
+		records.forEach( result::addResults );
+		return result;
+	}
+
+	private static Id<Person> parseRecord(
+			final String line,
+			final AccessibilityComputationResult.PersonAccessibilityComputationResult result ) {
+		final String[] fields = line.split( SEP );
+		if ( fields.length < 2 || fields[ 0 ].isEmpty() ) return null;
+
+		try {
+			final int n = Integer.parseInt( fields[ 1 ] );
+			// diagnostics are optional
+			final int m = fields.length > 3 + 2 * n ? Integer.parseInt( fields[ 2 + 2 * n ] ) : 0;
+			if ( fields.length != ( m > 0 ? 4 + 2 * n + 2 * m : 3 + 2 * n ) ) return null;
+			if ( !fields[ fields.length - 1 ].equals( END ) ) return null;
+
+			for ( int i = 0; i < n; i++ ) {
+				result.addAccessibility(
+						fields[ 2 + 2 * i ],
+						Double.parseDouble( fields[ 3 + 2 * i ] ) );
+			}
+			for ( int i = 0; i < m; i++ ) {
+				result.addDiagnostic(
+						fields[ 3 + 2 * n + 2 * i ],
+						Double.parseDouble( fields[ 4 + 2 * n + 2 * i ] ) );
+			}
+		}
+		catch ( NumberFormatException e ) {
+			return null;
+		}
+
+		return Id.createPersonId( fields[ 0 ] );
+	}
+}
@@ -18,42 +18,273 @@
  * *********************************************************************** */
 package playground.ivt.maxess.nestedlogitaccessibility.framework;
 
+import gnu.trove.impl.Constants;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjDoubleConsumer;
 
 /**
- * Stores results per person. Adding person results is thread-safe
+ * Stores results per person, as one primitive column per accessibility type, indexed by a dense person index
+ * fixed at construction.
+ * <br>
+ * Adding person results is thread-safe and does not lock, as long as different threads write different persons:
+ * each write only touches the cells of its person. Registering a new type, which happens only a few times per run,
+ * is synchronized and publishes a new copy of the column array, that shares the columns of the previous one.
+ * Reading is meant to happen once computation is over.
+ * <br>
+ * Diagnostics, such as the number of destinations used by adaptive sampling, are stored in separate columns:
+ * they are written along with the results of the persons, but are not accessibilities and are not aggregated.
+ *
  * @author thibautd
  */
 public class AccessibilityComputationResult {
-	private final Map<Id<Person>, PersonAccessibilityComputationResult> personResults = new ConcurrentHashMap<>();
-	private final Set<String> types = new TreeSet<>(  );
+	private final List<Id<Person>> personIds;
+	private final TObjectIntMap<Id<Person>> personIndices;
+	private final boolean[] hasResults;
 
+	private final ColumnSet accessibilities = new ColumnSet();
+	private final ColumnSet diagnostics = new ColumnSet();
+
+	public AccessibilityComputationResult( final Collection<Id<Person>> persons ) {
+		this.personIds = new ArrayList<>( persons );
+		this.personIndices = new TObjectIntHashMap<>( persons.size() , Constants.DEFAULT_LOAD_FACTOR , -1 );
+		for ( int i = 0; i < personIds.size(); i++ ) {
+			if ( personIndices.put( personIds.get( i ) , i ) >= 0 ) {
+				throw new IllegalArgumentException( "duplicate person "+personIds.get( i ) );
+			}
+		}
+		this.hasResults = new boolean[ personIds.size() ];
+	}
+
+	/**
+	 * @return the accessibility types for which some results exist, in alphabetical order
+	 */
 	public Set<String> getTypes() {
-		return Collections.unmodifiableSet( types );
+		return accessibilities.getTypes();
+	}
+
+	/**
+	 * @return the diagnostic types for which some results exist, in alphabetical order
+	 */
+	public Set<String> getDiagnosticTypes() {
+		return diagnostics.getTypes();
+	}
+
+	public int getNumberOfPersons() {
+		return personIds.size();
+	}
+
+	public Id<Person> getPersonId( final int personIndex ) {
+		return personIds.get( personIndex );
+	}
+
+	/**
+	 * @return the dense index of the person, or -1 if the person is not part of this result
+	 */
+	public int getPersonIndex( final Id<Person> person ) {
+		return personIndices.get( person );
+	}
+
+	public boolean hasResults( final int personIndex ) {
+		return hasResults[ personIndex ];
+	}
+
+	public boolean hasResults( final Id<Person> person ) {
+		final int index = personIndices.get( person );
+		return index >= 0 && hasResults[ index ];
+	}
+
+	/**
+	 * @return the accessibility of the given type, or NaN if it was not computed for this person
+	 */
+	public double getAccessibility( final int personIndex, final String type ) {
+		return accessibilities.get( personIndex , type );
+	}
+
+	/**
+	 * @return the diagnostic of the given type, or NaN if it was not computed for this person
+	 */
+	public double getDiagnostic( final int personIndex, final String type ) {
+		return diagnostics.get( personIndex , type );
 	}
 
 	public void addResults(
 			final Id<Person> id,
 			final PersonAccessibilityComputationResult result ) {
-		// This should be thread safe
-		types.addAll( result.getAccessibilities().keySet() );
-		this.personResults.put( id , result );
+		final int personIndex = personIndices.get( id );
+		if ( personIndex < 0 ) throw new IllegalArgumentException( "unknown person "+id );
+
+		for ( Map.Entry<String, Double> e : result.getAccessibilities().entrySet() ) {
+			accessibilities.getColumn( e.getKey() )[ personIndex ] = e.getValue();
+		}
+		for ( Map.Entry<String, Double> e : result.getDiagnostics().entrySet() ) {
+			diagnostics.getColumn( e.getKey() )[ personIndex ] = e.getValue();
+		}
+		hasResults[ personIndex ] = true;
 	}
 
+	/**
+	 * Copies all results from another store, ignoring persons unknown to this one.
+	 *
+	 * @return the number of persons copied
+	 */
+	public int addAll( final AccessibilityComputationResult other ) {
+		int copied = 0;
+		for ( int i = 0; i < other.getNumberOfPersons(); i++ ) {
+			if ( !other.hasResults( i ) || getPersonIndex( other.getPersonId( i ) ) < 0 ) continue;
+			addResults( other.getPersonId( i ) , other.getResults( i ) );
+			copied++;
+		}
+		return copied;
+	}
+
+	/**
+	 * @return a copy of the results of the person, or null if the person has no results
+	 */
+	public PersonAccessibilityComputationResult getResults( final int personIndex ) {
+		if ( !hasResults[ personIndex ] ) return null;
+		final PersonAccessibilityComputationResult result = new PersonAccessibilityComputationResult();
+		accessibilities.forEachValue( personIndex , result::addAccessibility );
+		diagnostics.forEachValue( personIndex , result::addDiagnostic );
+		return result;
+	}
+
+	/**
+	 * View of the results as a map. Entries are created on access, prefer the index based methods
+	 * for large populations.
+	 */
 	public Map<Id<Person>, PersonAccessibilityComputationResult> getResultsPerPerson() {
-		return Collections.unmodifiableMap( personResults );
+		return new AbstractMap<Id<Person>, PersonAccessibilityComputationResult>() {
+			@Override
+			public PersonAccessibilityComputationResult get( final Object key ) {
+				final int index = key instanceof Id ? personIndices.get( key ) : -1;
+				return index < 0 ? null : getResults( index );
+			}
+
+			@Override
+			public boolean containsKey( final Object key ) {
+				final int index = key instanceof Id ? personIndices.get( key ) : -1;
+				return index >= 0 && hasResults[ index ];
+			}
+
+			@Override
+			public Set<Entry<Id<Person>, PersonAccessibilityComputationResult>> entrySet() {
+				return new AbstractSet<Entry<Id<Person>, PersonAccessibilityComputationResult>>() {
+					@Override
+					public Iterator<Entry<Id<Person>, PersonAccessibilityComputationResult>> iterator() {
+						return new ResultIterator();
+					}
+
+					@Override
+					public int size() {
+						int size = 0;
+						for ( boolean b : hasResults ) if ( b ) size++;
+						return size;
+					}
+				};
+			}
+		};
+	}
+
+	private class ColumnSet {
+		private volatile Columns columns = new Columns( Collections.emptyMap() , new double[ 0 ][] );
+
+		private Set<String> getTypes() {
+			return Collections.unmodifiableSet( new TreeSet<>( columns.typeIndices.keySet() ) );
+		}
+
+		private double get( final int personIndex, final String type ) {
+			final Columns c = columns;
+			final Integer typeIndex = c.typeIndices.get( type );
+			return typeIndex == null ? Double.NaN : c.values[ typeIndex ][ personIndex ];
+		}
+
+		private void forEachValue( final int personIndex, final ObjDoubleConsumer<String> consumer ) {
+			final Columns c = columns;
+			for ( Map.Entry<String, Integer> type : c.typeIndices.entrySet() ) {
+				final double v = c.values[ type.getValue() ][ personIndex ];
+				if ( !Double.isNaN( v ) ) consumer.accept( type.getKey() , v );
+			}
+		}
+
+		private double[] getColumn( final String type ) {
+			final Columns c = columns;
+			final Integer index = c.typeIndices.get( type );
+			if ( index != null ) return c.values[ index ];
+			return addColumn( type );
+		}
+
+		private synchronized double[] addColumn( final String type ) {
+			// might have been added since the unsynchronized check
+			final Columns current = columns;
+			final Integer existing = current.typeIndices.get( type );
+			if ( existing != null ) return current.values[ existing ];
+
+			final double[] column = new double[ personIds.size() ];
+			Arrays.fill( column , Double.NaN );
+
+			final Map<String, Integer> typeIndices = new HashMap<>( current.typeIndices );
+			typeIndices.put( type , current.values.length );
+			final double[][] values = Arrays.copyOf( current.values , current.values.length + 1 );
+			values[ current.values.length ] = column;
+
+			columns = new Columns( typeIndices , values );
+			return column;
+		}
+	}
+
+	private static final class Columns {
+		private final Map<String, Integer> typeIndices;
+		private final double[][] values;
+
+		private Columns( final Map<String, Integer> typeIndices, final double[][] values ) {
+			this.typeIndices = typeIndices;
+			this.values = values;
+		}
+	}
+
+	private class ResultIterator implements Iterator<Map.Entry<Id<Person>, PersonAccessibilityComputationResult>> {
+		private int next = advance( 0 );
+
+		private int advance( int i ) {
+			while ( i < hasResults.length && !hasResults[ i ] ) i++;
+			return i;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < hasResults.length;
+		}
+
+		@Override
+		public Map.Entry<Id<Person>, PersonAccessibilityComputationResult> next() {
+			if ( !hasNext() ) throw new NoSuchElementException();
+			final int current = next;
+			next = advance( next + 1 );
+			return new AbstractMap.SimpleImmutableEntry<>( personIds.get( current ) , getResults( current ) );
+		}
 	}
 
 	public static class PersonAccessibilityComputationResult {
 		private final Map<String, Double> accessibilities = new LinkedHashMap<>(  );
+		private final Map<String, Double> diagnostics = new LinkedHashMap<>(  );
 
 		public final void addAccessibility( final String type , final double value ) {
 			accessibilities.put( type , value );
@@ -62,5 +293,17 @@ public class AccessibilityComputationResult {
 		public Map<String, Double> getAccessibilities() {
 			return accessibilities;
 		}
+
+		/**
+		 * Diagnostics are values that describe how the accessibility was computed. They are not accessibilities,
+		 * and should not be averaged or compared as such.
+		 */
+		public final void addDiagnostic( final String type , final double value ) {
+			diagnostics.put( type , value );
+		}
+
+		public Map<String, Double> getDiagnostics() {
+			return diagnostics;
+		}
 	}
 }
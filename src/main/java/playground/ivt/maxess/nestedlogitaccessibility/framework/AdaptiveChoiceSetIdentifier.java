@@ -0,0 +1,47 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.matsim.api.core.v01.population.Person;
+
+/**
+ * Masked choice set identifier able to sample destinations incrementally, so that sampling can stop as soon as the
+ * logsum estimate is precise enough.
+ *
+ * @author thibautd
+ */
+public interface AdaptiveChoiceSetIdentifier<N extends Enum<N>> extends MaskedChoiceSetIdentifier<N> {
+	DestinationSampling<N> startDestinationSampling( Person p, int maxDestinations );
+
+	interface DestinationSampling<N extends Enum<N>> {
+		/**
+		 * @return the number of destinations sampled by {@link #identifyMaskedChoiceSet(Person)}.
+		 * Logsums over a different number of destinations are corrected to be comparable to this sample size.
+		 */
+		int getNominalSampleSize();
+
+		int getNumberOfSampledDestinations();
+
+		/**
+		 * @return a choice set with the alternatives of at most nDestinations new destinations,
+		 * with the same situations and nests for all calls, or null if no destination is left.
+		 */
+		MaskedNestedChoiceSet<N> sampleDestinations( int nDestinations );
+	}
+}
@@ -0,0 +1,190 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.population.Person;
+import playground.ivt.utils.ConcurrentStopWatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Computes logsums with a number of destinations adapted to each person: destinations are sampled by increments,
+ * and sampling stops when the estimated standard error of the logsums of all situations falls below the tolerance.
+ * <br>
+ * The standard error is estimated by batch means: each increment is an independent sample of destinations,
+ * and the logsum of the union of increments is the log of the sum of the exponentiated logsums of the increments
+ * (exact for a multinomial logit, an approximation for nests with scale different from one).
+ * The delta method then gives the standard error from the spread of the exponentiated increment logsums.
+ * <br>
+ * Final logsums are corrected by the log of the ratio of the nominal to the actual number of destinations,
+ * so that they are comparable to those of non adaptive runs.
+ *
+ * @author thibautd
+ */
+class AdaptiveLogsumEstimator<N extends Enum<N>> {
+	private static final Logger log = Logger.getLogger( AdaptiveLogsumEstimator.class );
+
+	private final int increment;
+	private final int minSamples;
+	private final int maxSamples;
+	private final double tolerance;
+
+	private final LongAdder nPersons = new LongAdder();
+	private final LongAdder nSamples = new LongAdder();
+	private final LongAdder nConverged = new LongAdder();
+
+	AdaptiveLogsumEstimator( final NestedLogitComputationConfigGroup configGroup ) {
+		this.increment = configGroup.getSamplingIncrement();
+		this.minSamples = Math.max( configGroup.getMinSamples() , 2 * increment );
+		this.maxSamples = configGroup.getMaxSamples();
+		this.tolerance = configGroup.getLogsumTolerance();
+	}
+
+	AccessibilityComputationResult.PersonAccessibilityComputationResult computeAccessibility(
+			final NestedLogitModel<N> model,
+			final PackedNestedChoiceSet buffer,
+			final MemoizedUtility<N> utility,
+			final ConcurrentStopWatch<NestedLogitAccessibilityCalculator.Measurement> stopWatch,
+			final Person p ) {
+		final AdaptiveChoiceSetIdentifier.DestinationSampling<N> sampling =
+				( (AdaptiveChoiceSetIdentifier<N>) model.getChoiceSetIdentifier() ).startDestinationSampling( p , maxSamples );
+
+		final List<MaskedNestedChoiceSet<N>> batches = new ArrayList<>();
+		final List<double[]> batchLogsums = new ArrayList<>();
+		boolean converged = false;
+		while ( sampling.getNumberOfSampledDestinations() < maxSamples ) {
+			stopWatch.startMeasurement( NestedLogitAccessibilityCalculator.Measurement.choiceSampling );
+			final MaskedNestedChoiceSet<N> batch =
+					sampling.sampleDestinations(
+							Math.min( increment , maxSamples - sampling.getNumberOfSampledDestinations() ) );
+			stopWatch.endMeasurement( NestedLogitAccessibilityCalculator.Measurement.choiceSampling );
+			if ( batch == null ) break;
+
+			stopWatch.startMeasurement( NestedLogitAccessibilityCalculator.Measurement.logsumComputation );
+			batches.add( batch );
+			pack( model , utility , buffer , batches.subList( batches.size() - 1 , batches.size() ) , 0 );
+			final double[] logsums = new double[ batch.getSituations().size() ];
+			buffer.computeExpectedMaximumUtilities( model.getMu() , logsums.length , logsums );
+			batchLogsums.add( logsums );
+			stopWatch.endMeasurement( NestedLogitAccessibilityCalculator.Measurement.logsumComputation );
+
+			if ( sampling.getNumberOfSampledDestinations() >= minSamples &&
+					calcMaxStandardError( batchLogsums ) <= tolerance ) {
+				converged = true;
+				break;
+			}
+		}
+
+		final int n = sampling.getNumberOfSampledDestinations();
+		nPersons.increment();
+		nSamples.add( n );
+		if ( converged ) nConverged.increment();
+
+		final AccessibilityComputationResult.PersonAccessibilityComputationResult accessibilities =
+				new AccessibilityComputationResult.PersonAccessibilityComputationResult();
+		if ( batches.isEmpty() ) return accessibilities;
+
+		stopWatch.startMeasurement( NestedLogitAccessibilityCalculator.Measurement.logsumComputation );
+		pack( model , utility , buffer , batches , Math.log( (double) sampling.getNominalSampleSize() / n ) );
+		final List<String> situations = batches.get( 0 ).getSituations();
+		final double[] logsums = new double[ situations.size() ];
+		buffer.computeExpectedMaximumUtilities( model.getMu() , situations.size() , logsums );
+		stopWatch.endMeasurement( NestedLogitAccessibilityCalculator.Measurement.logsumComputation );
+
+		for ( int s = 0; s < logsums.length; s++ ) {
+			accessibilities.addAccessibility( situations.get( s ) , logsums[ s ] );
+		}
+		accessibilities.addDiagnostic( NestedLogitComputationConfigGroup.SAMPLE_SIZE_DIAGNOSTIC , n );
+		return accessibilities;
+	}
+
+	void printStats() {
+		if ( nPersons.sum() == 0 ) {
+			log.warn( "Adaptive sampling requested, but no person was computed adaptively. Check that the choice set identifier supports it." );
+			return;
+		}
+		log.info( "Adaptive sampling: "+nPersons.sum()+" persons, average of "+
+				( (double) nSamples.sum() / nPersons.sum() )+" destinations per person, "+
+				nConverged.sum()+" persons reached the tolerance of "+tolerance );
+	}
+
+	/**
+	 * @param logWeight log of the weight of each destination, added to all utilities of nest n as logWeight / mu_n
+	 */
+	private static <N extends Enum<N>> void pack(
+			final NestedLogitModel<N> model,
+			final MemoizedUtility<N> utility,
+			final PackedNestedChoiceSet buffer,
+			final List<MaskedNestedChoiceSet<N>> batches,
+			final double logWeight ) {
+		buffer.clear();
+		final int nNests = batches.get( 0 ).getNests().size();
+		for ( int n = 0; n < nNests; n++ ) {
+			final double mu_n = batches.get( 0 ).getNests().get( n ).getMu_n();
+			final double offset = logWeight / mu_n;
+			boolean started = false;
+			for ( MaskedNestedChoiceSet<N> batch : batches ) {
+				final Nest<N> nest = batch.getNests().get( n );
+				if ( nest.getAlternatives().isEmpty() ) continue;
+				if ( !started ) {
+					buffer.startNest( mu_n );
+					started = true;
+				}
+				final double[] utilities = NestedLogitAccessibilityCalculator.calcUtilities( model , utility , nest );
+				for ( int i = 0; i < nest.getAlternatives().size(); i++ ) {
+					buffer.addUtility( utilities[ i ] + offset , batch.getMask( n , i ) );
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param batchLogsums logsums per situation of each independent batch of destinations
+	 * @return the largest estimated standard error of the logsum of the union of the batches, over all situations.
+	 * Infinite if there are less than two batches.
+	 */
+	static double calcMaxStandardError( final List<double[]> batchLogsums ) {
+		final int k = batchLogsums.size();
+		if ( k < 2 ) return Double.POSITIVE_INFINITY;
+
+		double maxError = 0;
+		for ( int s = 0; s < batchLogsums.get( 0 ).length; s++ ) {
+			double max = Double.NEGATIVE_INFINITY;
+			for ( double[] l : batchLogsums ) max = Math.max( max , l[ s ] );
+			// situation without any alternative
+			if ( max == Double.NEGATIVE_INFINITY ) continue;
+
+			double sum = 0;
+			for ( double[] l : batchLogsums ) sum += Math.exp( l[ s ] - max );
+			final double mean = sum / k;
+
+			double squares = 0;
+			for ( double[] l : batchLogsums ) {
+				final double d = Math.exp( l[ s ] - max ) - mean;
+				squares += d * d;
+			}
+			final double standardError = Math.sqrt( squares / ( k - 1 ) / k ) / mean;
+			maxError = Math.max( maxError , standardError );
+		}
+		return maxError;
+	}
+}
@@ -29,6 +29,7 @@ import org.matsim.core.router.TripRouterModule;
 import org.matsim.core.router.costcalculators.FreespeedTravelTimeAndDisutility;
 import org.matsim.core.router.util.TravelDisutility;
 import org.matsim.core.scenario.ScenarioByInstanceModule;
+import playground.ivt.maxess.gisutils.FacilityIndex;
 
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
@@ -93,6 +94,14 @@ public abstract class BaseNestedAccessibilityComputationModule<N extends Enum<N>
 		bind( newGenericType( NestedLogitModel.class ) );
 	}
 
+	/**
+	 * One index for all threads, rather than one per choice set identifier instance.
+	 */
+	@Provides @Singleton
+	public FacilityIndex createFacilityIndex( final Scenario scenario ) {
+		return new FacilityIndex( scenario.getActivityFacilities() );
+	}
+
 	@Provides @Singleton
 	public FreespeedTravelTimeAndDisutility createTravelTime( final PlanCalcScoreConfigGroup config ) {
 		return new FreespeedTravelTimeAndDisutility( config );
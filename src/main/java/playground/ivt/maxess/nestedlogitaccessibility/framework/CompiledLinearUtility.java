@@ -0,0 +1,159 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.matsim.api.core.v01.population.Person;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link Utility} compiled from a {@link LinearUtilitySpecification}.
+ * <br>
+ * For each nest, coefficients are stored as a (variables x person features) matrix. When a new person comes,
+ * each matrix is multiplied by the feature vector of the person, which gives one weight per alternative variable
+ * and nest. The utility of an alternative is then a dot product of those weights with the variables of the
+ * alternative.
+ * <br>
+ * Thread safe: the weights of the current person are stored per thread.
+ *
+ * @author thibautd
+ */
+public class CompiledLinearUtility<N extends Enum<N>> implements Utility<N> {
+	private static final int N_VARIABLES = LinearUtilitySpecification.AlternativeVariable.values().length;
+
+	private final PersonFeatureTable features;
+
+	// person feature 0 is the constant 1, the other ones the features used in the specification
+	private final int nPersonFeatures;
+	private final boolean[] isBooleanFeature;
+	private final int[] featureIndex;
+
+	// coefficients[ nest ][ variable * nPersonFeatures + feature ]
+	private final double[][] coefficients;
+
+	private final ThreadLocal<State> state;
+
+	CompiledLinearUtility(
+			final Class<N> nestType,
+			final List<LinearUtilitySpecification.Term<N>> terms,
+			final PersonFeatureTable features ) {
+		this.features = features;
+
+		final List<String> usedFeatures = new ArrayList<>();
+		usedFeatures.add( null );
+		for ( LinearUtilitySpecification.Term<N> term : terms ) {
+			if ( !usedFeatures.contains( term.getPersonFeature() ) ) usedFeatures.add( term.getPersonFeature() );
+		}
+
+		this.nPersonFeatures = usedFeatures.size();
+		this.isBooleanFeature = new boolean[ nPersonFeatures ];
+		this.featureIndex = new int[ nPersonFeatures ];
+		for ( int f = 1; f < nPersonFeatures; f++ ) {
+			final String name = usedFeatures.get( f );
+			isBooleanFeature[ f ] = features.hasBooleanFeature( name );
+			featureIndex[ f ] = isBooleanFeature[ f ] ?
+					features.getBooleanFeatureIndex( name ) :
+					features.getDoubleFeatureIndex( name );
+		}
+
+		final int nNests = nestType.getEnumConstants().length;
+		this.coefficients = new double[ nNests ][ N_VARIABLES * nPersonFeatures ];
+		for ( LinearUtilitySpecification.Term<N> term : terms ) {
+			coefficients[ term.getNest().ordinal() ][
+					term.getVariable().ordinal() * nPersonFeatures +
+							usedFeatures.indexOf( term.getPersonFeature() ) ] += term.getCoefficient();
+		}
+
+		this.state = ThreadLocal.withInitial( () -> new State( nNests ) );
+	}
+
+	@Override
+	public double calcUtility( final Person p, final Alternative<N> a ) {
+		final State s = state.get();
+		final double[] weights = s.getWeights( p , a.getNestId() );
+		return applyWeights( weights , a , s.variables );
+	}
+
+	/**
+	 * Gets the weights of the person for the nest only once for the whole batch.
+	 */
+	@Override
+	public void calcUtilities(
+			final Person p,
+			final N nest,
+			final List<Alternative<N>> alternatives,
+			final double[] utilities ) {
+		final State s = state.get();
+		final double[] weights = s.getWeights( p , nest );
+		for ( int i = 0; i < alternatives.size(); i++ ) {
+			utilities[ i ] = applyWeights( weights , alternatives.get( i ) , s.variables );
+		}
+	}
+
+	private static double applyWeights( final double[] weights, final Alternative<?> a, final double[] variables ) {
+		LinearUtilitySpecification.AlternativeVariable.fillValues( a.getAlternative() , variables );
+
+		double u = 0;
+		for ( int v = 0; v < N_VARIABLES; v++ ) {
+			u += weights[ v ] * variables[ v ];
+		}
+		return u;
+	}
+
+	private void computeWeights( final Person p, final double[][] weights ) {
+		final int personIndex = features.getPersonIndex( p.getId() );
+
+		final double[] personFeatures = new double[ nPersonFeatures ];
+		personFeatures[ 0 ] = 1;
+		for ( int f = 1; f < nPersonFeatures; f++ ) {
+			personFeatures[ f ] = isBooleanFeature[ f ] ?
+					( features.getBoolean( personIndex , featureIndex[ f ] ) ? 1 : 0 ) :
+					features.getDouble( personIndex , featureIndex[ f ] );
+		}
+
+		for ( int n = 0; n < coefficients.length; n++ ) {
+			for ( int v = 0; v < N_VARIABLES; v++ ) {
+				double w = 0;
+				for ( int f = 0; f < nPersonFeatures; f++ ) {
+					w += coefficients[ n ][ v * nPersonFeatures + f ] * personFeatures[ f ];
+				}
+				weights[ n ][ v ] = w;
+			}
+		}
+	}
+
+	private class State {
+		private Person person = null;
+		private final double[][] weights;
+		private final double[] variables = new double[ N_VARIABLES ];
+
+		State( final int nNests ) {
+			this.weights = new double[ nNests ][ N_VARIABLES ];
+		}
+
+		double[] getWeights( final Person p, final N nest ) {
+			if ( p != person ) {
+				computeWeights( p , weights );
+				person = p;
+			}
+			return weights[ nest.ordinal() ];
+		}
+	}
+}
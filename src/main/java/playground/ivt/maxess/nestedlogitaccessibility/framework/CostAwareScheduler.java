@@ -0,0 +1,160 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.apache.log4j.Logger;
+import playground.ivt.utils.RunMetrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Processes items in parallel, from the most to the least expensive one according to a cost estimate.
+ * Items are cut into batches, that threads take from a shared queue as soon as they are done with the previous
+ * one. Processing the expensive items first ensures that what remains at the end of the run is small, and threads
+ * do not wait on one last straggler.
+ * <br>
+ * While running, the number of remaining items and of busy threads are published as gauges of the global
+ * {@link RunMetrics}.
+ *
+ * @author thibautd
+ */
+public class CostAwareScheduler {
+	private static final Logger log = Logger.getLogger( CostAwareScheduler.class );
+
+	private final int nThreads;
+	private final int batchSize;
+
+	public CostAwareScheduler( final int nThreads, final int batchSize ) {
+		if ( nThreads < 1 ) throw new IllegalArgumentException( "need at least one thread, got "+nThreads );
+		if ( batchSize < 1 ) throw new IllegalArgumentException( "batch size must be positive, got "+batchSize );
+		this.nThreads = nThreads;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param costEstimator called in parallel, so should be thread safe
+	 * @param task called in parallel, so should be thread safe
+	 */
+	public <T> void run(
+			final Collection<? extends T> items,
+			final ToDoubleFunction<? super T> costEstimator,
+			final Consumer<? super T> task ) {
+		// Trick to be able to set the number of desired threads. see http://stackoverflow.com/q/21163108
+		final ForkJoinPool fjp = new ForkJoinPool( nThreads );
+
+		try {
+			log.info( "Estimate cost of "+items.size()+" items" );
+			final List<T> sorted = sortByDecreasingCost( fjp , items , costEstimator );
+
+			log.info( "Process "+items.size()+" items in batches of "+batchSize+" using "+nThreads+" threads" );
+			final int nBatches = ( sorted.size() + batchSize - 1 ) / batchSize;
+			final AtomicInteger nextBatch = new AtomicInteger( 0 );
+			final AtomicInteger busyThreads = new AtomicInteger( 0 );
+			final long start = System.nanoTime();
+
+			RunMetrics.global().gauge( "scheduler.remainingItems" ,
+					() -> Math.max( 0 , sorted.size() - nextBatch.get() * batchSize ) );
+			RunMetrics.global().gauge( "scheduler.busyThreads" , busyThreads::get );
+
+			final List<ForkJoinTask<ThreadStats>> workers = new ArrayList<>( nThreads );
+			for ( int t = 0; t < nThreads; t++ ) {
+				workers.add( fjp.submit( () -> {
+					final ThreadStats stats = new ThreadStats( Thread.currentThread().getName() );
+					for ( int b = nextBatch.getAndIncrement(); b < nBatches; b = nextBatch.getAndIncrement() ) {
+						final long batchStart = System.nanoTime();
+						busyThreads.incrementAndGet();
+						try {
+							for ( T item : sorted.subList( b * batchSize , Math.min( ( b + 1 ) * batchSize , sorted.size() ) ) ) {
+								task.accept( item );
+								stats.nItems++;
+							}
+						}
+						finally {
+							busyThreads.decrementAndGet();
+						}
+						stats.busyNanos += System.nanoTime() - batchStart;
+						stats.nBatches++;
+					}
+					return stats;
+				} ) );
+			}
+
+			final List<ThreadStats> stats = new ArrayList<>( nThreads );
+			for ( ForkJoinTask<ThreadStats> worker : workers ) stats.add( worker.join() );
+			logStats( stats , System.nanoTime() - start );
+		}
+		finally {
+			RunMetrics.global().removeGauge( "scheduler.remainingItems" );
+			RunMetrics.global().removeGauge( "scheduler.busyThreads" );
+			fjp.shutdown();
+		}
+	}
+
+	private static <T> List<T> sortByDecreasingCost(
+			final ForkJoinPool fjp,
+			final Collection<? extends T> items,
+			final ToDoubleFunction<? super T> costEstimator ) {
+		final List<T> list = new ArrayList<>( items );
+		final double[] costs = new double[ list.size() ];
+		fjp.submit( () ->
+				IntStream.range( 0 , list.size() ).parallel().forEach(
+						i -> costs[ i ] = costEstimator.applyAsDouble( list.get( i ) ) ) ).join();
+
+		final Integer[] order = new Integer[ list.size() ];
+		for ( int i = 0; i < order.length; i++ ) order[ i ] = i;
+		Arrays.sort( order , ( i , j ) -> Double.compare( costs[ j ] , costs[ i ] ) );
+
+		final List<T> sorted = new ArrayList<>( list.size() );
+		for ( int i : order ) sorted.add( list.get( i ) );
+		return sorted;
+	}
+
+	private static void logStats( final List<ThreadStats> stats, final long wallNanos ) {
+		long totalBusy = 0;
+		for ( ThreadStats s : stats ) {
+			totalBusy += s.busyNanos;
+			log.info( "Thread "+s.threadName+": "+s.nItems+" items in "+s.nBatches+" batches, busy "+
+					TimeUnit.NANOSECONDS.toSeconds( s.busyNanos )+" s, idle "+
+					TimeUnit.NANOSECONDS.toSeconds( wallNanos - s.busyNanos )+" s" );
+		}
+		log.info( "Wall time "+TimeUnit.NANOSECONDS.toSeconds( wallNanos )+" s, average thread utilization "+
+				( wallNanos > 0 ? ( 100 * totalBusy ) / ( wallNanos * stats.size() ) : 100 )+"%" );
+	}
+
+	private static class ThreadStats {
+		final String threadName;
+		long busyNanos = 0;
+		int nBatches = 0;
+		int nItems = 0;
+
+		ThreadStats( final String threadName ) {
+			this.threadName = threadName;
+		}
+	}
+}
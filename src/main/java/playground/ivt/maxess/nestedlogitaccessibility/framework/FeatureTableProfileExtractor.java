@@ -0,0 +1,42 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import com.google.inject.Inject;
+import org.matsim.api.core.v01.population.Person;
+
+/**
+ * Uses all features of the {@link PersonFeatureTable} as profile, which makes sense if the table contains
+ * exactly the features used by the model.
+ *
+ * @author thibautd
+ */
+public class FeatureTableProfileExtractor implements PersonProfileExtractor {
+	private final PersonFeatureTable features;
+
+	@Inject
+	public FeatureTableProfileExtractor( final PersonFeatureTable features ) {
+		this.features = features;
+	}
+
+	@Override
+	public Object getProfile( final Person p ) {
+		return features.getRow( features.getPersonIndex( p.getId() ) );
+	}
+}
@@ -0,0 +1,229 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Route;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.pt.routes.ExperimentalTransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import playground.ivt.maxess.prepareforbiogeme.tripbased.Trip;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Infrastructure used by a set of trips, used to find which persons are affected by a change of network
+ * or schedule.
+ * <br>
+ * To keep the records of millions of persons small, links and stops are not stored individually, but as the
+ * square tiles containing them (both end nodes for links). Two sets of infrastructure sharing an element
+ * then always share a tile, so the test is conservative: a person is never wrongly considered unaffected,
+ * but might be recomputed without need. Transit lines are stored by id.
+ * <br>
+ * For transit routes, the stops between access and egress are taken from the route in the schedule.
+ * <br>
+ * Changes are described with the same class. As changed elements might only exist in the base or in the variant
+ * infrastructure (removed or added elements), they are looked up in both.
+ *
+ * @author thibautd
+ */
+public class InfrastructureUsage {
+	private final Network network;
+	private final TransitSchedule schedule;
+	private final double tileSize;
+
+	private final TLongSet tiles = new TLongHashSet();
+	private final Set<String> transitLines = new HashSet<>();
+
+	/**
+	 * @param schedule can be null if there is no transit
+	 */
+	public InfrastructureUsage(
+			final Network network,
+			final TransitSchedule schedule,
+			final double tileSize ) {
+		this.network = network;
+		this.schedule = schedule;
+		this.tileSize = tileSize;
+	}
+
+	public double getTileSize() {
+		return tileSize;
+	}
+
+	public void clear() {
+		tiles.clear();
+		transitLines.clear();
+	}
+
+	public void addTrip( final Trip trip ) {
+		// skim only trips are teleported and do not use any infrastructure
+		if ( trip.isSkimOnly() ) return;
+		for ( Leg leg : trip.getLegsOnly() ) {
+			final Route route = leg.getRoute();
+			if ( route instanceof NetworkRoute ) {
+				addLink( route.getStartLinkId() );
+				for ( Id<Link> link : ( (NetworkRoute) route ).getLinkIds() ) addLink( link );
+				addLink( route.getEndLinkId() );
+			}
+			else if ( route instanceof ExperimentalTransitRoute ) {
+				addTransitRoute( (ExperimentalTransitRoute) route );
+			}
+		}
+	}
+
+	/**
+	 * Adds the line and all stops from access to egress, including the stops where the vehicle only passes by.
+	 *
+	 * @throws IllegalArgumentException if the access or egress stop is not in the schedule
+	 */
+	public void addTransitRoute( final ExperimentalTransitRoute route ) {
+		addStop( route.getAccessStopId() );
+		addStop( route.getEgressStopId() );
+		addTransitLine( route.getLineId() );
+
+		final TransitLine line = schedule.getTransitLines().get( route.getLineId() );
+		final TransitRoute transitRoute = line == null ? null : line.getRoutes().get( route.getRouteId() );
+		if ( transitRoute == null ) return;
+
+		// routes might serve a stop several times: the leg goes from the first access to the next egress
+		boolean inVehicle = false;
+		for ( TransitRouteStop stop : transitRoute.getStops() ) {
+			final TransitStopFacility facility = stop.getStopFacility();
+			if ( facility.getId().equals( route.getAccessStopId() ) ) inVehicle = true;
+			if ( !inVehicle ) continue;
+			tiles.add( getTile( facility.getCoord() ) );
+			if ( facility.getId().equals( route.getEgressStopId() ) ) return;
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the link is not in the network
+	 */
+	public void addLink( final Id<Link> linkId ) {
+		if ( linkId == null ) return;
+		final Link link = network.getLinks().get( linkId );
+		if ( link == null ) throw new IllegalArgumentException( "link "+linkId+" not in network" );
+		addLink( link );
+	}
+
+	private void addLink( final Link link ) {
+		tiles.add( getTile( link.getFromNode().getCoord() ) );
+		tiles.add( getTile( link.getToNode().getCoord() ) );
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the stop is not in the schedule
+	 */
+	public void addStop( final Id<TransitStopFacility> stopId ) {
+		if ( stopId == null ) return;
+		final TransitStopFacility stop = schedule == null ? null : schedule.getFacilities().get( stopId );
+		if ( stop == null ) throw new IllegalArgumentException( "stop "+stopId+" not in schedule" );
+		tiles.add( getTile( stop.getCoord() ) );
+	}
+
+	public void addTransitLine( final Id<TransitLine> lineId ) {
+		if ( lineId != null ) transitLines.add( lineId.toString() );
+	}
+
+	/**
+	 * Marks a link that changed since the base run, in its base and variant geometries.
+	 *
+	 * @param baseNetwork the network of the base run. Can be null if no link was removed.
+	 * @throws IllegalArgumentException if the link is in none of the networks
+	 */
+	public void addChangedLink( final Id<Link> linkId, final Network baseNetwork ) {
+		final Link variant = network.getLinks().get( linkId );
+		final Link base = baseNetwork == null ? null : baseNetwork.getLinks().get( linkId );
+		if ( variant == null && base == null ) {
+			throw new IllegalArgumentException( "changed link "+linkId+" neither in network nor in base network" );
+		}
+		if ( variant != null ) addLink( variant );
+		if ( base != null ) addLink( base );
+	}
+
+	/**
+	 * Marks a stop that changed since the base run, at its base and variant locations.
+	 *
+	 * @param baseSchedule the schedule of the base run. Can be null if no stop was removed.
+	 * @throws IllegalArgumentException if the stop is in none of the schedules
+	 */
+	public void addChangedStop( final Id<TransitStopFacility> stopId, final TransitSchedule baseSchedule ) {
+		final TransitStopFacility variant = schedule == null ? null : schedule.getFacilities().get( stopId );
+		final TransitStopFacility base = baseSchedule == null ? null : baseSchedule.getFacilities().get( stopId );
+		if ( variant == null && base == null ) {
+			throw new IllegalArgumentException( "changed stop "+stopId+" neither in schedule nor in base schedule" );
+		}
+		if ( variant != null ) tiles.add( getTile( variant.getCoord() ) );
+		if ( base != null ) tiles.add( getTile( base.getCoord() ) );
+	}
+
+	/**
+	 * Marks a line that changed since the base run, as well as all stops it serves in the base and variant schedules.
+	 * A line added in the variant was not used by anybody in the base run: its stops are what makes persons
+	 * that could use it affected.
+	 *
+	 * @param baseSchedule the schedule of the base run. Can be null.
+	 */
+	public void addChangedTransitLine( final Id<TransitLine> lineId, final TransitSchedule baseSchedule ) {
+		addTransitLine( lineId );
+		if ( schedule != null ) addStopsOfLine( schedule.getTransitLines().get( lineId ) );
+		if ( baseSchedule != null ) addStopsOfLine( baseSchedule.getTransitLines().get( lineId ) );
+	}
+
+	private void addStopsOfLine( final TransitLine line ) {
+		if ( line == null ) return;
+		for ( TransitRoute route : line.getRoutes().values() ) {
+			for ( TransitRouteStop stop : route.getStops() ) {
+				tiles.add( getTile( stop.getStopFacility().getCoord() ) );
+			}
+		}
+	}
+
+	public long[] getTiles() {
+		return tiles.toArray();
+	}
+
+	public Set<String> getTransitLines() {
+		return Collections.unmodifiableSet( transitLines );
+	}
+
+	public boolean isEmpty() {
+		return tiles.isEmpty() && transitLines.isEmpty();
+	}
+
+	private long getTile( final Coord coord ) {
+		final long x = (long) Math.floor( coord.getX() / tileSize );
+		final long y = (long) Math.floor( coord.getY() / tileSize );
+		// 32 bits per dimension is far more than enough for any realistic tile size and coordinate system
+		return ( x << 32 ) ^ ( y & 0xFFFFFFFFL );
+	}
+}
@@ -0,0 +1,264 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.core.utils.io.UncheckedIOException;
+import org.matsim.core.utils.misc.Counter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Writes and reads the {@link InfrastructureUsage} of each person, one person per line:
+ * person id, tiles, transit lines and an end marker, separated by tabs, elements of tiles and lines separated by commas.
+ * The first line gives the tile size, that needs to be the same to compare usages.
+ * <br>
+ * As for {@link AccessibilityCheckpoint}, lines that do not respect the format, typically the last line of a run
+ * that was killed while writing, are ignored when reading, and a resumed run keeps the valid lines.
+ * <br>
+ * Appending is thread safe.
+ *
+ * @author thibautd
+ */
+public class InfrastructureUsageFile implements AutoCloseable {
+	private static final Logger log = Logger.getLogger( InfrastructureUsageFile.class );
+	private static final String SEP = "\t";
+	private static final String ELEMENT_SEP = ",";
+	private static final String HEADER = "#tileSize";
+	// without it, a line truncated in the middle of the transit lines would look valid
+	private static final String END = "END";
+
+	private final BufferedWriter writer;
+	private final double tileSize;
+	private final int flushInterval;
+	private int nonFlushed = 0;
+
+	/**
+	 * Opens the usage file.
+	 *
+	 * @param resumeFor if not null, the persons for which the usage is kept from an existing file. The file is rewritten
+	 * with the valid lines of those persons only, and new usages are appended. If null, the file is overwritten.
+	 * @param flushInterval number of persons after which the file is flushed.
+	 */
+	public InfrastructureUsageFile(
+			final String file,
+			final double tileSize,
+			final Set<Id<Person>> resumeFor,
+			final int flushInterval ) {
+		this.tileSize = tileSize;
+		this.flushInterval = flushInterval;
+		try {
+			if ( resumeFor != null && new File( file ).exists() ) {
+				// write only valid lines in a temporary file, and only then replace the old file,
+				// to avoid appending to a truncated line and never lose usages
+				final File tmp = new File( file+".tmp" );
+				log.info( "Keep infrastructure usage of resumed persons from "+file );
+				try ( BufferedWriter tmpWriter = IOUtils.getBufferedWriter( tmp.getPath() ) ) {
+					writeHeader( tmpWriter , tileSize );
+					copyValidLines( file , tileSize , resumeFor , tmpWriter );
+				}
+				Files.move( tmp.toPath() , new File( file ).toPath() , StandardCopyOption.REPLACE_EXISTING );
+				this.writer = IOUtils.getAppendingBufferedWriter( file );
+			}
+			else {
+				this.writer = IOUtils.getBufferedWriter( file );
+				writeHeader( writer , tileSize );
+			}
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	private static void writeHeader( final BufferedWriter writer, final double tileSize ) throws IOException {
+		writer.write( HEADER + SEP + tileSize );
+		writer.newLine();
+	}
+
+	private static void copyValidLines(
+			final String file,
+			final double tileSize,
+			final Set<Id<Person>> persons,
+			final BufferedWriter writer ) throws IOException {
+		final Counter invalidCounter = new Counter( "Ignore invalid infrastructure usage line # " );
+		try ( BufferedReader reader = IOUtils.getBufferedReader( file ) ) {
+			checkHeader( file , reader.readLine() , tileSize );
+			for ( String line = reader.readLine(); line != null; line = reader.readLine() ) {
+				final String[] fields = parseRecord( line );
+				if ( fields == null ) {
+					invalidCounter.incCounter();
+					continue;
+				}
+				if ( !persons.contains( Id.createPersonId( fields[ 0 ] ) ) ) continue;
+				writer.write( line );
+				writer.newLine();
+			}
+		}
+		invalidCounter.printCounter();
+	}
+
+	/**
+	 * Appends the usage of some persons from another file, written with the same tile size.
+	 * Used for persons which results are copied from a base run, such that the file stays complete.
+	 */
+	public synchronized void copyFrom( final String file, final Set<Id<Person>> persons ) {
+		log.info( "Copy infrastructure usage of "+persons.size()+" persons from "+file );
+		try {
+			copyValidLines( file , tileSize , persons , writer );
+			writer.flush();
+			nonFlushed = 0;
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	public synchronized void append( final Id<Person> personId, final InfrastructureUsage usage ) {
+		final StringBuilder line = new StringBuilder();
+		line.append( personId ).append( SEP );
+
+		boolean first = true;
+		for ( long tile : usage.getTiles() ) {
+			if ( !first ) line.append( ELEMENT_SEP );
+			line.append( tile );
+			first = false;
+		}
+		line.append( SEP ).append( String.join( ELEMENT_SEP , usage.getTransitLines() ) );
+		line.append( SEP ).append( END );
+
+		try {
+			writer.write( line.toString() );
+			writer.newLine();
+			if ( ++nonFlushed >= flushInterval ) {
+				writer.flush();
+				nonFlushed = 0;
+			}
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		try {
+			writer.close();
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	/**
+	 * @param changes the infrastructure that changed since the run that wrote the file
+	 * @return the persons of the file whose alternatives did not use any changed infrastructure.
+	 * Persons absent from the file are not part of the result, as nothing is known about them.
+	 */
+	public static Set<Id<Person>> readUnaffectedPersons( final String file, final InfrastructureUsage changes ) {
+		log.info( "Read infrastructure usage from "+file );
+		final long[] changedTiles = changes.getTiles();
+		final Set<String> changedLines = changes.getTransitLines();
+
+		final Set<Id<Person>> unaffected = new HashSet<>();
+		// a person might have several lines, for instance if the run was resumed: any affected line counts
+		final Set<Id<Person>> affected = new HashSet<>();
+		final Counter counter = new Counter( "Read infrastructure usage for person # " );
+		final Counter invalidCounter = new Counter( "Ignore invalid infrastructure usage line # " );
+		try ( BufferedReader reader = IOUtils.getBufferedReader( file ) ) {
+			checkHeader( file , reader.readLine() , changes.getTileSize() );
+
+			for ( String line = reader.readLine(); line != null; line = reader.readLine() ) {
+				final String[] fields = parseRecord( line );
+				if ( fields == null ) {
+					invalidCounter.incCounter();
+					continue;
+				}
+				counter.incCounter();
+				final Id<Person> personId = Id.createPersonId( fields[ 0 ] );
+				if ( isAffected( fields , changedTiles , changedLines ) ) {
+					affected.add( personId );
+				}
+				else {
+					unaffected.add( personId );
+				}
+			}
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		counter.printCounter();
+		invalidCounter.printCounter();
+		unaffected.removeAll( affected );
+		log.info( affected.size()+" persons use changed infrastructure, "+unaffected.size()+" do not" );
+
+		return Collections.unmodifiableSet( unaffected );
+	}
+
+	private static void checkHeader( final String file, final String headerLine, final double tileSize ) {
+		final String[] header = headerLine == null ? new String[ 0 ] : headerLine.split( SEP );
+		if ( header.length != 2 || !header[ 0 ].equals( HEADER ) || Double.parseDouble( header[ 1 ] ) != tileSize ) {
+			throw new IllegalArgumentException( "file "+file+" was written with header "+Arrays.toString( header )+
+					", incompatible with tile size "+tileSize );
+		}
+	}
+
+	/**
+	 * @return the fields of the line, or null if the line is not a valid record
+	 */
+	private static String[] parseRecord( final String line ) {
+		final String[] fields = line.split( SEP , -1 );
+		if ( fields.length != 4 || fields[ 0 ].isEmpty() || !fields[ 3 ].equals( END ) ) return null;
+		try {
+			if ( !fields[ 1 ].isEmpty() ) {
+				for ( String tile : fields[ 1 ].split( ELEMENT_SEP ) ) Long.parseLong( tile );
+			}
+		}
+		catch ( NumberFormatException e ) {
+			return null;
+		}
+		return fields;
+	}
+
+	private static boolean isAffected( final String[] fields, final long[] changedTiles, final Set<String> changedLines ) {
+		if ( !fields[ 1 ].isEmpty() ) {
+			for ( String tile : fields[ 1 ].split( ELEMENT_SEP ) ) {
+				final long t = Long.parseLong( tile );
+				for ( long c : changedTiles ) if ( c == t ) return true;
+			}
+		}
+		if ( !fields[ 2 ].isEmpty() ) {
+			for ( String line : fields[ 2 ].split( ELEMENT_SEP ) ) {
+				if ( changedLines.contains( line ) ) return true;
+			}
+		}
+		return false;
+	}
+}
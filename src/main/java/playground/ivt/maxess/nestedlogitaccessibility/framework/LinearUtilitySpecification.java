@@ -0,0 +1,143 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import playground.ivt.maxess.prepareforbiogeme.tripbased.Trip;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Declarative specification of a utility function linear in parameters.
+ * The utility of an alternative in nest n is the sum, over the terms of nest n, of
+ * coefficient * (alternative variable) * (person feature), where the person feature is optional.
+ * For instance, an alternative specific constant is the constant variable without person feature,
+ * and a travel time sensitivity depending on some subscription is the travel time variable with the subscription
+ * feature of the {@link PersonFeatureTable}.
+ * <br>
+ * The specification is compiled into coefficient matrices by {@link #compile(PersonFeatureTable)}.
+ *
+ * @author thibautd
+ */
+public class LinearUtilitySpecification<N extends Enum<N>> {
+	public enum AlternativeVariable {
+		constant,
+		travelTime_s,
+		logTravelTime;
+
+		/**
+		 * Fills the values of all variables for the given trip, in the order of the enum constants.
+		 */
+		public static void fillValues( final Trip trip, final double[] values ) {
+			final double tt = trip.getTravelTime();
+
+			values[ constant.ordinal() ] = 1;
+			values[ travelTime_s.ordinal() ] = tt;
+			values[ logTravelTime.ordinal() ] = Math.log( 1 + tt );
+		}
+	}
+
+	private final Class<N> nestType;
+	private final List<Term<N>> terms;
+
+	private LinearUtilitySpecification( final Class<N> nestType, final List<Term<N>> terms ) {
+		this.nestType = nestType;
+		this.terms = terms;
+	}
+
+	public List<Term<N>> getTerms() {
+		return terms;
+	}
+
+	public CompiledLinearUtility<N> compile( final PersonFeatureTable features ) {
+		return new CompiledLinearUtility<>( nestType, terms, features );
+	}
+
+	public static class Term<N extends Enum<N>> {
+		private final N nest;
+		private final AlternativeVariable variable;
+		private final String personFeature;
+		private final double coefficient;
+
+		private Term(
+				final N nest,
+				final AlternativeVariable variable,
+				final String personFeature,
+				final double coefficient ) {
+			this.nest = nest;
+			this.variable = variable;
+			this.personFeature = personFeature;
+			this.coefficient = coefficient;
+		}
+
+		public N getNest() {
+			return nest;
+		}
+
+		public AlternativeVariable getVariable() {
+			return variable;
+		}
+
+		/**
+		 * @return the name of the person feature, or null if the term does not depend on the person
+		 */
+		public String getPersonFeature() {
+			return personFeature;
+		}
+
+		public double getCoefficient() {
+			return coefficient;
+		}
+
+		@Override
+		public String toString() {
+			return "[Term nest="+nest+", variable="+variable+", personFeature="+personFeature+", coefficient="+coefficient+"]";
+		}
+	}
+
+	public static class Builder<N extends Enum<N>> {
+		private final Class<N> nestType;
+		private final List<Term<N>> terms = new ArrayList<>();
+
+		public Builder( final Class<N> nestType ) {
+			this.nestType = nestType;
+		}
+
+		public Builder<N> addTerm(
+				final N nest,
+				final AlternativeVariable variable,
+				final double coefficient ) {
+			return addTerm( nest , variable , null , coefficient );
+		}
+
+		public Builder<N> addTerm(
+				final N nest,
+				final AlternativeVariable variable,
+				final String personFeature,
+				final double coefficient ) {
+			terms.add( new Term<>( nest , variable , personFeature , coefficient ) );
+			return this;
+		}
+
+		public LinearUtilitySpecification<N> build() {
+			return new LinearUtilitySpecification<>( nestType , Collections.unmodifiableList( new ArrayList<>( terms ) ) );
+		}
+	}
+}
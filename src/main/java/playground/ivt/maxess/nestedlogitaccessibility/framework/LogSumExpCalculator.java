@@ -18,55 +18,93 @@
  * *********************************************************************** */
 package playground.ivt.maxess.nestedlogitaccessibility.framework;
 
-import gnu.trove.list.array.TDoubleArrayList;
-
 /**
+ * Computes log( sum( exp( terms ) ) ) in a numerically stable way, in one single pass and without storing the terms.
+ * <br>
+ * The sum is kept rescaled by the greatest term seen so far, and is rescaled again each time a greater term comes.
+ * As all exponentials are then lower or equal to one, this cannot overflow, and underflow only concerns terms
+ * that are negligible compared to the greatest one.
+ * See http://www.nowozin.net/sebastian/blog/streaming-log-sum-exp-computation.html
+ *
  * @author thibautd
  */
 public class LogSumExpCalculator {
-	private final TDoubleArrayList terms;
-
-	double min = Double.POSITIVE_INFINITY;
-	double max = Double.NEGATIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+	// sum of exp( term - max )
+	private double rescaledSum = 0;
 
-	public LogSumExpCalculator( final int size ) {
-		terms = new TDoubleArrayList( size );
+	public void reset() {
+		max = Double.NEGATIVE_INFINITY;
+		rescaledSum = 0;
 	}
 
-	public void addTerm( final double util ) {
-		if ( Double.isNaN( util ) || Double.isInfinite( util ) ) {
-			throw new IllegalArgumentException( "Only finite terms are allowed, got " + util );
+	public void addTerm( final double term ) {
+		if ( Double.isNaN( term ) || Double.isInfinite( term ) ) {
+			throw new IllegalArgumentException( "Only finite terms are allowed, got " + term );
+		}
+		if ( term <= max ) {
+			rescaledSum += Math.exp( term - max );
 		}
-		terms.add( util );
-		min = Math.min( util, min );
-		max = Math.max( util, max );
+		else {
+			rescaledSum = rescaledSum * Math.exp( max - term ) + 1;
+			max = term;
+		}
+	}
+
+	public boolean isEmpty() {
+		return rescaledSum == 0;
 	}
 
 	public double computeLogsumExp() {
-		if ( terms.isEmpty() ) throw new IllegalStateException( "nothing to sum!" );
-		// under and overflow avoidance
-		// see http://jblevins.org/log/log-sum-exp
-		// Note that this can only avoid underflow OR overflow,
-		// not both at the same time
+		if ( isEmpty() ) throw new IllegalStateException( "nothing to sum!" );
+		return checkLogsum( Math.log( rescaledSum ) + max , rescaledSum , max );
+	}
+
+	/**
+	 * Batch version, for terms stored contiguously in an array
+	 *
+	 * @param terms the array containing the terms
+	 * @param start first index of the slice, inclusive
+	 * @param end last index of the slice, exclusive
+	 */
+	public static double logSumExp(
+			final double[] terms,
+			final int start,
+			final int end ) {
+		return logSumExp( 1 , terms , start , end );
+	}
 
-		// correcting constant: greatest term in absolute value
-		final double c = ( -min > max ) ? -min : max;
+	/**
+	 * Computes log( sum( exp( scale * terms ) ) ) over a slice of an array.
+	 * Avoids having to store the scaled terms for instance for the nests of a nested logit model.
+	 */
+	public static double logSumExp(
+			final double scale,
+			final double[] terms,
+			final int start,
+			final int end ) {
+		if ( start >= end ) throw new IllegalStateException( "nothing to sum!" );
 
-		double sum = 0;
-		for ( double d : terms.toArray() ) {
-			sum += Math.exp( d - c );
-			// TODO check if underflow (how? compare with 0?)
-			if ( Double.isInfinite( sum ) || Double.isNaN( sum ) ) {
-				throw new RuntimeException( "got sum " + sum + " for exp " + d + " with correction " + c + "! (resulting in exp(" + ( d - c ) + "))" );
+		double max = Double.NEGATIVE_INFINITY;
+		double rescaledSum = 0;
+		for ( int i = start; i < end; i++ ) {
+			final double term = scale * terms[ i ];
+			if ( term <= max ) {
+				rescaledSum += Math.exp( term - max );
+			}
+			else {
+				rescaledSum = rescaledSum * Math.exp( max - term ) + 1;
+				max = term;
 			}
 		}
 
-		final double logsum = Math.log( sum ) + c;
+		return checkLogsum( Math.log( rescaledSum ) + max , rescaledSum , max );
+	}
 
+	private static double checkLogsum( final double logsum , final double sum , final double correction ) {
 		if ( Double.isNaN( logsum ) || Double.isInfinite( logsum ) ) {
-			throw new RuntimeException( "logsum is " + logsum + " for sum " + sum + " and correction term " + c );
+			throw new RuntimeException( "logsum is " + logsum + " for sum " + sum + " and correction term " + correction );
 		}
-
 		return logsum;
 	}
 }
@@ -0,0 +1,38 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.matsim.api.core.v01.population.Person;
+
+import java.util.Map;
+
+/**
+ * Choice set identifier returning one universal choice set with availability masks, rather than one separate
+ * choice set per situation. This allows to compute the accessibility for all situations in one single pass.
+ *
+ * @author thibautd
+ */
+public interface MaskedChoiceSetIdentifier<N extends Enum<N>> extends ChoiceSetIdentifier<N> {
+	MaskedNestedChoiceSet<N> identifyMaskedChoiceSet( Person p );
+
+	@Override
+	default Map<String, NestedChoiceSet<N>> identifyChoiceSet( final Person p ) {
+		return identifyMaskedChoiceSet( p ).toChoiceSets();
+	}
+}
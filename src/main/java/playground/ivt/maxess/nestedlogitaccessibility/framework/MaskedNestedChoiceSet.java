@@ -0,0 +1,156 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * "Universal" nested choice set of a person, together with the choice situations (availability constraints) it
+ * should be evaluated for.
+ * Each alternative is stored only once, with a bit mask telling in which situations it is available,
+ * bit s corresponding to the s-th situation. This limits the number of situations to 64.
+ *
+ * @author thibautd
+ */
+public class MaskedNestedChoiceSet<N extends Enum<N>> {
+	public static final int MAX_SITUATIONS = Long.SIZE;
+
+	private final List<String> situations;
+	private final List<Nest<N>> nests;
+	// masks.get( n )[ i ] is the mask of the i-th alternative of the n-th nest
+	private final List<long[]> masks;
+
+	private MaskedNestedChoiceSet(
+			final List<String> situations,
+			final List<Nest<N>> nests,
+			final List<long[]> masks ) {
+		this.situations = situations;
+		this.nests = nests;
+		this.masks = masks;
+	}
+
+	public List<String> getSituations() {
+		return situations;
+	}
+
+	public List<Nest<N>> getNests() {
+		return nests;
+	}
+
+	public long getMask( final int nest, final int alternative ) {
+		return masks.get( nest )[ alternative ];
+	}
+
+	/**
+	 * Expands the masks to one {@link NestedChoiceSet} per situation, for code that does not care about masks.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public Map<String, NestedChoiceSet<N>> toChoiceSets() {
+		final Map<String, NestedChoiceSet<N>> choiceSets = new LinkedHashMap<>();
+
+		for ( int s = 0; s < situations.size(); s++ ) {
+			final long bit = 1L << s;
+			final Nest<N>[] situationNests = new Nest[ nests.size() ];
+
+			for ( int n = 0; n < nests.size(); n++ ) {
+				final Nest<N> nest = nests.get( n );
+				final long[] nestMasks = masks.get( n );
+				final Nest.Builder<N> builder =
+						new Nest.Builder<N>()
+								.setName( nest.getNestId() )
+								.setMu( nest.getMu_n() );
+				for ( int i = 0; i < nestMasks.length; i++ ) {
+					if ( ( nestMasks[ i ] & bit ) != 0 ) builder.addAlternative( nest.getAlternatives().get( i ) );
+				}
+				situationNests[ n ] = builder.build();
+			}
+
+			choiceSets.put( situations.get( s ), new NestedChoiceSet<>( situationNests ) );
+		}
+
+		return choiceSets;
+	}
+
+	public static class Builder<N extends Enum<N>> {
+		private final List<String> situations;
+		private final Map<N, Nest.Builder<N>> nests = new LinkedHashMap<>();
+		private final Map<N, TLongList> masks = new LinkedHashMap<>();
+
+		public Builder( final String... situations ) {
+			if ( situations.length > MAX_SITUATIONS ) {
+				throw new IllegalArgumentException( "at most "+MAX_SITUATIONS+" situations are supported, got "+situations.length );
+			}
+			this.situations = Collections.unmodifiableList( Arrays.asList( situations ) );
+		}
+
+		public Builder<N> addNest( final N name, final double mu ) {
+			nests.put(
+					name,
+					new Nest.Builder<N>()
+							.setName( name )
+							.setMu( mu ) );
+			masks.put( name, new TLongArrayList() );
+			return this;
+		}
+
+		/**
+		 * @return the mask corresponding to the union of the given situations
+		 */
+		public long getMask( final String... situationNames ) {
+			long mask = 0;
+			for ( String situation : situationNames ) {
+				final int index = situations.indexOf( situation );
+				if ( index < 0 ) throw new IllegalArgumentException( "unknown situation "+situation );
+				mask |= 1L << index;
+			}
+			return mask;
+		}
+
+		/**
+		 * Adds the alternative to its nest (which must have been added before), as available in the situations
+		 * of the mask. Alternatives available in no situation are ignored.
+		 */
+		public Builder<N> addAlternative( final Alternative<N> alternative, final long mask ) {
+			if ( mask == 0 ) return this;
+			final Nest.Builder<N> nest = nests.get( alternative.getNestId() );
+			if ( nest == null ) throw new IllegalStateException( "no nest "+alternative.getNestId()+" for "+alternative );
+			nest.addAlternative( alternative );
+			masks.get( alternative.getNestId() ).add( mask );
+			return this;
+		}
+
+		public MaskedNestedChoiceSet<N> build() {
+			final List<Nest<N>> builtNests = new ArrayList<>( nests.size() );
+			final List<long[]> builtMasks = new ArrayList<>( nests.size() );
+			for ( Map.Entry<N, Nest.Builder<N>> e : nests.entrySet() ) {
+				builtNests.add( e.getValue().build() );
+				builtMasks.add( masks.get( e.getKey() ).toArray() );
+			}
+			return new MaskedNestedChoiceSet<>( situations, builtNests, builtMasks );
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.facilities.ActivityFacilities;
+import playground.ivt.maxess.gisutils.Bounds;
+
+import java.util.Collection;
+
+/**
+ * Regular grid of square cells covering the origins of a population, used as measuring points instead of
+ * individual persons.
+ * Cells are identified by a long index, row after row, starting at the south-west corner of the bounding box
+ * of the origins.
+ *
+ * @author thibautd
+ */
+public class MeasuringGrid {
+	private static final Logger log = Logger.getLogger( MeasuringGrid.class );
+
+	private final double minX, minY;
+	private final double cellSize;
+	private final long nColumns;
+
+	private MeasuringGrid( final Bounds bounds, final double cellSize ) {
+		this.minX = bounds.getMinX();
+		this.minY = bounds.getMinY();
+		this.cellSize = cellSize;
+		this.nColumns = (long) Math.floor( ( bounds.getMaxX() - minX ) / cellSize ) + 1;
+
+		final long nRows = (long) Math.floor( ( bounds.getMaxY() - minY ) / cellSize ) + 1;
+		log.info( "measuring grid with cells of "+cellSize+"m: "+nColumns+" x "+nRows+" cells" );
+	}
+
+	/**
+	 * Creates the grid covering the origins of the given persons. Persons without plans are ignored.
+	 */
+	public static MeasuringGrid coveringOrigins(
+			final Collection<? extends Person> persons,
+			final ActivityFacilities facilities,
+			final double cellSize ) {
+		final Bounds bounds = new Bounds( 0 );
+		for ( Person p : persons ) {
+			if ( p.getSelectedPlan() == null || p.getSelectedPlan().getPlanElements().isEmpty() ) continue;
+			bounds.addCoord( getOriginCoord( p , facilities ) );
+		}
+		return new MeasuringGrid( bounds , cellSize );
+	}
+
+	public long getCellIndex( final Coord coord ) {
+		final long column = (long) Math.floor( ( coord.getX() - minX ) / cellSize );
+		final long row = (long) Math.floor( ( coord.getY() - minY ) / cellSize );
+		return row * nColumns + column;
+	}
+
+	public Coord getCellCenter( final long cellIndex ) {
+		final long column = cellIndex % nColumns;
+		final long row = cellIndex / nColumns;
+		return new Coord(
+				minX + ( column + 0.5 ) * cellSize,
+				minY + ( row + 0.5 ) * cellSize );
+	}
+
+	/**
+	 * @return the coordinate of the first activity of the selected plan, or of its facility if the activity has no coordinate.
+	 */
+	public static Coord getOriginCoord( final Person person, final ActivityFacilities facilities ) {
+		final Activity act = (Activity) person.getSelectedPlan().getPlanElements().get( 0 );
+		return act.getCoord() != null ?
+				act.getCoord() :
+				facilities.getFacilities().get( act.getFacilityId() ).getCoord();
+	}
+}
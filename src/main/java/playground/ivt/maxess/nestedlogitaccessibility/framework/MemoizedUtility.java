@@ -0,0 +1,88 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
+import org.matsim.api.core.v01.population.Person;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Remembers the utilities computed for one person, so that alternatives appearing in several choice situations
+ * are only evaluated once.
+ * Alternatives are compared by identity, which is what we want as the choice set identifiers add the same instance
+ * to all situations it is available in.
+ * <br>
+ * Not thread safe: use one instance per thread.
+ *
+ * @author thibautd
+ */
+class MemoizedUtility<N extends Enum<N>> {
+	private final TObjectDoubleMap<Alternative<N>> utilities =
+			new TObjectDoubleHashMap<>(
+					Constants.DEFAULT_CAPACITY,
+					Constants.DEFAULT_LOAD_FACTOR,
+					Double.NaN );
+
+	private Person person = null;
+
+	// reused between calls
+	private final List<Alternative<N>> toCompute = new ArrayList<>();
+	private double[] computedUtilities = new double[ 16 ];
+	private double[] batchUtilities = new double[ 16 ];
+
+	public void startPerson( final Person person ) {
+		this.person = person;
+		utilities.clear();
+	}
+
+	/**
+	 * Computes the utilities of alternatives of the same nest. Alternatives not evaluated yet for the person
+	 * are passed at once to {@link Utility#calcUtilities}.
+	 *
+	 * @return the utilities of the alternatives, in the same order. The array is reused by the next call,
+	 * and can be longer than the list of alternatives.
+	 */
+	public double[] calcUtilities( final Utility<N> utility, final N nest, final List<Alternative<N>> alternatives ) {
+		if ( person == null ) throw new IllegalStateException( "no person set" );
+		if ( batchUtilities.length < alternatives.size() ) {
+			batchUtilities = new double[ 2 * alternatives.size() ];
+			computedUtilities = new double[ 2 * alternatives.size() ];
+		}
+
+		toCompute.clear();
+		for ( Alternative<N> alternative : alternatives ) {
+			if ( Double.isNaN( utilities.get( alternative ) ) ) toCompute.add( alternative );
+		}
+		if ( !toCompute.isEmpty() ) {
+			utility.calcUtilities( person , nest , toCompute , computedUtilities );
+			for ( int i = 0; i < toCompute.size(); i++ ) {
+				utilities.put( toCompute.get( i ) , computedUtilities[ i ] );
+			}
+		}
+
+		for ( int i = 0; i < alternatives.size(); i++ ) {
+			batchUtilities[ i ] = utilities.get( alternatives.get( i ) );
+		}
+		return batchUtilities;
+	}
+}
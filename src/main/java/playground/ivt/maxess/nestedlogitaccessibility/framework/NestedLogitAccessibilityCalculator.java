@@ -22,15 +22,28 @@ import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.io.MatsimNetworkReader;
+import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.core.utils.misc.Counter;
 import org.matsim.facilities.ActivityFacilities;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitScheduleReader;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
 import playground.ivt.utils.ConcurrentStopWatch;
+import playground.ivt.utils.RunMetrics;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ForkJoinPool;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * @author thibautd
@@ -45,17 +58,29 @@ public class NestedLogitAccessibilityCalculator<N extends Enum<N>> {
 	private final ActivityFacilities facilities;
 
 	private final Provider<NestedLogitModel<N>> model;
+	private final PersonCostEstimator costEstimator;
+	private final PersonProfileExtractor profileExtractor;
+	private final NestedLogitComputationConfigGroup configGroup;
 
-	private enum Measurement { choiceSampling, logsumComputation;}
+	enum Measurement { choiceSampling, logsumComputation;}
 
 	@Inject
 	NestedLogitAccessibilityCalculator(
 			final Scenario scenario,
-			final Provider<NestedLogitModel<N>> model ) {
+			final Provider<NestedLogitModel<N>> model,
+			final PersonCostEstimator costEstimator,
+			final PersonProfileExtractor profileExtractor ) {
 		this.scenario = scenario;
 		this.facilities = scenario.getActivityFacilities();
 		this.nThreads = scenario.getConfig().global().getNumberOfThreads();
 		this.model = model;
+		this.costEstimator = costEstimator;
+		this.profileExtractor = profileExtractor;
+		this.configGroup =
+				ConfigUtils.addOrGetModule(
+						scenario.getConfig(),
+						NestedLogitComputationConfigGroup.GROUP_NAME,
+						NestedLogitComputationConfigGroup.class );
 	}
 
 	public AccessibilityComputationResult computeAccessibilities() {
@@ -63,53 +88,274 @@ public class NestedLogitAccessibilityCalculator<N extends Enum<N>> {
 
 		final Counter counter = new Counter( "Compute accessibility for person # " , " / "+scenario.getPopulation().getPersons().size() );
 		final Counter emptyCounter = new Counter( "Ignore empty plan # " );
-		final AccessibilityComputationResult result = new AccessibilityComputationResult();
+		final AccessibilityComputationResult result =
+				new AccessibilityComputationResult(
+						scenario.getPopulation().getPersons().keySet() );
+		final AccessibilityComputationResult resumed =
+				configGroup.getCheckpointFile() != null && configGroup.isResume() ?
+						AccessibilityCheckpoint.read( configGroup.getCheckpointFile() ) :
+						new AccessibilityComputationResult( Collections.emptyList() );
+		final int nResumed = result.addAll( resumed );
+		if ( nResumed < resumed.getNumberOfPersons() ) {
+			log.warn( ( resumed.getNumberOfPersons() - nResumed )+" persons of the checkpoint are not part of the population and are ignored" );
+		}
 
 		final ConcurrentStopWatch<Measurement> stopWatch =
 				new ConcurrentStopWatch<>(
-						Measurement.class );
+						Measurement.class,
+						"accessibility" );
+		final RunMetrics.Meter personsMeter = RunMetrics.global().meter( "accessibility.persons" );
 
 		final ThreadLocal<NestedLogitModel<N>> localModel =
 				new ThreadLocal<NestedLogitModel<N>>() {
 					@Override
 					protected NestedLogitModel<N> initialValue() {
-						return NestedLogitAccessibilityCalculator.this.model.get();
+						final NestedLogitModel<N> m = NestedLogitAccessibilityCalculator.this.model.get();
+						if ( configGroup.getInfrastructureUsageFile() == null ) return m;
+						return new NestedLogitModel<>(
+								m.getMu(),
+								new UsageRecordingUtility<>( m.getUtility() , createInfrastructureUsage() ),
+								m.getChoiceSetIdentifier() );
 					}
 				};
 
-		// Trick to be able to set the number of desired threads. see http://stackoverflow.com/q/21163108
-		final ForkJoinPool fjp = new ForkJoinPool( scenario.getConfig().global().getNumberOfThreads() );
+		// one buffer per thread, such that the logsum computation does not allocate anything
+		final ThreadLocal<PackedNestedChoiceSet> localBuffer = ThreadLocal.withInitial( PackedNestedChoiceSet::new );
+		// the same alternatives are typically part of several choice situations
+		final ThreadLocal<MemoizedUtility<N>> localUtility = ThreadLocal.withInitial( MemoizedUtility::new );
 
-		fjp.submit( () -> {
-			scenario.getPopulation().getPersons().values().parallelStream().forEach(
-					p -> {
-						counter.incCounter();
-						if ( p.getPlans().isEmpty() || p.getSelectedPlan().getPlanElements().isEmpty() ) {
-							emptyCounter.incCounter();
-							return;
-						}
-						result.addResults(
-								p.getId(),
+		final AdaptiveLogsumEstimator<N> adaptiveEstimator =
+				configGroup.isAdaptiveSampling() ?
+						new AdaptiveLogsumEstimator<>( configGroup ) :
+						null;
+
+		final PopulationSharder sharder = new PopulationSharder( configGroup , facilities );
+		final AccessibilityComputationResult copiedFromBase = readUnaffectedBaseResults( resumed , sharder );
+		result.addAll( copiedFromBase );
+
+		final List<PersonGroup> groups =
+				createGroups(
+						getPersonsToCompute( resumed , copiedFromBase , sharder ),
+						emptyCounter );
+
+		try ( RunMetrics.Reporting metrics = startMetricsReporting();
+			  AccessibilityCheckpoint checkpoint = openCheckpoint( resumed );
+			  InfrastructureUsageFile usageFile = openUsageFile( resumed ) ) {
+			// so that the checkpoint and usage file of a delta run are complete, and can be the base of another delta run
+			if ( checkpoint != null ) {
+				for ( Map.Entry<Id<Person>, AccessibilityComputationResult.PersonAccessibilityComputationResult> e :
+						copiedFromBase.getResultsPerPerson().entrySet() ) {
+					checkpoint.append( e.getKey() , e.getValue() );
+				}
+			}
+			if ( usageFile != null && copiedFromBase.getNumberOfPersons() > 0 ) {
+				usageFile.copyFrom( configGroup.getDeltaBaseUsageFile() , copiedFromBase.getResultsPerPerson().keySet() );
+			}
+
+			new CostAwareScheduler( nThreads , configGroup.getBatchSize() ).run(
+					groups,
+					g -> costEstimator.estimateCost( g.getRepresentative() ),
+					g -> {
+						final NestedLogitModel<N> model = localModel.get();
+						if ( usageFile != null ) ( (UsageRecordingUtility<N>) model.getUtility() ).getUsage().clear();
+						final AccessibilityComputationResult.PersonAccessibilityComputationResult groupResult =
 								computeAccessibility(
-										localModel.get(),
+										model,
+										localBuffer.get(),
+										localUtility.get(),
+										adaptiveEstimator,
 										stopWatch,
-										p ) );
-					}
-			);
-		}).join();
-		fjp.shutdown();
+										g );
+						for ( Person p : g.getMembers() ) {
+							counter.incCounter();
+							personsMeter.mark();
+							result.addResults( p.getId() , groupResult );
+							if ( checkpoint != null ) checkpoint.append( p.getId() , groupResult );
+							if ( usageFile != null ) usageFile.append( p.getId() , ( (UsageRecordingUtility<N>) model.getUtility() ).getUsage() );
+						}
+					} );
+		}
 
 		counter.printCounter();
 		emptyCounter.printCounter();
+		if ( adaptiveEstimator != null ) adaptiveEstimator.printStats();
 		stopWatch.printStats( TimeUnit.SECONDS );
 
 		return result;
 	}
 
+	private Collection<? extends Person> getPersonsToCompute(
+			final AccessibilityComputationResult alreadyComputed,
+			final AccessibilityComputationResult copiedFromBase,
+			final PopulationSharder sharder ) {
+		if ( alreadyComputed.getNumberOfPersons() == 0 &&
+				copiedFromBase.getNumberOfPersons() == 0 &&
+				!sharder.isSharded() ) {
+			return scenario.getPopulation().getPersons().values();
+		}
+
+		final List<Person> persons =
+				scenario.getPopulation().getPersons().values().stream()
+						.filter( sharder )
+						.filter( p -> !alreadyComputed.hasResults( p.getId() ) )
+						.filter( p -> !copiedFromBase.hasResults( p.getId() ) )
+						.collect( Collectors.toList() );
+		if ( sharder.isSharded() ) {
+			log.info( "Shard "+configGroup.getShardIndex()+" / "+configGroup.getNumberOfShards()+
+					" ("+configGroup.getShardingMethod()+"): "+persons.size()+" persons to compute" );
+		}
+		if ( alreadyComputed.getNumberOfPersons() > 0 ) {
+			log.info( "Resume: "+alreadyComputed.getNumberOfPersons()+" persons read from checkpoint, "+
+					persons.size()+" remaining" );
+		}
+		if ( copiedFromBase.getNumberOfPersons() > 0 ) {
+			log.info( "Delta: "+copiedFromBase.getNumberOfPersons()+" persons copied from base run, "+
+					persons.size()+" to recompute" );
+		}
+		return persons;
+	}
+
+	/**
+	 * @return the results of the base run for persons which alternatives did not use changed infrastructure,
+	 * or an empty result if not in delta mode.
+	 */
+	private AccessibilityComputationResult readUnaffectedBaseResults(
+			final AccessibilityComputationResult alreadyComputed,
+			final PopulationSharder sharder ) {
+		if ( configGroup.getDeltaBaseCheckpointFile() == null ) return new AccessibilityComputationResult( Collections.emptyList() );
+		if ( configGroup.getDeltaBaseUsageFile() == null ) {
+			throw new IllegalStateException( "delta mode needs the infrastructure usage file of the base run" );
+		}
+
+		// removed elements are only found in the base infrastructure
+		final Scenario base = ScenarioUtils.createScenario( ConfigUtils.createConfig() );
+		if ( configGroup.getDeltaBaseNetworkFile() != null ) {
+			new MatsimNetworkReader( base.getNetwork() ).readFile( configGroup.getDeltaBaseNetworkFile() );
+		}
+		if ( configGroup.getDeltaBaseTransitScheduleFile() != null ) {
+			new TransitScheduleReader( base ).readFile( configGroup.getDeltaBaseTransitScheduleFile() );
+		}
+
+		final InfrastructureUsage changes = createInfrastructureUsage();
+		for ( String link : configGroup.getChangedLinks() ) {
+			changes.addChangedLink( Id.createLinkId( link ) , base.getNetwork() );
+		}
+		for ( String stop : configGroup.getChangedStops() ) {
+			changes.addChangedStop( Id.create( stop , TransitStopFacility.class ) , base.getTransitSchedule() );
+		}
+		for ( String line : configGroup.getChangedTransitLines() ) {
+			changes.addChangedTransitLine( Id.create( line , TransitLine.class ) , base.getTransitSchedule() );
+		}
+
+		final Set<Id<Person>> unaffected =
+				InfrastructureUsageFile.readUnaffectedPersons(
+						configGroup.getDeltaBaseUsageFile(),
+						changes );
+		final AccessibilityComputationResult base = AccessibilityCheckpoint.read( configGroup.getDeltaBaseCheckpointFile() );
+
+		final List<Id<Person>> toCopy = new ArrayList<>();
+		for ( Person p : scenario.getPopulation().getPersons().values() ) {
+			if ( unaffected.contains( p.getId() ) &&
+					base.hasResults( p.getId() ) &&
+					!alreadyComputed.hasResults( p.getId() ) &&
+					sharder.test( p ) ) {
+				toCopy.add( p.getId() );
+			}
+		}
+
+		final AccessibilityComputationResult copied = new AccessibilityComputationResult( toCopy );
+		copied.addAll( base );
+		return copied;
+	}
+
+	private InfrastructureUsage createInfrastructureUsage() {
+		return new InfrastructureUsage(
+				scenario.getNetwork(),
+				scenario.getConfig().transit().isUseTransit() ? scenario.getTransitSchedule() : null,
+				configGroup.getUsageTileSize_m() );
+	}
+
+	private RunMetrics.Reporting startMetricsReporting() {
+		if ( configGroup.getMetricsFile() == null ) return null;
+		return RunMetrics.global().startReporting(
+				"accessibility",
+				configGroup.getMetricsFile(),
+				configGroup.getMetricsInterval_s(),
+				TimeUnit.SECONDS );
+	}
+
+	private InfrastructureUsageFile openUsageFile( final AccessibilityComputationResult alreadyComputed ) {
+		if ( configGroup.getInfrastructureUsageFile() == null ) return null;
+		return new InfrastructureUsageFile(
+				configGroup.getInfrastructureUsageFile(),
+				configGroup.getUsageTileSize_m(),
+				configGroup.isResume() ? alreadyComputed.getResultsPerPerson().keySet() : null,
+				configGroup.getCheckpointFlushInterval() );
+	}
+
+	private List<PersonGroup> createGroups(
+			final Collection<? extends Person> persons,
+			final Counter emptyCounter ) {
+		final List<Person> nonEmpty = new ArrayList<>( persons.size() );
+		for ( Person p : persons ) {
+			if ( p.getPlans().isEmpty() || p.getSelectedPlan().getPlanElements().isEmpty() ) {
+				emptyCounter.incCounter();
+				continue;
+			}
+			nonEmpty.add( p );
+		}
+
+		final long seed = scenario.getConfig().global().getRandomSeed();
+		if ( configGroup.getMeasuringPoints() == NestedLogitComputationConfigGroup.MeasuringPoints.grid ) {
+			// grid over the whole population, so that it is the same for all shards
+			final MeasuringGrid grid =
+					MeasuringGrid.coveringOrigins(
+							scenario.getPopulation().getPersons().values(),
+							facilities,
+							configGroup.getGridCellSize_m() );
+			final List<PersonGroup> groups =
+					PersonGroup.groupByCellAndProfile( nonEmpty , grid , facilities , profileExtractor , seed );
+			log.info( nonEmpty.size()+" persons grouped in "+groups.size()+" groups with same grid cell and profile" );
+			return groups;
+		}
+		if ( !configGroup.isGroupByOrigin() ) return PersonGroup.individuals( nonEmpty , seed );
+
+		final List<PersonGroup> groups = PersonGroup.groupByOriginAndProfile( nonEmpty , profileExtractor , seed );
+		log.info( nonEmpty.size()+" persons grouped in "+groups.size()+" groups with same origin and profile" );
+		return groups;
+	}
+
+	private AccessibilityCheckpoint openCheckpoint( final AccessibilityComputationResult alreadyComputed ) {
+		if ( configGroup.getCheckpointFile() == null ) return null;
+		return new AccessibilityCheckpoint(
+				configGroup.getCheckpointFile(),
+				configGroup.isResume() ? alreadyComputed : null,
+				configGroup.getCheckpointFlushInterval() );
+	}
+
 	private static <N extends Enum<N>> AccessibilityComputationResult.PersonAccessibilityComputationResult computeAccessibility(
 			final NestedLogitModel<N> model,
+			final PackedNestedChoiceSet buffer,
+			final MemoizedUtility<N> utility,
+			final AdaptiveLogsumEstimator<N> adaptiveEstimator,
 			final ConcurrentStopWatch<Measurement> stopWatch,
-			final Person p ) {
+			final PersonGroup group ) {
+		final Person p = group.getRepresentative();
+		utility.startPerson( p );
+
+		if ( model.getChoiceSetIdentifier() instanceof SeedableChoiceSetIdentifier ) {
+			// common random numbers: same choice set for all persons of the group, whatever the thread and order
+			( (SeedableChoiceSetIdentifier<N>) model.getChoiceSetIdentifier() ).resetRandomSeed( group.getSeed() );
+		}
+
+		if ( adaptiveEstimator != null && model.getChoiceSetIdentifier() instanceof AdaptiveChoiceSetIdentifier ) {
+			return adaptiveEstimator.computeAccessibility( model , buffer , utility , stopWatch , p );
+		}
+
+		if ( model.getChoiceSetIdentifier() instanceof MaskedChoiceSetIdentifier ) {
+			return computeMaskedAccessibility( model , buffer , utility , stopWatch , p );
+		}
+
 		stopWatch.startMeasurement( Measurement.choiceSampling );
 		final Map<String, NestedChoiceSet<N>> choiceSets =
 				model.getChoiceSetIdentifier().identifyChoiceSet(
@@ -123,47 +369,93 @@ public class NestedLogitAccessibilityCalculator<N extends Enum<N>> {
 			accessibilities.addAccessibility(
 					choiceSet.getKey(),
 					computeExpectedMaximumUtility(
-							stopWatch, p, model,
+							stopWatch, model,
+							buffer,
+							utility,
 							choiceSet.getValue() ) );
 		}
 
 		return accessibilities;
 	}
 
+	private static <N extends Enum<N>> AccessibilityComputationResult.PersonAccessibilityComputationResult computeMaskedAccessibility(
+			final NestedLogitModel<N> model,
+			final PackedNestedChoiceSet buffer,
+			final MemoizedUtility<N> utility,
+			final ConcurrentStopWatch<Measurement> stopWatch,
+			final Person p ) {
+		stopWatch.startMeasurement( Measurement.choiceSampling );
+		final MaskedNestedChoiceSet<N> choiceSet =
+				( (MaskedChoiceSetIdentifier<N>) model.getChoiceSetIdentifier() ).identifyMaskedChoiceSet(
+						p );
+		stopWatch.endMeasurement( Measurement.choiceSampling );
+
+		stopWatch.startMeasurement( Measurement.logsumComputation );
+		buffer.clear();
+		for ( int n = 0; n < choiceSet.getNests().size(); n++ ) {
+			final Nest<N> nest = choiceSet.getNests().get( n );
+			if ( nest.getAlternatives().isEmpty() ) continue;
+			buffer.startNest( nest.getMu_n() );
+			final double[] utilities = calcUtilities( model , utility , nest );
+			for ( int i = 0; i < nest.getAlternatives().size(); i++ ) {
+				buffer.addUtility( utilities[ i ] , choiceSet.getMask( n , i ) );
+			}
+		}
+
+		final List<String> situations = choiceSet.getSituations();
+		final double[] logsums = new double[ situations.size() ];
+		buffer.computeExpectedMaximumUtilities( model.getMu() , situations.size() , logsums );
+		stopWatch.endMeasurement( Measurement.logsumComputation );
+
+		final AccessibilityComputationResult.PersonAccessibilityComputationResult accessibilities =
+				new AccessibilityComputationResult.PersonAccessibilityComputationResult();
+		for ( int s = 0; s < logsums.length; s++ ) {
+			accessibilities.addAccessibility( situations.get( s ) , logsums[ s ] );
+		}
+		return accessibilities;
+	}
+
 	private static <N extends Enum<N>> double computeExpectedMaximumUtility(
 			final ConcurrentStopWatch<Measurement> stopWatch,
-			final Person p,
 			final NestedLogitModel<N> model,
+			final PackedNestedChoiceSet buffer,
+			final MemoizedUtility<N> utility,
 			final NestedChoiceSet<N> choiceSet ) {
 		stopWatch.startMeasurement( Measurement.logsumComputation );
-		final LogSumExpCalculator calculator = new LogSumExpCalculator( choiceSet.getNests().size() );
-		for ( Nest<N> nest : choiceSet.getNests() ) {
-			if ( nest.getAlternatives().isEmpty() ) continue;
-			calculator.addTerm( logSumNestUtilities( p , model, nest ) );}
-
-		final double r = calculator.computeLogsumExp() / model.getMu();
+		pack( model , utility , choiceSet , buffer );
+		final double r = buffer.computeExpectedMaximumUtility( model.getMu() );
 		stopWatch.endMeasurement( Measurement.logsumComputation );
 		return r;
 	}
 
-	private static <N extends Enum<N>> double logSumNestUtilities(
-			final Person p,
+	private static <N extends Enum<N>> void pack(
 			final NestedLogitModel<N> model,
-			final Nest<N> nest ) {
-		final LogSumExpCalculator calculator = new LogSumExpCalculator( nest.getAlternatives().size() );
-		assert !nest.getAlternatives().isEmpty();
-		for ( Alternative<N> alternative : nest.getAlternatives() ) {
-			try {
-				calculator.addTerm( nest.getMu_n() *
-						model.getUtility().calcUtility(
-								p,
-								alternative ) );
-			}
-			catch (Exception e){
-				throw new RuntimeException( "Problem with utility of alternative "+alternative , e );
+			final MemoizedUtility<N> utility,
+			final NestedChoiceSet<N> choiceSet,
+			final PackedNestedChoiceSet buffer ) {
+		buffer.clear();
+		for ( Nest<N> nest : choiceSet.getNests() ) {
+			if ( nest.getAlternatives().isEmpty() ) continue;
+			buffer.startNest( nest.getMu_n() );
+			final double[] utilities = calcUtilities( model , utility , nest );
+			for ( int i = 0; i < nest.getAlternatives().size(); i++ ) {
+				buffer.addUtility( utilities[ i ] );
 			}
 		}
+	}
 
-		return ( model.getMu() / nest.getMu_n() ) * calculator.computeLogsumExp();
+	/**
+	 * @return the utilities of the alternatives of the nest, computed at once. The array is reused by the next call.
+	 */
+	static <N extends Enum<N>> double[] calcUtilities(
+			final NestedLogitModel<N> model,
+			final MemoizedUtility<N> utility,
+			final Nest<N> nest ) {
+		try {
+			return utility.calcUtilities( model.getUtility() , nest.getNestId() , nest.getAlternatives() );
+		}
+		catch (Exception e){
+			throw new RuntimeException( "Problem with utilities of alternatives "+nest.getAlternatives() , e );
+		}
 	}
 }
@@ -0,0 +1,421 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.matsim.core.config.ReflectiveConfigGroup;
+import org.matsim.core.utils.collections.CollectionUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Technical parameters of the accessibility computation, independent of the model.
+ *
+ * @author thibautd
+ */
+public class NestedLogitComputationConfigGroup extends ReflectiveConfigGroup {
+	public static final String GROUP_NAME = "nestedLogitComputation";
+	public static final String SAMPLE_SIZE_DIAGNOSTIC = "sampleSize";
+
+	private int batchSize = 50;
+
+	private String checkpointFile = null;
+	private boolean resume = false;
+	private int checkpointFlushInterval = 100;
+
+	private boolean groupByOrigin = false;
+
+	private boolean adaptiveSampling = false;
+	private int samplingIncrement = 10;
+	private int minSamples = 20;
+	private int maxSamples = 200;
+	private double logsumTolerance = 0.05;
+
+	public enum MeasuringPoints { persons, grid }
+	private MeasuringPoints measuringPoints = MeasuringPoints.persons;
+	private double gridCellSize_m = 500;
+
+	public enum ShardingMethod { idHash, spatialTile }
+	private int numberOfShards = 1;
+	private int shardIndex = 0;
+	private ShardingMethod shardingMethod = ShardingMethod.idHash;
+	private double shardTileSize_m = 10000;
+
+	private String infrastructureUsageFile = null;
+	private double usageTileSize_m = 2000;
+	private String deltaBaseCheckpointFile = null;
+	private String deltaBaseUsageFile = null;
+	private String deltaBaseNetworkFile = null;
+	private String deltaBaseTransitScheduleFile = null;
+	private Set<String> changedLinks = Collections.emptySet();
+	private Set<String> changedStops = Collections.emptySet();
+	private Set<String> changedTransitLines = Collections.emptySet();
+
+	private String metricsFile = null;
+	private int metricsInterval_s = 30;
+
+	public NestedLogitComputationConfigGroup( ) {
+		super( GROUP_NAME );
+	}
+
+	@Override
+	public Map<String, String> getComments() {
+		final Map<String, String> comments = super.getComments();
+		comments.put( "batchSize" , "number of persons threads take at once from the work queue. " +
+				"Persons are ordered from the most to the least expensive, " +
+				"so small batches only cost some synchronization, but help balancing the load at the end of the run." );
+		comments.put( "checkpointFile" , "file where results are written as soon as persons are computed. No checkpoint if null." );
+		comments.put( "resume" , "if true and the checkpoint file exists, persons found in it are not computed again, " +
+				"and new results are appended. If false, any existing checkpoint file is overwritten." );
+		comments.put( "checkpointFlushInterval" , "number of persons after which the checkpoint and infrastructure usage files are flushed." );
+		comments.put( "groupByOrigin" , "if true, the accessibility is computed only once for all persons with the same origin " +
+				"and the same profile, as defined by the bound PersonProfileExtractor." );
+		comments.put( "adaptiveSampling" , "if true and the choice set identifier supports it, destinations are sampled by increments " +
+				"until the estimated standard error of all logsums falls below logsumTolerance. " +
+				"The number of destinations used is reported per person in column "+SAMPLE_SIZE_DIAGNOSTIC+"." );
+		comments.put( "samplingIncrement" , "number of destinations sampled at once in adaptive mode. " +
+				"The standard error is estimated from the spread of the logsums of the increments." );
+		comments.put( "minSamples" , "minimum number of destinations in adaptive mode. Rounded up to at least two increments." );
+		comments.put( "maxSamples" , "maximum number of destinations in adaptive mode." );
+		comments.put( "logsumTolerance" , "target standard error of the logsums in adaptive mode, in utils." );
+		comments.put( "measuringPoints" , "where accessibility is measured. Possible values: "+Arrays.toString( MeasuringPoints.values() )+". "+
+				"persons computes it for every person. grid computes it once per grid cell and person profile, " +
+				"which makes the cost depend on the spatial resolution rather than on the population size." );
+		comments.put( "gridCellSize_m" , "side of the square cells for the grid measuring points." );
+		comments.put( "numberOfShards" , "number of independent processes the population is split between. " +
+				"Each process only computes the persons of its shard, and the outputs can be combined with MergeShardedAccessibilityFiles." );
+		comments.put( "shardIndex" , "index of the shard computed by this process, between 0 and numberOfShards - 1." );
+		comments.put( "shardingMethod" , "how persons are assigned to shards. Possible values: "+Arrays.toString( ShardingMethod.values() )+". "+
+				"spatialTile keeps persons with the same origin in the same shard, which is required to benefit from groupByOrigin." );
+		comments.put( "shardTileSize_m" , "side of the square tiles used by the spatialTile sharding method." );
+		comments.put( "infrastructureUsageFile" , "file where the infrastructure used by the alternatives of each person is written, " +
+				"for later delta runs. Not written if null." );
+		comments.put( "usageTileSize_m" , "side of the square tiles infrastructure usage is recorded with. " +
+				"Larger tiles give smaller files, but more persons recomputed in delta runs. " +
+				"Must be the same in the base and delta runs." );
+		comments.put( "deltaBaseCheckpointFile" , "checkpoint file of a base run. If not null, persons which alternatives did not use " +
+				"any changed link, stop or line in the base run are copied from it instead of being recomputed." );
+		comments.put( "deltaBaseUsageFile" , "infrastructure usage file of the base run. Required in delta mode." );
+		comments.put( "deltaBaseNetworkFile" , "network of the base run, to locate changed links that were removed or moved. " +
+				"Optional: changed links are otherwise only looked up in the current network." );
+		comments.put( "deltaBaseTransitScheduleFile" , "transit schedule of the base run, to locate changed stops and lines " +
+				"that were removed or moved. Optional: they are otherwise only looked up in the current schedule." );
+		comments.put( "changedLinks" , "comma-separated ids of the links that changed since the base run." );
+		comments.put( "changedStops" , "comma-separated ids of the transit stops that changed since the base run." );
+		comments.put( "changedTransitLines" , "comma-separated ids of the transit lines that changed since the base run." );
+		comments.put( "metricsFile" , "CSV file where throughput, queue depths, cache hit rates and latency percentiles " +
+				"are appended during the run. The same values are exposed over JMX. Not written if null." );
+		comments.put( "metricsInterval_s" , "interval between two metrics reports, in seconds. " +
+				"Rates and percentiles are computed over this interval." );
+		return comments;
+	}
+
+	@StringGetter( "batchSize" )
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	@StringSetter( "batchSize" )
+	public void setBatchSize( final int batchSize ) {
+		if ( batchSize < 1 ) throw new IllegalArgumentException( "batch size must be positive, got "+batchSize );
+		this.batchSize = batchSize;
+	}
+
+	@StringGetter( "checkpointFile" )
+	public String getCheckpointFile() {
+		return checkpointFile;
+	}
+
+	@StringSetter( "checkpointFile" )
+	public void setCheckpointFile( final String checkpointFile ) {
+		this.checkpointFile = checkpointFile;
+	}
+
+	@StringGetter( "resume" )
+	public boolean isResume() {
+		return resume;
+	}
+
+	@StringSetter( "resume" )
+	public void setResume( final boolean resume ) {
+		this.resume = resume;
+	}
+
+	@StringGetter( "checkpointFlushInterval" )
+	public int getCheckpointFlushInterval() {
+		return checkpointFlushInterval;
+	}
+
+	@StringSetter( "checkpointFlushInterval" )
+	public void setCheckpointFlushInterval( final int checkpointFlushInterval ) {
+		this.checkpointFlushInterval = checkpointFlushInterval;
+	}
+
+	@StringGetter( "groupByOrigin" )
+	public boolean isGroupByOrigin() {
+		return groupByOrigin;
+	}
+
+	@StringSetter( "groupByOrigin" )
+	public void setGroupByOrigin( final boolean groupByOrigin ) {
+		this.groupByOrigin = groupByOrigin;
+	}
+
+	@StringGetter( "numberOfShards" )
+	public int getNumberOfShards() {
+		return numberOfShards;
+	}
+
+	@StringSetter( "numberOfShards" )
+	public void setNumberOfShards( final int numberOfShards ) {
+		if ( numberOfShards < 1 ) throw new IllegalArgumentException( "number of shards must be positive, got "+numberOfShards );
+		this.numberOfShards = numberOfShards;
+	}
+
+	@StringGetter( "shardIndex" )
+	public int getShardIndex() {
+		return shardIndex;
+	}
+
+	@StringSetter( "shardIndex" )
+	public void setShardIndex( final int shardIndex ) {
+		if ( shardIndex < 0 ) throw new IllegalArgumentException( "shard index must be non negative, got "+shardIndex );
+		this.shardIndex = shardIndex;
+	}
+
+	@StringGetter( "shardingMethod" )
+	public ShardingMethod getShardingMethod() {
+		return shardingMethod;
+	}
+
+	@StringSetter( "shardingMethod" )
+	public void setShardingMethod( final ShardingMethod shardingMethod ) {
+		this.shardingMethod = shardingMethod;
+	}
+
+	@StringGetter( "shardTileSize_m" )
+	public double getShardTileSize_m() {
+		return shardTileSize_m;
+	}
+
+	@StringSetter( "shardTileSize_m" )
+	public void setShardTileSize_m( final double shardTileSize_m ) {
+		if ( shardTileSize_m <= 0 ) throw new IllegalArgumentException( "tile size must be positive, got "+shardTileSize_m );
+		this.shardTileSize_m = shardTileSize_m;
+	}
+
+	@StringGetter( "measuringPoints" )
+	public MeasuringPoints getMeasuringPoints() {
+		return measuringPoints;
+	}
+
+	@StringSetter( "measuringPoints" )
+	public void setMeasuringPoints( final MeasuringPoints measuringPoints ) {
+		this.measuringPoints = measuringPoints;
+	}
+
+	@StringGetter( "gridCellSize_m" )
+	public double getGridCellSize_m() {
+		return gridCellSize_m;
+	}
+
+	@StringSetter( "gridCellSize_m" )
+	public void setGridCellSize_m( final double gridCellSize_m ) {
+		if ( gridCellSize_m <= 0 ) throw new IllegalArgumentException( "cell size must be positive, got "+gridCellSize_m );
+		this.gridCellSize_m = gridCellSize_m;
+	}
+
+	@StringGetter( "adaptiveSampling" )
+	public boolean isAdaptiveSampling() {
+		return adaptiveSampling;
+	}
+
+	@StringSetter( "adaptiveSampling" )
+	public void setAdaptiveSampling( final boolean adaptiveSampling ) {
+		this.adaptiveSampling = adaptiveSampling;
+	}
+
+	@StringGetter( "samplingIncrement" )
+	public int getSamplingIncrement() {
+		return samplingIncrement;
+	}
+
+	@StringSetter( "samplingIncrement" )
+	public void setSamplingIncrement( final int samplingIncrement ) {
+		if ( samplingIncrement < 1 ) throw new IllegalArgumentException( "sampling increment must be positive, got "+samplingIncrement );
+		this.samplingIncrement = samplingIncrement;
+	}
+
+	@StringGetter( "minSamples" )
+	public int getMinSamples() {
+		return minSamples;
+	}
+
+	@StringSetter( "minSamples" )
+	public void setMinSamples( final int minSamples ) {
+		this.minSamples = minSamples;
+	}
+
+	@StringGetter( "maxSamples" )
+	public int getMaxSamples() {
+		return maxSamples;
+	}
+
+	@StringSetter( "maxSamples" )
+	public void setMaxSamples( final int maxSamples ) {
+		if ( maxSamples < 1 ) throw new IllegalArgumentException( "maximum number of samples must be positive, got "+maxSamples );
+		this.maxSamples = maxSamples;
+	}
+
+	@StringGetter( "logsumTolerance" )
+	public double getLogsumTolerance() {
+		return logsumTolerance;
+	}
+
+	@StringSetter( "logsumTolerance" )
+	public void setLogsumTolerance( final double logsumTolerance ) {
+		this.logsumTolerance = logsumTolerance;
+	}
+
+	@StringGetter( "infrastructureUsageFile" )
+	public String getInfrastructureUsageFile() {
+		return infrastructureUsageFile;
+	}
+
+	@StringSetter( "infrastructureUsageFile" )
+	public void setInfrastructureUsageFile( final String infrastructureUsageFile ) {
+		this.infrastructureUsageFile = infrastructureUsageFile;
+	}
+
+	@StringGetter( "usageTileSize_m" )
+	public double getUsageTileSize_m() {
+		return usageTileSize_m;
+	}
+
+	@StringSetter( "usageTileSize_m" )
+	public void setUsageTileSize_m( final double usageTileSize_m ) {
+		if ( usageTileSize_m <= 0 ) throw new IllegalArgumentException( "tile size must be positive, got "+usageTileSize_m );
+		this.usageTileSize_m = usageTileSize_m;
+	}
+
+	@StringGetter( "deltaBaseCheckpointFile" )
+	public String getDeltaBaseCheckpointFile() {
+		return deltaBaseCheckpointFile;
+	}
+
+	@StringSetter( "deltaBaseCheckpointFile" )
+	public void setDeltaBaseCheckpointFile( final String deltaBaseCheckpointFile ) {
+		this.deltaBaseCheckpointFile = deltaBaseCheckpointFile;
+	}
+
+	@StringGetter( "deltaBaseUsageFile" )
+	public String getDeltaBaseUsageFile() {
+		return deltaBaseUsageFile;
+	}
+
+	@StringSetter( "deltaBaseUsageFile" )
+	public void setDeltaBaseUsageFile( final String deltaBaseUsageFile ) {
+		this.deltaBaseUsageFile = deltaBaseUsageFile;
+	}
+
+	@StringGetter( "deltaBaseNetworkFile" )
+	public String getDeltaBaseNetworkFile() {
+		return deltaBaseNetworkFile;
+	}
+
+	@StringSetter( "deltaBaseNetworkFile" )
+	public void setDeltaBaseNetworkFile( final String deltaBaseNetworkFile ) {
+		this.deltaBaseNetworkFile = deltaBaseNetworkFile;
+	}
+
+	@StringGetter( "deltaBaseTransitScheduleFile" )
+	public String getDeltaBaseTransitScheduleFile() {
+		return deltaBaseTransitScheduleFile;
+	}
+
+	@StringSetter( "deltaBaseTransitScheduleFile" )
+	public void setDeltaBaseTransitScheduleFile( final String deltaBaseTransitScheduleFile ) {
+		this.deltaBaseTransitScheduleFile = deltaBaseTransitScheduleFile;
+	}
+
+	public Set<String> getChangedLinks() {
+		return changedLinks;
+	}
+
+	@StringGetter( "changedLinks" )
+	private String getChangedLinksString() {
+		return CollectionUtils.setToString( changedLinks );
+	}
+
+	@StringSetter( "changedLinks" )
+	public void setChangedLinks( final String changedLinks ) {
+		this.changedLinks = CollectionUtils.stringToSet( changedLinks );
+	}
+
+	public Set<String> getChangedStops() {
+		return changedStops;
+	}
+
+	@StringGetter( "changedStops" )
+	private String getChangedStopsString() {
+		return CollectionUtils.setToString( changedStops );
+	}
+
+	@StringSetter( "changedStops" )
+	public void setChangedStops( final String changedStops ) {
+		this.changedStops = CollectionUtils.stringToSet( changedStops );
+	}
+
+	public Set<String> getChangedTransitLines() {
+		return changedTransitLines;
+	}
+
+	@StringGetter( "changedTransitLines" )
+	private String getChangedTransitLinesString() {
+		return CollectionUtils.setToString( changedTransitLines );
+	}
+
+	@StringSetter( "changedTransitLines" )
+	public void setChangedTransitLines( final String changedTransitLines ) {
+		this.changedTransitLines = CollectionUtils.stringToSet( changedTransitLines );
+	}
+
+	@StringGetter( "metricsFile" )
+	public String getMetricsFile() {
+		return metricsFile;
+	}
+
+	@StringSetter( "metricsFile" )
+	public void setMetricsFile( final String metricsFile ) {
+		this.metricsFile = metricsFile;
+	}
+
+	@StringGetter( "metricsInterval_s" )
+	public int getMetricsInterval_s() {
+		return metricsInterval_s;
+	}
+
+	@StringSetter( "metricsInterval_s" )
+	public void setMetricsInterval_s( final int metricsInterval_s ) {
+		if ( metricsInterval_s < 1 ) throw new IllegalArgumentException( "metrics interval must be positive, got "+metricsInterval_s );
+		this.metricsInterval_s = metricsInterval_s;
+	}
+}
@@ -0,0 +1,243 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import java.util.Arrays;
+
+/**
+ * Compact form of a {@link NestedChoiceSet}, meant for the logsum computation hot path.
+ * Utilities of all alternatives are stored contiguously, nest after nest, and nests are described by their
+ * start offset in the utility array and their scale parameter.
+ * <br>
+ * Each alternative can optionally get an availability mask, as in {@link MaskedNestedChoiceSet}, in which case
+ * the logsums of all situations can be computed in one single pass.
+ * <br>
+ * Instances are meant to be reused from one person to the next (one instance per thread), so that the logsum
+ * computation does not allocate anything once the arrays have grown to the size of the largest choice set.
+ * This class is not thread safe.
+ *
+ * @author thibautd
+ */
+public class PackedNestedChoiceSet {
+	public static final long ALL_SITUATIONS = -1L;
+	// below this, exp( term - max ) is not a normal double anymore and loses precision
+	private static final double UNDERFLOW_LIMIT = -700;
+
+	private double[] utilities;
+	private long[] masks;
+	// nestOffsets[ n ] is the index of the first alternative of nest n. One more element than nests,
+	// such that the alternatives of nest n are always in [ nestOffsets[ n ] , nestOffsets[ n + 1 ] [
+	private int[] nestOffsets;
+	private double[] nestMus;
+	// buffer for the nest-level terms
+	private double[] nestTerms;
+
+	// buffers for the computation for several situations.
+	// nest terms of situation s are stored from index s * nestMus.length
+	private final double[] situationSums = new double[ MaskedNestedChoiceSet.MAX_SITUATIONS ];
+	private final double[] situationMax = new double[ MaskedNestedChoiceSet.MAX_SITUATIONS ];
+	private final int[] situationNTerms = new int[ MaskedNestedChoiceSet.MAX_SITUATIONS ];
+	private double[] situationNestTerms;
+
+	private int nNests = 0;
+	private int size = 0;
+
+	public PackedNestedChoiceSet() {
+		this( 8 , 1024 );
+	}
+
+	public PackedNestedChoiceSet(
+			final int initialNestCapacity,
+			final int initialAlternativeCapacity ) {
+		this.utilities = new double[ initialAlternativeCapacity ];
+		this.masks = new long[ initialAlternativeCapacity ];
+		this.nestOffsets = new int[ initialNestCapacity + 1 ];
+		this.nestMus = new double[ initialNestCapacity ];
+		this.nestTerms = new double[ initialNestCapacity ];
+		this.situationNestTerms = new double[ MaskedNestedChoiceSet.MAX_SITUATIONS * initialNestCapacity ];
+	}
+
+	/**
+	 * Forgets all nests and alternatives, but keeps the allocated memory
+	 */
+	public void clear() {
+		nNests = 0;
+		size = 0;
+	}
+
+	/**
+	 * Starts a new nest. All utilities added after this call, until the next call, belong to this nest.
+	 */
+	public void startNest( final double mu ) {
+		if ( nNests == nestMus.length ) {
+			final int newCapacity = 2 * nestMus.length;
+			nestMus = Arrays.copyOf( nestMus , newCapacity );
+			nestTerms = Arrays.copyOf( nestTerms , newCapacity );
+			nestOffsets = Arrays.copyOf( nestOffsets , newCapacity + 1 );
+			situationNestTerms = new double[ MaskedNestedChoiceSet.MAX_SITUATIONS * newCapacity ];
+		}
+		nestMus[ nNests ] = mu;
+		nestOffsets[ nNests ] = size;
+		nNests++;
+		nestOffsets[ nNests ] = size;
+	}
+
+	public void addUtility( final double utility ) {
+		addUtility( utility , ALL_SITUATIONS );
+	}
+
+	/**
+	 * @param mask the situations the alternative is available in, bit s corresponding to situation s
+	 */
+	public void addUtility( final double utility , final long mask ) {
+		if ( nNests == 0 ) throw new IllegalStateException( "a nest must be started before adding alternatives" );
+		if ( Double.isNaN( utility ) || Double.isInfinite( utility ) ) {
+			throw new IllegalArgumentException( "Only finite utilities are allowed, got " + utility );
+		}
+		if ( size == utilities.length ) {
+			utilities = Arrays.copyOf( utilities , 2 * utilities.length );
+			masks = Arrays.copyOf( masks , 2 * masks.length );
+		}
+		masks[ size ] = mask;
+		utilities[ size++ ] = utility;
+		nestOffsets[ nNests ] = size;
+	}
+
+	public int getNumberOfNests() {
+		return nNests;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public double getNestMu( final int nest ) {
+		return nestMus[ nest ];
+	}
+
+	public int getNestStart( final int nest ) {
+		return nestOffsets[ nest ];
+	}
+
+	public int getNestEnd( final int nest ) {
+		return nestOffsets[ nest + 1 ];
+	}
+
+	public double getUtility( final int alternative ) {
+		return utilities[ alternative ];
+	}
+
+	public long getMask( final int alternative ) {
+		return masks[ alternative ];
+	}
+
+	/**
+	 * Computes the expected maximum utility (the nested logsum) of the choice set, with the given top-level scale
+	 * parameter. Empty nests are ignored, as are masks.
+	 */
+	public double computeExpectedMaximumUtility( final double mu ) {
+		int nTerms = 0;
+		for ( int n = 0; n < nNests; n++ ) {
+			final int start = nestOffsets[ n ];
+			final int end = nestOffsets[ n + 1 ];
+			if ( start == end ) continue;
+
+			final double mu_n = nestMus[ n ];
+			nestTerms[ nTerms++ ] = ( mu / mu_n ) * LogSumExpCalculator.logSumExp( mu_n , utilities , start , end );
+		}
+
+		return LogSumExpCalculator.logSumExp( nestTerms , 0 , nTerms ) / mu;
+	}
+
+	/**
+	 * Computes the expected maximum utility for all situations at once, based on the masks.
+	 * All situations share the same exponentials, shifted by the maximum of the nest over all situations.
+	 * Only if the terms of a situation are too small compared to this maximum (which would lead to underflow)
+	 * is the nest recomputed for this situation only.
+	 *
+	 * @param mu the top-level scale parameter
+	 * @param nSituations the number of situations, such that only the nSituations lowest bits of the masks are used
+	 * @param result array to fill with the expected maximum utility of each situation
+	 */
+	public void computeExpectedMaximumUtilities(
+			final double mu,
+			final int nSituations,
+			final double[] result ) {
+		if ( nSituations < 0 || nSituations > MaskedNestedChoiceSet.MAX_SITUATIONS ) {
+			throw new IllegalArgumentException( "invalid number of situations "+nSituations );
+		}
+		final long validBits = nSituations == MaskedNestedChoiceSet.MAX_SITUATIONS ? ALL_SITUATIONS : ( 1L << nSituations ) - 1;
+		final int stride = nestMus.length;
+
+		Arrays.fill( situationNTerms , 0 , nSituations , 0 );
+		for ( int n = 0; n < nNests; n++ ) {
+			final int start = nestOffsets[ n ];
+			final int end = nestOffsets[ n + 1 ];
+			if ( start == end ) continue;
+
+			final double mu_n = nestMus[ n ];
+			double nestMax = Double.NEGATIVE_INFINITY;
+			for ( int i = start; i < end; i++ ) {
+				if ( ( masks[ i ] & validBits ) != 0 ) nestMax = Math.max( nestMax , mu_n * utilities[ i ] );
+			}
+			if ( nestMax == Double.NEGATIVE_INFINITY ) continue;
+
+			Arrays.fill( situationSums , 0 , nSituations , 0 );
+			Arrays.fill( situationMax , 0 , nSituations , Double.NEGATIVE_INFINITY );
+			for ( int i = start; i < end; i++ ) {
+				final double term = mu_n * utilities[ i ];
+				final double exp = Math.exp( term - nestMax );
+				for ( long m = masks[ i ] & validBits; m != 0; m &= m - 1 ) {
+					final int s = Long.numberOfTrailingZeros( m );
+					situationSums[ s ] += exp;
+					if ( term > situationMax[ s ] ) situationMax[ s ] = term;
+				}
+			}
+
+			for ( int s = 0; s < nSituations; s++ ) {
+				// nest empty for this situation
+				if ( situationMax[ s ] == Double.NEGATIVE_INFINITY ) continue;
+
+				final double logsum =
+						situationMax[ s ] - nestMax > UNDERFLOW_LIMIT ?
+								nestMax + Math.log( situationSums[ s ] ) :
+								logSumExpOfSituation( mu_n , start , end , 1L << s , situationMax[ s ] );
+				situationNestTerms[ s * stride + situationNTerms[ s ]++ ] = ( mu / mu_n ) * logsum;
+			}
+		}
+
+		for ( int s = 0; s < nSituations; s++ ) {
+			if ( situationNTerms[ s ] == 0 ) throw new IllegalStateException( "no alternative available for situation "+s );
+			result[ s ] = LogSumExpCalculator.logSumExp( situationNestTerms , s * stride , s * stride + situationNTerms[ s ] ) / mu;
+		}
+	}
+
+	private double logSumExpOfSituation(
+			final double mu_n,
+			final int start,
+			final int end,
+			final long bit,
+			final double max ) {
+		double sum = 0;
+		for ( int i = start; i < end; i++ ) {
+			if ( ( masks[ i ] & bit ) != 0 ) sum += Math.exp( mu_n * utilities[ i ] - max );
+		}
+		return max + Math.log( sum );
+	}
+}
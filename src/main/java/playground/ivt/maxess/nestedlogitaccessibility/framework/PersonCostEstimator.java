@@ -0,0 +1,42 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import com.google.inject.ImplementedBy;
+import org.matsim.api.core.v01.population.Person;
+
+/**
+ * Estimates the relative computation time of the accessibility of a person, such that the most expensive persons
+ * can be processed first. Only the order matters, not the scale.
+ * Implementations must be thread safe.
+ * By default, all persons are assumed to cost the same.
+ *
+ * @author thibautd
+ */
+@ImplementedBy( PersonCostEstimator.Uniform.class )
+public interface PersonCostEstimator {
+	double estimateCost( Person p );
+
+	class Uniform implements PersonCostEstimator {
+		@Override
+		public double estimateCost( final Person p ) {
+			return 1;
+		}
+	}
+}
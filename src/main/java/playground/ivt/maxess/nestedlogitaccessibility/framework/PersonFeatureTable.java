@@ -0,0 +1,173 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.utils.misc.Counter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Person characteristics, extracted once before the computation and stored in primitive arrays,
+ * to avoid looking up (and parsing) attributes for each alternative in utility functions.
+ * <br>
+ * Persons and features are identified by dense integer indices. Indices of features should be resolved once,
+ * and indices of persons once per person, and then used for all lookups.
+ * Read access is thread safe.
+ *
+ * @author thibautd
+ */
+public class PersonFeatureTable {
+	private static final Logger log = Logger.getLogger( PersonFeatureTable.class );
+
+	private final TObjectIntMap<Id<Person>> personIndices;
+	private final List<String> booleanFeatures;
+	private final List<String> doubleFeatures;
+
+	// row major: features of person i are in [ i * nFeatures , ( i + 1 ) * nFeatures [
+	private final boolean[] booleans;
+	private final double[] doubles;
+
+	private PersonFeatureTable(
+			final TObjectIntMap<Id<Person>> personIndices,
+			final List<String> booleanFeatures,
+			final List<String> doubleFeatures,
+			final boolean[] booleans,
+			final double[] doubles ) {
+		this.personIndices = personIndices;
+		this.booleanFeatures = booleanFeatures;
+		this.doubleFeatures = doubleFeatures;
+		this.booleans = booleans;
+		this.doubles = doubles;
+	}
+
+	public int getNumberOfPersons() {
+		return personIndices.size();
+	}
+
+	public int getPersonIndex( final Id<Person> person ) {
+		final int index = personIndices.get( person );
+		if ( index < 0 ) throw new IllegalArgumentException( "no features for person "+person );
+		return index;
+	}
+
+	public boolean hasBooleanFeature( final String feature ) {
+		return booleanFeatures.contains( feature );
+	}
+
+	public boolean hasDoubleFeature( final String feature ) {
+		return doubleFeatures.contains( feature );
+	}
+
+	public int getBooleanFeatureIndex( final String feature ) {
+		final int index = booleanFeatures.indexOf( feature );
+		if ( index < 0 ) throw new IllegalArgumentException( "unknown boolean feature "+feature+" in "+booleanFeatures );
+		return index;
+	}
+
+	public int getDoubleFeatureIndex( final String feature ) {
+		final int index = doubleFeatures.indexOf( feature );
+		if ( index < 0 ) throw new IllegalArgumentException( "unknown double feature "+feature+" in "+doubleFeatures );
+		return index;
+	}
+
+	public boolean getBoolean( final int person, final int feature ) {
+		return booleans[ person * booleanFeatures.size() + feature ];
+	}
+
+	public double getDouble( final int person, final int feature ) {
+		return doubles[ person * doubleFeatures.size() + feature ];
+	}
+
+	/**
+	 * @return all features of the person, as boxed values. Two persons have equal rows if they do not differ
+	 * on any feature.
+	 */
+	public List<Object> getRow( final int person ) {
+		final List<Object> row = new ArrayList<>( booleanFeatures.size() + doubleFeatures.size() );
+		for ( int f = 0; f < booleanFeatures.size(); f++ ) row.add( getBoolean( person , f ) );
+		for ( int f = 0; f < doubleFeatures.size(); f++ ) row.add( getDouble( person , f ) );
+		return row;
+	}
+
+	public static class Builder {
+		private final List<String> booleanNames = new ArrayList<>();
+		private final List<Predicate<Person>> booleanExtractors = new ArrayList<>();
+		private final List<String> doubleNames = new ArrayList<>();
+		private final List<ToDoubleFunction<Person>> doubleExtractors = new ArrayList<>();
+
+		public Builder addBooleanFeature( final String name, final Predicate<Person> extractor ) {
+			if ( booleanNames.contains( name ) ) throw new IllegalArgumentException( "duplicate feature "+name );
+			booleanNames.add( name );
+			booleanExtractors.add( extractor );
+			return this;
+		}
+
+		public Builder addDoubleFeature( final String name, final ToDoubleFunction<Person> extractor ) {
+			if ( doubleNames.contains( name ) ) throw new IllegalArgumentException( "duplicate feature "+name );
+			doubleNames.add( name );
+			doubleExtractors.add( extractor );
+			return this;
+		}
+
+		public PersonFeatureTable build( final Collection<? extends Person> persons ) {
+			log.info( "Extract "+booleanNames.size()+" boolean and "+doubleNames.size()+" double features for "+persons.size()+" persons" );
+			final Counter counter = new Counter( "Extract features for person # " );
+
+			final TObjectIntMap<Id<Person>> indices =
+					new TObjectIntHashMap<>(
+							persons.size(),
+							Constants.DEFAULT_LOAD_FACTOR,
+							-1 );
+			final boolean[] booleans = new boolean[ persons.size() * booleanNames.size() ];
+			final double[] doubles = new double[ persons.size() * doubleNames.size() ];
+
+			int i = 0;
+			for ( Person p : persons ) {
+				counter.incCounter();
+				indices.put( p.getId() , i );
+				for ( int f = 0; f < booleanExtractors.size(); f++ ) {
+					booleans[ i * booleanNames.size() + f ] = booleanExtractors.get( f ).test( p );
+				}
+				for ( int f = 0; f < doubleExtractors.size(); f++ ) {
+					doubles[ i * doubleNames.size() + f ] = doubleExtractors.get( f ).applyAsDouble( p );
+				}
+				i++;
+			}
+			counter.printCounter();
+
+			return new PersonFeatureTable(
+					indices,
+					Collections.unmodifiableList( new ArrayList<>( booleanNames ) ),
+					Collections.unmodifiableList( new ArrayList<>( doubleNames ) ),
+					booleans,
+					doubles );
+		}
+	}
+}
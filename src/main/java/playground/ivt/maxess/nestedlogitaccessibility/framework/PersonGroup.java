@@ -0,0 +1,178 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.facilities.ActivityFacilities;
+import playground.ivt.utils.RandomStreams;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Persons sharing the same accessibility, that only needs to be computed for the representative.
+ *
+ * @author thibautd
+ */
+class PersonGroup {
+	private final Person representative;
+	private final List<Person> members;
+	private final long seed;
+
+	private PersonGroup( final List<Person> members, final long seed ) {
+		this( Collections.min( members , Comparator.comparing( Person::getId ) ) , members , seed );
+	}
+
+	private PersonGroup( final Person representative, final List<Person> members, final long seed ) {
+		this.members = members;
+		this.representative = representative;
+		this.seed = seed;
+	}
+
+	public Person getRepresentative() {
+		return representative;
+	}
+
+	public List<Person> getMembers() {
+		return members;
+	}
+
+	/**
+	 * @return seed for the choice set sampling, that only depends on what defines the group
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	public static List<PersonGroup> individuals( final Collection<? extends Person> persons, final long globalSeed ) {
+		final List<PersonGroup> groups = new ArrayList<>( persons.size() );
+		for ( Person p : persons ) {
+			groups.add( new PersonGroup( Collections.singletonList( p ) , RandomStreams.seed( globalSeed , p.getId().toString() ) ) );
+		}
+		return groups;
+	}
+
+	/**
+	 * Groups persons by location of their first activity (facility if defined, coordinate otherwise) and profile.
+	 */
+	public static List<PersonGroup> groupByOriginAndProfile(
+			final Collection<? extends Person> persons,
+			final PersonProfileExtractor profileExtractor,
+			final long globalSeed ) {
+		final Map<GroupKey, List<Person>> members = groupBy( persons , PersonGroup::getOrigin , profileExtractor );
+
+		final List<PersonGroup> groups = new ArrayList<>( members.size() );
+		for ( Map.Entry<GroupKey, List<Person>> e : members.entrySet() ) {
+			groups.add( new PersonGroup( e.getValue() , e.getKey().getSeed( globalSeed ) ) );
+		}
+		return groups;
+	}
+
+	/**
+	 * Groups persons by cell of the grid containing their origin and profile.
+	 * The accessibility of each group is computed for the member living closest to the cell center,
+	 * so that the result for the cell is the population weighted average over the profiles present in it.
+	 */
+	public static List<PersonGroup> groupByCellAndProfile(
+			final Collection<? extends Person> persons,
+			final MeasuringGrid grid,
+			final ActivityFacilities facilities,
+			final PersonProfileExtractor profileExtractor,
+			final long globalSeed ) {
+		final Map<GroupKey, List<Person>> members =
+				groupBy(
+						persons,
+						p -> grid.getCellIndex( MeasuringGrid.getOriginCoord( p , facilities ) ),
+						profileExtractor );
+
+		final List<PersonGroup> groups = new ArrayList<>( members.size() );
+		for ( Map.Entry<GroupKey, List<Person>> e : members.entrySet() ) {
+			final Coord center = grid.getCellCenter( (Long) e.getKey().origin );
+			final Person representative =
+					Collections.min(
+							e.getValue(),
+							Comparator.<Person>comparingDouble(
+									p -> CoordUtils.calcEuclideanDistance( center , MeasuringGrid.getOriginCoord( p , facilities ) ) )
+								.thenComparing( Person::getId ) );
+			groups.add( new PersonGroup( representative , e.getValue() , e.getKey().getSeed( globalSeed ) ) );
+		}
+		return groups;
+	}
+
+	private static Map<GroupKey, List<Person>> groupBy(
+			final Collection<? extends Person> persons,
+			final Function<Person, Object> origin,
+			final PersonProfileExtractor profileExtractor ) {
+		final Map<GroupKey, List<Person>> members = new LinkedHashMap<>();
+		for ( Person p : persons ) {
+			members.computeIfAbsent(
+					new GroupKey( origin.apply( p ) , profileExtractor.getProfile( p ) ),
+					k -> new ArrayList<>( 1 ) ).add( p );
+		}
+		return members;
+	}
+
+	private static Object getOrigin( final Person p ) {
+		final Activity act = (Activity) p.getSelectedPlan().getPlanElements().get( 0 );
+		final Id<?> facilityId = act.getFacilityId();
+		return facilityId != null ? facilityId : act.getCoord();
+	}
+
+	private static final class GroupKey {
+		private final Object origin;
+		private final Object profile;
+
+		GroupKey( final Object origin, final Object profile ) {
+			this.origin = origin;
+			this.profile = profile;
+		}
+
+		/**
+		 * Seed derived from the string representation of origin and profile, which does not depend on the JVM.
+		 */
+		long getSeed( final long globalSeed ) {
+			return RandomStreams.seed(
+					RandomStreams.seed( globalSeed , String.valueOf( origin ) ),
+					String.valueOf( profile ) );
+		}
+
+		@Override
+		public boolean equals( final Object o ) {
+			if ( !( o instanceof GroupKey ) ) return false;
+			final GroupKey other = (GroupKey) o;
+			return Objects.equals( origin , other.origin ) && Objects.equals( profile , other.profile );
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * Objects.hashCode( origin ) + Objects.hashCode( profile );
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import com.google.inject.ImplementedBy;
+import org.matsim.api.core.v01.population.Person;
+
+/**
+ * Extracts the person characteristics that influence the choice set and the utility, except from the origin.
+ * Persons with equal profiles at the same origin get the same accessibility when grouping by origin is enabled
+ * (see {@link NestedLogitComputationConfigGroup#isGroupByOrigin()}).
+ * <br>
+ * Profiles should implement equals and hashCode, and toString should be stable from one run to the next,
+ * as it is used to seed the random choice set sampling (the default Object.toString, based on the identity hash code,
+ * is not). Lists of boxed primitives or Strings are fine.
+ * By default, the profile is the person id, which means no grouping at all.
+ *
+ * @author thibautd
+ */
+@ImplementedBy( PersonProfileExtractor.Individual.class )
+public interface PersonProfileExtractor {
+	Object getProfile( Person p );
+
+	class Individual implements PersonProfileExtractor {
+		@Override
+		public Object getProfile( final Person p ) {
+			return p.getId();
+		}
+	}
+}
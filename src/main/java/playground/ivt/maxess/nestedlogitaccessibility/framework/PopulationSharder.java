@@ -0,0 +1,91 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.facilities.ActivityFacilities;
+import playground.ivt.utils.RandomStreams;
+
+import java.util.function.Predicate;
+
+/**
+ * Decides which persons belong to the shard computed by the current process.
+ * The decision only depends on the person, so that independent processes with different shard indices
+ * partition the population without communicating.
+ *
+ * @author thibautd
+ */
+public class PopulationSharder implements Predicate<Person> {
+	private final int numberOfShards;
+	private final int shardIndex;
+	private final NestedLogitComputationConfigGroup.ShardingMethod method;
+	private final double tileSize;
+	private final ActivityFacilities facilities;
+
+	public PopulationSharder(
+			final NestedLogitComputationConfigGroup configGroup,
+			final ActivityFacilities facilities ) {
+		if ( configGroup.getShardIndex() >= configGroup.getNumberOfShards() ) {
+			throw new IllegalArgumentException( "shard index "+configGroup.getShardIndex()+
+					" invalid for "+configGroup.getNumberOfShards()+" shards" );
+		}
+		this.numberOfShards = configGroup.getNumberOfShards();
+		this.shardIndex = configGroup.getShardIndex();
+		this.method = configGroup.getShardingMethod();
+		this.tileSize = configGroup.getShardTileSize_m();
+		this.facilities = facilities;
+	}
+
+	public boolean isSharded() {
+		return numberOfShards > 1;
+	}
+
+	@Override
+	public boolean test( final Person person ) {
+		return !isSharded() || getShard( person ) == shardIndex;
+	}
+
+	public int getShard( final Person person ) {
+		switch ( method ) {
+			case idHash:
+				return getIdShard( person );
+			case spatialTile:
+				// persons without plan are not computed anyway, they only need to end up in exactly one shard
+				if ( person.getSelectedPlan() == null || person.getSelectedPlan().getPlanElements().isEmpty() ) {
+					return getIdShard( person );
+				}
+				final Coord coord = MeasuringGrid.getOriginCoord( person , facilities );
+				final long tileX = (long) Math.floor( coord.getX() / tileSize );
+				final long tileY = (long) Math.floor( coord.getY() / tileSize );
+				return shardOf( RandomStreams.seed( tileX , tileY ) );
+			default:
+				throw new RuntimeException( "unknown sharding method "+method );
+		}
+	}
+
+	private int getIdShard( final Person person ) {
+		return shardOf( RandomStreams.hash64( person.getId().toString() ) );
+	}
+
+	// the modulo only sees the low bits, the hash must be well mixed
+	private int shardOf( final long hash ) {
+		return (int) Math.floorMod( hash , (long) numberOfShards );
+	}
+}
@@ -23,18 +23,16 @@ import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.population.Activity;
 import org.matsim.api.core.v01.population.Person;
-import org.matsim.contrib.socnetsim.utils.QuadTreeRebuilder;
-import org.matsim.core.gbl.MatsimRandom;
-import org.matsim.core.utils.collections.QuadTree;
 import org.matsim.core.utils.geometry.CoordUtils;
 import org.matsim.facilities.ActivityFacilities;
 import org.matsim.facilities.ActivityFacility;
 import org.matsim.facilities.ActivityOption;
 import org.matsim.utils.objectattributes.attributable.Attributes;
+import playground.ivt.maxess.gisutils.FacilityIndex;
+import playground.ivt.maxess.gisutils.PrismSearch;
+import playground.ivt.utils.RandomStreams;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -44,32 +42,49 @@ import java.util.Random;
  */
 public class PrismSampler {
 
-	private final Random random = MatsimRandom.getLocalInstance();
+	private final Random random = new Random();
 	private final int nSamples;
 	private final ActivityFacilities allFacilities;
-	private final QuadTree<ActivityFacility> relevantFacilities;
+	private final PrismSearch prismSearch;
 	private final int budget_m;
 
 	public PrismSampler(
 			final String activityType,
 			final int nSamples,
-			final ActivityFacilities allFacilities,
+			final FacilityIndex facilityIndex,
 			final int budget_m ) {
+		this( activityType , nSamples , facilityIndex , budget_m , Double.POSITIVE_INFINITY );
+	}
+
+	/**
+	 * @param facilityIndex shared index, typically injected as a singleton
+	 * @param maxPrismSize_m cap on the size of the prism, which otherwise grows until it contains nSamples facilities.
+	 * Bounds the cost for remote origins, at the price of smaller choice sets.
+	 */
+	public PrismSampler(
+			final String activityType,
+			final int nSamples,
+			final FacilityIndex facilityIndex,
+			final int budget_m,
+			final double maxPrismSize_m ) {
+		if ( budget_m <= 0 ) throw new IllegalArgumentException( "distance budget must be positive, got "+budget_m );
 		this.nSamples = nSamples;
-		this.allFacilities = allFacilities;
+		this.allFacilities = facilityIndex.getAllFacilities();
 		this.budget_m = budget_m;
-
-		final QuadTreeRebuilder<ActivityFacility> builder = new QuadTreeRebuilder<>();
-		allFacilities.getFacilities().values().stream()
-				.filter( f -> f.getActivityOptions().containsKey( activityType ) )
-				.forEach( f -> builder.put( f.getCoord(), f ) );
-
-		this.relevantFacilities = builder.getQuadTree();
+		// a few cells per budget are enough to distinguish multipliers when estimating
+		this.prismSearch =
+				new PrismSearch(
+						facilityIndex.getFacilitiesWithType( activityType ),
+						maxPrismSize_m,
+						budget_m / 4d );
 	}
 
+	/**
+	 * @param s seed of the stream of the person, derived using {@link RandomStreams}. Such seeds are already well mixed,
+	 * and the random draws then do not depend on the thread or the order of the persons.
+	 */
 	public void resetRandomSeed( final long s ) {
 		random.setSeed( s );
-		for ( int i = 0; i < 10; i++ ) random.nextDouble();
 	}
 
 	public ActivityFacility getOrigin( Person p ) {
@@ -123,11 +138,25 @@ public class PrismSampler {
 				};
 	}
 
+	public int getNumberOfSamples() {
+		return nSamples;
+	}
+
 	public List<ActivityFacility> calcSampledPrism( ActivityFacility f ) {
+		return calcSampledPrism( f , nSamples );
+	}
+
+	/**
+	 * Samples without replacement in the prism, in random order, such that the first elements form a sample
+	 * of any smaller size. The prism is the one of {@link #calcFullPrism(ActivityFacility)}, so the result
+	 * might contain less than maxSamples facilities if maxSamples is larger than the nominal number of samples.
+	 */
+	public List<ActivityFacility> calcSampledPrism( ActivityFacility f, int maxSamples ) {
 		final List<ActivityFacility> fullPrism = calcFullPrism( f );
-		final List<ActivityFacility> sampled = new ArrayList<>( nSamples );
+		final int n = Math.min( maxSamples , fullPrism.size() );
+		final List<ActivityFacility> sampled = new ArrayList<>( n );
 
-		for ( int i=0; i < nSamples; i++ ) {
+		for ( int i=0; i < n; i++ ) {
 			sampled.add( fullPrism.remove( random.nextInt( fullPrism.size() )));
 		}
 
@@ -141,14 +170,20 @@ public class PrismSampler {
 		final Coord f1 = p.getCoord();
 		final Coord f2 = p.getCoord();
 
-		Collection<ActivityFacility> prism = Collections.emptyList();
-
 		final double radius = Math.max( budget_m, 1.1 * CoordUtils.calcEuclideanDistance( f1, f2 ) );
-		for ( int i=1; prism.size() < nSamples; i++ ) {
-			prism = relevantFacilities.getElliptical(f1.getX(), f1.getY(), f2.getX(), f2.getY(), i * radius);
-		}
+		return prismSearch.find( f1 , f2 , radius , nSamples ).getFacilities();
+	}
 
-		return prism instanceof List ? (List<ActivityFacility>) prism : new ArrayList<>( prism );
+	/**
+	 * @return an estimate of the size parameter of the prism computed by {@link #calcFullPrism(ActivityFacility)},
+	 * which grows above the distance budget in low density areas. Does not search the facilities of the prism.
+	 */
+	public double estimatePrismRadius( ActivityFacility p ) {
+		final Coord f1 = p.getCoord();
+		final Coord f2 = p.getCoord();
+
+		final double radius = Math.max( budget_m, 1.1 * CoordUtils.calcEuclideanDistance( f1, f2 ) );
+		return prismSearch.estimateSize( f1 , f2 , radius , nSamples );
 	}
 
 }
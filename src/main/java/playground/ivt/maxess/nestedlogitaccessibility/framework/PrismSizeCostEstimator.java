@@ -0,0 +1,41 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.matsim.api.core.v01.population.Person;
+
+/**
+ * Estimates the cost of a person by the radius of its prism: the sample size is fixed, but routing gets slower
+ * as the destinations get farther, which is the case in low density areas, where the prism needs to be extended.
+ *
+ * @author thibautd
+ */
+public class PrismSizeCostEstimator implements PersonCostEstimator {
+	private final PrismSampler prismSampler;
+
+	public PrismSizeCostEstimator( final PrismSampler prismSampler ) {
+		this.prismSampler = prismSampler;
+	}
+
+	@Override
+	public double estimateCost( final Person p ) {
+		if ( p.getPlans().isEmpty() || p.getSelectedPlan().getPlanElements().isEmpty() ) return 0;
+		return prismSampler.estimatePrismRadius( prismSampler.getOrigin( p ) );
+	}
+}
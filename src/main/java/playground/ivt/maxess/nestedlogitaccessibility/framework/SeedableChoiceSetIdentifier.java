@@ -0,0 +1,29 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+/**
+ * Choice set identifier using random sampling, which seed can be set before identifying the choice set of a person.
+ * This is used to make the sampled choice sets reproducible.
+ *
+ * @author thibautd
+ */
+public interface SeedableChoiceSetIdentifier<N extends Enum<N>> extends ChoiceSetIdentifier<N> {
+	void resetRandomSeed( long seed );
+}
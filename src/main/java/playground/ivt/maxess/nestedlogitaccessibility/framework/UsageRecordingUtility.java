@@ -0,0 +1,59 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.matsim.api.core.v01.population.Person;
+
+import java.util.List;
+
+/**
+ * Records the infrastructure used by all alternatives which utility is computed.
+ * Not thread safe: use one instance per thread.
+ *
+ * @author thibautd
+ */
+class UsageRecordingUtility<N extends Enum<N>> implements Utility<N> {
+	private final Utility<N> delegate;
+	private final InfrastructureUsage usage;
+
+	UsageRecordingUtility( final Utility<N> delegate, final InfrastructureUsage usage ) {
+		this.delegate = delegate;
+		this.usage = usage;
+	}
+
+	@Override
+	public double calcUtility( final Person p, final Alternative<N> a ) {
+		usage.addTrip( a.getAlternative() );
+		return delegate.calcUtility( p , a );
+	}
+
+	@Override
+	public void calcUtilities(
+			final Person p,
+			final N nest,
+			final List<Alternative<N>> alternatives,
+			final double[] utilities ) {
+		for ( Alternative<N> a : alternatives ) usage.addTrip( a.getAlternative() );
+		delegate.calcUtilities( p , nest , alternatives , utilities );
+	}
+
+	public InfrastructureUsage getUsage() {
+		return usage;
+	}
+}
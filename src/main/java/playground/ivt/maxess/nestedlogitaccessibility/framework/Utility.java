@@ -20,9 +20,27 @@ package playground.ivt.maxess.nestedlogitaccessibility.framework;
 
 import org.matsim.api.core.v01.population.Person;
 
+import java.util.List;
+
 /**
  * @author thibautd
  */
 public interface Utility<N extends Enum<N>> {
 	double calcUtility( Person p, Alternative<N> a );
+
+	/**
+	 * Batch version, for alternatives of the same nest. Implementations can override it to do the work that only
+	 * depends on the person and the nest once per batch.
+	 *
+	 * @param utilities array to fill with the utilities of the alternatives, in the same order
+	 */
+	default void calcUtilities(
+			final Person p,
+			final N nest,
+			final List<Alternative<N>> alternatives,
+			final double[] utilities ) {
+		for ( int i = 0; i < alternatives.size(); i++ ) {
+			utilities[ i ] = calcUtility( p , alternatives.get( i ) );
+		}
+	}
 }
@@ -20,6 +20,8 @@ package playground.ivt.maxess.nestedlogitaccessibility.scripts;
 
 import org.matsim.core.config.ReflectiveConfigGroup;
 
+import java.util.Map;
+
 /**
  * @author thibautd
  */
@@ -29,6 +31,11 @@ public class NestedAccessibilityConfigGroup extends ReflectiveConfigGroup {
 	private String activityType = "leisure";
 	private int choiceSetSize = 200;
 	private int distanceBudget = 20 * 1000;
+	private double maxPrismSize_m = Double.POSITIVE_INFINITY;
+	private int routeCacheSize_MB = 512;
+	private boolean skimOnly = false;
+	private String skimStoreFile = null;
+	private int skimStoreSize_MB = 1024;
 
 	public NestedAccessibilityConfigGroup( ) {
 		super( GROUP_NAME );
@@ -63,4 +70,72 @@ public class NestedAccessibilityConfigGroup extends ReflectiveConfigGroup {
 	public void setDistanceBudget( final int distanceBudget ) {
 		this.distanceBudget = distanceBudget;
 	}
+
+	@Override
+	public Map<String, String> getComments() {
+		final Map<String, String> comments = super.getComments();
+		comments.put( "maxPrismSize_m" , "cap on the size of the prism destinations are sampled from, which otherwise grows " +
+				"from distanceBudget until it contains choiceSetSize facilities. " +
+				"Bounds the cost of remote persons, which then get smaller choice sets." );
+		comments.put( "routeCacheSize_MB" , "estimated memory used by cached car routes, shared by all threads. " +
+				"Routes requested rarely are not admitted in the cache when it is full." );
+		comments.put( "skimOnly" , "if true, only travel times and distances are computed for the alternatives, without building routes. " +
+				"Much cheaper, but incompatible with recording infrastructure usage." );
+		comments.put( "skimStoreFile" , "if set, skims are stored in this file and reused by later runs on the same network, " +
+				"schedule and routing configuration. Can be shared by concurrent runs. Requires skimOnly." );
+		return comments;
+	}
+
+	@StringGetter( "maxPrismSize_m" )
+	public double getMaxPrismSize_m() {
+		return maxPrismSize_m;
+	}
+
+	@StringSetter( "maxPrismSize_m" )
+	public void setMaxPrismSize_m( final double maxPrismSize_m ) {
+		if ( maxPrismSize_m <= 0 ) throw new IllegalArgumentException( "maximum prism size must be positive, got "+maxPrismSize_m );
+		this.maxPrismSize_m = maxPrismSize_m;
+	}
+
+	@StringGetter( "routeCacheSize_MB" )
+	public int getRouteCacheSize_MB() {
+		return routeCacheSize_MB;
+	}
+
+	@StringSetter( "routeCacheSize_MB" )
+	public void setRouteCacheSize_MB( final int routeCacheSize_MB ) {
+		if ( routeCacheSize_MB <= 0 ) throw new IllegalArgumentException( "route cache size must be positive, got "+routeCacheSize_MB );
+		this.routeCacheSize_MB = routeCacheSize_MB;
+	}
+
+	@StringGetter( "skimOnly" )
+	public boolean isSkimOnly() {
+		return skimOnly;
+	}
+
+	@StringSetter( "skimOnly" )
+	public void setSkimOnly( final boolean skimOnly ) {
+		this.skimOnly = skimOnly;
+	}
+
+	@StringGetter( "skimStoreFile" )
+	public String getSkimStoreFile() {
+		return skimStoreFile;
+	}
+
+	@StringSetter( "skimStoreFile" )
+	public void setSkimStoreFile( final String skimStoreFile ) {
+		this.skimStoreFile = skimStoreFile;
+	}
+
+	@StringGetter( "skimStoreSize_MB" )
+	public int getSkimStoreSize_MB() {
+		return skimStoreSize_MB;
+	}
+
+	@StringSetter( "skimStoreSize_MB" )
+	public void setSkimStoreSize_MB( final int skimStoreSize_MB ) {
+		if ( skimStoreSize_MB <= 0 ) throw new IllegalArgumentException( "skim store size must be positive, got "+skimStoreSize_MB );
+		this.skimStoreSize_MB = skimStoreSize_MB;
+	}
 }
@@ -24,24 +24,20 @@ import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.population.Activity;
 import org.matsim.api.core.v01.population.Person;
-import org.matsim.contrib.socnetsim.utils.QuadTreeRebuilder;
-import org.matsim.core.gbl.MatsimRandom;
-import org.matsim.core.router.TripRouter;
-import org.matsim.core.utils.collections.QuadTree;
 import org.matsim.core.utils.geometry.CoordUtils;
 import org.matsim.facilities.ActivityFacilities;
 import org.matsim.facilities.ActivityFacility;
 import org.matsim.facilities.ActivityOption;
-import org.matsim.households.Household;
-import org.matsim.households.Households;
-import org.matsim.utils.objectattributes.ObjectAttributes;
 import org.matsim.utils.objectattributes.attributable.Attributes;
+import playground.ivt.maxess.gisutils.FacilityIndex;
+import playground.ivt.maxess.gisutils.PrismSearch;
 import playground.ivt.maxess.nestedlogitaccessibility.framework.Alternative;
-import playground.ivt.maxess.nestedlogitaccessibility.framework.ChoiceSetIdentifier;
-import playground.ivt.maxess.nestedlogitaccessibility.framework.Nest;
-import playground.ivt.maxess.nestedlogitaccessibility.framework.NestedChoiceSet;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.MaskedChoiceSetIdentifier;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.MaskedNestedChoiceSet;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.PersonFeatureTable;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.SeedableChoiceSetIdentifier;
+import playground.ivt.maxess.prepareforbiogeme.tripbased.BatchTripCalculator;
 import playground.ivt.maxess.prepareforbiogeme.tripbased.Trip;
-import playground.ivt.maxess.prepareforbiogeme.tripbased.capetown.PersonEnums;
 import playground.ivt.utils.ConcurrentStopWatch;
 
 import java.util.*;
@@ -49,19 +45,17 @@ import java.util.*;
 /**
  * @author thibautd
  */
-public class CapeTownNestedLogitModelChoiceSetIdentifier implements ChoiceSetIdentifier<CapeTownModeNests> {
-	private final Map<Id<Person>,Id<Household>> person2household = new HashMap<>();
-	private final Households households;
-
+public class CapeTownNestedLogitModelChoiceSetIdentifier implements MaskedChoiceSetIdentifier<CapeTownModeNests>, SeedableChoiceSetIdentifier<CapeTownModeNests> {
 	public enum Measurement { carTravelTime, ptTravelTime, walkTravelTime, prismSampling; }
 
-	private final Random random = MatsimRandom.getLocalInstance();
+	private final Random random = new Random();
 	private final int nSamples;
-	private final TripRouter router;
+	private final BatchTripCalculator tripCalculator;
 
 	private final ActivityFacilities allFacilities;
-	private final ObjectAttributes personAttributes;
-	private final QuadTree<ActivityFacility> relevantFacilities;
+	private final PersonFeatureTable features;
+	private final int carAvailableIndex;
+	private final PrismSearch prismSearch;
 	private final int budget_m;
 
 	private final CapeTownNestedLogitModelConfigGroup configGroup;
@@ -73,42 +67,46 @@ public class CapeTownNestedLogitModelChoiceSetIdentifier implements ChoiceSetIde
 			final ConcurrentStopWatch<Measurement> stopWatch,
 			final String type,
 			final int nSamples,
-			final TripRouter router,
-			final ActivityFacilities allFacilities,
-			final ObjectAttributes personAttributes,
-			final Households households,
-			final int budget_m ) {
+			final BatchTripCalculator tripCalculator,
+			final FacilityIndex facilityIndex,
+			final PersonFeatureTable features,
+			final int budget_m,
+			final double maxPrismSize_m ) {
 		this.configGroup = configGroup;
 		this.stopWatch = stopWatch;
 		this.nSamples = nSamples;
-		this.router = router;
-		this.allFacilities = allFacilities;
-		this.personAttributes = personAttributes;
+		this.tripCalculator = tripCalculator;
+		this.allFacilities = facilityIndex.getAllFacilities();
+		this.features = features;
+		this.carAvailableIndex = features.getBooleanFeatureIndex( CapeTownPersonFeatures.CAR_AVAILABLE );
 		this.budget_m = budget_m;
 
-		final QuadTreeRebuilder<ActivityFacility> builder = new QuadTreeRebuilder<>();
-		for ( ActivityFacility f : allFacilities.getFacilities().values() ) {
-			if ( f.getActivityOptions().containsKey( type ) ) {
-				builder.put( f.getCoord() , f );
-			}
-		}
-		relevantFacilities = builder.getQuadTree();
+		this.prismSearch = new PrismSearch( facilityIndex.getFacilitiesWithType( type ) , maxPrismSize_m );
+	}
 
-		this.households = households;
-		for ( Household hh : households.getHouseholds().values() ) {
-			for ( Id<Person> personId : hh.getMemberIds() ) {
-				person2household.put( personId , hh.getId() );
-			}
-		}
+	@Override
+	public void resetRandomSeed( final long seed ) {
+		// seeds of person groups are derived with RandomStreams, no need to warm up the generator
+		random.setSeed( seed );
 	}
 
 	@Override
-	public Map<String, NestedChoiceSet<CapeTownModeNests>> identifyChoiceSet( final Person person ) {
-		final ChoiceSetBuilder baseBuilder = new ChoiceSetBuilder( configGroup );
-		final ChoiceSetBuilder nocarBuilder = new ChoiceSetBuilder( configGroup );
-		final ChoiceSetBuilder noptBuilder = new ChoiceSetBuilder( configGroup );
-		final ChoiceSetBuilder nowalkBuilder = new ChoiceSetBuilder( configGroup );
-		final ChoiceSetBuilder allBuilder = new ChoiceSetBuilder( configGroup );
+	public MaskedNestedChoiceSet<CapeTownModeNests> identifyMaskedChoiceSet( final Person person ) {
+		final MaskedNestedChoiceSet.Builder<CapeTownModeNests> builder =
+				new MaskedNestedChoiceSet.Builder<CapeTownModeNests>( "all" , "base" , "nocar" , "nopt" , "nowalk" )
+						.addNest( CapeTownModeNests.car , configGroup.getMuCar() )
+						.addNest( CapeTownModeNests.pt , configGroup.getMuPt() )
+						.addNest( CapeTownModeNests.walk , configGroup.getMuWalk() )
+						.addNest( CapeTownModeNests.ride , configGroup.getMuRide() )
+						.addNest( CapeTownModeNests.taxi , configGroup.getMuTaxi() );
+
+		final long carMask =
+				builder.getMask( "all" , "nopt" , "nowalk" ) |
+						( isCarAvailable( person ) ? builder.getMask( "base" ) : 0 );
+		final long ptMask = builder.getMask( "all" , "base" , "nocar" , "nowalk" );
+		final long walkMask = builder.getMask( "all" , "base" , "nocar" , "nopt" );
+		final long rideMask = builder.getMask( "all" , "base" , "nocar" , "nopt" );
+		final long taxiMask = builder.getMask( "all" , "base" , "nocar" , "nopt" );
 
 		// Sample and route alternatives
 		stopWatch.startMeasurement( Measurement.prismSampling );
@@ -116,147 +114,52 @@ public class CapeTownNestedLogitModelChoiceSetIdentifier implements ChoiceSetIde
 		final List<ActivityFacility> prism = calcPrism( origin );
 		stopWatch.endMeasurement( Measurement.prismSampling );
 
-		for ( int i= 0; i < nSamples; i++ ) {
-			final ActivityFacility f = prism.remove( random.nextInt( prism.size() ) );
-
-			//-------------------------------------------------------------
-			stopWatch.startMeasurement( Measurement.carTravelTime );
-			add(
-					calcAlternative(
-							i,
-							TransportMode.car,
-							origin,
-							f,
-							person ),
-					allBuilder.carNestBuilder,
-					isCarAvailable( person ) ?
-							baseBuilder.carNestBuilder :
-							null,
-					noptBuilder.carNestBuilder,
-					nowalkBuilder.carNestBuilder );
-			stopWatch.endMeasurement( Measurement.carTravelTime );
-			//-------------------------------------------------------------
-			stopWatch.startMeasurement( Measurement.ptTravelTime );
-			add(
-					calcAlternative(
-							i,
-							TransportMode.pt,
-							origin,
-							f,
-							person ),
-					allBuilder.ptNestBuilder,
-					baseBuilder.ptNestBuilder,
-					nocarBuilder.ptNestBuilder,
-					nowalkBuilder.ptNestBuilder );
-			stopWatch.endMeasurement( Measurement.ptTravelTime );
-			//-------------------------------------------------------------
-			stopWatch.startMeasurement( Measurement.walkTravelTime );
-			add(
-					calcAlternative(
-							i,
-							TransportMode.walk,
-							origin,
-							f,
-							person ),
-					allBuilder.walkNestBuilder,
-					baseBuilder.walkNestBuilder,
-					nocarBuilder.walkNestBuilder,
-					noptBuilder.walkNestBuilder );
-			stopWatch.endMeasurement( Measurement.walkTravelTime );
-			//-------------------------------------------------------------
-			add(
-					calcAlternative(
-							i,
-							TransportMode.ride,
-							origin,
-							f,
-							person ),
-					allBuilder.rideNestBuilder,
-					baseBuilder.rideNestBuilder,
-					nocarBuilder.rideNestBuilder,
-					noptBuilder.rideNestBuilder );
-			add(
-					calcAlternative(
-							i,
-							"taxi",
-							origin,
-							f,
-							person ),
-					allBuilder.taxiNestBuilder,
-					baseBuilder.taxiNestBuilder,
-					nocarBuilder.taxiNestBuilder,
-					noptBuilder.taxiNestBuilder );
+		final int n = Math.min( nSamples , prism.size() );
+		final List<ActivityFacility> destinations = new ArrayList<>( n );
+		for ( int i= 0; i < n; i++ ) {
+			destinations.add( prism.remove( random.nextInt( prism.size() ) ) );
 		}
 
-		final Map<String, NestedChoiceSet<CapeTownModeNests>> result = new LinkedHashMap<>();
-		result.put( "all" , allBuilder.build() );
-		result.put( "base" , baseBuilder.build() );
-		result.put( "nocar" , nocarBuilder.build() );
-		result.put( "nopt" , noptBuilder.build() );
-		result.put( "nowalk" , nowalkBuilder.build() );
+		// route all destinations of a mode at once, to make use of one-to-many routing
+		stopWatch.startMeasurement( Measurement.carTravelTime );
+		final List<Trip> carTrips = calcTrips( TransportMode.car , origin , destinations , person );
+		stopWatch.endMeasurement( Measurement.carTravelTime );
+		stopWatch.startMeasurement( Measurement.ptTravelTime );
+		final List<Trip> ptTrips = calcTrips( TransportMode.pt , origin , destinations , person );
+		stopWatch.endMeasurement( Measurement.ptTravelTime );
+		stopWatch.startMeasurement( Measurement.walkTravelTime );
+		final List<Trip> walkTrips = calcTrips( TransportMode.walk , origin , destinations , person );
+		stopWatch.endMeasurement( Measurement.walkTravelTime );
+		final List<Trip> rideTrips = calcTrips( TransportMode.ride , origin , destinations , person );
+		final List<Trip> taxiTrips = calcTrips( "taxi" , origin , destinations , person );
+
+		for ( int i= 0; i < n; i++ ) {
+			builder.addAlternative( createAlternative( i , TransportMode.car , carTrips.get( i ) ) , carMask );
+			builder.addAlternative( createAlternative( i , TransportMode.pt , ptTrips.get( i ) ) , ptMask );
+			builder.addAlternative( createAlternative( i , TransportMode.walk , walkTrips.get( i ) ) , walkMask );
+			builder.addAlternative( createAlternative( i , TransportMode.ride , rideTrips.get( i ) ) , rideMask );
+			builder.addAlternative( createAlternative( i , "taxi" , taxiTrips.get( i ) ) , taxiMask );
+		}
 
-		return result;
+		return builder.build();
 	}
 
 	private boolean isCarAvailable( Person person ) {
-		return (hasCarLicense( person ) || hasMotoLicense( person ) ) &&
-				(getHouseholdInteger( person , "numberOfHouseholdCarsOwned" ) > 0 ||
-					getHouseholdInteger( person , "numberOfHouseholdMotorcyclesOwned" ) > 0 );
-	}
-
-	private Integer getHouseholdInteger( Person decisionMaker , String att ) {
-		final Id<Household> hh = person2household.get( decisionMaker.getId() );
-		if ( hh == null ) throw new IllegalStateException( "no household ID for person "+decisionMaker.getId() );
-		return (Integer) households.getHouseholdAttributes().getAttribute( hh.toString() , att );
+		return features.getBoolean( features.getPersonIndex( person.getId() ) , carAvailableIndex );
 	}
 
-	private boolean hasMotoLicense( Person decisionMaker ) {
-		final String license = (String)
-				personAttributes.getAttribute(
-						decisionMaker.getId().toString(),
-						"license_motorcycle" );
-		switch( PersonEnums.LicenseMotorcycle.parseFromDescription( license ) ) {
-			case YES:
-				return true;
-			case UNKNOWN:
-			case NO:
-				return false;
-		}
-		throw new RuntimeException();
-	}
-
-	private boolean hasCarLicense( Person decisionMaker ) {
-		final String license = (String)
-				personAttributes.getAttribute(
-						decisionMaker.getId().toString(),
-						"license_car" );
-		switch ( PersonEnums.LicenseCar.parseFromDescription( license ) ) {
-			case YES:
-				return true;
-			case UNKNOWN:
-			case NO:
-				return false;
-		}
-		throw new RuntimeException();
-	}
-
-	private Alternative<CapeTownModeNests> calcAlternative(
-			final int i,
+	private List<Trip> calcTrips(
 			final String mode,
 			final ActivityFacility origin,
-			final ActivityFacility destination,
+			final List<ActivityFacility> destinations,
 			final Person person ) {
-		final Trip trip =
-				new Trip(
-						origin ,
-						router.calcRoute(
-								mode,
-								origin,
-								destination,
-								12 * 3600,
-								person ),
-						destination );
+		return tripCalculator.calcTrips( mode , origin , destinations , 12 * 3600 , person );
+	}
 
+	private Alternative<CapeTownModeNests> createAlternative(
+			final int i,
+			final String mode,
+			final Trip trip ) {
 		return new Alternative<>(
 				CapeTownModeNests.valueOf( mode ),
 				Id.create( i+"_"+mode , Alternative.class ),
@@ -321,61 +224,7 @@ public class CapeTownNestedLogitModelChoiceSetIdentifier implements ChoiceSetIde
 		final Coord f1 = p.getCoord();
 		final Coord f2 = p.getCoord();
 
-		Collection<ActivityFacility> prism = Collections.emptyList();
-
 		final double radius = Math.max( budget_m, 1.1 * CoordUtils.calcEuclideanDistance( f1, f2 ) );
-		for ( int i=1; prism.size() < nSamples; i++ ) {
-			prism = relevantFacilities.getElliptical(f1.getX(), f1.getY(), f2.getX(), f2.getY(), i * radius);
-		}
-
-		return prism instanceof List ? (List<ActivityFacility>) prism : new ArrayList<>( prism );
-	}
-
-	private void add( Alternative<CapeTownModeNests> alternative , Nest.Builder<CapeTownModeNests>... sets ) {
-		for ( Nest.Builder<CapeTownModeNests> set : sets ) {
-			if ( set == null ) continue;
-			set.addAlternative( alternative );
-		}
-	}
-
-	private static class ChoiceSetBuilder {
-		final Nest.Builder<CapeTownModeNests> carNestBuilder;
-		final Nest.Builder<CapeTownModeNests> ptNestBuilder ;
-		final Nest.Builder<CapeTownModeNests> walkNestBuilder ;
-		final Nest.Builder<CapeTownModeNests> rideNestBuilder ;
-		final Nest.Builder<CapeTownModeNests> taxiNestBuilder ;
-
-		public ChoiceSetBuilder( final CapeTownNestedLogitModelConfigGroup c ) {
-			carNestBuilder =
-					new Nest.Builder<CapeTownModeNests>()
-							.setMu( c.getMuCar() )
-							.setName( CapeTownModeNests.car );
-			ptNestBuilder =
-					new Nest.Builder<CapeTownModeNests>()
-							.setMu( c.getMuPt() )
-							.setName( CapeTownModeNests.pt );
-			walkNestBuilder =
-					new Nest.Builder<CapeTownModeNests>()
-							.setMu( c.getMuWalk() )
-							.setName( CapeTownModeNests.walk );
-			rideNestBuilder =
-					new Nest.Builder<CapeTownModeNests>()
-							.setMu( c.getMuRide() )
-							.setName( CapeTownModeNests.ride );
-			taxiNestBuilder =
-					new Nest.Builder<CapeTownModeNests>()
-							.setMu( c.getMuTaxi() )
-							.setName( CapeTownModeNests.taxi );
-
-		}
-
-		public NestedChoiceSet<CapeTownModeNests> build() {
-			return new NestedChoiceSet<>(
-					carNestBuilder.build(),
-					ptNestBuilder.build(),
-					walkNestBuilder.build(),
-					rideNestBuilder.build(),
-					taxiNestBuilder.build());
-		}
+		return prismSearch.find( f1 , f2 , radius , nSamples ).getFacilities();
 	}
 }
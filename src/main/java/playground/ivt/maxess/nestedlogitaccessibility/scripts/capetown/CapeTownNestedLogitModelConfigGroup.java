@@ -19,6 +19,10 @@
 package playground.ivt.maxess.nestedlogitaccessibility.scripts.capetown;
 
 import org.matsim.core.config.ReflectiveConfigGroup;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.LinearUtilitySpecification;
+
+import static playground.ivt.maxess.nestedlogitaccessibility.framework.LinearUtilitySpecification.AlternativeVariable.constant;
+import static playground.ivt.maxess.nestedlogitaccessibility.framework.LinearUtilitySpecification.AlternativeVariable.logTravelTime;
 
 /**
  * @author thibautd
@@ -211,4 +215,20 @@ public class CapeTownNestedLogitModelConfigGroup extends ReflectiveConfigGroup {
 	public void setBetaTtTaxi(double betaTtTaxi) {
 		this.betaTtTaxi = betaTtTaxi;
 	}
+
+	public LinearUtilitySpecification<CapeTownModeNests> toUtilitySpecification() {
+		return new LinearUtilitySpecification.Builder<>( CapeTownModeNests.class )
+				.addTerm( CapeTownModeNests.car , constant , getAscCar() )
+				.addTerm( CapeTownModeNests.car , logTravelTime , getBetaTtCar() )
+				.addTerm( CapeTownModeNests.car , constant , CapeTownPersonFeatures.N_CARS_PER_PERSON , getBetaNCarsPerPerson() )
+				.addTerm( CapeTownModeNests.pt , constant , getAscPt() )
+				.addTerm( CapeTownModeNests.pt , logTravelTime , getBetaTtPt() )
+				.addTerm( CapeTownModeNests.walk , constant , getAscWalk() )
+				.addTerm( CapeTownModeNests.walk , logTravelTime , getBetaTtWalk() )
+				.addTerm( CapeTownModeNests.ride , constant , getAscRide() )
+				.addTerm( CapeTownModeNests.ride , logTravelTime , getBetaTtRide() )
+				.addTerm( CapeTownModeNests.taxi , constant , getAscTaxi() )
+				.addTerm( CapeTownModeNests.taxi , logTravelTime , getBetaTtTaxi() )
+				.build();
+	}
 }
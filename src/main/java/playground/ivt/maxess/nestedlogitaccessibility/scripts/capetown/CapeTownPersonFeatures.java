@@ -18,41 +18,36 @@
  * *********************************************************************** */
 package playground.ivt.maxess.nestedlogitaccessibility.scripts.capetown;
 
-import com.google.inject.Inject;
 import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.Scenario;
-import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.Person;
-import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.Population;
 import org.matsim.households.Household;
 import org.matsim.households.Households;
-import playground.ivt.maxess.nestedlogitaccessibility.framework.Alternative;
-import playground.ivt.maxess.nestedlogitaccessibility.framework.Utility;
+import org.matsim.utils.objectattributes.ObjectAttributes;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.PersonFeatureTable;
+import playground.ivt.maxess.prepareforbiogeme.tripbased.capetown.PersonEnums;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
+ * Person and household features used by {@link CapeTownNestedLogitModelChoiceSetIdentifier}
+ * and the utility of {@link CapeTownNestedLogitModelConfigGroup#toUtilitySpecification()}
+ *
  * @author thibautd
  */
-public class CapeTownNestedLogitModelUtility implements Utility<CapeTownModeNests> {
-	private final CapeTownNestedLogitModelConfigGroup pars;
+public class CapeTownPersonFeatures {
+	public static final String CAR_AVAILABLE = "carAvailable";
+	public static final String N_CARS_PER_PERSON = "nCarsPerPerson";
 
+	private final ObjectAttributes personAttributes;
 	private final Households households;
-	private final Map<Id<Person>, Id<Household>> person2household = new HashMap<>();
+	private final Map<Id<Person>,Id<Household>> person2household = new HashMap<>();
 
-	@Inject
-	public CapeTownNestedLogitModelUtility(
-			final Scenario scenario ) {
-		this( (CapeTownNestedLogitModelConfigGroup) scenario.getConfig().getModule( CapeTownNestedLogitModelConfigGroup.GROUP_NAME ),
-				scenario.getHouseholds() );
-	}
-
-	public CapeTownNestedLogitModelUtility(
-			final CapeTownNestedLogitModelConfigGroup configGroup,
+	private CapeTownPersonFeatures(
+			final ObjectAttributes personAttributes,
 			final Households households ) {
-		this.pars = configGroup;
+		this.personAttributes = personAttributes;
 		this.households = households;
 		for ( Household hh : households.getHouseholds().values() ) {
 			for ( Id<Person> personId : hh.getMemberIds() ) {
@@ -61,29 +56,17 @@ public class CapeTownNestedLogitModelUtility implements Utility<CapeTownModeNest
 		}
 	}
 
-	@Override
-	public double calcUtility( final Person p, final Alternative<CapeTownModeNests> a ) {
-		final double logTT = Math.log( 1 + getTravelTime( a ) );
-		switch ( a.getNestId() ) {
-			case car:
-				return pars.getAscCar() +
-						pars.getBetaTtCar() * logTT +
-						pars.getBetaNCarsPerPerson() * getNCarsPerPerson( p );
-			case pt:
-				return pars.getAscPt() +
-						pars.getBetaTtPt() * logTT;
-			case walk:
-				return pars.getAscWalk() +
-						pars.getBetaTtWalk() * logTT;
-			case ride:
-				return pars.getAscRide() +
-						pars.getBetaTtRide() * logTT;
-			case taxi:
-				return pars.getAscTaxi() +
-						pars.getBetaTtTaxi() * logTT;
-			default:
-				throw new RuntimeException( "unknown nest "+a.getNestId() );
-		}
+	public static PersonFeatureTable createTable(
+			final Population population,
+			final Households households ) {
+		final CapeTownPersonFeatures extractor =
+				new CapeTownPersonFeatures(
+						population.getPersonAttributes(),
+						households );
+		return new PersonFeatureTable.Builder()
+				.addBooleanFeature( CAR_AVAILABLE , extractor::isCarAvailable )
+				.addDoubleFeature( N_CARS_PER_PERSON , extractor::getNCarsPerPerson )
+				.build( population.getPersons().values() );
 	}
 
 	private double getNCarsPerPerson( final Person p ) {
@@ -94,24 +77,49 @@ public class CapeTownNestedLogitModelUtility implements Utility<CapeTownModeNest
 		return (nCars + nMotos) / hhSize;
 	}
 
+	private boolean isCarAvailable( Person person ) {
+		return (hasCarLicense( person ) || hasMotoLicense( person ) ) &&
+				(getHouseholdInteger( person , "numberOfHouseholdCarsOwned" ) > 0 ||
+					getHouseholdInteger( person , "numberOfHouseholdMotorcyclesOwned" ) > 0 );
+	}
+
 	private Integer getHouseholdInteger( Person decisionMaker , String att ) {
 		final Id<Household> hh = person2household.get( decisionMaker.getId() );
 		if ( hh == null ) throw new IllegalStateException( "no household ID for person "+decisionMaker.getId() );
 		return (Integer) households.getHouseholdAttributes().getAttribute( hh.toString() , att );
 	}
 
-
-	private double getTravelTime( Alternative<CapeTownModeNests> a ) {
-		final List<? extends PlanElement> trip = a.getAlternative().getTrip();
-
-		double tt = 0;
-
-		for ( PlanElement pe : trip ) {
-			if ( pe instanceof Leg )  {
-				tt += ( (Leg) pe ).getTravelTime();
-			}
+	private boolean hasMotoLicense( Person decisionMaker ) {
+		final String license = (String)
+				personAttributes.getAttribute(
+						decisionMaker.getId().toString(),
+						"license_motorcycle" );
+		// missing attribute is treated as unknown
+		if ( license == null ) return false;
+		switch( PersonEnums.LicenseMotorcycle.parseFromDescription( license ) ) {
+			case YES:
+				return true;
+			case UNKNOWN:
+			case NO:
+				return false;
 		}
+		throw new RuntimeException();
+	}
 
-		return tt;
+	private boolean hasCarLicense( Person decisionMaker ) {
+		final String license = (String)
+				personAttributes.getAttribute(
+						decisionMaker.getId().toString(),
+						"license_car" );
+		// missing attribute is treated as unknown
+		if ( license == null ) return false;
+		switch ( PersonEnums.LicenseCar.parseFromDescription( license ) ) {
+			case YES:
+				return true;
+			case UNKNOWN:
+			case NO:
+				return false;
+		}
+		throw new RuntimeException();
 	}
 }
@@ -33,11 +33,14 @@ import org.matsim.facilities.algorithms.WorldConnectLocations;
 import playground.ivt.maxess.nestedlogitaccessibility.framework.AccessibilityComputationResult;
 import playground.ivt.maxess.nestedlogitaccessibility.framework.BaseNestedAccessibilityComputationModule;
 import playground.ivt.maxess.nestedlogitaccessibility.framework.InjectionUtils;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.MeasuringGrid;
 import playground.ivt.maxess.nestedlogitaccessibility.framework.NestedLogitAccessibilityCalculator;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.NestedLogitComputationConfigGroup;
 import playground.ivt.maxess.nestedlogitaccessibility.scripts.AdvantageColumnCalculator;
 import playground.ivt.maxess.nestedlogitaccessibility.scripts.ModeNests;
 import playground.ivt.maxess.nestedlogitaccessibility.scripts.NestedAccessibilityConfigGroup;
 import playground.ivt.maxess.nestedlogitaccessibility.writers.BasicPersonAccessibilityWriter;
+import playground.ivt.maxess.nestedlogitaccessibility.writers.GridAccessibilityWriter;
 import playground.ivt.router.CachingFreespeedCarRouterModule;
 import playground.ivt.router.lazyschedulebasedmatrix.LazyScheduleBasedMatrixModule;
 import playground.ivt.utils.MoreIOUtils;
@@ -66,7 +69,11 @@ public class RunSimpleNestedLogitAccessibility {
 			final Config config = ConfigUtils.loadConfig(
 					configFile,
 					new SimpleNestedLogitUtilityConfigGroup(),
-					new NestedAccessibilityConfigGroup() );
+					new NestedAccessibilityConfigGroup(),
+					new NestedLogitComputationConfigGroup() );
+			final NestedLogitComputationConfigGroup computationGroup = (NestedLogitComputationConfigGroup)
+					config.getModule( NestedLogitComputationConfigGroup.GROUP_NAME );
+			if ( computationGroup.getMetricsFile() == null ) computationGroup.setMetricsFile( outputDir+"/metrics.csv" );
 			final Scenario scenario = ScenarioUtils.loadScenario( config );
 
 			// Todo: put in a scenario provider
@@ -108,8 +115,21 @@ public class RunSimpleNestedLogitAccessibility {
 							"pt_advantage",
 							"all",
 							"nopt" ) ).write( outputDir + "/accessibility_per_person.xy" );
+
+			if ( computationGroup.getMeasuringPoints() == NestedLogitComputationConfigGroup.MeasuringPoints.grid ) {
+				new GridAccessibilityWriter(
+						scenario,
+						MeasuringGrid.coveringOrigins(
+								scenario.getPopulation().getPersons().values(),
+								scenario.getActivityFacilities(),
+								computationGroup.getGridCellSize_m() ),
+						accessibilities ).write( outputDir + "/accessibility_per_cell.xy" );
+			}
 		}
 		finally {
+			if ( modelModule instanceof SimpleNestedLogitModule ) {
+				((SimpleNestedLogitModule) modelModule).closeSkimStore();
+			}
 			MoreIOUtils.closeOutputDirLogging();
 		}
 	}
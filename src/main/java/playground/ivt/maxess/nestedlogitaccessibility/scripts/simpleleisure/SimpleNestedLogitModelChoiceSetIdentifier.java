@@ -21,32 +21,32 @@ package playground.ivt.maxess.nestedlogitaccessibility.scripts.simpleleisure;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.population.Person;
-import org.matsim.core.router.TripRouter;
-import org.matsim.facilities.ActivityFacilities;
 import org.matsim.facilities.ActivityFacility;
-import org.matsim.utils.objectattributes.ObjectAttributes;
+import playground.ivt.maxess.gisutils.FacilityIndex;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.AdaptiveChoiceSetIdentifier;
 import playground.ivt.maxess.nestedlogitaccessibility.framework.Alternative;
-import playground.ivt.maxess.nestedlogitaccessibility.framework.ChoiceSetIdentifier;
-import playground.ivt.maxess.nestedlogitaccessibility.framework.Nest;
-import playground.ivt.maxess.nestedlogitaccessibility.framework.NestedChoiceSet;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.MaskedNestedChoiceSet;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.PersonFeatureTable;
 import playground.ivt.maxess.nestedlogitaccessibility.framework.PrismSampler;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.SeedableChoiceSetIdentifier;
 import playground.ivt.maxess.nestedlogitaccessibility.scripts.ModeNests;
+import playground.ivt.maxess.prepareforbiogeme.tripbased.BatchTripCalculator;
 import playground.ivt.maxess.prepareforbiogeme.tripbased.Trip;
 import playground.ivt.utils.ConcurrentStopWatch;
 
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * @author thibautd
  */
-public class SimpleNestedLogitModelChoiceSetIdentifier implements ChoiceSetIdentifier<ModeNests> {
+public class SimpleNestedLogitModelChoiceSetIdentifier implements AdaptiveChoiceSetIdentifier<ModeNests>, SeedableChoiceSetIdentifier<ModeNests> {
 	public enum Measurement { carTravelTime, ptTravelTime, bikeTravelTime, walkTravelTime, prismSampling; }
 
-	private final TripRouter router;
+	private final BatchTripCalculator tripCalculator;
 
-	private final ObjectAttributes personAttributes;
+	private final PersonFeatureTable features;
+	private final int carAvailableIndex;
+	private final int bikeAvailableIndex;
 	private final PrismSampler prismSampler;
 
 	private final SimpleNestedLogitUtilityConfigGroup configGroup;
@@ -58,192 +58,153 @@ public class SimpleNestedLogitModelChoiceSetIdentifier implements ChoiceSetIdent
 			final ConcurrentStopWatch<Measurement> stopWatch,
 			final String type,
 			final int nSamples,
-			final TripRouter router,
-			final ActivityFacilities allFacilities,
-			final ObjectAttributes personAttributes,
-			final int budget_m ) {
+			final BatchTripCalculator tripCalculator,
+			final FacilityIndex facilityIndex,
+			final PersonFeatureTable features,
+			final int budget_m,
+			final double maxPrismSize_m ) {
 		this.configGroup = configGroup;
 		this.stopWatch = stopWatch;
-		this.router = router;
-		this.personAttributes = personAttributes;
+		this.tripCalculator = tripCalculator;
+		this.features = features;
+		this.carAvailableIndex = features.getBooleanFeatureIndex( SimpleNestedLogitPersonFeatures.CAR_AVAILABLE );
+		this.bikeAvailableIndex = features.getBooleanFeatureIndex( SimpleNestedLogitPersonFeatures.BIKE_AVAILABLE );
 
-		this.prismSampler = new PrismSampler( type , nSamples , allFacilities , budget_m );
+		this.prismSampler = new PrismSampler( type , nSamples , facilityIndex , budget_m , maxPrismSize_m );
 	}
 
 	@Override
-	public Map<String, NestedChoiceSet<ModeNests>> identifyChoiceSet( final Person person ) {
-		final ChoiceSetBuilder baseBuilder = new ChoiceSetBuilder( configGroup );
-		final ChoiceSetBuilder nocarBuilder = new ChoiceSetBuilder( configGroup );
-		final ChoiceSetBuilder noptBuilder = new ChoiceSetBuilder( configGroup );
-		final ChoiceSetBuilder nobikeBuilder = new ChoiceSetBuilder( configGroup );
-		final ChoiceSetBuilder nowalkBuilder = new ChoiceSetBuilder( configGroup );
-		final ChoiceSetBuilder allBuilder = new ChoiceSetBuilder( configGroup );
-
-		// Sample and route alternatives
+	public void resetRandomSeed( final long seed ) {
+		prismSampler.resetRandomSeed( seed );
+	}
+
+	@Override
+	public MaskedNestedChoiceSet<ModeNests> identifyMaskedChoiceSet( final Person person ) {
+		final DestinationSampling<ModeNests> sampling = startDestinationSampling( person , prismSampler.getNumberOfSamples() );
+		final MaskedNestedChoiceSet<ModeNests> choiceSet = sampling.sampleDestinations( prismSampler.getNumberOfSamples() );
+		return choiceSet != null ? choiceSet : createBuilder().build();
+	}
+
+	@Override
+	public DestinationSampling<ModeNests> startDestinationSampling( final Person person, final int maxDestinations ) {
+		// Sample alternatives. Routing is done only for the destinations actually requested.
 		stopWatch.startMeasurement( Measurement.prismSampling );
 		final ActivityFacility origin = prismSampler.getOrigin( person );
-		final List<ActivityFacility> prism = prismSampler.calcSampledPrism( origin );
+		final List<ActivityFacility> prism = prismSampler.calcSampledPrism( origin , maxDestinations );
 		stopWatch.endMeasurement( Measurement.prismSampling );
 
-		int i = 0;
-		for ( ActivityFacility f : prism ) {
-			i++;
-			//-------------------------------------------------------------
+		return new Sampling( person , origin , prism );
+	}
+
+	private MaskedNestedChoiceSet.Builder<ModeNests> createBuilder() {
+		return new MaskedNestedChoiceSet.Builder<ModeNests>( "all" , "base" , "nocar" , "nobike" , "nopt" , "nowalk" )
+				.addNest( ModeNests.car , configGroup.getMuCar() )
+				.addNest( ModeNests.pt , configGroup.getMuPt() )
+				.addNest( ModeNests.bike , configGroup.getMuBike() )
+				.addNest( ModeNests.walk , configGroup.getMuWalk() );
+	}
+
+	private class Sampling implements DestinationSampling<ModeNests> {
+		private final Person person;
+		private final ActivityFacility origin;
+		private final List<ActivityFacility> prism;
+		private int nSampled = 0;
+
+		private final long carMask;
+		private final long ptMask;
+		private final long bikeMask;
+		private final long walkMask;
+
+		private Sampling(
+				final Person person,
+				final ActivityFacility origin,
+				final List<ActivityFacility> prism ) {
+			this.person = person;
+			this.origin = origin;
+			this.prism = prism;
+
+			// masks only depend on the situations, that are the same for all builders
+			final MaskedNestedChoiceSet.Builder<ModeNests> builder = createBuilder();
+			this.carMask =
+					builder.getMask( "all" , "nopt" , "nobike" , "nowalk" ) |
+							( isCarAvailable( person ) ? builder.getMask( "base" ) : 0 );
+			this.ptMask = builder.getMask( "all" , "base" , "nocar" , "nobike" , "nowalk" );
+			this.bikeMask =
+					builder.getMask( "all" , "nocar" , "nopt" , "nowalk" ) |
+							( isBikeAvailable( person ) ? builder.getMask( "base" ) : 0 );
+			this.walkMask = builder.getMask( "all" , "base" , "nocar" , "nobike" , "nopt" );
+		}
+
+		@Override
+		public int getNominalSampleSize() {
+			return prismSampler.getNumberOfSamples();
+		}
+
+		@Override
+		public int getNumberOfSampledDestinations() {
+			return nSampled;
+		}
+
+		@Override
+		public MaskedNestedChoiceSet<ModeNests> sampleDestinations( final int nDestinations ) {
+			if ( nSampled >= prism.size() ) return null;
+			final MaskedNestedChoiceSet.Builder<ModeNests> builder = createBuilder();
+
+			final int first = nSampled;
+			final int last = Math.min( prism.size() , nSampled + nDestinations );
+			final List<ActivityFacility> destinations = prism.subList( first , last );
+			nSampled = last;
+
+			// route all destinations of a mode at once, to make use of one-to-many routing
 			stopWatch.startMeasurement( Measurement.carTravelTime );
-			add(
-					calcAlternative(
-							i,
-							TransportMode.car,
-							origin,
-							f,
-							person ),
-					allBuilder.carNestBuilder,
-					isCarAvailable( person ) ?
-							baseBuilder.carNestBuilder :
-							null,
-					noptBuilder.carNestBuilder,
-					nobikeBuilder.carNestBuilder,
-					nowalkBuilder.carNestBuilder );
+			final List<Trip> carTrips = calcTrips( TransportMode.car , origin , destinations , person );
 			stopWatch.endMeasurement( Measurement.carTravelTime );
-			//-------------------------------------------------------------
 			stopWatch.startMeasurement( Measurement.ptTravelTime );
-			add(
-					calcAlternative(
-							i,
-							TransportMode.pt,
-							origin,
-							f,
-							person ),
-					allBuilder.ptNestBuilder,
-					baseBuilder.ptNestBuilder,
-					nocarBuilder.ptNestBuilder,
-					nobikeBuilder.ptNestBuilder,
-					nowalkBuilder.ptNestBuilder );
+			final List<Trip> ptTrips = calcTrips( TransportMode.pt , origin , destinations , person );
 			stopWatch.endMeasurement( Measurement.ptTravelTime );
-			//-------------------------------------------------------------
 			stopWatch.startMeasurement( Measurement.bikeTravelTime );
-			add(
-					calcAlternative(
-							i,
-							TransportMode.bike,
-							origin,
-							f,
-							person ),
-					allBuilder.bikeNestBuilder,
-					isBikeAvailable( person ) ?
-							baseBuilder.bikeNestBuilder :
-							null,
-					nocarBuilder.bikeNestBuilder,
-					noptBuilder.bikeNestBuilder,
-					nowalkBuilder.bikeNestBuilder );
+			final List<Trip> bikeTrips = calcTrips( TransportMode.bike , origin , destinations , person );
 			stopWatch.endMeasurement( Measurement.bikeTravelTime );
-			//-------------------------------------------------------------
 			stopWatch.startMeasurement( Measurement.walkTravelTime );
-			add(
-					calcAlternative(
-							i,
-							TransportMode.walk,
-							origin,
-							f,
-							person ),
-					allBuilder.walkNestBuilder,
-					baseBuilder.walkNestBuilder,
-					nocarBuilder.walkNestBuilder,
-					nobikeBuilder.walkNestBuilder,
-					noptBuilder.walkNestBuilder );
+			final List<Trip> walkTrips = calcTrips( TransportMode.walk , origin , destinations , person );
 			stopWatch.endMeasurement( Measurement.walkTravelTime );
-			//-------------------------------------------------------------
-		}
 
-		final Map<String, NestedChoiceSet<ModeNests>> result = new LinkedHashMap<>();
-		result.put( "all" , allBuilder.build() );
-		result.put( "base" , baseBuilder.build() );
-		result.put( "nocar" , nocarBuilder.build() );
-		result.put( "nobike" , nobikeBuilder.build() );
-		result.put( "nopt" , noptBuilder.build() );
-		result.put( "nowalk" , nowalkBuilder.build() );
+			for ( int j = 0; j < destinations.size(); j++ ) {
+				// destinations are numbered from 0 in the order of the prism, as in the other identifiers
+				final int i = first + j;
+				builder.addAlternative( createAlternative( i , TransportMode.car , carTrips.get( j ) ) , carMask );
+				builder.addAlternative( createAlternative( i , TransportMode.pt , ptTrips.get( j ) ) , ptMask );
+				builder.addAlternative( createAlternative( i , TransportMode.bike , bikeTrips.get( j ) ) , bikeMask );
+				builder.addAlternative( createAlternative( i , TransportMode.walk , walkTrips.get( j ) ) , walkMask );
+			}
 
-		return result;
+			return builder.build();
+		}
 	}
 
 	private boolean isBikeAvailable( Person person ) {
-		final String avail = (String)
-				personAttributes.getAttribute(
-					person.getId().toString(),
-					"availability: bicycle" );
-		return avail.equals( "always" );
+		return features.getBoolean( features.getPersonIndex( person.getId() ) , bikeAvailableIndex );
 	}
 
 	private boolean isCarAvailable( Person person ) {
-		final String avail = (String)
-				personAttributes.getAttribute(
-					person.getId().toString(),
-					"availability: car" );
-		return avail.equals( "always" );
+		return features.getBoolean( features.getPersonIndex( person.getId() ) , carAvailableIndex );
 	}
 
-	private Alternative<ModeNests> calcAlternative(
-			final int i,
+	private List<Trip> calcTrips(
 			final String mode,
 			final ActivityFacility origin,
-			final ActivityFacility destination,
+			final List<ActivityFacility> destinations,
 			final Person person ) {
-		final Trip trip =
-				new Trip(
-						origin ,
-						router.calcRoute(
-								mode,
-								origin,
-								destination,
-								12 * 3600,
-								person ),
-						destination );
+		return tripCalculator.calcTrips( mode , origin , destinations , 12 * 3600 , person );
+	}
 
+	private Alternative<ModeNests> createAlternative(
+			final int i,
+			final String mode,
+			final Trip trip ) {
 		return new Alternative<>(
 				ModeNests.valueOf( mode ),
 				Id.create( i+"_"+mode , Alternative.class ),
 				trip );
 	}
-
-	private void add( Alternative<ModeNests> alternative , Nest.Builder<ModeNests>... sets ) {
-		for ( Nest.Builder<ModeNests> set : sets ) {
-			if ( set == null ) continue;
-			set.addAlternative( alternative );
-		}
-	}
-
-	private static class ChoiceSetBuilder {
-		final Nest.Builder<ModeNests> carNestBuilder;
-		final Nest.Builder<ModeNests> ptNestBuilder ;
-		final Nest.Builder<ModeNests> bikeNestBuilder ;
-		final Nest.Builder<ModeNests> walkNestBuilder ;
-
-		public ChoiceSetBuilder( SimpleNestedLogitUtilityConfigGroup c ) {
-			carNestBuilder =
-					new Nest.Builder<ModeNests>()
-							.setMu( c.getMuCar() )
-							.setName( ModeNests.car );
-			ptNestBuilder =
-					new Nest.Builder<ModeNests>()
-							.setMu( c.getMuPt() )
-							.setName( ModeNests.pt );
-			bikeNestBuilder =
-					new Nest.Builder<ModeNests>()
-							.setMu( c.getMuBike() )
-							.setName( ModeNests.bike );
-			walkNestBuilder =
-					new Nest.Builder<ModeNests>()
-							.setMu( c.getMuWalk() )
-							.setName( ModeNests.walk );
-
-		}
-
-		public NestedChoiceSet<ModeNests> build() {
-			return new NestedChoiceSet<>(
-					carNestBuilder.build(),
-					ptNestBuilder.build(),
-					bikeNestBuilder.build(),
-					walkNestBuilder.build() );
-		}
-	}
 }
@@ -21,51 +21,140 @@ package playground.ivt.maxess.nestedlogitaccessibility.scripts.simpleleisure;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
+import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
 import org.matsim.api.core.v01.Scenario;
+import playground.ivt.maxess.gisutils.FacilityIndex;
 import playground.ivt.maxess.nestedlogitaccessibility.framework.ChoiceSetIdentifier;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.FeatureTableProfileExtractor;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.NestedLogitComputationConfigGroup;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.PersonCostEstimator;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.PersonFeatureTable;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.PersonProfileExtractor;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.PrismSampler;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.PrismSizeCostEstimator;
 import playground.ivt.maxess.nestedlogitaccessibility.framework.Utility;
 import playground.ivt.maxess.nestedlogitaccessibility.scripts.ModeNests;
 import playground.ivt.maxess.nestedlogitaccessibility.scripts.NestedAccessibilityConfigGroup;
+import playground.ivt.maxess.prepareforbiogeme.tripbased.BatchTripCalculator;
 import playground.ivt.maxess.prepareforbiogeme.tripbased.mikrozensus.RunMzTripChoiceSetConversion;
+import playground.ivt.router.SkimStore;
 import playground.ivt.router.TripSoftCache;
 import playground.ivt.utils.ConcurrentStopWatch;
+import playground.ivt.utils.RunMetrics;
 
 /**
  * @author thibautd
  */
 public class SimpleNestedLogitModule extends AbstractModule {
 	public final ConcurrentStopWatch<SimpleNestedLogitModelChoiceSetIdentifier.Measurement> stopWatch =
-			new ConcurrentStopWatch<>( SimpleNestedLogitModelChoiceSetIdentifier.Measurement.class );
-
-	// only one cache across threads
-	private final TripSoftCache cache =
-			new TripSoftCache(
-					false,
-					TripSoftCache.LocationType.link );
+			new ConcurrentStopWatch<>( SimpleNestedLogitModelChoiceSetIdentifier.Measurement.class , "choiceSet" );
+	private SkimStore skimStore = null;
 
 	@Override
 	protected void configure() {
-		bind( new TypeLiteral<Utility<ModeNests>>() {} )
-				.to( SimpleNestedLogitModelUtility.class );
 		bind( new TypeLiteral<ChoiceSetIdentifier<ModeNests>>() {} )
 				.to( SimpleNestedLogitModelChoiceSetIdentifier.class );
+		bind( PersonProfileExtractor.class ).to( FeatureTableProfileExtractor.class );
+	}
+
+	@Provides @Singleton
+	public Utility<ModeNests> createUtility(
+			final Scenario scenario,
+			final PersonFeatureTable features ) {
+		final SimpleNestedLogitUtilityConfigGroup group = (SimpleNestedLogitUtilityConfigGroup)
+				scenario.getConfig().getModule( SimpleNestedLogitUtilityConfigGroup.GROUP_NAME );
+		return group.toUtilitySpecification().compile( features );
+	}
+
+	/**
+	 * Only one cache across threads.
+	 */
+	@Provides @Singleton
+	public TripSoftCache createTripCache( final Scenario scenario ) {
+		final NestedAccessibilityConfigGroup group = (NestedAccessibilityConfigGroup)
+				scenario.getConfig().getModule( NestedAccessibilityConfigGroup.GROUP_NAME );
+		final TripSoftCache cache =
+				new TripSoftCache(
+						false,
+						TripSoftCache.LocationType.link,
+						group.getRouteCacheSize_MB() * 1024L * 1024L );
+
+		RunMetrics.global().gauge( "tripCache.hitRate" , cache::getHitRate );
+		RunMetrics.global().gauge( "tripCache.evictions" , cache::getEvictions );
+		RunMetrics.global().gauge( "tripCache.rejections" , cache::getRejections );
+		RunMetrics.global().gauge( "tripCache.weight_MB" , () -> cache.getWeight() / ( 1024d * 1024d ) );
+		return cache;
 	}
 
 	@Provides
-	public SimpleNestedLogitModelChoiceSetIdentifier createChoiceSetIdentifier( final Scenario scenario ) {
+	public SimpleNestedLogitModelChoiceSetIdentifier createChoiceSetIdentifier(
+			final Scenario scenario,
+			final FacilityIndex facilityIndex,
+			final TripSoftCache cache,
+			final PersonFeatureTable features ) {
 		final NestedAccessibilityConfigGroup group = (NestedAccessibilityConfigGroup)
 				scenario.getConfig().getModule( NestedAccessibilityConfigGroup.GROUP_NAME );
+		final NestedLogitComputationConfigGroup computationGroup = (NestedLogitComputationConfigGroup)
+				scenario.getConfig().getModule( NestedLogitComputationConfigGroup.GROUP_NAME );
+		if ( group.isSkimOnly() && computationGroup != null && computationGroup.getInfrastructureUsageFile() != null ) {
+			throw new IllegalStateException( "infrastructure usage cannot be recorded with skim only routing" );
+		}
 		return new SimpleNestedLogitModelChoiceSetIdentifier(
 				(SimpleNestedLogitUtilityConfigGroup)  scenario.getConfig().getModule( SimpleNestedLogitUtilityConfigGroup.GROUP_NAME ),
 				stopWatch,
 				group.getActivityType(),
 				group.getChoiceSetSize(),
-				RunMzTripChoiceSetConversion.createTripRouter(
-						scenario,
-						cache ),
-				scenario.getActivityFacilities(),
-				scenario.getPopulation().getPersonAttributes(),
-				group.getDistanceBudget() );
+				new BatchTripCalculator(
+						RunMzTripChoiceSetConversion.createTripRouter(
+								scenario,
+								cache,
+								getSkimStore( scenario ) ),
+						scenario.getConfig().plansCalcRoute(),
+						group.isSkimOnly() ),
+				facilityIndex,
+				features,
+				group.getDistanceBudget(),
+				group.getMaxPrismSize_m() );
+	}
+
+	/**
+	 * Only one store across threads, opened when first needed. Null if not configured.
+	 */
+	private synchronized SkimStore getSkimStore( final Scenario scenario ) {
+		final NestedAccessibilityConfigGroup group = (NestedAccessibilityConfigGroup)
+				scenario.getConfig().getModule( NestedAccessibilityConfigGroup.GROUP_NAME );
+		if ( skimStore == null ) {
+			skimStore = SkimStore.openForRun( group.getSkimStoreFile() , group.isSkimOnly() , scenario , group.getSkimStoreSize_MB() );
+		}
+		return skimStore;
+	}
+
+	/**
+	 * Writes the skim store to disk and releases it, if it was opened. To call at the end of the run.
+	 */
+	public synchronized void closeSkimStore() {
+		if ( skimStore != null ) skimStore.close();
+		skimStore = null;
+	}
+
+	@Provides @Singleton
+	public PersonFeatureTable createFeatureTable( final Scenario scenario ) {
+		return SimpleNestedLogitPersonFeatures.createTable( scenario.getPopulation() );
+	}
+
+	@Provides @Singleton
+	public PersonCostEstimator createCostEstimator(
+			final Scenario scenario,
+			final FacilityIndex facilityIndex ) {
+		final NestedAccessibilityConfigGroup group = (NestedAccessibilityConfigGroup)
+				scenario.getConfig().getModule( NestedAccessibilityConfigGroup.GROUP_NAME );
+		return new PrismSizeCostEstimator(
+				new PrismSampler(
+						group.getActivityType(),
+						group.getChoiceSetSize(),
+						facilityIndex,
+						group.getDistanceBudget(),
+						group.getMaxPrismSize_m() ) );
 	}
 }
@@ -0,0 +1,64 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.scripts.simpleleisure;
+
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.utils.objectattributes.ObjectAttributes;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.PersonFeatureTable;
+
+/**
+ * Person features used by {@link SimpleNestedLogitModelChoiceSetIdentifier} and the utility of
+ * {@link SimpleNestedLogitUtilityConfigGroup#toUtilitySpecification()}
+ *
+ * @author thibautd
+ */
+public class SimpleNestedLogitPersonFeatures {
+	public static final String CAR_AVAILABLE = "carAvailable";
+	public static final String BIKE_AVAILABLE = "bikeAvailable";
+	public static final String HAS_LICENSE = "hasLicense";
+	public static final String HAS_LOCAL_ABO = "hasLocalAbo";
+	public static final String HAS_HT = "hasHalbtax";
+	public static final String HAS_GA = "hasGA";
+
+	private SimpleNestedLogitPersonFeatures() {}
+
+	public static PersonFeatureTable createTable( final Population population ) {
+		final ObjectAttributes attributes = population.getPersonAttributes();
+		return new PersonFeatureTable.Builder()
+				.addBooleanFeature( CAR_AVAILABLE , p -> is( attributes , p , "availability: car" , "always" ) )
+				.addBooleanFeature( BIKE_AVAILABLE , p -> is( attributes , p , "availability: bicycle" , "always" ) )
+				.addBooleanFeature( HAS_LICENSE , p -> is( attributes , p , "driving licence" , "yes" ) )
+				.addBooleanFeature( HAS_LOCAL_ABO , p -> is( attributes , p , "abonnement: Verbund" , "yes" ) )
+				.addBooleanFeature( HAS_HT , p -> is( attributes , p , "abonnement: Halbtax" , "yes" ) )
+				.addBooleanFeature( HAS_GA , p ->
+						is( attributes , p , "abonnement: GA first class" , "yes" ) ||
+						is( attributes , p , "abonnement: GA second class" , "yes" ) )
+				.build( population.getPersons().values() );
+	}
+
+	private static boolean is(
+			final ObjectAttributes attributes,
+			final Person p,
+			final String attribute,
+			final String value ) {
+		final String actual = (String) attributes.getAttribute( p.getId().toString() , attribute );
+		return value.equals( actual );
+	}
+}
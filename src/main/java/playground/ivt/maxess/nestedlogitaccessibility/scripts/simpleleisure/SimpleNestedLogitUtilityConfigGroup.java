@@ -19,6 +19,11 @@
 package playground.ivt.maxess.nestedlogitaccessibility.scripts.simpleleisure;
 
 import org.matsim.core.config.ReflectiveConfigGroup;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.LinearUtilitySpecification;
+import playground.ivt.maxess.nestedlogitaccessibility.scripts.ModeNests;
+
+import static playground.ivt.maxess.nestedlogitaccessibility.framework.LinearUtilitySpecification.AlternativeVariable.constant;
+import static playground.ivt.maxess.nestedlogitaccessibility.framework.LinearUtilitySpecification.AlternativeVariable.logTravelTime;
 
 /**
  * @author thibautd
@@ -211,4 +216,21 @@ public class SimpleNestedLogitUtilityConfigGroup extends ReflectiveConfigGroup {
 	public void setMuWalk( final double muWalk ) {
 		this.muWalk = muWalk;
 	}
+
+	public LinearUtilitySpecification<ModeNests> toUtilitySpecification() {
+		return new LinearUtilitySpecification.Builder<>( ModeNests.class )
+				.addTerm( ModeNests.car , constant , getAscCar() )
+				.addTerm( ModeNests.car , logTravelTime , getBetaTtCar() )
+				.addTerm( ModeNests.pt , constant , getAscPt() )
+				.addTerm( ModeNests.pt , logTravelTime , getBetaTtPt() )
+				.addTerm( ModeNests.pt , logTravelTime , SimpleNestedLogitPersonFeatures.HAS_GA , getBetaTtPtGa() )
+				.addTerm( ModeNests.pt , logTravelTime , SimpleNestedLogitPersonFeatures.HAS_HT , getBetaTtPtHt() )
+				.addTerm( ModeNests.pt , logTravelTime , SimpleNestedLogitPersonFeatures.HAS_LOCAL_ABO , getBetaTtPtLocal() )
+				.addTerm( ModeNests.bike , constant , getAscBike() )
+				.addTerm( ModeNests.bike , logTravelTime , getBetaTtBike() )
+				.addTerm( ModeNests.bike , constant , SimpleNestedLogitPersonFeatures.HAS_LICENSE , getBetaLicenseBike() )
+				.addTerm( ModeNests.walk , constant , getAscWalk() )
+				.addTerm( ModeNests.walk , logTravelTime , getBetaTtWalk() )
+				.build();
+	}
 }
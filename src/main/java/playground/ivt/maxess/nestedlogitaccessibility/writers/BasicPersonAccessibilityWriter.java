@@ -35,7 +35,7 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 /**
  * @author thibautd
@@ -69,30 +69,43 @@ public class BasicPersonAccessibilityWriter implements MatsimWriter {
 			for ( String name : accessibilityPerPerson.getTypes() ) {
 				writer.write( "\taccessibility_"+name );
 			}
+			final Set<String> diagnostics = accessibilityPerPerson.getDiagnosticTypes();
+			for ( String name : diagnostics ) {
+				writer.write( "\t"+name );
+			}
 			for ( ColumnCalculator c : additionalColumns ) {
 				writer.write( "\t"+c.getColumnName() );
 			}
 
-			for ( Map.Entry<Id<Person>,AccessibilityComputationResult.PersonAccessibilityComputationResult> e : accessibilityPerPerson.getResultsPerPerson().entrySet() ) {
+			final Set<String> types = accessibilityPerPerson.getTypes();
+			for ( int i = 0; i < accessibilityPerPerson.getNumberOfPersons(); i++ ) {
+				if ( !accessibilityPerPerson.hasResults( i ) ) continue;
 				lineCounter.incCounter();
-				final Person person = scenario.getPopulation().getPersons().get( e.getKey() );
+				final Person person = scenario.getPopulation().getPersons().get( accessibilityPerPerson.getPersonId( i ) );
 				final Activity firstActivity = (Activity) person.getSelectedPlan().getPlanElements().get( 0 );
 				final Id<ActivityFacility> facilityId = firstActivity.getFacilityId();
 				final Coord coord = firstActivity.getCoord() != null ?
 							firstActivity.getCoord() :
 							scenario.getActivityFacilities().getFacilities().get( facilityId ).getCoord();
-				final Map<String, Double> accessibilities = e.getValue().getAccessibilities();
 
 				writer.newLine();
 				writer.write( person.getId()+"\t" );
 				writer.write( facilityId+"\t" );
 				writer.write( coord.getX() + "\t" + coord.getY() );
-				for ( String name : accessibilityPerPerson.getTypes() ) {
-					final Double a = accessibilities.get( name );
-					writer.write( "\t"+( a != null ? a : "NA" ) );
+				for ( String name : types ) {
+					final double a = accessibilityPerPerson.getAccessibility( i , name );
+					writer.write( "\t"+( !Double.isNaN( a ) ? a : "NA" ) );
+				}
+				for ( String name : diagnostics ) {
+					final double d = accessibilityPerPerson.getDiagnostic( i , name );
+					writer.write( "\t"+( !Double.isNaN( d ) ? d : "NA" ) );
 				}
-				for ( ColumnCalculator c : additionalColumns ) {
-					writer.write( "\t"+c.computeValue( e.getValue() ) );
+				if ( !additionalColumns.isEmpty() ) {
+					final AccessibilityComputationResult.PersonAccessibilityComputationResult personResults =
+							accessibilityPerPerson.getResults( i );
+					for ( ColumnCalculator c : additionalColumns ) {
+						writer.write( "\t"+c.computeValue( personResults ) );
+					}
 				}
 			}
 			lineCounter.printCounter();
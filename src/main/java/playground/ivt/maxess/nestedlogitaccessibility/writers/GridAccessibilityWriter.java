@@ -0,0 +1,131 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.writers;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.api.internal.MatsimWriter;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.core.utils.io.UncheckedIOException;
+import org.matsim.core.utils.misc.Counter;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.AccessibilityComputationResult;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.MeasuringGrid;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the accessibility per cell of a {@link MeasuringGrid}, as the average over the persons living in the cell.
+ * As persons with the same profile in a cell share the same result in grid mode, this is the population weighted
+ * average of the logsums of the profiles present in the cell.
+ *
+ * @author thibautd
+ */
+public class GridAccessibilityWriter implements MatsimWriter {
+	private static final Logger log = Logger.getLogger( GridAccessibilityWriter.class );
+	private final AccessibilityComputationResult accessibilityPerPerson;
+	private final Scenario scenario;
+	private final MeasuringGrid grid;
+
+	public GridAccessibilityWriter(
+			final Scenario scenario,
+			final MeasuringGrid grid,
+			final AccessibilityComputationResult accessibilityPerPerson ) {
+		this.accessibilityPerPerson = accessibilityPerPerson;
+		this.scenario = scenario;
+		this.grid = grid;
+	}
+
+	@Override
+	public void write( final String filename ) {
+		log.info( "Write accessibility per cell to file "+filename );
+		final List<String> types = new ArrayList<>( accessibilityPerPerson.getTypes() );
+
+		final TLongObjectMap<CellStats> stats = new TLongObjectHashMap<>();
+		for ( int i = 0; i < accessibilityPerPerson.getNumberOfPersons(); i++ ) {
+			if ( !accessibilityPerPerson.hasResults( i ) ) continue;
+			final Person person = scenario.getPopulation().getPersons().get( accessibilityPerPerson.getPersonId( i ) );
+			final long cell = grid.getCellIndex( MeasuringGrid.getOriginCoord( person , scenario.getActivityFacilities() ) );
+
+			CellStats cellStats = stats.get( cell );
+			if ( cellStats == null ) {
+				cellStats = new CellStats( types.size() );
+				stats.put( cell , cellStats );
+			}
+			cellStats.add( types , accessibilityPerPerson , i );
+		}
+
+		final Counter lineCounter = new Counter( "write accessibility for cell # " );
+		try ( final BufferedWriter writer = IOUtils.getBufferedWriter( filename ) ) {
+			writer.write( "cell_id\tx\ty\tn_persons" );
+			for ( String name : types ) {
+				writer.write( "\taccessibility_"+name );
+			}
+
+			final long[] cells = stats.keys();
+			Arrays.sort( cells );
+			for ( long cell : cells ) {
+				lineCounter.incCounter();
+				final CellStats cellStats = stats.get( cell );
+				final Coord center = grid.getCellCenter( cell );
+
+				writer.newLine();
+				writer.write( cell+"\t" );
+				writer.write( center.getX() + "\t" + center.getY() + "\t" );
+				writer.write( ""+cellStats.nPersons );
+				for ( int i = 0; i < types.size(); i++ ) {
+					writer.write( "\t"+( cellStats.counts[ i ] > 0 ? cellStats.sums[ i ] / cellStats.counts[ i ] : "NA" ) );
+				}
+			}
+			lineCounter.printCounter();
+			log.info( "Write accessibility per cell to file "+filename+" : DONE" );
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	private static class CellStats {
+		private int nPersons = 0;
+		private final double[] sums;
+		private final int[] counts;
+
+		CellStats( final int nTypes ) {
+			this.sums = new double[ nTypes ];
+			this.counts = new int[ nTypes ];
+		}
+
+		void add( final List<String> types, final AccessibilityComputationResult results, final int personIndex ) {
+			nPersons++;
+			for ( int i = 0; i < types.size(); i++ ) {
+				final double a = results.getAccessibility( personIndex , types.get( i ) );
+				if ( Double.isNaN( a ) ) continue;
+				sums[ i ] += a;
+				counts[ i ]++;
+			}
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.writers;
+
+import org.apache.log4j.Logger;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.core.utils.io.UncheckedIOException;
+import org.matsim.core.utils.misc.Counter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Combines the files written by {@link BasicPersonAccessibilityWriter} in the different shards of a sharded run
+ * into one file.
+ * Columns are the union of the columns of the shards, in order of first appearance. Values missing in a shard are
+ * written as NA. A person appearing in several shards is an error, as it means shards were not configured consistently.
+ * <br>
+ * Usage: MergeShardedAccessibilityFiles outputFile shardFile1 shardFile2 ...
+ *
+ * @author thibautd
+ */
+public class MergeShardedAccessibilityFiles {
+	private static final Logger log = Logger.getLogger( MergeShardedAccessibilityFiles.class );
+
+	public static void main( final String... args ) {
+		if ( args.length < 2 ) {
+			throw new IllegalArgumentException( "usage: outputFile shardFile1 [shardFile2 ...]" );
+		}
+		merge( args[ 0 ] , Arrays.asList( args ).subList( 1 , args.length ) );
+	}
+
+	public static void merge( final String outputFile, final List<String> shardFiles ) {
+		final Set<String> columns = new LinkedHashSet<>();
+		for ( String file : shardFiles ) {
+			columns.addAll( readHeader( file ) );
+		}
+		log.info( "Merge "+shardFiles.size()+" shard files with columns "+columns+" into "+outputFile );
+		if ( columns.isEmpty() || !columns.iterator().next().equals( "person_id" ) ) {
+			throw new IllegalArgumentException( "first column should be person_id in all shard files, got "+columns );
+		}
+
+		final List<String> outputColumns = new ArrayList<>( columns );
+		final Set<String> seenPersons = new HashSet<>();
+		final Counter counter = new Counter( "merge accessibility for person # " );
+
+		try ( final BufferedWriter writer = IOUtils.getBufferedWriter( outputFile ) ) {
+			writer.write( String.join( "\t" , outputColumns ) );
+
+			for ( String file : shardFiles ) {
+				log.info( "Merge shard file "+file );
+				try ( final BufferedReader reader = IOUtils.getBufferedReader( file ) ) {
+					final Map<String, Integer> shardIndices = new HashMap<>();
+					final String[] header = reader.readLine().split( "\t" );
+					for ( int i = 0; i < header.length; i++ ) shardIndices.put( header[ i ] , i );
+
+					final int[] shardColumn = new int[ outputColumns.size() ];
+					for ( int i = 0; i < shardColumn.length; i++ ) {
+						final Integer index = shardIndices.get( outputColumns.get( i ) );
+						shardColumn[ i ] = index == null ? -1 : index;
+					}
+
+					for ( String line = reader.readLine(); line != null; line = reader.readLine() ) {
+						if ( line.isEmpty() ) continue;
+						final String[] fields = line.split( "\t" , -1 );
+						if ( !seenPersons.add( fields[ 0 ] ) ) {
+							throw new IllegalStateException( "person "+fields[ 0 ]+" found in several shards. Last one: "+file );
+						}
+						counter.incCounter();
+
+						writer.newLine();
+						for ( int i = 0; i < shardColumn.length; i++ ) {
+							if ( i > 0 ) writer.write( "\t" );
+							writer.write( shardColumn[ i ] < 0 || shardColumn[ i ] >= fields.length ?
+									"NA" :
+									fields[ shardColumn[ i ] ] );
+						}
+					}
+				}
+			}
+			counter.printCounter();
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	private static List<String> readHeader( final String file ) {
+		try ( final BufferedReader reader = IOUtils.getBufferedReader( file ) ) {
+			final String header = reader.readLine();
+			if ( header == null ) throw new IllegalArgumentException( "empty shard file "+file );
+			return Arrays.asList( header.split( "\t" ) );
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+}
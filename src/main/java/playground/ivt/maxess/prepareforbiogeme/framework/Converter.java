@@ -25,12 +25,13 @@ import org.matsim.api.core.v01.population.Population;
 import org.matsim.core.utils.io.UncheckedIOException;
 import org.matsim.core.utils.misc.Counter;
 import playground.ivt.maxess.prepareforbiogeme.framework.ChoiceDataSetWriter.ChoiceSetRecordFiller;
+import playground.ivt.utils.RunMetrics;
 
 import java.io.IOException;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -43,13 +44,16 @@ public class Converter<T,C extends ChoiceSituation<T>> {
 	private final ThreadLocal<ChoicesIdentifier<C>> choicesIdentifier;
 
 	private final int nThreads;
+	private final String metricsFile;
 
 	private Converter(
 			final int nThreads,
+			final String metricsFile,
 			final Provider<ChoiceSetSampler<T,C>> choiceSetSampler,
 			final ChoiceSetRecordFiller<T> recordFiller,
 			final Provider<ChoicesIdentifier<C>> choicesIdentifier) {
 		this.nThreads = nThreads;
+		this.metricsFile = metricsFile;
 		this.choiceSetSampler = new ThreadLocal<ChoiceSetSampler<T, C>>() {
 			@Override
 			protected ChoiceSetSampler<T, C> initialValue() {
@@ -70,14 +74,22 @@ public class Converter<T,C extends ChoiceSituation<T>> {
 	}
 
 	public void convert( final Population chains , final String dataset ) {
-		final ExecutorService executor = Executors.newFixedThreadPool( nThreads );
+		final ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool( nThreads );
+
+		final RunMetrics.Meter personsMeter = RunMetrics.global().meter( "conversion.persons" );
+		final RunMetrics.Meter choiceSetsMeter = RunMetrics.global().meter( "conversion.choiceSets" );
+		final RunMetrics.Stage samplingStage = RunMetrics.global().stage( "conversion.choiceSetSampling" );
 
 		log.info( "start conversion" );
-		try ( final ChoiceDataSetWriter<T> writer = new ChoiceDataSetWriter<>( recordFiller , dataset ) ) {
+		try ( final ChoiceDataSetWriter<T> writer = new ChoiceDataSetWriter<>( recordFiller , dataset );
+			  final RunMetrics.Reporting metrics = startMetricsReporting() ) {
 			log.info( "start data writing thread" );
 			final WritingRunnable runnable = new WritingRunnable( writer );
 			final Thread writerThread = new Thread( runnable );
 
+			RunMetrics.global().gauge( "conversion.pendingTasks" , () -> executor.getQueue().size() );
+			RunMetrics.global().gauge( "conversion.writeQueueDepth" , runnable.queue::size );
+
 			writerThread.start();
 
 			log.info( "Submit tasks to worker threads" );
@@ -96,9 +108,13 @@ public class Converter<T,C extends ChoiceSituation<T>> {
 							public void run() {
 								try {
 									for (C choice : choicesIdentifier.get().identifyChoices(pf.getSelectedPlan())) {
+										final long start = System.nanoTime();
 										final ChoiceSet<T> set = choiceSetSampler.get().sampleChoiceSet(pf, choice);
+										samplingStage.record( System.nanoTime() - start );
+										choiceSetsMeter.mark();
 										runnable.queue.add(set);
 									}
+									personsMeter.mark();
 								}
 								catch (Throwable t) {
 									// Bypass an anoying feature of the Executor, that creates new threads if a thread
@@ -128,6 +144,15 @@ public class Converter<T,C extends ChoiceSituation<T>> {
 		catch (InterruptedException e) {
 			throw new RuntimeException( e );
 		}
+		finally {
+			RunMetrics.global().removeGauge( "conversion.pendingTasks" );
+			RunMetrics.global().removeGauge( "conversion.writeQueueDepth" );
+		}
+	}
+
+	private RunMetrics.Reporting startMetricsReporting() {
+		if ( metricsFile == null ) return null;
+		return RunMetrics.global().startReporting( "conversion" , metricsFile , 30 , TimeUnit.SECONDS );
 	}
 
 	private class  WritingRunnable implements Runnable {
@@ -160,6 +185,7 @@ public class Converter<T,C extends ChoiceSituation<T>> {
 		private ChoiceSetRecordFiller<T> recordFiller;
 		private Provider<ChoicesIdentifier<C>> choicesIdentifier;
 		private int nThreads = 1;
+		private String metricsFile = null;
 
 		public ConverterBuilder<T,C> withChoiceSetSampler(final Provider<ChoiceSetSampler<T,C>> choiceSetSampler) {
 			this.choiceSetSampler = choiceSetSampler;
@@ -181,8 +207,17 @@ public class Converter<T,C extends ChoiceSituation<T>> {
 			return this;
 		}
 
+		/**
+		 * @param metricsFile CSV file where throughput, queue depths and latencies are periodically written
+		 * during the conversion.
+		 */
+		public ConverterBuilder<T,C> withMetricsFile(final String metricsFile) {
+			this.metricsFile = metricsFile;
+			return this;
+		}
+
 		public Converter<T,C> create() {
-			return new Converter(nThreads, choiceSetSampler, recordFiller, choicesIdentifier);
+			return new Converter(nThreads, metricsFile, choiceSetSampler, recordFiller, choicesIdentifier);
 		}
 	}
 }
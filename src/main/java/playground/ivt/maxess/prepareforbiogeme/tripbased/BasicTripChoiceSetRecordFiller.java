@@ -22,10 +22,8 @@ import gnu.trove.map.TLongObjectMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.population.PersonUtils;
-import org.matsim.core.utils.misc.Time;
 import playground.ivt.maxess.prepareforbiogeme.framework.ChoiceDataSetWriter.ChoiceSetRecordFiller;
 import playground.ivt.maxess.prepareforbiogeme.framework.ChoiceSet;
 
@@ -119,17 +117,7 @@ public class BasicTripChoiceSetRecordFiller implements ChoiceSetRecordFiller<Tri
 	}
 
 	private double getTravelTime(final Trip alternative) {
-		double tt = 0;
-
-		for ( Leg l : alternative.getLegsOnly() ) {
-			if ( l.getTravelTime() == Time.UNDEFINED_TIME ) {
-				log.warn("undefined travel time for " + alternative);
-				return -99;
-			}
-			tt += l.getTravelTime();
-		}
-
-		return tt;
+		return RecordFillerUtils.getTravelTime( alternative );
 	}
 
 
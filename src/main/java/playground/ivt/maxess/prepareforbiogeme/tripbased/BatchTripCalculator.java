@@ -0,0 +1,158 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.prepareforbiogeme.tripbased;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.config.groups.PlansCalcRouteConfigGroup;
+import org.matsim.core.config.groups.PlansCalcRouteConfigGroup.ModeRoutingParams;
+import org.matsim.core.router.RoutingModule;
+import org.matsim.core.router.TeleportationRoutingModule;
+import org.matsim.core.router.TripRouter;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.facilities.ActivityFacility;
+import playground.ivt.router.BatchRoutingModule;
+import playground.ivt.router.CachingRoutingModuleWrapper;
+import playground.ivt.router.SkimRoutingModule;
+import playground.ivt.router.TripRecord;
+import playground.ivt.router.TripSkim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes the trips from one origin to a list of destinations for a mode.
+ * Teleported modes are computed directly from the beeline distance, with exactly the same values as the
+ * teleportation routing module, but without creating plan elements.
+ * Other modes are routed in batch. Cached trips are kept as compact records.
+ * In skim-only mode, only the level of service is computed, allowing routing modules to skip route construction.
+ *
+ * @author thibautd
+ */
+public class BatchTripCalculator {
+	private final TripRouter router;
+	private final PlansCalcRouteConfigGroup config;
+	private final boolean skimOnly;
+
+	public BatchTripCalculator(
+			final TripRouter router,
+			final PlansCalcRouteConfigGroup config ) {
+		this( router , config , false );
+	}
+
+	public BatchTripCalculator(
+			final TripRouter router,
+			final PlansCalcRouteConfigGroup config,
+			final boolean skimOnly ) {
+		this.router = router;
+		this.config = config;
+		this.skimOnly = skimOnly;
+	}
+
+	public List<Trip> calcTrips(
+			final String mode,
+			final ActivityFacility origin,
+			final List<ActivityFacility> destinations,
+			final double departureTime,
+			final Person person ) {
+		final ModeRoutingParams params = getTeleportationParams( mode );
+		final List<Trip> trips = new ArrayList<>( destinations.size() );
+
+		if ( params != null ) {
+			final double[] travelTimes = new double[ destinations.size() ];
+			final double[] distances = new double[ destinations.size() ];
+			calcTeleportationSkims( params , origin.getCoord() , destinations , travelTimes , distances );
+
+			for ( int i = 0; i < destinations.size(); i++ ) {
+				final TripSkim skim = new TripSkim( mode , departureTime , travelTimes[ i ] , distances[ i ] , 0 , 0 );
+				trips.add( new Trip( origin , skim , destinations.get( i ) ) );
+			}
+			return trips;
+		}
+
+		if ( skimOnly ) {
+			final List<TripSkim> skims =
+					SkimRoutingModule.calcSkims(
+							router,
+							mode,
+							origin,
+							destinations,
+							departureTime,
+							person );
+			for ( int i = 0; i < destinations.size(); i++ ) {
+				trips.add( new Trip( origin , skims.get( i ) , destinations.get( i ) ) );
+			}
+			return trips;
+		}
+
+		final RoutingModule module = router.getRoutingModule( mode );
+		if ( module instanceof CachingRoutingModuleWrapper ) {
+			// avoid creating plan elements for cached trips
+			final List<TripRecord> records =
+					( (CachingRoutingModuleWrapper) module ).calcRecords(
+							origin,
+							destinations,
+							departureTime,
+							person );
+			for ( int i = 0; i < destinations.size(); i++ ) {
+				trips.add( new Trip( origin , records.get( i ) , destinations.get( i ) ) );
+			}
+			return trips;
+		}
+
+		final List<List<? extends PlanElement>> routes =
+				BatchRoutingModule.calcRoutes(
+						router,
+						mode,
+						origin,
+						destinations,
+						departureTime,
+						person );
+		for ( int i = 0; i < destinations.size(); i++ ) {
+			trips.add( new Trip( origin , routes.get( i ) , destinations.get( i ) ) );
+		}
+		return trips;
+	}
+
+	/**
+	 * @return the parameters if the mode is routed by a teleportation routing module, null otherwise
+	 */
+	private ModeRoutingParams getTeleportationParams( final String mode ) {
+		if ( !( router.getRoutingModule( mode ) instanceof TeleportationRoutingModule ) ) return null;
+		final ModeRoutingParams params = config.getModeRoutingParams().get( mode );
+		return params != null && params.getTeleportedModeSpeed() != null ? params : null;
+	}
+
+	private static void calcTeleportationSkims(
+			final ModeRoutingParams params,
+			final Coord origin,
+			final List<ActivityFacility> destinations,
+			final double[] travelTimes,
+			final double[] distances ) {
+		final double beelineFactor = params.getBeelineDistanceFactor();
+		final double speed = params.getTeleportedModeSpeed();
+
+		for ( int i = 0; i < travelTimes.length; i++ ) {
+			distances[ i ] = beelineFactor * CoordUtils.calcEuclideanDistance( origin , destinations.get( i ).getCoord() );
+			// the teleportation routing module rounds travel times down to the second
+			travelTimes[ i ] = (int) ( distances[ i ] / speed );
+		}
+	}
+}
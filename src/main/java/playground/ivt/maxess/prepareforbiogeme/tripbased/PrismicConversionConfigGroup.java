@@ -23,6 +23,7 @@ import org.matsim.core.config.ReflectiveConfigGroup;
 import org.matsim.core.utils.collections.CollectionUtils;
 
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -34,8 +35,12 @@ public class PrismicConversionConfigGroup extends ReflectiveConfigGroup {
 
 	// TODO search reasonable defauls
 	private double budget_m = 20000;
+	private double maxPrismSize_m = Double.POSITIVE_INFINITY;
 	private int choiceSetSize = 150;
 	private int nThreads = 4;
+	private boolean skimOnly = false;
+	private String skimStoreFile = null;
+	private int skimStoreSize_MB = 1024;
 
 	private String outputPath = null;
 
@@ -61,6 +66,17 @@ public class PrismicConversionConfigGroup extends ReflectiveConfigGroup {
 		this.budget_m = budget_m;
 	}
 
+	@StringGetter( "maxPrismSize_m" )
+	public double getMaxPrismSize_m() {
+		return maxPrismSize_m;
+	}
+
+	@StringSetter( "maxPrismSize_m" )
+	public void setMaxPrismSize_m(final double maxPrismSize_m) {
+		if ( maxPrismSize_m <= 0 ) throw new IllegalArgumentException( "maximum prism size must be positive, got "+maxPrismSize_m );
+		this.maxPrismSize_m = maxPrismSize_m;
+	}
+
 	@StringGetter( "choiceSetSize" )
 	public int getChoiceSetSize() {
 		return choiceSetSize;
@@ -118,4 +134,45 @@ public class PrismicConversionConfigGroup extends ReflectiveConfigGroup {
 	public void setNumberOfThreads(int nThreads) {
 		this.nThreads = nThreads;
 	}
+
+	@StringGetter( "skimOnly" )
+	public boolean isSkimOnly() {
+		return skimOnly;
+	}
+
+	@StringSetter( "skimOnly" )
+	public void setSkimOnly( final boolean skimOnly ) {
+		this.skimOnly = skimOnly;
+	}
+
+	@StringGetter( "skimStoreFile" )
+	public String getSkimStoreFile() {
+		return skimStoreFile;
+	}
+
+	@StringSetter( "skimStoreFile" )
+	public void setSkimStoreFile( final String skimStoreFile ) {
+		this.skimStoreFile = skimStoreFile;
+	}
+
+	@StringGetter( "skimStoreSize_MB" )
+	public int getSkimStoreSize_MB() {
+		return skimStoreSize_MB;
+	}
+
+	@StringSetter( "skimStoreSize_MB" )
+	public void setSkimStoreSize_MB( final int skimStoreSize_MB ) {
+		if ( skimStoreSize_MB <= 0 ) throw new IllegalArgumentException( "skim store size must be positive, got "+skimStoreSize_MB );
+		this.skimStoreSize_MB = skimStoreSize_MB;
+	}
+
+	@Override
+	public Map<String, String> getComments() {
+		final Map<String, String> comments = super.getComments();
+		comments.put( "skimOnly" , "if true, alternatives only get travel times and distances, without routes. " +
+				"Sufficient for the record fillers, and much cheaper to compute." );
+		comments.put( "skimStoreFile" , "if set, skims are stored in this file and reused by later runs on the same network, " +
+				"schedule and routing configuration. Can be shared by concurrent runs. Requires skimOnly." );
+		return comments;
+	}
 }
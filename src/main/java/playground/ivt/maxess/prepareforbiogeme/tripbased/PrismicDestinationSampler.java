@@ -20,17 +20,15 @@ package playground.ivt.maxess.prepareforbiogeme.tripbased;
 
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.population.Person;
-import org.matsim.contrib.socnetsim.utils.QuadTreeRebuilder;
-import org.matsim.core.gbl.MatsimRandom;
-import org.matsim.core.utils.collections.QuadTree;
 import org.matsim.core.utils.geometry.CoordUtils;
-import org.matsim.facilities.ActivityFacilities;
 import org.matsim.facilities.ActivityFacility;
+import playground.ivt.maxess.gisutils.FacilityIndex;
+import playground.ivt.maxess.gisutils.PrismSearch;
 import playground.ivt.maxess.prepareforbiogeme.tripbased.RoutingChoiceSetSampler.DestinationSampler;
+import playground.ivt.utils.RandomStreams;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
@@ -41,25 +39,30 @@ public class PrismicDestinationSampler implements DestinationSampler {
 	private final int nSamples;
 	private final double budget_m;
 
-	private final QuadTree<ActivityFacility> relevantFacilities;
+	private final PrismSearch prismSearch;
 
-	private final Random random = MatsimRandom.getLocalInstance();
+	private final long seed;
+	private final Random random = new Random();
 
+	/**
+	 * @param facilityIndex index shared by all instances, as the samplers are typically created once per thread
+	 * @param maxPrismSize_m cap on the size of the prism, which otherwise grows until it contains nSamples facilities.
+	 * Remote choice situations then get less than nSamples destinations.
+	 * @param seed global seed. The destinations of each choice situation are drawn from a random stream that only
+	 * depends on this seed, the person and the position of the trip, so that results do not depend on the number
+	 * of threads or the order in which persons are processed.
+	 */
 	public PrismicDestinationSampler(
 			final String type,
-			final ActivityFacilities facilities,
+			final FacilityIndex facilityIndex,
 			final int nSamples,
-			final double budget_m) {
+			final double budget_m,
+			final double maxPrismSize_m,
+			final long seed ) {
+		this.seed = seed;
 		this.nSamples = nSamples;
 		this.budget_m = budget_m;
-
-		final QuadTreeRebuilder<ActivityFacility> builder = new QuadTreeRebuilder<>();
-		for ( ActivityFacility f : facilities.getFacilities().values() ) {
-			if ( f.getActivityOptions().containsKey( type ) ) {
-				builder.put( f.getCoord() , f );
-			}
-		}
-		relevantFacilities = builder.getQuadTree();
+		this.prismSearch = new PrismSearch( facilityIndex.getFacilitiesWithType( type ) , maxPrismSize_m );
 	}
 
 
@@ -68,9 +71,14 @@ public class PrismicDestinationSampler implements DestinationSampler {
 			final Person decisionMaker,
 			final TripChoiceSituation choice) {
 		final List<ActivityFacility> prism = getPrism( choice );
-
-		final Collection<ActivityFacility> choiceSet = new ArrayList<>( nSamples );
-		for ( int i=0; i < nSamples; i++ ) {
+		random.setSeed(
+				RandomStreams.seed(
+						RandomStreams.seed( seed , decisionMaker.getId().toString() ),
+						choice.getPositionInTripSequence() ) );
+
+		final int n = Math.min( nSamples , prism.size() );
+		final Collection<ActivityFacility> choiceSet = new ArrayList<>( n );
+		for ( int i=0; i < n; i++ ) {
 			choiceSet.add( prism.remove( random.nextInt( prism.size() ) ) );
 		}
 
@@ -84,14 +92,8 @@ public class PrismicDestinationSampler implements DestinationSampler {
 		final Coord f1 = choice.getChoice().getOrigin().getCoord();
 		final Coord f2 = choice.getTripSequence().get(choice.getPositionInTripSequence() + 1).getDestinationActivity().getCoord();
 
-		Collection<ActivityFacility> prism = Collections.emptyList();
-
 		final double radius = Math.max( budget_m , 1.1 * CoordUtils.calcEuclideanDistance( f1 , f2 ) );
-		for ( int i=1; prism.size() < nSamples; i++ ) {
-			prism = relevantFacilities.getElliptical(f1.getX(), f1.getY(), f2.getX(), f2.getY(), i * radius);
-		}
-
-		return prism instanceof List ? (List<ActivityFacility>) prism : new ArrayList<>( prism );
+		return prismSearch.find( f1 , f2 , radius , nSamples ).getFacilities();
 	}
 
 }
@@ -22,7 +22,6 @@ import gnu.trove.map.TLongObjectMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.utils.misc.Time;
 import playground.ivt.maxess.prepareforbiogeme.framework.ChoiceSet;
@@ -35,14 +34,11 @@ public class RecordFillerUtils {
 	private static final TLongObjectMap<Id<Person>> idMappings = new TLongObjectHashMap<>();
 
 	public static double getTravelTime(final Trip alternative) {
-		double tt = 0;
+		final double tt = alternative.getTravelTime();
 
-		for ( Leg l : alternative.getLegsOnly() ) {
-			if ( l.getTravelTime() == Time.UNDEFINED_TIME ) {
-				log.warn("undefined travel time for " + alternative);
-				return -99;
-			}
-			tt += l.getTravelTime();
+		if ( tt == Time.UNDEFINED_TIME ) {
+			log.warn("undefined travel time for " + alternative);
+			return -99;
 		}
 
 		return tt;
@@ -81,13 +77,10 @@ public class RecordFillerUtils {
 	}
 
 	public static double getDistance( Trip trip ) {
-		double d = 0;
+		final double d = trip.getDistance();
 
-		for ( Leg l : trip.getLegsOnly() ) {
-			if ( Double.isNaN( l.getRoute().getDistance() ) ) {
-				throw new IllegalArgumentException( "undefined distance in "+trip );
-			}
-			d += l.getRoute().getDistance();
+		if ( Double.isNaN( d ) ) {
+			throw new IllegalArgumentException( "undefined distance in "+trip );
 		}
 
 		return d;
@@ -19,14 +19,16 @@
 package playground.ivt.maxess.prepareforbiogeme.tripbased;
 
 import org.matsim.api.core.v01.population.Person;
-import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.config.groups.PlansCalcRouteConfigGroup;
 import org.matsim.core.router.TripRouter;
 import org.matsim.facilities.ActivityFacility;
 import playground.ivt.maxess.prepareforbiogeme.framework.ChoiceSet;
 import playground.ivt.maxess.prepareforbiogeme.framework.ChoiceSetSampler;
+import playground.ivt.utils.RunMetrics;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -37,16 +39,23 @@ import java.util.Set;
  */
 public class RoutingChoiceSetSampler implements ChoiceSetSampler<Trip,TripChoiceSituation> {
 	private final TripRouter router;
+	private final BatchTripCalculator tripCalculator;
 	private final Set<String> modes;
 	private final DestinationSampler destinationSampler;
 
+	private final Map<String, RunMetrics.Stage> routingStages = new HashMap<>();
+
 	public RoutingChoiceSetSampler(
 			final TripRouter router,
+			final PlansCalcRouteConfigGroup routeConfig,
+			final boolean skimOnly,
 			final Set<String> modes,
 			final DestinationSampler destinationSampler) {
 		this.router = router;
+		this.tripCalculator = new BatchTripCalculator( router , routeConfig , skimOnly );
 		this.modes = modes;
 		this.destinationSampler = destinationSampler;
+		for ( String mode : modes ) routingStages.put( mode , RunMetrics.global().stage( "routing."+mode ) );
 	}
 
 	@Override
@@ -59,19 +68,27 @@ public class RoutingChoiceSetSampler implements ChoiceSetSampler<Trip,TripChoice
 
 		final ActivityFacility origin = choice.getChoice().getOrigin();
 
-		for ( int i = 0; i < destinations.size(); i++ ) {
-			final ActivityFacility dest = destinations.get( i );
-			for ( String mode : modes ) {
-				final List<? extends PlanElement> tripelements =
-						router.calcRoute(
+		// route all destinations of a mode at once, which is much faster for modes supporting batch routing
+		final Map<String, List<Trip>> tripsPerMode = new HashMap<>();
+		for ( String mode : modes ) {
+			final long start = System.nanoTime();
+			tripsPerMode.put(
+					mode,
+					tripCalculator.calcTrips(
 							mode,
 							origin,
-							dest,
+							destinations,
 							12 * 3600,
-							decisionMaker );
+							decisionMaker ) );
+			routingStages.get( mode ).record( System.nanoTime() - start );
+		}
+
+		for ( int i = 0; i < destinations.size(); i++ ) {
+			final ActivityFacility dest = destinations.get( i );
+			for ( String mode : modes ) {
 				namedAlternatives.put(
 						i+"_"+mode,
-						new Trip( origin , tripelements , dest ) );
+						tripsPerMode.get( mode ).get( i ) );
 			}
 		}
 
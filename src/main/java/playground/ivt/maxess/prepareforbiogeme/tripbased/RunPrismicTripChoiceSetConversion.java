@@ -35,9 +35,13 @@ import org.matsim.core.router.costcalculators.FreespeedTravelTimeAndDisutility;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.facilities.algorithms.WorldConnectLocations;
 import org.matsim.pt.PtConstants;
+import playground.ivt.maxess.gisutils.FacilityIndex;
 import playground.ivt.maxess.prepareforbiogeme.framework.ChoiceSetSampler;
 import playground.ivt.maxess.prepareforbiogeme.framework.Converter;
 import playground.ivt.router.CachingRoutingModuleWrapper;
+import playground.ivt.router.OneToManyNetworkRoutingModule;
+import playground.ivt.router.SkimStore;
+import playground.ivt.router.StoredSkimRoutingModule;
 import playground.ivt.router.TripSoftCache;
 import playground.ivt.router.TripSoftCache.LocationType;
 import playground.ivt.utils.MoreIOUtils;
@@ -65,8 +69,13 @@ public class RunPrismicTripChoiceSetConversion {
 
 		new XY2Links( sc ).run(sc.getPopulation());
 
+		final SkimStore skimStore = createSkimStore( group , sc );
+
 		//Logger.getLogger(SoftCache.class).setLevel(Level.TRACE );
 		try {
+			// one index for all threads
+			final FacilityIndex facilityIndex = new FacilityIndex( sc.getActivityFacilities() );
+
 			Converter.<Trip, TripChoiceSituation>builder()
 					.withRecordFiller(
 							new BasicTripChoiceSetRecordFiller())
@@ -88,17 +97,25 @@ public class RunPrismicTripChoiceSetConversion {
 											TransportMode.car,
 											new CachingRoutingModuleWrapper(
 													cache,
-													tripRouter.getRoutingModule(
-															TransportMode.car)));
+													new OneToManyNetworkRoutingModule(
+															TransportMode.car,
+															sc.getNetwork(),
+															tt, tt )));
+
+									if ( skimStore != null ) StoredSkimRoutingModule.wrapModules( tripRouter , skimStore );
 
 									return new RoutingChoiceSetSampler(
 											tripRouter,
+											sc.getConfig().plansCalcRoute(),
+											group.isSkimOnly(),
 											group.getModes(),
 											new PrismicDestinationSampler(
 													group.getActivityType(),
-													sc.getActivityFacilities(),
+													facilityIndex,
 													group.getChoiceSetSize(),
-													group.getBudget_m()));
+													group.getBudget_m(),
+													group.getMaxPrismSize_m(),
+													sc.getConfig().global().getRandomSeed() ));
 								}
 							})
 					.withChoicesIdentifier(
@@ -111,13 +128,25 @@ public class RunPrismicTripChoiceSetConversion {
 									group.getModes() ) )
 					.withNumberOfThreads(
 							group.getNumberOfThreads())
+					.withMetricsFile(
+							group.getOutputPath() + "/metrics.csv")
 					.create()
 					.convert(
 							sc.getPopulation(),
 							group.getOutputPath() + "/data.dat");
 		}
 		finally {
+			if ( skimStore != null ) skimStore.close();
 			MoreIOUtils.closeOutputDirLogging();
 		}
 	}
+
+	/**
+	 * @return the skim store configured in the group, or null if none is configured
+	 */
+	public static SkimStore createSkimStore(
+			final PrismicConversionConfigGroup group,
+			final Scenario sc ) {
+		return SkimStore.openForRun( group.getSkimStoreFile() , group.isSkimOnly() , sc , group.getSkimStoreSize_MB() );
+	}
 }
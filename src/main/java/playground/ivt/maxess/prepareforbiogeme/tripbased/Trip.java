@@ -22,6 +22,8 @@ import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.PlanElement;
 import org.matsim.facilities.ActivityFacility;
+import playground.ivt.router.TripRecord;
+import playground.ivt.router.TripSkim;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -34,18 +36,53 @@ public class Trip {
 	private static final Logger log = Logger.getLogger( Trip.class );
 	private final ActivityFacility origin;
 	private final ActivityFacility destination;
+	// exactly one of those is non null
 	private final List<? extends PlanElement> trip;
+	private final TripRecord record;
+	private final TripSkim skim;
 
 	public Trip(
 			final ActivityFacility origin,
 			final List<? extends PlanElement> trip,
 			final ActivityFacility destination ) {
+		this( origin , trip , null , null , destination );
+	}
+
+	/**
+	 * Creates a trip backed by a compact record. Plan elements are only created when requested.
+	 */
+	public Trip(
+			final ActivityFacility origin,
+			final TripRecord record,
+			final ActivityFacility destination ) {
+		this( origin , null , record , null , destination );
+	}
+
+	/**
+	 * Creates a trip from skim values only, without route information.
+	 * When plan elements are requested, they consist of one leg with the skim values.
+	 */
+	public Trip(
+			final ActivityFacility origin,
+			final TripSkim skim,
+			final ActivityFacility destination ) {
+		this( origin , null , null , skim , destination );
+	}
+
+	private Trip(
+			final ActivityFacility origin,
+			final List<? extends PlanElement> trip,
+			final TripRecord record,
+			final TripSkim skim,
+			final ActivityFacility destination ) {
 		if ( origin == null || destination == null ) {
 			throw new IllegalArgumentException( "null facility in OD "+origin+" - "+destination );
 		}
 		this.origin = origin;
 		this.destination = destination;
 		this.trip = trip;
+		this.record = record;
+		this.skim = skim;
 
 		if ( log.isTraceEnabled() ) log.trace( "Created "+this );
 	}
@@ -59,10 +96,14 @@ public class Trip {
 	}
 
 	public List<? extends PlanElement> getTrip() {
+		if ( skim != null ) return Collections.singletonList( createSkimLeg() );
+		if ( trip == null ) return Collections.unmodifiableList( record.createPlanElements() );
 		return Collections.unmodifiableList( trip );
 	}
 
 	public List<Leg> getLegsOnly() {
+		if ( skim != null ) return Collections.singletonList( createSkimLeg() );
+		if ( trip == null ) return record.createLegs();
 		final List<Leg> legs= new ArrayList<>();
 		for ( PlanElement pe : trip ) {
 			if ( pe instanceof Leg ) legs.add( (Leg) pe );
@@ -70,12 +111,60 @@ public class Trip {
 		return legs;
 	}
 
+	/**
+	 * @return true if the trip only consists of skim values, without route information
+	 */
+	public boolean isSkimOnly() {
+		return skim != null || ( record != null && !record.hasRoutes() );
+	}
+
+	/**
+	 * @return the sum of the travel times of the legs
+	 */
+	public double getTravelTime() {
+		if ( skim != null ) return skim.getTravelTime();
+		if ( trip == null ) return record.getTravelTime();
+
+		double tt = 0;
+		for ( PlanElement pe : trip ) {
+			if ( pe instanceof Leg ) tt += ( (Leg) pe ).getTravelTime();
+		}
+		return tt;
+	}
+
+	/**
+	 * @return the sum of the route distances of the legs
+	 */
+	public double getDistance() {
+		if ( skim != null ) return skim.getDistance();
+		if ( trip == null ) return record.getDistance();
+
+		double d = 0;
+		for ( PlanElement pe : trip ) {
+			if ( pe instanceof Leg ) d += ( (Leg) pe ).getRoute().getDistance();
+		}
+		return d;
+	}
+
+	/**
+	 * @return the aggregated level of service of the trip
+	 */
+	public TripSkim getSkim() {
+		if ( skim != null ) return skim;
+		if ( trip == null ) return record.toSkim();
+		return TripSkim.create( null , trip );
+	}
+
+	private Leg createSkimLeg() {
+		return skim.createLeg( origin.getLinkId() , destination.getLinkId() );
+	}
+
 	@Override
 	public String toString() {
 		return "Trip{" +
 				"origin=" + origin +
 				", destination=" + destination +
-				", trip=" + trip +
+				", trip=" + ( trip != null ? trip : record != null ? record : skim ) +
 				'}';
 	}
 }
@@ -42,16 +42,21 @@ import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.facilities.algorithms.WorldConnectLocations;
 import org.matsim.pt.PtConstants;
 import org.matsim.pt.router.MultiNodeDijkstra;
+import playground.ivt.maxess.gisutils.FacilityIndex;
 import playground.ivt.maxess.prepareforbiogeme.framework.ChoiceSetSampler;
 import playground.ivt.maxess.prepareforbiogeme.framework.Converter;
 import playground.ivt.maxess.prepareforbiogeme.tripbased.PrismicConversionConfigGroup;
 import playground.ivt.maxess.prepareforbiogeme.tripbased.PrismicDestinationSampler;
 import playground.ivt.maxess.prepareforbiogeme.tripbased.RoutingChoiceSetSampler;
+import playground.ivt.maxess.prepareforbiogeme.tripbased.RunPrismicTripChoiceSetConversion;
 import playground.ivt.maxess.prepareforbiogeme.tripbased.Trip;
 import playground.ivt.maxess.prepareforbiogeme.tripbased.TripChoiceSituation;
 import playground.ivt.maxess.prepareforbiogeme.tripbased.TripChoicesIdentifier;
 import playground.ivt.maxess.prepareforbiogeme.tripbased.mikrozensus.CodebookUtils;
 import playground.ivt.router.CachingRoutingModuleWrapper;
+import playground.ivt.router.OneToManyNetworkRoutingModule;
+import playground.ivt.router.SkimStore;
+import playground.ivt.router.StoredSkimRoutingModule;
 import playground.ivt.router.TripSoftCache;
 import playground.ivt.utils.MoreIOUtils;
 
@@ -87,6 +92,8 @@ public class RunCapeTownTripChoiceSetConversion {
 
 		new XY2Links( carNetwork , sc.getActivityFacilities() ).run(sc.getPopulation());
 
+		final SkimStore skimStore = RunPrismicTripChoiceSetConversion.createSkimStore( group , sc );
+
 		//Logger.getLogger(SoftCache.class).setLevel(Level.TRACE );
 		try {
 			final CapeTownChoiceSetRecordFiller filler =
@@ -94,6 +101,9 @@ public class RunCapeTownTripChoiceSetConversion {
 							sc.getPopulation().getPersonAttributes(),
 							sc.getHouseholds() );
 
+			// one index for all threads
+			final FacilityIndex facilityIndex = new FacilityIndex( sc.getActivityFacilities() );
+
 			Converter.<Trip, TripChoiceSituation>builder()
 					.withRecordFiller(
 							filler )
@@ -104,13 +114,17 @@ public class RunCapeTownTripChoiceSetConversion {
 								@Override
 								public ChoiceSetSampler<Trip, TripChoiceSituation> get() {
 									return new RoutingChoiceSetSampler(
-											createTripRouter( sc , cache ),
+											createTripRouter( sc , cache , skimStore ),
+											sc.getConfig().plansCalcRoute(),
+											group.isSkimOnly(),
 											group.getModes(),
 											new PrismicDestinationSampler(
 													group.getActivityType(),
-													sc.getActivityFacilities(),
+													facilityIndex,
 													group.getChoiceSetSize(),
-													group.getBudget_m()));
+													group.getBudget_m(),
+													group.getMaxPrismSize_m(),
+													sc.getConfig().global().getRandomSeed() ));
 								}
 							})
 					.withChoicesIdentifier(
@@ -136,6 +150,8 @@ public class RunCapeTownTripChoiceSetConversion {
 									group.getModes() ) )
 					.withNumberOfThreads(
 							group.getNumberOfThreads())
+					.withMetricsFile(
+							group.getOutputPath() + "/metrics.csv")
 					.create()
 					.convert(
 							sc.getPopulation(),
@@ -144,6 +160,7 @@ public class RunCapeTownTripChoiceSetConversion {
 			CodebookUtils.writeCodebook( group.getOutputPath() + "/codebook.md", filler.getCodebook() );
 		}
 		finally {
+			if ( skimStore != null ) skimStore.close();
 			MoreIOUtils.closeOutputDirLogging();
 		}
 	}
@@ -151,6 +168,16 @@ public class RunCapeTownTripChoiceSetConversion {
 	public static TripRouter createTripRouter(
 			final Scenario sc,
 			final TripSoftCache cache ) {
+		return createTripRouter( sc , cache , null );
+	}
+
+	/**
+	 * @param skimStore if not null, skims are read from and written to this store. Only for skim-only computations.
+	 */
+	public static TripRouter createTripRouter(
+			final Scenario sc,
+			final TripSoftCache cache,
+			final SkimStore skimStore ) {
 		final FreespeedTravelTimeAndDisutility tt = new FreespeedTravelTimeAndDisutility(sc.getConfig().planCalcScore());
 
 		final TripRouterFactoryBuilderWithDefaults b = new TripRouterFactoryBuilderWithDefaults();
@@ -158,15 +185,27 @@ public class RunCapeTownTripChoiceSetConversion {
 		b.setTravelDisutility( tt );
 		final TripRouter tripRouter = b.build(sc).get();
 
+		// one-to-many routing, so that all sampled destinations of a mode are routed with one tree search
+		for ( String mode : sc.getConfig().plansCalcRoute().getNetworkModes() ) {
+			if ( mode.equals( TransportMode.car ) ) continue;
+			tripRouter.setRoutingModule(
+					mode,
+					new OneToManyNetworkRoutingModule( mode , sc.getNetwork() , tt , tt ) );
+		}
+
 		tripRouter.setRoutingModule(
 				TransportMode.car,
 				new CachingRoutingModuleWrapper(
 						cache,
-						tripRouter.getRoutingModule(
-								TransportMode.car)));
+						new OneToManyNetworkRoutingModule(
+								TransportMode.car,
+								sc.getNetwork(),
+								tt, tt )));
 
 		tripRouter.setMainModeIdentifier( new CapeTownMainModeIdentifier() );
 
+		if ( skimStore != null ) StoredSkimRoutingModule.wrapModules( tripRouter , skimStore );
+
 		return tripRouter;
 	}
 
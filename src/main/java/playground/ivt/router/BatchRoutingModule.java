@@ -0,0 +1,67 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router;
+
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.router.RoutingModule;
+import org.matsim.core.router.TripRouter;
+import org.matsim.facilities.Facility;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A routing module that can route from one origin to many destinations at once, typically much faster than routing
+ * each destination separately, for instance by computing a single least cost path tree.
+ *
+ * @author thibautd
+ */
+public interface BatchRoutingModule extends RoutingModule {
+	/**
+	 * @return the trips to each of the destinations, in the same order
+	 */
+	List<List<? extends PlanElement>> calcRoutes(
+			Facility fromFacility,
+			List<? extends Facility> toFacilities,
+			double departureTime,
+			Person person );
+
+	/**
+	 * Routes in batch if the routing module of the mode supports it, and destination per destination otherwise.
+	 */
+	static List<List<? extends PlanElement>> calcRoutes(
+			final TripRouter router,
+			final String mode,
+			final Facility fromFacility,
+			final List<? extends Facility> toFacilities,
+			final double departureTime,
+			final Person person ) {
+		final RoutingModule module = router.getRoutingModule( mode );
+		if ( module instanceof BatchRoutingModule ) {
+			return ( (BatchRoutingModule) module ).calcRoutes( fromFacility , toFacilities , departureTime , person );
+		}
+
+		final List<List<? extends PlanElement>> trips = new ArrayList<>( toFacilities.size() );
+		for ( Facility to : toFacilities ) {
+			trips.add( router.calcRoute( mode , fromFacility , to , departureTime , person ) );
+		}
+		return trips;
+	}
+}
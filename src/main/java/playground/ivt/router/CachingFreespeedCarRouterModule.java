@@ -24,8 +24,6 @@ import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.router.RoutingModule;
-import org.matsim.core.router.TripRouter;
-import org.matsim.core.router.TripRouterFactoryBuilderWithDefaults;
 import org.matsim.core.router.costcalculators.FreespeedTravelTimeAndDisutility;
 
 /**
@@ -44,15 +42,12 @@ public class CachingFreespeedCarRouterModule extends AbstractModule {
 					public RoutingModule get() {
 						final FreespeedTravelTimeAndDisutility tt = new FreespeedTravelTimeAndDisutility(sc.getConfig().planCalcScore());
 
-						final TripRouterFactoryBuilderWithDefaults b = new TripRouterFactoryBuilderWithDefaults();
-						b.setTravelTime( tt );
-						b.setTravelDisutility( tt );
-						final TripRouter tripRouter = b.build(sc).get();
-
 						return new CachingRoutingModuleWrapper(
 										cache,
-										tripRouter.getRoutingModule(
-												TransportMode.car));
+										new OneToManyNetworkRoutingModule(
+												TransportMode.car,
+												sc.getNetwork(),
+												tt, tt ));
 					}
 				} );
 	}
@@ -19,22 +19,29 @@
  * *********************************************************************** */
 package playground.ivt.router;
 
+import gnu.trove.list.array.TLongArrayList;
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.PlanElement;
 import org.matsim.core.router.RoutingModule;
 import org.matsim.core.router.StageActivityTypes;
 import org.matsim.facilities.Facility;
-import playground.ivt.router.TripSoftCache.Departure;
 import playground.ivt.router.TripSoftCache.LocationType;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Caches the trips of the wrapped module. Batch requests route all cache misses in one batch if the wrapped
+ * module supports it. Skim requests use the cached trips, and skim the misses directly if the wrapped module
+ * supports it. Those skims are cached as skim only records, which are ignored by route requests and replaced
+ * by the full trip once it is routed.
+ *
  * @author thibautd
  */
-public class CachingRoutingModuleWrapper implements RoutingModule {
+public class CachingRoutingModuleWrapper implements BatchRoutingModule, SkimRoutingModule {
 	private static final Logger log =
 		Logger.getLogger(CachingRoutingModuleWrapper.class);
 
@@ -66,21 +73,128 @@ public class CachingRoutingModuleWrapper implements RoutingModule {
 			final double departureTime,
 			final Person person) {
 		routeCount.incrementAndGet();
-		final Departure departure = cache.createDeparture( person , fromFacility , toFacility );
-		final List<? extends PlanElement> cached = cache.get( departure );
+		final long key = cache.createKey( fromFacility , toFacility );
+		final TripRecord cached = cache.getRecord( key , person );
 		
-		if ( cached != null ) return cached;
+		if ( cached != null && !cached.isSkimOnly() ) return cached.createPlanElements();
 
 		calcCount.incrementAndGet();
 		final List<? extends PlanElement> trip =
 				wrapped.calcRoute(fromFacility, toFacility, departureTime,
 				person);
 		
-		cache.put( departure , trip );
+		cache.put( key , person , trip );
 		
 		return trip;
 	}
 
+	@Override
+	public List<List<? extends PlanElement>> calcRoutes(
+			final Facility fromFacility,
+			final List<? extends Facility> toFacilities,
+			final double departureTime,
+			final Person person ) {
+		final List<TripRecord> records = calcRecords( fromFacility , toFacilities , departureTime , person );
+		final List<List<? extends PlanElement>> trips = new ArrayList<>( records.size() );
+		for ( TripRecord r : records ) trips.add( r.createPlanElements() );
+		return trips;
+	}
+
+	/**
+	 * Same as {@link #calcRoutes(Facility, List, double, Person)}, but returns the compact records,
+	 * without creating plan elements for cached trips.
+	 */
+	public List<TripRecord> calcRecords(
+			final Facility fromFacility,
+			final List<? extends Facility> toFacilities,
+			final double departureTime,
+			final Person person ) {
+		routeCount.addAndGet( toFacilities.size() );
+		final List<TripRecord> records = new ArrayList<>( Collections.nCopies( toFacilities.size() , null ) );
+
+		final List<Integer> missIndices = new ArrayList<>();
+		final List<Facility> misses = new ArrayList<>();
+		final TLongArrayList missKeys = new TLongArrayList();
+		for ( int i = 0; i < toFacilities.size(); i++ ) {
+			final long key = cache.createKey( fromFacility , toFacilities.get( i ) );
+			final TripRecord cached = cache.getRecord( key , person );
+
+			if ( cached != null && !cached.isSkimOnly() ) {
+				records.set( i , cached );
+			}
+			else {
+				missIndices.add( i );
+				misses.add( toFacilities.get( i ) );
+				missKeys.add( key );
+			}
+		}
+
+		if ( misses.isEmpty() ) return records;
+
+		calcCount.addAndGet( misses.size() );
+		final List<List<? extends PlanElement>> computed = new ArrayList<>( misses.size() );
+		if ( wrapped instanceof BatchRoutingModule ) {
+			computed.addAll( ( (BatchRoutingModule) wrapped ).calcRoutes( fromFacility , misses , departureTime , person ) );
+		}
+		else {
+			for ( Facility to : misses ) {
+				computed.add( wrapped.calcRoute( fromFacility , to , departureTime , person ) );
+			}
+		}
+
+		for ( int j = 0; j < misses.size(); j++ ) {
+			final TripRecord record = TripRecord.create( computed.get( j ) );
+			cache.put( missKeys.get( j ) , person , record );
+			records.set( missIndices.get( j ) , record );
+		}
+
+		return records;
+	}
+
+	@Override
+	public List<TripSkim> calcSkims(
+			final Facility fromFacility,
+			final List<? extends Facility> toFacilities,
+			final double departureTime,
+			final Person person ) {
+		if ( !( wrapped instanceof SkimRoutingModule ) ) {
+			final List<TripSkim> skims = new ArrayList<>( toFacilities.size() );
+			for ( TripRecord r : calcRecords( fromFacility , toFacilities , departureTime , person ) ) skims.add( r.toSkim() );
+			return skims;
+		}
+
+		routeCount.addAndGet( toFacilities.size() );
+		final List<TripSkim> skims = new ArrayList<>( Collections.nCopies( toFacilities.size() , null ) );
+
+		final List<Integer> missIndices = new ArrayList<>();
+		final List<Facility> misses = new ArrayList<>();
+		final TLongArrayList missKeys = new TLongArrayList();
+		for ( int i = 0; i < toFacilities.size(); i++ ) {
+			final long key = cache.createKey( fromFacility , toFacilities.get( i ) );
+			final TripRecord cached = cache.getRecord( key , person );
+
+			if ( cached != null ) {
+				skims.set( i , cached.toSkim() );
+			}
+			else {
+				missIndices.add( i );
+				misses.add( toFacilities.get( i ) );
+				missKeys.add( key );
+			}
+		}
+
+		if ( misses.isEmpty() ) return skims;
+
+		calcCount.addAndGet( misses.size() );
+		final List<TripSkim> computed = ( (SkimRoutingModule) wrapped ).calcSkims( fromFacility , misses , departureTime , person );
+		for ( int j = 0; j < misses.size(); j++ ) {
+			cache.put( missKeys.get( j ) , person , TripRecord.create( computed.get( j ) ) );
+			skims.set( missIndices.get( j ) , computed.get( j ) );
+		}
+
+		return skims;
+	}
+
 	@Override
 	public StageActivityTypes getStageActivityTypes() {
 		return wrapped.getStageActivityTypes();
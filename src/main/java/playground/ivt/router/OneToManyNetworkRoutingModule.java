@@ -0,0 +1,335 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.router.EmptyStageActivityTypes;
+import org.matsim.core.router.StageActivityTypes;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.facilities.Facility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Routing module for a network mode, which routes to all destinations of a batch with one least cost path tree
+ * from the origin (Dijkstra), stopped as soon as all destinations are reached.
+ * Routes are built as by the default network routing module: from the end of the departure link to the start
+ * of the arrival link, only on links that allow the mode, with travel times truncated to full seconds.
+ * Skims are read directly from the tree.
+ * <br>
+ * The search state is kept between queries to avoid allocations, so instances are not thread safe:
+ * use one per thread.
+ *
+ * @author thibautd
+ */
+public class OneToManyNetworkRoutingModule implements BatchRoutingModule, SkimRoutingModule {
+	private final String mode;
+	private final Network network;
+	private final TravelTime travelTime;
+	private final TravelDisutility travelDisutility;
+
+	// graph of the links allowing the mode, indexed by node
+	private final TObjectIntHashMap<Id<Node>> nodeIndices;
+	private final Link[][] outLinks;
+	private final int[][] outNodes;
+
+	// search state. Nodes with a stamp different from the current one are not visited yet
+	private final double[] costs;
+	private final double[] times;
+	private final double[] distances;
+	private final Link[] previousLinks;
+	private final int[] visitStamps;
+	private final int[] settleStamps;
+	private int stamp = 0;
+
+	private final NodeHeap heap = new NodeHeap();
+
+	public OneToManyNetworkRoutingModule(
+			final String mode,
+			final Network network,
+			final TravelTime travelTime,
+			final TravelDisutility travelDisutility ) {
+		this.mode = mode;
+		this.network = network;
+		this.travelTime = travelTime;
+		this.travelDisutility = travelDisutility;
+
+		final int nNodes = network.getNodes().size();
+		this.nodeIndices = new TObjectIntHashMap<>( nNodes , 0.5f , -1 );
+		for ( Node n : network.getNodes().values() ) nodeIndices.put( n.getId() , nodeIndices.size() );
+
+		this.outLinks = new Link[ nNodes ][];
+		this.outNodes = new int[ nNodes ][];
+		for ( Node n : network.getNodes().values() ) {
+			final List<Link> links = new ArrayList<>( n.getOutLinks().size() );
+			for ( Link l : n.getOutLinks().values() ) {
+				if ( l.getAllowedModes().contains( mode ) ) links.add( l );
+			}
+			final int i = nodeIndices.get( n.getId() );
+			outLinks[ i ] = links.toArray( new Link[ links.size() ] );
+			outNodes[ i ] = new int[ links.size() ];
+			for ( int j = 0; j < links.size(); j++ ) {
+				outNodes[ i ][ j ] = nodeIndices.get( links.get( j ).getToNode().getId() );
+			}
+		}
+
+		this.costs = new double[ nNodes ];
+		this.times = new double[ nNodes ];
+		this.distances = new double[ nNodes ];
+		this.previousLinks = new Link[ nNodes ];
+		this.visitStamps = new int[ nNodes ];
+		this.settleStamps = new int[ nNodes ];
+	}
+
+	@Override
+	public List<? extends PlanElement> calcRoute(
+			final Facility fromFacility,
+			final Facility toFacility,
+			final double departureTime,
+			final Person person ) {
+		return calcRoutes( fromFacility , Collections.singletonList( toFacility ) , departureTime , person ).get( 0 );
+	}
+
+	@Override
+	public List<List<? extends PlanElement>> calcRoutes(
+			final Facility fromFacility,
+			final List<? extends Facility> toFacilities,
+			final double departureTime,
+			final Person person ) {
+		final Link fromLink = getLink( fromFacility );
+		final Link[] toLinks = new Link[ toFacilities.size() ];
+		for ( int i = 0; i < toLinks.length; i++ ) toLinks[ i ] = getLink( toFacilities.get( i ) );
+
+		buildTree( fromLink , toLinks , departureTime , person );
+
+		final List<List<? extends PlanElement>> trips = new ArrayList<>( toLinks.length );
+		for ( Link toLink : toLinks ) {
+			trips.add( Collections.singletonList( createLeg( fromLink , toLink , departureTime ) ) );
+		}
+		return trips;
+	}
+
+	@Override
+	public List<TripSkim> calcSkims(
+			final Facility fromFacility,
+			final List<? extends Facility> toFacilities,
+			final double departureTime,
+			final Person person ) {
+		final Link fromLink = getLink( fromFacility );
+		final Link[] toLinks = new Link[ toFacilities.size() ];
+		for ( int i = 0; i < toLinks.length; i++ ) toLinks[ i ] = getLink( toFacilities.get( i ) );
+
+		buildTree( fromLink , toLinks , departureTime , person );
+
+		// read the values directly from the tree, without creating the routes
+		final List<TripSkim> skims = new ArrayList<>( toLinks.length );
+		for ( Link toLink : toLinks ) {
+			if ( toLink == fromLink ) {
+				skims.add( new TripSkim( mode , departureTime , 0 , 0 , 0 , 0 ) );
+				continue;
+			}
+			final int target = nodeIndices.get( toLink.getFromNode().getId() );
+			skims.add(
+					new TripSkim(
+							mode,
+							departureTime,
+							(int) ( times[ target ] - departureTime ),
+							distances[ target ] + toLink.getLength(),
+							0,
+							0 ) );
+		}
+		return skims;
+	}
+
+	private void buildTree(
+			final Link fromLink,
+			final Link[] toLinks,
+			final double departureTime,
+			final Person person ) {
+		stamp++;
+		heap.clear();
+
+		final int origin = nodeIndices.get( fromLink.getToNode().getId() );
+		int remainingTargets = 0;
+		// settle stamps of the targets are set to -stamp, to count each target only once
+		for ( Link l : toLinks ) {
+			if ( l == fromLink ) continue;
+			final int target = nodeIndices.get( l.getFromNode().getId() );
+			if ( settleStamps[ target ] != -stamp ) {
+				settleStamps[ target ] = -stamp;
+				remainingTargets++;
+			}
+		}
+
+		visit( origin , 0 , departureTime , 0 , null );
+
+		while ( remainingTargets > 0 && !heap.isEmpty() ) {
+			final int node = heap.poll();
+			if ( settleStamps[ node ] == stamp ) continue; // outdated heap entry
+			if ( settleStamps[ node ] == -stamp ) remainingTargets--;
+			settleStamps[ node ] = stamp;
+
+			final Link[] links = outLinks[ node ];
+			for ( int j = 0; j < links.length; j++ ) {
+				final int next = outNodes[ node ][ j ];
+				if ( settleStamps[ next ] == stamp ) continue;
+
+				final double time = times[ node ];
+				final double cost = costs[ node ] + travelDisutility.getLinkTravelDisutility( links[ j ] , time , person , null );
+				if ( visitStamps[ next ] != stamp || cost < costs[ next ] ) {
+					visit( next,
+							cost,
+							time + travelTime.getLinkTravelTime( links[ j ] , time , person , null ),
+							distances[ node ] + links[ j ].getLength(),
+							links[ j ] );
+				}
+			}
+		}
+
+		if ( remainingTargets > 0 ) {
+			for ( Link l : toLinks ) {
+				if ( l != fromLink && visitStamps[ nodeIndices.get( l.getFromNode().getId() ) ] != stamp ) {
+					throw new RuntimeException( "No route found for mode "+mode+" from link "+fromLink.getId()+" to link "+l.getId() );
+				}
+			}
+		}
+	}
+
+	private void visit( final int node, final double cost, final double time, final double distance, final Link previousLink ) {
+		visitStamps[ node ] = stamp;
+		costs[ node ] = cost;
+		times[ node ] = time;
+		distances[ node ] = distance;
+		previousLinks[ node ] = previousLink;
+		heap.add( node , cost );
+	}
+
+	private Leg createLeg( final Link fromLink, final Link toLink, final double departureTime ) {
+		final List<Id<Link>> linkIds = new ArrayList<>();
+		double travelTime = 0;
+		double cost = 0;
+		double distance = 0;
+
+		if ( toLink != fromLink ) {
+			final int origin = nodeIndices.get( fromLink.getToNode().getId() );
+			final int target = nodeIndices.get( toLink.getFromNode().getId() );
+			for ( int n = target; n != origin; ) {
+				final Link l = previousLinks[ n ];
+				linkIds.add( l.getId() );
+				distance += l.getLength();
+				n = nodeIndices.get( l.getFromNode().getId() );
+			}
+			Collections.reverse( linkIds );
+			// truncated to full seconds, as by the default network routing module
+			travelTime = (int) ( times[ target ] - departureTime );
+			cost = costs[ target ];
+			distance += toLink.getLength();
+		}
+
+		final NetworkRoute route = RouteUtils.createLinkNetworkRouteImpl( fromLink.getId() , linkIds , toLink.getId() );
+		route.setTravelTime( travelTime );
+		route.setTravelCost( cost );
+		route.setDistance( distance );
+
+		final Leg leg = PopulationUtils.createLeg( mode );
+		leg.setDepartureTime( departureTime );
+		leg.setTravelTime( travelTime );
+		leg.setRoute( route );
+		return leg;
+	}
+
+	private Link getLink( final Facility facility ) {
+		final Link link = network.getLinks().get( facility.getLinkId() );
+		if ( link == null ) throw new IllegalArgumentException( "no link "+facility.getLinkId()+" in network for "+facility );
+		return link;
+	}
+
+	@Override
+	public StageActivityTypes getStageActivityTypes() {
+		return EmptyStageActivityTypes.INSTANCE;
+	}
+
+	/**
+	 * Binary heap of node indices, with lazy deletion: a node can be added several times, outdated entries are
+	 * skipped when polled.
+	 */
+	private static class NodeHeap {
+		private int[] nodes = new int[ 64 ];
+		private double[] keys = new double[ 64 ];
+		private int size = 0;
+
+		void clear() {
+			size = 0;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void add( final int node, final double key ) {
+			if ( size == nodes.length ) {
+				nodes = Arrays.copyOf( nodes , 2 * size );
+				keys = Arrays.copyOf( keys , 2 * size );
+			}
+			int i = size++;
+			while ( i > 0 ) {
+				final int parent = ( i - 1 ) / 2;
+				if ( keys[ parent ] <= key ) break;
+				nodes[ i ] = nodes[ parent ];
+				keys[ i ] = keys[ parent ];
+				i = parent;
+			}
+			nodes[ i ] = node;
+			keys[ i ] = key;
+		}
+
+		int poll() {
+			final int top = nodes[ 0 ];
+			final int lastNode = nodes[ --size ];
+			final double lastKey = keys[ size ];
+			int i = 0;
+			while ( true ) {
+				int child = 2 * i + 1;
+				if ( child >= size ) break;
+				if ( child + 1 < size && keys[ child + 1 ] < keys[ child ] ) child++;
+				if ( keys[ child ] >= lastKey ) break;
+				nodes[ i ] = nodes[ child ];
+				keys[ i ] = keys[ child ];
+				i = child;
+			}
+			nodes[ i ] = lastNode;
+			keys[ i ] = lastKey;
+			return top;
+		}
+	}
+}
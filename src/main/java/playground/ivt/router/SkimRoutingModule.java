@@ -0,0 +1,86 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router;
+
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.router.RoutingModule;
+import org.matsim.core.router.TripRouter;
+import org.matsim.facilities.Facility;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A routing module that can estimate the level of service between one origin and many destinations
+ * without creating routes.
+ *
+ * @author thibautd
+ */
+public interface SkimRoutingModule extends RoutingModule {
+	/**
+	 * @return the skims to each of the destinations, in the same order
+	 */
+	List<TripSkim> calcSkims(
+			Facility fromFacility,
+			List<? extends Facility> toFacilities,
+			double departureTime,
+			Person person );
+
+	/**
+	 * Skims directly if the routing module of the mode supports it, and aggregates the routed trips otherwise.
+	 */
+	static List<TripSkim> calcSkims(
+			final TripRouter router,
+			final String mode,
+			final Facility fromFacility,
+			final List<? extends Facility> toFacilities,
+			final double departureTime,
+			final Person person ) {
+		return calcSkims( router.getRoutingModule( mode ) , mode , fromFacility , toFacilities , departureTime , person );
+	}
+
+	/**
+	 * Skims directly if the routing module supports it, and aggregates the routed trips otherwise.
+	 */
+	static List<TripSkim> calcSkims(
+			final RoutingModule module,
+			final String mode,
+			final Facility fromFacility,
+			final List<? extends Facility> toFacilities,
+			final double departureTime,
+			final Person person ) {
+		if ( module instanceof SkimRoutingModule ) {
+			return ( (SkimRoutingModule) module ).calcSkims( fromFacility , toFacilities , departureTime , person );
+		}
+
+		final List<TripSkim> skims = new ArrayList<>( toFacilities.size() );
+		if ( module instanceof BatchRoutingModule ) {
+			for ( List<? extends PlanElement> trip : ( (BatchRoutingModule) module ).calcRoutes( fromFacility , toFacilities , departureTime , person ) ) {
+				skims.add( TripSkim.create( mode , trip ) );
+			}
+			return skims;
+		}
+
+		for ( Facility to : toFacilities ) {
+			skims.add( TripSkim.create( mode , module.calcRoute( fromFacility , to , departureTime , person ) ) );
+		}
+		return skims;
+	}
+}
@@ -0,0 +1,544 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.utils.io.UncheckedIOException;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import playground.ivt.utils.RandomStreams;
+import playground.ivt.utils.RunMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Skims stored in a memory-mapped file, such that runs on the same scenario do not compute the same skims again.
+ * Skims are keyed by origin link, destination link, mode and departure time bin.
+ * <br>
+ * The file starts with a fingerprint of the network, transit schedule and routing configuration. If it does not
+ * match, the file is replaced by an empty store. Processes sharing a file should thus use the same scenario.
+ * <br>
+ * The store is a fixed size open addressing hash table, to which skims are only ever added.
+ * Skims that do not find a free slot close to their hash are not stored.
+ * Reading does not lock and is safe for any number of threads and processes: each slot contains a checksum,
+ * and slots being written by another process are seen as missing. Writing is serialized by a lock file.
+ * Several stores can be opened on the same file in one JVM: they then wait for each other, as processes do.
+ * Skims are persisted by the operating system, even if the store is not closed.
+ *
+ * @author thibautd
+ */
+public class SkimStore implements AutoCloseable {
+	private static final Logger log = Logger.getLogger( SkimStore.class );
+
+	public static final double DEFAULT_TIME_BIN_S = 900;
+
+	private static final int MAGIC = 0x534b494d;
+	private static final int VERSION = 2;
+	// magic, version, slot size, capacity, fingerprint
+	private static final int HEADER_BYTES = 24;
+	// origin index + 1 (0 for free slots), destination index, mode and time bin, transfers,
+	// travel time, distance, access/egress time, checksum
+	private static final int SLOT_BYTES = 48;
+	private static final int MAX_PROBES = 16;
+	// the file is mapped as one buffer
+	private static final int MAX_CAPACITY = Integer.highestOneBit( ( Integer.MAX_VALUE - HEADER_BYTES ) / SLOT_BYTES );
+
+	// file locks are held by the whole JVM, and locking a file twice fails instead of waiting:
+	// stores in the same JVM first wait for each other on a lock per canonical lock file path
+	private static final ConcurrentMap<String, ReentrantLock> processLocks = new ConcurrentHashMap<>();
+
+	private final String file;
+	private final long fingerprint;
+	private final List<String> modes;
+	private final double timeBin_s;
+	private final TObjectIntHashMap<Id<Link>> linkIndices;
+	private final int capacity;
+
+	private final RandomAccessFile lockFile;
+	private final ReentrantLock processLock;
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * Opens the store for the network modes and transit, creating it if it does not exist or does not match the scenario.
+	 *
+	 * @param maxSize_bytes the maximum size of the file
+	 */
+	public static SkimStore open(
+			final String file,
+			final Scenario scenario,
+			final long maxSize_bytes ) {
+		final TreeSet<String> modes = new TreeSet<>( scenario.getConfig().plansCalcRoute().getNetworkModes() );
+		modes.add( TransportMode.pt );
+		final List<String> sortedModes = new ArrayList<>( modes );
+		return new SkimStore(
+				file,
+				computeFingerprint( scenario , sortedModes , DEFAULT_TIME_BIN_S ),
+				scenario.getNetwork(),
+				sortedModes,
+				DEFAULT_TIME_BIN_S,
+				maxSize_bytes );
+	}
+
+	/**
+	 * Opens the store configured for a run, and registers its hit rate and number of dropped skims as run metrics.
+	 * The caller is responsible for closing it at the end of the run.
+	 *
+	 * @param file the store file, or null if no store is configured
+	 * @param skimOnly whether routing is skim only. Stores cannot be used otherwise.
+	 * @return the opened store, or null if no file is configured
+	 */
+	public static SkimStore openForRun(
+			final String file,
+			final boolean skimOnly,
+			final Scenario scenario,
+			final int maxSize_MB ) {
+		if ( file == null ) return null;
+		if ( !skimOnly ) throw new IllegalStateException( "the skim store can only be used with skim only routing" );
+
+		final SkimStore store = open( file , scenario , maxSize_MB * 1024L * 1024L );
+		RunMetrics.global().gauge( "skimStore.hitRate" , store::getHitRate );
+		RunMetrics.global().gauge( "skimStore.dropped" , store::getDropped );
+		return store;
+	}
+
+	SkimStore(
+			final String file,
+			final long fingerprint,
+			final Network network,
+			final List<String> modes,
+			final double timeBin_s,
+			final long maxSize_bytes ) {
+		if ( modes.size() > Short.MAX_VALUE ) throw new IllegalArgumentException( "too many modes: "+modes.size() );
+		this.file = file;
+		this.fingerprint = fingerprint;
+		this.modes = Collections.unmodifiableList( new ArrayList<>( modes ) );
+		this.timeBin_s = timeBin_s;
+		this.linkIndices = createLinkIndices( network );
+
+		final long slots = ( maxSize_bytes - HEADER_BYTES ) / SLOT_BYTES;
+		if ( slots < MAX_PROBES ) throw new IllegalArgumentException( "skim store size too small: "+maxSize_bytes+" bytes" );
+		this.capacity = (int) Math.min( MAX_CAPACITY , Long.highestOneBit( slots ) );
+
+		try {
+			// never deleted, contrary to the store file
+			final File lockPath = new File( file+".lock" );
+			this.lockFile = new RandomAccessFile( lockPath , "rw" );
+			this.processLock = processLocks.computeIfAbsent( lockPath.getCanonicalPath() , k -> new ReentrantLock() );
+			final FileLock lock = lock();
+			try {
+				if ( !headerMatches() ) {
+					log.info( "skim store "+file+" does not exist or does not match the scenario: create empty store with "+capacity+" slots" );
+					createEmptyStore();
+				}
+				else {
+					log.info( "reuse skim store "+file );
+				}
+				this.channel = new RandomAccessFile( file , "rw" ).getChannel();
+				this.buffer = channel.map( FileChannel.MapMode.READ_WRITE , 0 , HEADER_BYTES + (long) capacity * SLOT_BYTES );
+			}
+			finally {
+				unlock( lock );
+			}
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	private boolean headerMatches() throws IOException {
+		final File f = new File( file );
+		if ( !f.exists() || f.length() != HEADER_BYTES + (long) capacity * SLOT_BYTES ) return false;
+
+		try ( RandomAccessFile raf = new RandomAccessFile( f , "r" ) ) {
+			final ByteBuffer header = ByteBuffer.allocate( HEADER_BYTES );
+			raf.getChannel().read( header , 0 );
+			header.flip();
+			return header.remaining() == HEADER_BYTES &&
+					header.getInt() == MAGIC &&
+					header.getInt() == VERSION &&
+					header.getInt() == SLOT_BYTES &&
+					header.getInt() == capacity &&
+					header.getLong() == fingerprint;
+		}
+	}
+
+	private void createEmptyStore() throws IOException {
+		// replace the file instead of overwriting it, as other processes might have the old one mapped
+		final File tmp = new File( file+".tmp" );
+		try ( RandomAccessFile raf = new RandomAccessFile( tmp , "rw" ) ) {
+			raf.setLength( 0 );
+			final ByteBuffer header = ByteBuffer.allocate( HEADER_BYTES );
+			header.putInt( MAGIC ).putInt( VERSION ).putInt( SLOT_BYTES ).putInt( capacity ).putLong( fingerprint );
+			header.flip();
+			raf.getChannel().write( header , 0 );
+			// sparse file, free slots are zeros
+			raf.setLength( HEADER_BYTES + (long) capacity * SLOT_BYTES );
+		}
+		Files.move( tmp.toPath() , new File( file ).toPath() , StandardCopyOption.REPLACE_EXISTING , StandardCopyOption.ATOMIC_MOVE );
+	}
+
+	public List<String> getModes() {
+		return modes;
+	}
+
+	/**
+	 * @return the stored skim, or null if not stored
+	 */
+	public TripSkim get(
+			final String mode,
+			final Id<Link> fromLinkId,
+			final Id<Link> toLinkId,
+			final double departureTime ) {
+		final int from = getLinkIndex( fromLinkId );
+		final int to = getLinkIndex( toLinkId );
+		if ( from < 0 || to < 0 ) {
+			misses.increment();
+			return null;
+		}
+		final int modeAndBin = getModeAndBin( mode , departureTime );
+
+		for ( int probe = 0, slot = getSlot( from , to , modeAndBin ); probe < MAX_PROBES; probe++, slot = ( slot + 1 ) & ( capacity - 1 ) ) {
+			final int position = HEADER_BYTES + slot * SLOT_BYTES;
+			final int storedFrom = buffer.getInt( position );
+			if ( storedFrom == 0 ) break;
+			if ( storedFrom != from + 1 || buffer.getInt( position + 4 ) != to || buffer.getInt( position + 8 ) != modeAndBin ) continue;
+
+			final int nTransfers = buffer.getInt( position + 12 );
+			final double travelTime = buffer.getDouble( position + 16 );
+			final double distance = buffer.getDouble( position + 24 );
+			final double accessEgressTime = buffer.getDouble( position + 32 );
+			if ( buffer.getLong( position + 40 ) != checksum( from , to , modeAndBin , nTransfers , travelTime , distance , accessEgressTime ) ) {
+				// being written by another process
+				break;
+			}
+
+			hits.increment();
+			return new TripSkim( mode , departureTime , travelTime , distance , nTransfers , accessEgressTime );
+		}
+
+		misses.increment();
+		return null;
+	}
+
+	/**
+	 * Stores the skims from one origin to several destinations. Skims already stored are left unchanged.
+	 */
+	public void putAll(
+			final String mode,
+			final Id<Link> fromLinkId,
+			final List<Id<Link>> toLinkIds,
+			final double departureTime,
+			final List<TripSkim> skims ) {
+		final int from = getLinkIndex( fromLinkId );
+		if ( from < 0 ) return;
+		final int modeAndBin = getModeAndBin( mode , departureTime );
+
+		// one lock per batch: locking is much more expensive than writing
+		try {
+			final FileLock lock = lock();
+			try {
+				for ( int i = 0; i < toLinkIds.size(); i++ ) {
+					final int to = getLinkIndex( toLinkIds.get( i ) );
+					if ( to >= 0 ) put( from , to , modeAndBin , skims.get( i ) );
+				}
+			}
+			finally {
+				unlock( lock );
+			}
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	private FileLock lock() throws IOException {
+		processLock.lock();
+		try {
+			return lockFile.getChannel().lock();
+		}
+		catch ( IOException | RuntimeException e ) {
+			processLock.unlock();
+			throw e;
+		}
+	}
+
+	private void unlock( final FileLock lock ) throws IOException {
+		try {
+			lock.release();
+		}
+		finally {
+			processLock.unlock();
+		}
+	}
+
+	private void put( final int from, final int to, final int modeAndBin, final TripSkim skim ) {
+		for ( int probe = 0, slot = getSlot( from , to , modeAndBin ); probe < MAX_PROBES; probe++, slot = ( slot + 1 ) & ( capacity - 1 ) ) {
+			final int position = HEADER_BYTES + slot * SLOT_BYTES;
+			final int storedFrom = buffer.getInt( position );
+			if ( storedFrom == from + 1 && buffer.getInt( position + 4 ) == to && buffer.getInt( position + 8 ) == modeAndBin ) return;
+			if ( storedFrom != 0 ) continue;
+
+			buffer.putInt( position + 4 , to );
+			buffer.putInt( position + 8 , modeAndBin );
+			buffer.putInt( position + 12 , skim.getNumberOfTransfers() );
+			buffer.putDouble( position + 16 , skim.getTravelTime() );
+			buffer.putDouble( position + 24 , skim.getDistance() );
+			buffer.putDouble( position + 32 , skim.getAccessEgressTime() );
+			buffer.putLong(
+					position + 40,
+					checksum(
+							from , to , modeAndBin,
+							skim.getNumberOfTransfers(),
+							skim.getTravelTime(),
+							skim.getDistance(),
+							skim.getAccessEgressTime() ) );
+			// marks the slot as used
+			buffer.putInt( position , from + 1 );
+			return;
+		}
+		dropped.increment();
+	}
+
+	private int getLinkIndex( final Id<Link> linkId ) {
+		if ( linkId == null ) return -1;
+		return linkIndices.containsKey( linkId ) ? linkIndices.get( linkId ) : -1;
+	}
+
+	private int getModeAndBin( final String mode, final double departureTime ) {
+		final int modeIndex = modes.indexOf( mode );
+		if ( modeIndex < 0 ) throw new IllegalArgumentException( "mode "+mode+" not in skim store modes "+modes );
+		final int bin = (int) ( departureTime / timeBin_s );
+		if ( bin < 0 || bin > 0xffff ) throw new IllegalArgumentException( "departure time "+departureTime+" out of range" );
+		return ( modeIndex << 16 ) | bin;
+	}
+
+	private int getSlot( final int from, final int to, final int modeAndBin ) {
+		return (int) mix( mix( mix( 0 , from ) , to ) , modeAndBin ) & ( capacity - 1 );
+	}
+
+	private long checksum(
+			final int from,
+			final int to,
+			final int modeAndBin,
+			final int nTransfers,
+			final double travelTime,
+			final double distance,
+			final double accessEgressTime ) {
+		long h = mix( fingerprint , from );
+		h = mix( h , to );
+		h = mix( h , modeAndBin );
+		h = mix( h , nTransfers );
+		h = mix( h , Double.doubleToLongBits( travelTime ) );
+		h = mix( h , Double.doubleToLongBits( distance ) );
+		return mix( h , Double.doubleToLongBits( accessEgressTime ) );
+	}
+
+	private static long mix( final long h, final long value ) {
+		return RandomStreams.mix64( h ^ value );
+	}
+
+	public double getHitRate() {
+		final double h = hits.sum();
+		final double total = h + misses.sum();
+		return total == 0 ? Double.NaN : h / total;
+	}
+
+	/**
+	 * @return the number of skims that were not stored because of a full neighborhood
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	@Override
+	public void close() {
+		// not while writing
+		processLock.lock();
+		try {
+			buffer.force();
+			channel.close();
+			lockFile.close();
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		finally {
+			processLock.unlock();
+		}
+	}
+
+	private static TObjectIntHashMap<Id<Link>> createLinkIndices( final Network network ) {
+		// sorted, such that indices only depend on the network, not on the order of loading
+		final List<Id<Link>> ids = new ArrayList<>( network.getLinks().keySet() );
+		ids.sort( Comparator.comparing( Id::toString ) );
+
+		final TObjectIntHashMap<Id<Link>> indices = new TObjectIntHashMap<>( ids.size() );
+		for ( int i = 0; i < ids.size(); i++ ) indices.put( ids.get( i ) , i );
+		return indices;
+	}
+
+	/**
+	 * Hash of everything the stored skims depend on.
+	 */
+	static long computeFingerprint(
+			final Scenario scenario,
+			final List<String> modes,
+			final double timeBin_s ) {
+		final Fingerprint f = new Fingerprint();
+		f.add( modes.toString() );
+		f.add( timeBin_s );
+
+		final List<Node> nodes = new ArrayList<>( scenario.getNetwork().getNodes().values() );
+		nodes.sort( Comparator.comparing( n -> n.getId().toString() ) );
+		for ( Node n : nodes ) {
+			f.add( n.getId().toString() );
+			f.add( n.getCoord().getX() );
+			f.add( n.getCoord().getY() );
+		}
+
+		final List<Link> links = new ArrayList<>( scenario.getNetwork().getLinks().values() );
+		links.sort( Comparator.comparing( l -> l.getId().toString() ) );
+		for ( Link l : links ) {
+			f.add( l.getId().toString() );
+			f.add( l.getFromNode().getId().toString() );
+			f.add( l.getToNode().getId().toString() );
+			f.add( l.getLength() );
+			f.add( l.getFreespeed() );
+			f.add( l.getCapacity() );
+			f.add( l.getNumberOfLanes() );
+			f.add( new TreeSet<>( l.getAllowedModes() ).toString() );
+		}
+
+		if ( scenario.getConfig().transit().isUseTransit() ) {
+			final List<TransitStopFacility> stops = new ArrayList<>( scenario.getTransitSchedule().getFacilities().values() );
+			stops.sort( Comparator.comparing( s -> s.getId().toString() ) );
+			for ( TransitStopFacility s : stops ) {
+				f.add( s.getId().toString() );
+				f.add( s.getCoord().getX() );
+				f.add( s.getCoord().getY() );
+				f.add( String.valueOf( s.getLinkId() ) );
+			}
+
+			final List<TransitLine> lines = new ArrayList<>( scenario.getTransitSchedule().getTransitLines().values() );
+			lines.sort( Comparator.comparing( l -> l.getId().toString() ) );
+			for ( TransitLine line : lines ) {
+				f.add( line.getId().toString() );
+				final List<TransitRoute> routes = new ArrayList<>( line.getRoutes().values() );
+				routes.sort( Comparator.comparing( r -> r.getId().toString() ) );
+				for ( TransitRoute route : routes ) {
+					f.add( route.getId().toString() );
+					f.add( route.getTransportMode() );
+					for ( TransitRouteStop stop : route.getStops() ) {
+						f.add( stop.getStopFacility().getId().toString() );
+						f.add( stop.getArrivalOffset() );
+						f.add( stop.getDepartureOffset() );
+					}
+					final List<Departure> departures = new ArrayList<>( route.getDepartures().values() );
+					departures.sort( Comparator.comparing( d -> d.getId().toString() ) );
+					for ( Departure d : departures ) f.add( d.getDepartureTime() );
+				}
+			}
+		}
+
+		f.add( scenario.getConfig().plansCalcRoute() );
+		f.add( scenario.getConfig().planCalcScore() );
+		f.add( scenario.getConfig().transitRouter() );
+
+		return f.get();
+	}
+
+	private static class Fingerprint {
+		private final MessageDigest digest;
+
+		Fingerprint() {
+			try {
+				this.digest = MessageDigest.getInstance( "SHA-256" );
+			}
+			catch ( NoSuchAlgorithmException e ) {
+				throw new RuntimeException( e );
+			}
+		}
+
+		void add( final String s ) {
+			digest.update( s.getBytes( StandardCharsets.UTF_8 ) );
+			// separator, such that "ab", "c" differs from "a", "bc"
+			digest.update( (byte) 0 );
+		}
+
+		void add( final double d ) {
+			final long bits = Double.doubleToLongBits( d );
+			for ( int i = 0; i < 8; i++ ) digest.update( (byte) ( bits >>> ( 8 * i ) ) );
+		}
+
+		void add( final ConfigGroup group ) {
+			add( group.getName() );
+			for ( Map.Entry<String, String> e : new TreeMap<>( group.getParams() ).entrySet() ) {
+				add( e.getKey() );
+				add( String.valueOf( e.getValue() ) );
+			}
+			for ( Map.Entry<String, ? extends Collection<? extends ConfigGroup>> e : new TreeMap<>( group.getParameterSets() ).entrySet() ) {
+				add( e.getKey() );
+				for ( ConfigGroup set : e.getValue() ) add( set );
+			}
+		}
+
+		long get() {
+			return ByteBuffer.wrap( digest.digest() ).getLong();
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.router.RoutingModule;
+import org.matsim.core.router.StageActivityTypes;
+import org.matsim.core.router.TeleportationRoutingModule;
+import org.matsim.core.router.TripRouter;
+import org.matsim.facilities.Facility;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads skims from a {@link SkimStore}, and stores the skims computed by the wrapped module.
+ * Skims are keyed by link: facilities on the same link get the same skims.
+ * Routes are computed by the wrapped module, without using the store.
+ *
+ * @author thibautd
+ */
+public class StoredSkimRoutingModule implements SkimRoutingModule {
+	private final String mode;
+	private final SkimStore store;
+	private final RoutingModule wrapped;
+
+	public StoredSkimRoutingModule(
+			final String mode,
+			final SkimStore store,
+			final RoutingModule wrapped ) {
+		this.mode = mode;
+		this.store = store;
+		this.wrapped = wrapped;
+	}
+
+	/**
+	 * Wraps the routing modules of the modes of the store. Teleported modes are left unchanged, as computing their
+	 * skims is cheaper than reading them. Wrapped modules do not route in batch anymore: only use in skim-only mode.
+	 */
+	public static void wrapModules( final TripRouter router, final SkimStore store ) {
+		for ( String mode : store.getModes() ) {
+			final RoutingModule module = router.getRoutingModule( mode );
+			if ( module == null || module instanceof TeleportationRoutingModule ) continue;
+			router.setRoutingModule( mode , new StoredSkimRoutingModule( mode , store , module ) );
+		}
+	}
+
+	@Override
+	public List<TripSkim> calcSkims(
+			final Facility fromFacility,
+			final List<? extends Facility> toFacilities,
+			final double departureTime,
+			final Person person ) {
+		final List<TripSkim> skims = new ArrayList<>( Collections.nCopies( toFacilities.size() , null ) );
+
+		final List<Integer> missIndices = new ArrayList<>();
+		final List<Facility> misses = new ArrayList<>();
+		final List<Id<Link>> missLinks = new ArrayList<>();
+		for ( int i = 0; i < toFacilities.size(); i++ ) {
+			final Facility to = toFacilities.get( i );
+			final TripSkim stored = store.get( mode , fromFacility.getLinkId() , to.getLinkId() , departureTime );
+
+			if ( stored != null ) {
+				skims.set( i , stored );
+			}
+			else {
+				missIndices.add( i );
+				misses.add( to );
+				missLinks.add( to.getLinkId() );
+			}
+		}
+
+		if ( misses.isEmpty() ) return skims;
+
+		final List<TripSkim> computed = SkimRoutingModule.calcSkims( wrapped , mode , fromFacility , misses , departureTime , person );
+		store.putAll( mode , fromFacility.getLinkId() , missLinks , departureTime , computed );
+		for ( int j = 0; j < misses.size(); j++ ) {
+			skims.set( missIndices.get( j ) , computed.get( j ) );
+		}
+
+		return skims;
+	}
+
+	@Override
+	public List<? extends PlanElement> calcRoute(
+			final Facility fromFacility,
+			final Facility toFacility,
+			final double departureTime,
+			final Person person ) {
+		return wrapped.calcRoute( fromFacility , toFacility , departureTime , person );
+	}
+
+	@Override
+	public StageActivityTypes getStageActivityTypes() {
+		return wrapped.getStageActivityTypes();
+	}
+}
@@ -0,0 +1,256 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.Route;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.GenericRouteImpl;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact and immutable representation of a trip, for storage in caches.
+ * Leg attributes are stored as primitives and network routes as arrays of link ids.
+ * Plan elements are only created on demand, as new instances at each call, so that callers are free to modify them.
+ * <br>
+ * Other route types and activities (for instance transit interactions) are rare in cached trips, and are stored
+ * as private copies.
+ * <br>
+ * Records can also hold only the skim of a trip, for trips that were skimmed without being routed.
+ * Such records cannot create plan elements.
+ *
+ * @author thibautd
+ */
+public final class TripRecord {
+	// either LegRecord or Activity
+	private final Object[] elements;
+	private final double travelTime;
+	private final double distance;
+	private final boolean hasRoutes;
+	// only for skim records
+	private final TripSkim skim;
+
+	private TripRecord( final TripSkim skim ) {
+		this.elements = null;
+		this.travelTime = skim.getTravelTime();
+		this.distance = skim.getDistance();
+		this.hasRoutes = false;
+		this.skim = skim;
+	}
+
+	private TripRecord( final Object[] elements ) {
+		this.elements = elements;
+		this.skim = null;
+
+		double tt = 0;
+		double d = 0;
+		boolean routes = false;
+		for ( Object e : elements ) {
+			if ( !( e instanceof LegRecord ) ) continue;
+			final LegRecord leg = (LegRecord) e;
+			tt += leg.travelTime;
+			d += leg.distance;
+			routes |= leg.linkIds != null || leg.route != null;
+		}
+		this.travelTime = tt;
+		this.distance = d;
+		this.hasRoutes = routes;
+	}
+
+	public static TripRecord create( final List<? extends PlanElement> trip ) {
+		final Object[] elements = new Object[ trip.size() ];
+		for ( int i = 0; i < elements.length; i++ ) {
+			final PlanElement pe = trip.get( i );
+			if ( pe instanceof Leg ) elements[ i ] = new LegRecord( (Leg) pe );
+			else if ( pe instanceof Activity ) elements[ i ] = PopulationUtils.createActivity( (Activity) pe );
+			else throw new RuntimeException( pe.getClass().getName()+"???" );
+		}
+		return new TripRecord( elements );
+	}
+
+	public static TripRecord create( final TripSkim skim ) {
+		return new TripRecord( skim );
+	}
+
+	/**
+	 * @return true if the record only contains the skim of the trip, and cannot create plan elements
+	 */
+	public boolean isSkimOnly() {
+		return skim != null;
+	}
+
+	/**
+	 * @return the sum of the travel times of the legs
+	 */
+	public double getTravelTime() {
+		return travelTime;
+	}
+
+	/**
+	 * @return the sum of the route distances of the legs
+	 */
+	public double getDistance() {
+		return distance;
+	}
+
+	/**
+	 * @return false if the trip only consists of legs without any route detail, as for teleported modes
+	 */
+	public boolean hasRoutes() {
+		return hasRoutes;
+	}
+
+	/**
+	 * @return the skim of the trip, with transit as mode if there is any transit leg and the first leg mode otherwise
+	 */
+	public TripSkim toSkim() {
+		if ( skim != null ) return skim;
+		final TripSkim.Builder builder = new TripSkim.Builder( null );
+		for ( Object e : elements ) {
+			if ( !( e instanceof LegRecord ) ) continue;
+			final LegRecord leg = (LegRecord) e;
+			builder.addLeg( leg.mode , leg.departureTime , leg.travelTime , leg.distance );
+		}
+		return builder.build();
+	}
+
+	public List<PlanElement> createPlanElements() {
+		checkNotSkimOnly();
+		final List<PlanElement> trip = new ArrayList<>( elements.length );
+		for ( Object e : elements ) {
+			if ( e instanceof LegRecord ) trip.add( ( (LegRecord) e ).createLeg() );
+			else trip.add( PopulationUtils.createActivity( (Activity) e ) );
+		}
+		return trip;
+	}
+
+	public List<Leg> createLegs() {
+		checkNotSkimOnly();
+		final List<Leg> legs = new ArrayList<>( elements.length );
+		for ( Object e : elements ) {
+			if ( e instanceof LegRecord ) legs.add( ( (LegRecord) e ).createLeg() );
+		}
+		return legs;
+	}
+
+	private void checkNotSkimOnly() {
+		if ( skim != null ) throw new IllegalStateException( "cannot create plan elements from skim "+skim );
+	}
+
+	/**
+	 * Rough estimate of the memory footprint of the record, in bytes.
+	 */
+	public long estimateWeight() {
+		if ( skim != null ) return 32 + 64;
+		long w = 32 + 8L * elements.length;
+		for ( Object e : elements ) {
+			if ( e instanceof LegRecord ) {
+				final LegRecord leg = (LegRecord) e;
+				w += 88;
+				if ( leg.linkIds != null ) w += 16 + 4L * leg.linkIds.length;
+				if ( leg.route != null ) w += 128;
+			}
+			else {
+				w += 128;
+			}
+		}
+		return w;
+	}
+
+	@Override
+	public String toString() {
+		return "TripRecord"+( skim != null ? "["+skim+"]" : createPlanElements() );
+	}
+
+	private static class LegRecord {
+		private final String mode;
+		private final double departureTime;
+		private final double travelTime;
+		private final double routeTravelTime;
+		private final double distance;
+		private final double travelCost;
+		private final Id<Link> startLinkId;
+		private final Id<Link> endLinkId;
+		// only for network routes
+		private final Id<Link>[] linkIds;
+		// only for other routes
+		private final Route route;
+
+		@SuppressWarnings( "unchecked" )
+		private LegRecord( final Leg leg ) {
+			final Route r = leg.getRoute();
+			this.mode = leg.getMode();
+			this.departureTime = leg.getDepartureTime();
+			this.travelTime = leg.getTravelTime();
+			this.routeTravelTime = r.getTravelTime();
+			this.distance = r.getDistance();
+			this.startLinkId = r.getStartLinkId();
+			this.endLinkId = r.getEndLinkId();
+
+			if ( r instanceof NetworkRoute ) {
+				this.travelCost = ( (NetworkRoute) r ).getTravelCost();
+				this.linkIds = ( (NetworkRoute) r ).getLinkIds().toArray( new Id[ 0 ] );
+				this.route = null;
+			}
+			else if ( r instanceof GenericRouteImpl && r.getRouteDescription() == null ) {
+				// teleported legs: everything is in the primitive fields
+				this.travelCost = Double.NaN;
+				this.linkIds = null;
+				this.route = null;
+			}
+			else {
+				this.travelCost = Double.NaN;
+				this.linkIds = null;
+				this.route = r.clone();
+			}
+		}
+
+		private Leg createLeg() {
+			final Route r;
+			if ( linkIds != null ) {
+				final NetworkRoute networkRoute = RouteUtils.createLinkNetworkRouteImpl( startLinkId , Arrays.asList( linkIds ) , endLinkId );
+				networkRoute.setTravelCost( travelCost );
+				r = networkRoute;
+			}
+			else if ( route != null ) {
+				r = route.clone();
+			}
+			else {
+				r = new GenericRouteImpl( startLinkId , endLinkId );
+			}
+			r.setTravelTime( routeTravelTime );
+			r.setDistance( distance );
+
+			final Leg leg = PopulationUtils.createLeg( mode );
+			leg.setRoute( r );
+			leg.setDepartureTime( departureTime );
+			leg.setTravelTime( travelTime );
+			return leg;
+		}
+	}
+}
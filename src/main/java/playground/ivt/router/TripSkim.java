@@ -0,0 +1,172 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.GenericRouteImpl;
+
+import java.util.List;
+
+/**
+ * Aggregated level of service of a trip: the values models actually use, without any route information.
+ *
+ * @author thibautd
+ */
+public final class TripSkim {
+	private final String mode;
+	private final double departureTime;
+	private final double travelTime;
+	private final double distance;
+	private final int nTransfers;
+	private final double accessEgressTime;
+
+	public TripSkim(
+			final String mode,
+			final double departureTime,
+			final double travelTime,
+			final double distance,
+			final int nTransfers,
+			final double accessEgressTime ) {
+		this.mode = mode;
+		this.departureTime = departureTime;
+		this.travelTime = travelTime;
+		this.distance = distance;
+		this.nTransfers = nTransfers;
+		this.accessEgressTime = accessEgressTime;
+	}
+
+	/**
+	 * Creates the skim of a routed trip. Transfers and access/egress are defined relative to the transit legs:
+	 * access and egress are the legs before the first and after the last transit leg.
+	 */
+	public static TripSkim create( final String mode, final List<? extends PlanElement> trip ) {
+		final Builder builder = new Builder( mode );
+		for ( PlanElement pe : trip ) {
+			if ( pe instanceof Leg ) {
+				final Leg leg = (Leg) pe;
+				builder.addLeg( leg.getMode() , leg.getDepartureTime() , leg.getTravelTime() , leg.getRoute().getDistance() );
+			}
+		}
+		return builder.build();
+	}
+
+	public String getMode() {
+		return mode;
+	}
+
+	public double getDepartureTime() {
+		return departureTime;
+	}
+
+	public double getTravelTime() {
+		return travelTime;
+	}
+
+	public double getDistance() {
+		return distance;
+	}
+
+	public int getNumberOfTransfers() {
+		return nTransfers;
+	}
+
+	public double getAccessEgressTime() {
+		return accessEgressTime;
+	}
+
+	/**
+	 * Creates a single leg representing the trip, for consumers that need plan elements.
+	 * For teleported modes, this is the same leg as the one of the teleportation routing module.
+	 */
+	public Leg createLeg( final Id<Link> startLinkId, final Id<Link> endLinkId ) {
+		final GenericRouteImpl route = new GenericRouteImpl( startLinkId , endLinkId );
+		route.setTravelTime( travelTime );
+		route.setDistance( distance );
+
+		final Leg leg = PopulationUtils.createLeg( mode );
+		leg.setRoute( route );
+		leg.setDepartureTime( departureTime );
+		leg.setTravelTime( travelTime );
+		return leg;
+	}
+
+	@Override
+	public String toString() {
+		return "TripSkim{" +
+				"mode=" + mode +
+				", travelTime=" + travelTime +
+				", distance=" + distance +
+				", nTransfers=" + nTransfers +
+				", accessEgressTime=" + accessEgressTime +
+				'}';
+	}
+
+	static class Builder {
+		private final String mode;
+		private double departureTime = Double.NaN;
+		private double travelTime = 0;
+		private double distance = 0;
+		private int nTransitLegs = 0;
+		// time of non-transit legs before the first transit leg, and since the last one
+		private double accessTime = 0;
+		private double timeSinceTransit = 0;
+		private String mainMode = null;
+
+		/**
+		 * @param mode the mode of the skim, or null to use transit if there is any transit leg, the first leg mode otherwise
+		 */
+		Builder( final String mode ) {
+			this.mode = mode;
+		}
+
+		void addLeg( final String legMode, final double legDepartureTime, final double legTravelTime, final double legDistance ) {
+			if ( Double.isNaN( departureTime ) ) departureTime = legDepartureTime;
+			if ( mainMode == null ) mainMode = legMode;
+			travelTime += legTravelTime;
+			distance += legDistance;
+
+			if ( legMode.equals( TransportMode.pt ) ) {
+				nTransitLegs++;
+				timeSinceTransit = 0;
+				mainMode = legMode;
+			}
+			else if ( nTransitLegs == 0 ) {
+				accessTime += legTravelTime;
+			}
+			else {
+				timeSinceTransit += legTravelTime;
+			}
+		}
+
+		TripSkim build() {
+			return new TripSkim(
+					mode != null ? mode : mainMode,
+					departureTime,
+					travelTime,
+					distance,
+					Math.max( 0 , nTransitLegs - 1 ),
+					nTransitLegs == 0 ? 0 : accessTime + timeSinceTransit );
+		}
+	}
+}
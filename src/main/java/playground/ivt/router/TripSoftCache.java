@@ -20,150 +20,238 @@
 package playground.ivt.router;
 
 import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.population.Activity;
-import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.PlanElement;
-import org.matsim.core.population.PopulationUtils;
 import org.matsim.facilities.Facility;
-import playground.ivt.utils.SoftCache;
+import playground.ivt.utils.LongKeyedBoundedCache;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 /**
+ * Caches trips between locations. The cache is bounded by an estimate of the memory used by the trips
+ * and by the location indices, see {@link LongKeyedBoundedCache}. Trips are stored as compact {@link TripRecord}s.
+ * <br>
+ * Trips are keyed by a long packing dense indices of the origin and destination,
+ * such that lookups do not allocate anything. Indices are attributed to locations when first seen, and kept
+ * for the lifetime of the cache. They can use at most half of the bound: trips from or to locations seen after that
+ * are not cached.
+ * If the person is considered, the trips of the last few persons are kept for each origin-destination pair,
+ * and are identified by the person id.
+ *
  * @author thibautd
  */
 public class TripSoftCache {
+	public static final long DEFAULT_MAX_WEIGHT_BYTES = 512L * 1024 * 1024;
+	// typical size of a car trip, used to dimension the frequency sketch
+	private static final long EXPECTED_TRIP_WEIGHT_BYTES = 256;
+	// map node, boxed index and location key, if not shared with the scenario
+	private static final long LOCATION_INDEX_WEIGHT_BYTES = 96;
+	// number of person specific trips kept per origin-destination pair
+	private static final int MAX_PERSONS_PER_OD = 8;
+	// key of trips that cannot be cached. Valid keys pack two non-negative ints.
+	private static final long NO_KEY = -1;
+
 	public enum LocationType {coord, link, facility;}
 	private final boolean considerPerson;
-	private final LocationType locationType;
+	private final Function<Facility, Object> location;
+
+	private final ConcurrentHashMap<Object, Integer> locationIndices = new ConcurrentHashMap<>();
+	private final AtomicInteger nLocations = new AtomicInteger( 0 );
+	private final int maxLocations;
 
-	private final SoftCache<Departure, List<? extends PlanElement>> cache;
+	// only one of those is used, depending on whether the person is considered
+	private final LongKeyedBoundedCache<TripRecord> cache;
+	private final LongKeyedBoundedCache<PersonTrips> personCache;
 
 	public TripSoftCache(
 			final boolean considerPerson,
 			final LocationType locationType) {
+		this( considerPerson , locationType , DEFAULT_MAX_WEIGHT_BYTES );
+	}
+
+	/**
+	 * @param maxWeight_bytes the maximum estimated memory footprint of the cached trips, location indices
+	 * and frequency sketches
+	 */
+	public TripSoftCache(
+			final boolean considerPerson,
+			final LocationType locationType,
+			final long maxWeight_bytes ) {
 		this.considerPerson = considerPerson;
-		this.locationType = locationType;
-		this.cache = new SoftCache<Departure, List<? extends PlanElement>>(
-				new SoftCache.Cloner<List<? extends PlanElement>>() {
-					@Override
-					public List<? extends PlanElement> clone(
-							List<? extends PlanElement> cloned) {
-						return TripSoftCache.clone( cloned );
-					}
-				});
+		this.location = getLocationFunction( locationType );
+		this.maxLocations = (int) Math.min( Integer.MAX_VALUE , maxWeight_bytes / 2 / LOCATION_INDEX_WEIGHT_BYTES );
+		// records are immutable, no need to clone them
+		this.cache = considerPerson ? null :
+				new LongKeyedBoundedCache<>(
+						maxWeight_bytes,
+						EXPECTED_TRIP_WEIGHT_BYTES,
+						trip -> 64 + trip.estimateWeight() );
+		this.personCache = !considerPerson ? null :
+				new LongKeyedBoundedCache<>(
+						maxWeight_bytes,
+						EXPECTED_TRIP_WEIGHT_BYTES,
+						PersonTrips::estimateWeight );
+		// weights are in bytes: the frequency sketches count in the bound
+		if ( cache != null ) cache.reserveWeight( cache.getSketchSizeInBytes() );
+		if ( personCache != null ) personCache.reserveWeight( personCache.getSketchSizeInBytes() );
 	}
 
-	public List<? extends PlanElement> get( final Departure departure ) {
-		return cache.get( departure );
+	private static Function<Facility, Object> getLocationFunction( final LocationType locationType ) {
+		switch ( locationType ) {
+		case coord:
+			return Facility::getCoord;
+		case facility:
+			return Facility::getId;
+		case link:
+			return Facility::getLinkId;
+		default:
+			throw new RuntimeException( ""+locationType );
+		}
 	}
 
-	public void put( final Departure departure , final List<? extends PlanElement> trip ) {
-		cache.put( departure , trip );
+	/**
+	 * @param person the person the trip is for. Only used if the person is considered.
+	 * @return new plan elements for the cached trip, or null if not in cache or only cached as a skim
+	 */
+	public List<? extends PlanElement> get( final long key , final Person person ) {
+		final TripRecord record = getRecord( key , person );
+		return record == null || record.isSkimOnly() ? null : record.createPlanElements();
 	}
 
 	/**
-	 * The cached instances need to be "cloned", as the instances returned will be
-	 * included in the plans and perhaps modified.
+	 * @param person the person the trip is for. Only used if the person is considered.
+	 * @return the cached record, which might be a skim only record, or null if not in cache
 	 */
-	private static List<? extends PlanElement> clone(List<? extends PlanElement> trip) {
-		final List<PlanElement> clone = new ArrayList<PlanElement>( trip.size() );
+	public TripRecord getRecord( final long key , final Person person ) {
+		if ( key == NO_KEY ) return null;
+		if ( !considerPerson ) return cache.get( key );
+
+		final PersonTrips trips = personCache.get( key );
+		return trips == null ? null : trips.get( person.getId() );
+	}
+
+	public void put( final long key , final Person person , final List<? extends PlanElement> trip ) {
+		put( key , person , TripRecord.create( trip ) );
+	}
 
-		for ( PlanElement pe : trip ) {
-			if ( pe instanceof Leg ) clone.add( clone( (Leg) pe ) );
-			else if ( pe instanceof Activity ) clone.add( clone( (Activity) pe ) );
-			else throw new RuntimeException( pe.getClass().getName()+"???" );
+	/**
+	 * Concurrent insertions of trips for different persons between the same locations might loose some of them,
+	 * which only means that they will need to be computed again.
+	 */
+	public void put( final long key , final Person person , final TripRecord trip ) {
+		if ( key == NO_KEY ) return;
+		if ( !considerPerson ) {
+			cache.put( key , trip );
+			return;
 		}
 
-		return clone;
+		// entries are immutable: replace the whole entry. Peek, to leave statistics and eviction order untouched
+		final PersonTrips old = personCache.peek( key );
+		personCache.put( key , old == null ? new PersonTrips( person.getId() , trip ) : old.with( person.getId() , trip ) );
 	}
 
-	private static Leg clone( final Leg leg) {
-		final Leg clone = PopulationUtils.createLeg(leg.getMode());
-		clone.setRoute( leg.getRoute().clone() );
-		clone.setDepartureTime( leg.getDepartureTime() );
-		clone.setTravelTime( leg.getTravelTime() );
-		return clone;
+	private LongKeyedBoundedCache<?> getCache() {
+		return considerPerson ? personCache : cache;
 	}
 
-	private static Activity clone( final Activity act) {
-		return PopulationUtils.createActivity(act);
+	public double getHitRate() {
+		return getCache().getHitRate();
 	}
 
-	public Departure createDeparture(
-				final Person person,
-				final Facility origin,
-				final Facility destination) {
-		return new Departure( person , origin , destination );
+	public long getEvictions() {
+		return getCache().getEvictions();
 	}
 
-	public class Departure {
-		private final Id personId;
-		private final Facility origin;
-		private final Facility destination;
+	public long getRejections() {
+		return getCache().getRejections();
+	}
 
-		private Departure(
-				final Person person,
+	/**
+	 * @return the estimated weight of the trips and of the location indices
+	 */
+	public long getWeight() {
+		return getCache().getWeight() + getCache().getReservedWeight();
+	}
+
+	/**
+	 * @return the key of the trip. Keys are directional: the trip from A to B does not share its key with the trip from B to A.
+	 */
+	public long createKey(
 				final Facility origin,
 				final Facility destination) {
-			this.personId = person.getId();
-			this.origin = origin;
-			this.destination = destination;
-		}
+		final long o = index( location.apply( origin ) );
+		final long d = index( location.apply( destination ) );
+		return o < 0 || d < 0 ? NO_KEY : o << 32 | d;
+	}
 
-		@Override
-		public boolean equals(final Object o) {
-			if ( !o.getClass().equals( getClass() ) ) return false;
-			final Departure other = (Departure) o;
+	/**
+	 * @return the index of the location, or -1 if the maximum number of indices is reached
+	 */
+	private int index( final Object key ) {
+		// get first: computeIfAbsent locks even if the key is present
+		final Integer index = locationIndices.get( key );
+		if ( index != null ) return index;
+		if ( nLocations.get() >= maxLocations ) return -1;
+		return locationIndices.computeIfAbsent(
+				key,
+				k -> {
+					getCache().reserveWeight( LOCATION_INDEX_WEIGHT_BYTES );
+					return nLocations.getAndIncrement();
+				} );
+	}
 
-			if ( considerPerson && !other.personId.equals( personId ) ) return false;
-			if ( !sameLocation( origin , other.origin ) ) return false;
-			if ( !sameLocation( destination , other.destination ) ) return false;
+	/**
+	 * The trips of the last persons between two locations, most recent last.
+	 */
+	private static class PersonTrips {
+		private final Id<Person>[] persons;
+		private final TripRecord[] trips;
+
+		@SuppressWarnings( "unchecked" )
+		PersonTrips( final Id<Person> person , final TripRecord trip ) {
+			this( new Id[] { person } , new TripRecord[] { trip } );
+		}
 
-			return true;
+		private PersonTrips( final Id<Person>[] persons , final TripRecord[] trips ) {
+			this.persons = persons;
+			this.trips = trips;
 		}
 
-		private boolean sameLocation(
-				final Facility f1,
-				final Facility f2) {
-			switch ( locationType ) {
-			case coord:
-				return f1.getCoord().equals( f2.getCoord() );
-			case facility:
-				return f1.getId().equals( f2.getId() );
-			case link:
-				return f1.getLinkId().equals( f2.getLinkId() );
-			default:
-				throw new RuntimeException( ""+locationType );
+		TripRecord get( final Id<Person> person ) {
+			for ( int i = 0; i < persons.length; i++ ) {
+				if ( persons[ i ].equals( person ) ) return trips[ i ];
 			}
+			return null;
 		}
 
-		@Override
-		public int hashCode() {
-			int h = 0;
-			if ( considerPerson ) h += personId.hashCode();
-
-			switch ( locationType ) {
-			case coord:
-				h += origin.getCoord().hashCode();
-				h += destination.getCoord().hashCode();
-				break;
-			case facility:
-				h += origin.getId().hashCode();
-				h += destination.getId().hashCode();
-				break;
-			case link:
-				h += origin.getLinkId().hashCode();
-				h += destination.getLinkId().hashCode();
-				break;
-			default:
-				throw new RuntimeException( ""+locationType );
+		PersonTrips with( final Id<Person> person , final TripRecord trip ) {
+			// drop the previous trip of the person, or the oldest one if full
+			int drop = -1;
+			for ( int i = 0; i < persons.length; i++ ) {
+				if ( persons[ i ].equals( person ) ) drop = i;
 			}
+			if ( drop < 0 && persons.length == MAX_PERSONS_PER_OD ) drop = 0;
 
-			return h;
+			final int n = drop < 0 ? persons.length + 1 : persons.length;
+			final Id<Person>[] newPersons = Arrays.copyOf( persons , n );
+			final TripRecord[] newTrips = Arrays.copyOf( trips , n );
+			if ( drop >= 0 ) {
+				System.arraycopy( persons , drop + 1 , newPersons , drop , persons.length - drop - 1 );
+				System.arraycopy( trips , drop + 1 , newTrips , drop , trips.length - drop - 1 );
+			}
+			newPersons[ n - 1 ] = person;
+			newTrips[ n - 1 ] = trip;
+			return new PersonTrips( newPersons , newTrips );
+		}
+
+		long estimateWeight() {
+			long w = 64 + 16L * persons.length;
+			for ( TripRecord t : trips ) w += t.estimateWeight();
+			return w;
 		}
 	}
 }
-
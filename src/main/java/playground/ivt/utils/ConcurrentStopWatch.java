@@ -27,6 +27,8 @@ import java.util.concurrent.atomic.AtomicLong;
 /**
  * Efficient stopwatch that is safe to use in a multithreaded environment.
  * Results make sense only if the start/end sequence is correct. No check is performed.
+ * If a metrics prefix is given, the duration of each measurement is also recorded as a stage of the global
+ * {@link RunMetrics}, which makes it observable while the run is in progress.
  * @author thibautd
  */
 public class ConcurrentStopWatch<T extends Enum<T>> {
@@ -37,7 +39,18 @@ public class ConcurrentStopWatch<T extends Enum<T>> {
 	private final AtomicLong[] measurements;
 	private final AtomicInteger[] openMeasurements;
 
+	private final RunMetrics.Stage[] stages;
+	private final ThreadLocal<long[]> stageStarts;
+
 	public ConcurrentStopWatch( final Class<T> enumType ) {
+		this( enumType , null );
+	}
+
+	/**
+	 * @param metricsPrefix measurements of type "t" are recorded in the stage "metricsPrefix.t" of the global
+	 * {@link RunMetrics}. Nothing is recorded if null.
+	 */
+	public ConcurrentStopWatch( final Class<T> enumType , final String metricsPrefix ) {
 		this.enumType = enumType;
 		this.measurements = new AtomicLong[ enumType.getEnumConstants().length ];
 		this.openMeasurements = new AtomicInteger[ measurements.length ];
@@ -45,6 +58,18 @@ public class ConcurrentStopWatch<T extends Enum<T>> {
 			measurements[ i ] = new AtomicLong( 0 );
 			openMeasurements[ i ] = new AtomicInteger( 0 );
 		}
+
+		if ( metricsPrefix == null ) {
+			this.stages = null;
+			this.stageStarts = null;
+		}
+		else {
+			this.stages = new RunMetrics.Stage[ measurements.length ];
+			for ( T type : enumType.getEnumConstants() ) {
+				stages[ type.ordinal() ] = RunMetrics.global().stage( metricsPrefix+"."+type );
+			}
+			this.stageStarts = ThreadLocal.withInitial( () -> new long[ measurements.length ] );
+		}
 	}
 
 	public void startMeasurement( final T type) {
@@ -55,12 +80,14 @@ public class ConcurrentStopWatch<T extends Enum<T>> {
 		final int i = type.ordinal();
 		measurements[ i ].addAndGet( -System.currentTimeMillis() );
 		openMeasurements[ i ].incrementAndGet();
+		if ( stages != null ) stageStarts.get()[ i ] = System.nanoTime();
 	}
 
 	public void endMeasurement( final T type ) {
 		final int i = type.ordinal();
 		measurements[ i ].addAndGet( System.currentTimeMillis() );
 		openMeasurements[ i ].decrementAndGet();
+		if ( stages != null ) stages[ i ].record( System.nanoTime() - stageStarts.get()[ i ] );
 	}
 
 	public void printStats( final TimeUnit unit) {
@@ -0,0 +1,92 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.utils;
+
+/**
+ * Count-min sketch with 4 rows of counters saturating at 15.
+ * All counters are halved after a number of increments proportional to the width,
+ * so that the frequencies reflect recent history.
+ * <br>
+ * Counters are packed 16 per long, so that the sketch only takes half a byte per counter.
+ * <br>
+ * Not thread safe.
+ *
+ * @author thibautd
+ */
+class FrequencySketch {
+	private static final int[] SEEDS = { 0x9E3779B9 , 0x85EBCA6B , 0xC2B2AE35 , 0x27D4EB2F };
+	private static final int MAX_COUNT = 15;
+	// keeps the three low bits of each counter, for halving all counters of a word at once
+	private static final long HALF_MASK = 0x7777777777777777L;
+
+	// table[ row ][ counter / 16 ], counter at bits 4 * ( counter % 16 )
+	private final long[][] table;
+	private final int mask;
+	private final int resetPeriod;
+	private int nIncrements = 0;
+
+	FrequencySketch( final long expectedEntries ) {
+		final int width = Integer.highestOneBit( (int) Math.max( 1024 , Math.min( 1 << 24 , expectedEntries ) ) - 1 ) << 1;
+		this.table = new long[ SEEDS.length ][ width >>> 4 ];
+		this.mask = width - 1;
+		this.resetPeriod = 10 * width;
+	}
+
+	void increment( final int hash ) {
+		for ( int row = 0; row < SEEDS.length; row++ ) {
+			final int i = index( hash , row );
+			final int shift = shift( i );
+			if ( ( ( table[ row ][ i >>> 4 ] >>> shift ) & MAX_COUNT ) < MAX_COUNT ) table[ row ][ i >>> 4 ] += 1L << shift;
+		}
+		if ( ++nIncrements == resetPeriod ) age();
+	}
+
+	int frequency( final int hash ) {
+		int min = MAX_COUNT;
+		for ( int row = 0; row < SEEDS.length; row++ ) {
+			final int i = index( hash , row );
+			min = Math.min( min , (int) ( ( table[ row ][ i >>> 4 ] >>> shift( i ) ) & MAX_COUNT ) );
+		}
+		return min;
+	}
+
+	/**
+	 * @return the approximate memory footprint of the counters
+	 */
+	long getSizeInBytes() {
+		return SEEDS.length * ( 16 + 8L * table[ 0 ].length );
+	}
+
+	private int index( final int hash, final int row ) {
+		int h = hash * SEEDS[ row ];
+		h ^= h >>> 16;
+		return h & mask;
+	}
+
+	private static int shift( final int i ) {
+		return ( i & 15 ) << 2;
+	}
+
+	private void age() {
+		for ( long[] row : table ) {
+			for ( int i = 0; i < row.length; i++ ) row[ i ] = ( row[ i ] >>> 1 ) & HALF_MASK;
+		}
+		nIncrements = 0;
+	}
+}
@@ -0,0 +1,361 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * A cache with primitive long keys, bounded by the total weight of its entries.
+ * The weight is typically an estimate of the memory footprint, given by a user-provided function.
+ * Weight used by structures outside of the cache, such as the indices used to build keys, can be reserved,
+ * so that it counts in the bound.
+ * <br>
+ * Keys are spread over independently locked stripes, such that many threads can use the cache concurrently.
+ * Each stripe is an open addressing hash table, and reading does not allocate anything.
+ * Eviction is approximately least recently used (CLOCK), with frequency based admission (TinyLFU):
+ * when a stripe is full, a new entry only replaces the eviction candidate if its key was requested more often,
+ * according to a {@link FrequencySketch}.
+ * <br>
+ * Values are not copied: they should be immutable.
+ *
+ * @author thibautd
+ */
+public class LongKeyedBoundedCache<V> {
+	public static final int DEFAULT_NUMBER_OF_STRIPES = 64;
+
+	private final long maxWeight;
+	private final ToLongFunction<? super V> weigher;
+	private final Stripe<V>[] stripes;
+	private final int stripeMask;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder rejections = new LongAdder();
+	private final AtomicLong reservedWeight = new AtomicLong( 0 );
+
+	public LongKeyedBoundedCache(
+			final long maxWeight,
+			final long expectedEntryWeight,
+			final ToLongFunction<? super V> weigher ) {
+		this( maxWeight , expectedEntryWeight , DEFAULT_NUMBER_OF_STRIPES , weigher );
+	}
+
+	/**
+	 * @param maxWeight the maximum total weight of the entries. Each stripe gets an equal share.
+	 * @param expectedEntryWeight the expected weight of an entry, used to size the frequency sketches
+	 * @param nStripes the number of independently locked parts. Rounded up to a power of two.
+	 * @param weigher estimates the weight of a value
+	 */
+	@SuppressWarnings( "unchecked" )
+	public LongKeyedBoundedCache(
+			final long maxWeight,
+			final long expectedEntryWeight,
+			final int nStripes,
+			final ToLongFunction<? super V> weigher ) {
+		if ( maxWeight <= 0 ) throw new IllegalArgumentException( "max weight must be positive, got "+maxWeight );
+		if ( expectedEntryWeight <= 0 ) throw new IllegalArgumentException( "expected entry weight must be positive, got "+expectedEntryWeight );
+		if ( nStripes <= 0 ) throw new IllegalArgumentException( "number of stripes must be positive, got "+nStripes );
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+
+		final int n = Integer.highestOneBit( nStripes ) < nStripes ? Integer.highestOneBit( nStripes ) << 1 : nStripes;
+		this.stripes = new Stripe[ n ];
+		this.stripeMask = n - 1;
+		for ( int i = 0; i < n; i++ ) {
+			stripes[ i ] = new Stripe<>( maxWeight / expectedEntryWeight / n );
+		}
+	}
+
+	public V get( final long key ) {
+		final long hash = hash( key );
+		final V value = stripe( hash ).get( key , hash );
+		if ( value == null ) misses.increment();
+		else hits.increment();
+		return value;
+	}
+
+	public void put( final long key, final V value ) {
+		final long hash = hash( key );
+		final Stripe<V> stripe = stripe( hash );
+		final long w = weigher.applyAsLong( value );
+		stripe.put( key , hash , value , w , this );
+	}
+
+	/**
+	 * @return the value for the key, or null, without counting the request in the statistics or the eviction policy
+	 */
+	public V peek( final long key ) {
+		final long hash = hash( key );
+		return stripe( hash ).peek( key , hash );
+	}
+
+	/**
+	 * Counts weight used outside of the cache in its bound. Entries are evicted as needed by the next insertions.
+	 */
+	public void reserveWeight( final long weight ) {
+		reservedWeight.addAndGet( weight );
+	}
+
+	public long getReservedWeight() {
+		return reservedWeight.get();
+	}
+
+	/**
+	 * @return the approximate memory footprint of the frequency sketches, which is not counted in the bound.
+	 * Caches weighing entries in bytes can count it with {@link #reserveWeight(long)}.
+	 */
+	public long getSketchSizeInBytes() {
+		long size = 0;
+		for ( Stripe<V> stripe : stripes ) size += stripe.sketch.getSizeInBytes();
+		return size;
+	}
+
+	private long getStripeMaxWeight() {
+		return ( maxWeight - reservedWeight.get() ) / stripes.length;
+	}
+
+	private Stripe<V> stripe( final long hash ) {
+		// high bits for the stripe, low bits for the slot in the stripe
+		return stripes[ (int) ( hash >>> 32 ) & stripeMask ];
+	}
+
+	/**
+	 * @return the proportion of requests that found a value, or NaN if there was no request yet.
+	 */
+	public double getHitRate() {
+		final long h = hits.sum();
+		final long r = h + misses.sum();
+		return r == 0 ? Double.NaN : ( (double) h ) / r;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the number of entries removed to make room for new ones
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return the number of entries not admitted in the cache, because too heavy or not requested often enough
+	 */
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	/**
+	 * @return the weight of the entries, without the reserved weight
+	 */
+	public long getWeight() {
+		long w = 0;
+		for ( Stripe<V> s : stripes ) {
+			synchronized ( s ) {
+				w += s.weight;
+			}
+		}
+		return w;
+	}
+
+	public int size() {
+		int n = 0;
+		for ( Stripe<V> s : stripes ) {
+			synchronized ( s ) {
+				n += s.size;
+			}
+		}
+		return n;
+	}
+
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	/**
+	 * Mixes all bits of the key, such that keys packing several indices are well distributed.
+	 */
+	private static long hash( final long key ) {
+		return RandomStreams.mix64( key );
+	}
+
+	private static class Stripe<V> {
+		private static final int INITIAL_CAPACITY = 16;
+
+		private final FrequencySketch sketch;
+
+		// linear probing. Free slots have a null value
+		private long[] keys = new long[ INITIAL_CAPACITY ];
+		private Object[] values = new Object[ INITIAL_CAPACITY ];
+		private long[] weights = new long[ INITIAL_CAPACITY ];
+		private boolean[] referenced = new boolean[ INITIAL_CAPACITY ];
+		private int mask = INITIAL_CAPACITY - 1;
+
+		private int size = 0;
+		private long weight = 0;
+		private int clockHand = 0;
+
+		private Stripe( final long expectedEntries ) {
+			this.sketch = new FrequencySketch( expectedEntries );
+		}
+
+		@SuppressWarnings( "unchecked" )
+		synchronized V get( final long key, final long hash ) {
+			sketch.increment( (int) hash );
+			final int i = find( key , hash );
+			if ( i < 0 ) return null;
+			referenced[ i ] = true;
+			return (V) values[ i ];
+		}
+
+		@SuppressWarnings( "unchecked" )
+		synchronized V peek( final long key, final long hash ) {
+			final int i = find( key , hash );
+			return i < 0 ? null : (V) values[ i ];
+		}
+
+		synchronized void put(
+				final long key,
+				final long hash,
+				final V value,
+				final long w,
+				final LongKeyedBoundedCache<V> cache ) {
+			final long maxWeight = cache.getStripeMaxWeight();
+			final int old = find( key , hash );
+			if ( old >= 0 ) removeAt( old );
+
+			// the reserved weight might have grown: get back within the bound whatever the admission decision
+			while ( size > 0 && weight > maxWeight ) {
+				removeAt( nextVictim() );
+				cache.evictions.increment();
+			}
+
+			if ( w > maxWeight ) {
+				cache.rejections.increment();
+				return;
+			}
+
+			if ( old < 0 && weight + w > maxWeight ) {
+				// admission: only replace the eviction candidate if the new entry is requested more often
+				final int victim = nextVictim();
+				if ( sketch.frequency( (int) hash( keys[ victim ] ) ) >= sketch.frequency( (int) hash ) ) {
+					cache.rejections.increment();
+					return;
+				}
+			}
+
+			while ( weight + w > maxWeight ) {
+				removeAt( nextVictim() );
+				cache.evictions.increment();
+			}
+
+			if ( 2 * ( size + 1 ) > keys.length ) grow();
+			insert( key , hash , value , w );
+		}
+
+		private int find( final long key, final long hash ) {
+			for ( int i = (int) hash & mask; values[ i ] != null; i = ( i + 1 ) & mask ) {
+				if ( keys[ i ] == key ) return i;
+			}
+			return -1;
+		}
+
+		private int insert( final long key, final long hash, final Object value, final long w ) {
+			int i = (int) hash & mask;
+			while ( values[ i ] != null ) i = ( i + 1 ) & mask;
+			keys[ i ] = key;
+			values[ i ] = value;
+			weights[ i ] = w;
+			// new entries get a chance to prove useful before being evicted
+			referenced[ i ] = true;
+			size++;
+			weight += w;
+			return i;
+		}
+
+		/**
+		 * CLOCK: entries referenced since the last pass of the hand get a second chance.
+		 * The returned slot is the one under the hand, such that successive calls without removal return the same slot.
+		 */
+		private int nextVictim() {
+			while ( true ) {
+				if ( values[ clockHand ] != null ) {
+					if ( !referenced[ clockHand ] ) return clockHand;
+					referenced[ clockHand ] = false;
+				}
+				clockHand = ( clockHand + 1 ) & mask;
+			}
+		}
+
+		private void removeAt( final int slot ) {
+			size--;
+			weight -= weights[ slot ];
+			values[ slot ] = null;
+
+			// shift back the following entries of the probe sequence, such that no tombstone is needed
+			int free = slot;
+			for ( int i = ( slot + 1 ) & mask; values[ i ] != null; i = ( i + 1 ) & mask ) {
+				final int home = (int) hash( keys[ i ] ) & mask;
+				// the entry can move to the free slot if its home is not cyclically in ( free , i ]
+				final boolean homeBetween = free <= i ?
+						free < home && home <= i :
+						free < home || home <= i;
+				if ( homeBetween ) continue;
+
+				keys[ free ] = keys[ i ];
+				values[ free ] = values[ i ];
+				weights[ free ] = weights[ i ];
+				referenced[ free ] = referenced[ i ];
+				values[ i ] = null;
+				free = i;
+			}
+		}
+
+		private void grow() {
+			final long[] oldKeys = keys;
+			final Object[] oldValues = values;
+			final long[] oldWeights = weights;
+			final boolean[] oldReferenced = referenced;
+
+			final int capacity = oldKeys.length * 2;
+			keys = new long[ capacity ];
+			values = new Object[ capacity ];
+			weights = new long[ capacity ];
+			referenced = new boolean[ capacity ];
+			mask = capacity - 1;
+			size = 0;
+			weight = 0;
+			clockHand = 0;
+
+			for ( int i = 0; i < oldKeys.length; i++ ) {
+				if ( oldValues[ i ] == null ) continue;
+				final int slot = insert( oldKeys[ i ] , hash( oldKeys[ i ] ) , oldValues[ i ] , oldWeights[ i ] );
+				referenced[ slot ] = oldReferenced[ i ];
+			}
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.utils;
+
+/**
+ * Derives independent seeds from a global seed and keys (for instance person ids), using the SplitMix64 mixing
+ * function. Seeds only depend on the global seed and on the key, so random draws seeded this way do not depend on
+ * which thread or process does the computation, nor in which order.
+ *
+ * @author thibautd
+ */
+public final class RandomStreams {
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private RandomStreams() {}
+
+	/**
+	 * @return the seed of the stream identified by the key, in the family of streams of the parent seed
+	 */
+	public static long seed( final long parentSeed, final long key ) {
+		return mix64( parentSeed + mix64( key + GOLDEN_GAMMA ) * GOLDEN_GAMMA );
+	}
+
+	public static long seed( final long parentSeed, final CharSequence key ) {
+		return seed( parentSeed , hash64( key ) );
+	}
+
+	/**
+	 * 64 bits hash of a character sequence, stable across JVMs. 32 bits hash codes make collisions likely
+	 * for populations of millions of persons.
+	 */
+	public static long hash64( final CharSequence key ) {
+		// FNV-1a
+		long h = 0xcbf29ce484222325L;
+		for ( int i = 0; i < key.length(); i++ ) {
+			h ^= key.charAt( i );
+			h *= 0x100000001b3L;
+		}
+		return mix64( h );
+	}
+
+	/**
+	 * Finalizer of SplitMix64 (Steele, Lea and Flood, 2014)
+	 */
+	public static long mix64( long z ) {
+		z = ( z ^ ( z >>> 30 ) ) * 0xBF58476D1CE4E5B9L;
+		z = ( z ^ ( z >>> 27 ) ) * 0x94D049BB133111EBL;
+		return z ^ ( z >>> 31 );
+	}
+}
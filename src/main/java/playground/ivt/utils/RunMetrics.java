@@ -0,0 +1,388 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.utils;
+
+import org.apache.log4j.Logger;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.core.utils.io.UncheckedIOException;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Live metrics of long runs: throughput meters, gauges (queue depths, cache hit rates...) and latency distributions
+ * of processing stages. Recording is cheap and always active. {@link #startReporting(String, String, long, TimeUnit)}
+ * exposes the values as a JMX MBean and appends them periodically to a CSV file, so that stalls or badly sized
+ * thread pools can be detected while the run is in progress, rather than from the logs at the end.
+ * <br>
+ * Rates and percentiles are computed over the last reporting interval.
+ *
+ * @author thibautd
+ */
+public class RunMetrics {
+	private static final Logger log = Logger.getLogger( RunMetrics.class );
+	private static final RunMetrics GLOBAL = new RunMetrics();
+
+	// sorted, for a stable output
+	private final Map<String, Meter> meters = new ConcurrentSkipListMap<>();
+	private final Map<String, Stage> stages = new ConcurrentSkipListMap<>();
+	private final Map<String, DoubleSupplier> gauges = new ConcurrentSkipListMap<>();
+
+	/**
+	 * @return the instance shared by the whole JVM, which is the one to use outside of tests
+	 */
+	public static RunMetrics global() {
+		return GLOBAL;
+	}
+
+	public Meter meter( final String name ) {
+		return meters.computeIfAbsent( name , k -> new Meter() );
+	}
+
+	public Stage stage( final String name ) {
+		return stages.computeIfAbsent( name , k -> new Stage() );
+	}
+
+	/**
+	 * @param gauge called from the reporting thread, so should be thread safe
+	 */
+	public void gauge( final String name, final DoubleSupplier gauge ) {
+		gauges.put( name , gauge );
+	}
+
+	public void removeGauge( final String name ) {
+		gauges.remove( name );
+	}
+
+	/**
+	 * @return an object that stops reporting when closed, after having reported one last time
+	 */
+	public Reporting startReporting(
+			final String name,
+			final String csvFile,
+			final long interval,
+			final TimeUnit unit ) {
+		final Reporter reporter = new Reporter( csvFile );
+		final ObjectName objectName = registerMBean( name , reporter );
+
+		final ScheduledExecutorService executor =
+				Executors.newSingleThreadScheduledExecutor( r -> {
+					final Thread t = new Thread( r , "RunMetrics-"+name );
+					t.setDaemon( true );
+					return t;
+				} );
+		executor.scheduleAtFixedRate( reporter::report , interval , interval , unit );
+		log.info( "Reporting metrics every "+interval+" "+unit+" to "+csvFile+" and to JMX as "+objectName );
+
+		return () -> {
+			executor.shutdown();
+			try {
+				executor.awaitTermination( 1 , TimeUnit.MINUTES );
+				reporter.report();
+				reporter.writer.close();
+			}
+			catch ( InterruptedException e ) {
+				throw new RuntimeException( e );
+			}
+			catch ( IOException e ) {
+				throw new UncheckedIOException( e );
+			}
+			finally {
+				unregisterMBean( objectName );
+			}
+		};
+	}
+
+	@FunctionalInterface
+	public interface Reporting extends AutoCloseable {
+		@Override
+		void close();
+	}
+
+	private static ObjectName registerMBean( final String name, final Reporter reporter ) {
+		try {
+			final ObjectName objectName = new ObjectName( "playground.ivt:type=RunMetrics,name="+ObjectName.quote( name ) );
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if ( server.isRegistered( objectName ) ) server.unregisterMBean( objectName );
+			server.registerMBean( reporter , objectName );
+			return objectName;
+		}
+		catch ( Exception e ) {
+			// metrics are not worth crashing a run
+			log.warn( "could not register metrics MBean "+name , e );
+			return null;
+		}
+	}
+
+	private static void unregisterMBean( final ObjectName objectName ) {
+		if ( objectName == null ) return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean( objectName );
+		}
+		catch ( Exception e ) {
+			log.warn( "could not unregister metrics MBean "+objectName , e );
+		}
+	}
+
+	public static class Meter {
+		private final LongAdder count = new LongAdder();
+
+		public void mark() {
+			count.increment();
+		}
+
+		public void mark( final long n ) {
+			count.add( n );
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+	}
+
+	/**
+	 * Distribution of durations, in log-linear buckets: 4 buckets per power of two of the duration in nanoseconds,
+	 * which bounds the relative error of the percentiles to 25%, whatever the duration.
+	 */
+	public static class Stage {
+		private static final int SUB_BITS = 2;
+		private static final int N_BUCKETS = 64 << SUB_BITS;
+
+		private final AtomicLongArray counts = new AtomicLongArray( N_BUCKETS );
+
+		public void record( final long nanos ) {
+			counts.incrementAndGet( bucket( Math.max( nanos , 0 ) ) );
+		}
+
+		public long getCount() {
+			long c = 0;
+			for ( int i = 0; i < N_BUCKETS; i++ ) c += counts.get( i );
+			return c;
+		}
+
+		private long[] snapshot() {
+			final long[] s = new long[ N_BUCKETS ];
+			for ( int i = 0; i < N_BUCKETS; i++ ) s[ i ] = counts.get( i );
+			return s;
+		}
+
+		static int bucket( final long nanos ) {
+			if ( nanos < ( 1 << SUB_BITS ) ) return (int) nanos;
+			final int exponent = 63 - Long.numberOfLeadingZeros( nanos );
+			final int sub = (int) ( nanos >>> ( exponent - SUB_BITS ) ) & ( ( 1 << SUB_BITS ) - 1 );
+			return ( ( exponent - SUB_BITS + 1 ) << SUB_BITS ) + sub;
+		}
+
+		/**
+		 * @return the middle of the bucket, in nanoseconds
+		 */
+		static double bucketValue( final int bucket ) {
+			if ( bucket < ( 1 << SUB_BITS ) ) return bucket;
+			final int exponent = ( bucket >> SUB_BITS ) + SUB_BITS - 1;
+			final long width = 1L << ( exponent - SUB_BITS );
+			final long lower = ( ( 1L << SUB_BITS ) + ( bucket & ( ( 1 << SUB_BITS ) - 1 ) ) ) * width;
+			return lower + width / 2d;
+		}
+
+		/**
+		 * @return the quantile, in nanoseconds, of the distribution given as bucket counts, or NaN if it is empty
+		 */
+		static double quantile( final long[] bucketCounts, final double q ) {
+			long total = 0;
+			for ( long c : bucketCounts ) total += c;
+			if ( total == 0 ) return Double.NaN;
+
+			final long rank = Math.max( 1 , (long) Math.ceil( q * total ) );
+			long cumulated = 0;
+			for ( int i = 0; i < bucketCounts.length; i++ ) {
+				cumulated += bucketCounts[ i ];
+				if ( cumulated >= rank ) return bucketValue( i );
+			}
+			throw new RuntimeException( "should not get here" );
+		}
+	}
+
+	private class Reporter implements DynamicMBean {
+		private final BufferedWriter writer;
+		private final long start = System.nanoTime();
+
+		private long lastReport = start;
+		private final Map<String, Long> lastMeterCounts = new HashMap<>();
+		private final Map<String, long[]> lastStageCounts = new HashMap<>();
+
+		private volatile Map<String, Double> lastValues = Collections.emptyMap();
+
+		private Reporter( final String csvFile ) {
+			this.writer = IOUtils.getBufferedWriter( csvFile );
+			try {
+				writer.write( "time_s,metric,value" );
+				writer.newLine();
+				writer.flush();
+			}
+			catch ( IOException e ) {
+				throw new UncheckedIOException( e );
+			}
+		}
+
+		/**
+		 * Does not throw: an exception escaping a periodic task of the executor would silently cancel
+		 * all later reports.
+		 */
+		private void report() {
+			try {
+				doReport();
+			}
+			catch ( RuntimeException e ) {
+				log.error( "could not report metrics, will try again at next report" , e );
+			}
+		}
+
+		private synchronized void doReport() {
+			final long now = System.nanoTime();
+			final double intervalSeconds = Math.max( now - lastReport , 1 ) / 1E9;
+			lastReport = now;
+
+			final Map<String, Double> values = new LinkedHashMap<>();
+			for ( Map.Entry<String, Meter> e : meters.entrySet() ) {
+				final long count = e.getValue().getCount();
+				final long last = lastMeterCounts.getOrDefault( e.getKey() , 0L );
+				lastMeterCounts.put( e.getKey() , count );
+				values.put( e.getKey()+".count" , (double) count );
+				values.put( e.getKey()+".perSecond" , ( count - last ) / intervalSeconds );
+			}
+
+			for ( Map.Entry<String, Stage> e : stages.entrySet() ) {
+				final long[] counts = e.getValue().snapshot();
+				final long[] last = lastStageCounts.getOrDefault( e.getKey() , new long[ counts.length ] );
+				lastStageCounts.put( e.getKey() , counts );
+
+				final long[] interval = new long[ counts.length ];
+				long total = 0;
+				long intervalTotal = 0;
+				for ( int i = 0; i < counts.length; i++ ) {
+					interval[ i ] = counts[ i ] - last[ i ];
+					total += counts[ i ];
+					intervalTotal += interval[ i ];
+				}
+				values.put( e.getKey()+".count" , (double) total );
+				values.put( e.getKey()+".perSecond" , intervalTotal / intervalSeconds );
+				values.put( e.getKey()+".p50_ms" , Stage.quantile( interval , 0.5 ) / 1E6 );
+				values.put( e.getKey()+".p90_ms" , Stage.quantile( interval , 0.9 ) / 1E6 );
+				values.put( e.getKey()+".p99_ms" , Stage.quantile( interval , 0.99 ) / 1E6 );
+			}
+
+			for ( Map.Entry<String, DoubleSupplier> e : gauges.entrySet() ) {
+				// a failing gauge should not prevent reporting the other metrics
+				try {
+					values.put( e.getKey() , e.getValue().getAsDouble() );
+				}
+				catch ( RuntimeException ex ) {
+					log.warn( "could not read gauge "+e.getKey() , ex );
+					values.put( e.getKey() , Double.NaN );
+				}
+			}
+
+			lastValues = values;
+
+			try {
+				final long time = TimeUnit.NANOSECONDS.toSeconds( now - start );
+				for ( Map.Entry<String, Double> e : values.entrySet() ) {
+					writer.write( time+","+e.getKey()+","+e.getValue() );
+					writer.newLine();
+				}
+				writer.flush();
+			}
+			catch ( IOException e ) {
+				throw new UncheckedIOException( e );
+			}
+		}
+
+		@Override
+		public Object getAttribute( final String attribute ) throws AttributeNotFoundException {
+			final Double value = lastValues.get( attribute );
+			if ( value == null ) throw new AttributeNotFoundException( attribute );
+			return value;
+		}
+
+		@Override
+		public void setAttribute( final Attribute attribute ) {
+			throw new UnsupportedOperationException( "metrics are read only" );
+		}
+
+		@Override
+		public AttributeList getAttributes( final String[] attributes ) {
+			final Map<String, Double> values = lastValues;
+			final AttributeList list = new AttributeList();
+			for ( String a : attributes ) {
+				if ( values.containsKey( a ) ) list.add( new Attribute( a , values.get( a ) ) );
+			}
+			return list;
+		}
+
+		@Override
+		public AttributeList setAttributes( final AttributeList attributes ) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke( final String actionName, final Object[] params, final String[] signature ) {
+			throw new UnsupportedOperationException( actionName );
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			// attributes appear as they get registered, which is why this is not a standard MBean
+			final Map<String, Double> values = lastValues;
+			final MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[ values.size() ];
+			int i = 0;
+			for ( String name : values.keySet() ) {
+				attributes[ i++ ] = new MBeanAttributeInfo( name , Double.class.getName() , name , true , false , false );
+			}
+			return new MBeanInfo(
+					RunMetrics.class.getName(),
+					"metrics of the run, as of the last report",
+					attributes,
+					null,
+					new MBeanOperationInfo[ 0 ],
+					new MBeanNotificationInfo[ 0 ] );
+		}
+	}
+}
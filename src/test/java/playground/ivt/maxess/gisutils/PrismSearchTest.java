@@ -0,0 +1,148 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.gisutils;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.core.utils.collections.QuadTree;
+import org.matsim.facilities.ActivityFacilities;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.facilities.FacilitiesUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * @author thibautd
+ */
+public class PrismSearchTest {
+	@Test
+	public void testSameResultAsLinearSearch() {
+		final Random random = new Random( 20161017 );
+		final QuadTree<ActivityFacility> quadTree = createClusteredFacilities( random );
+		final PrismSearch search = new PrismSearch( quadTree , Double.POSITIVE_INFINITY );
+
+		for ( int i = 0; i < 100; i++ ) {
+			final Coord origin = new Coord( random.nextDouble() * 100000 , random.nextDouble() * 100000 );
+			final int k = 1 + random.nextInt( 50 );
+			final double baseSize = 500 + random.nextDouble() * 2000;
+
+			Collection<ActivityFacility> expected = new ArrayList<>();
+			for ( int m = 1; expected.size() < k; m++ ) {
+				expected = quadTree.getElliptical( origin.getX() , origin.getY() , origin.getX() , origin.getY() , m * baseSize );
+			}
+
+			Assert.assertEquals(
+					"unexpected prism around "+origin,
+					new ArrayList<>( expected ),
+					search.find( origin , origin , baseSize , k ).getFacilities() );
+		}
+	}
+
+	@Test
+	public void testEstimatedSizeIsCloseToExactSize() {
+		final Random random = new Random( 20161018 );
+		final QuadTree<ActivityFacility> quadTree = createClusteredFacilities( random );
+		final PrismSearch search = new PrismSearch( quadTree , Double.POSITIVE_INFINITY , 125 );
+
+		for ( int i = 0; i < 100; i++ ) {
+			final Coord origin = new Coord( random.nextDouble() * 100000 , random.nextDouble() * 100000 );
+			final int k = 1 + random.nextInt( 50 );
+			final double baseSize = 500 + random.nextDouble() * 2000;
+
+			// cells are at most a quarter of the base size: the multiplier can be off by one
+			Assert.assertEquals(
+					"unexpected estimated size around "+origin,
+					search.find( origin , origin , baseSize , k ).getSize(),
+					search.estimateSize( origin , origin , baseSize , k ),
+					baseSize + 1E-9 );
+		}
+	}
+
+	@Test
+	public void testCapIsRespected() {
+		final QuadTree<ActivityFacility> quadTree = createClusteredFacilities( new Random( 42 ) );
+		final PrismSearch search = new PrismSearch( quadTree , 1000 );
+
+		// far away from everything
+		final Coord origin = new Coord( -1E6 , -1E6 );
+		final PrismSearch.Prism prism = search.find( origin , origin , 100 , 10 );
+
+		Assert.assertTrue( "prism should be capped" , prism.isCapped() );
+		Assert.assertTrue( "prism should be empty" , prism.getFacilities().isEmpty() );
+		Assert.assertEquals( "unexpected prism size" , 1000 , prism.getSize() , 1E-9 );
+	}
+
+	@Test
+	public void testTerminatesWhenNotEnoughFacilities() {
+		final QuadTree<ActivityFacility> quadTree = createClusteredFacilities( new Random( 42 ) );
+		final PrismSearch search = new PrismSearch( quadTree , Double.POSITIVE_INFINITY );
+
+		final Coord origin = new Coord( 50000 , 50000 );
+		final PrismSearch.Prism prism = search.find( origin , origin , 100 , quadTree.size() + 1 );
+
+		Assert.assertTrue( "prism should be capped" , prism.isCapped() );
+		Assert.assertEquals( "prism should contain all facilities" , quadTree.size() , prism.getFacilities().size() );
+	}
+
+	@Test
+	public void testTinyEstimationCellsAreBounded() {
+		final QuadTree<ActivityFacility> quadTree = createClusteredFacilities( new Random( 42 ) );
+		// 1E11 x 1E11 cells if not bounded
+		final PrismSearch search = new PrismSearch( quadTree , Double.POSITIVE_INFINITY , 1E-6 );
+
+		final Coord origin = new Coord( 50000 , 50000 );
+		Assert.assertTrue(
+				"unexpected estimated size",
+				search.estimateSize( origin , origin , 100 , 10 ) >= 100 );
+
+		try {
+			search.estimateSize( origin , origin , 0 , 10 );
+			Assert.fail( "zero base size should be rejected" );
+		}
+		catch ( IllegalArgumentException e ) {
+			// expected
+		}
+	}
+
+	private static QuadTree<ActivityFacility> createClusteredFacilities( final Random random ) {
+		final ActivityFacilities facilities = FacilitiesUtils.createActivityFacilities();
+		final QuadTree<ActivityFacility> quadTree = new QuadTree<>( 0 , 0 , 100000 , 100000 );
+
+		int id = 0;
+		for ( int cluster = 0; cluster < 5; cluster++ ) {
+			final double x = random.nextDouble() * 100000;
+			final double y = random.nextDouble() * 100000;
+			for ( int i = 0; i < 200; i++ ) {
+				final Coord c = new Coord(
+						Math.max( 0 , Math.min( 100000 , x + random.nextGaussian() * 2000 ) ),
+						Math.max( 0 , Math.min( 100000 , y + random.nextGaussian() * 2000 ) ) );
+				final ActivityFacility f =
+						facilities.getFactory().createActivityFacility(
+								Id.create( id++ , ActivityFacility.class ),
+								c );
+				quadTree.put( c.getX() , c.getY() , f );
+			}
+		}
+		return quadTree;
+	}
+}
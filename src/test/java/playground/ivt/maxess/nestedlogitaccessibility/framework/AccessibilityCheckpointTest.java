@@ -0,0 +1,115 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+/**
+ * @author thibautd
+ */
+public class AccessibilityCheckpointTest {
+	@Rule
+	public final MatsimTestUtils utils = new MatsimTestUtils();
+
+	@Test
+	public void testTruncatedLinesAreIgnoredAndResumeAppends() throws IOException {
+		final String file = utils.getOutputDirectory()+"/checkpoint.dat";
+
+		try ( AccessibilityCheckpoint checkpoint = new AccessibilityCheckpoint( file , null , 1 ) ) {
+			checkpoint.append( Id.createPersonId( 1 ) , createResult( 1.5 , -2 ) );
+			checkpoint.append( Id.createPersonId( 2 ) , createResult( 0.1 , 1E-20 ) );
+		}
+
+		// simulate a run killed while writing
+		try ( BufferedWriter writer = IOUtils.getAppendingBufferedWriter( file ) ) {
+			writer.write( "3\t2\tall\t1.2\tnocar\t3.45" );
+		}
+
+		final AccessibilityComputationResult read = AccessibilityCheckpoint.read( file );
+		Assert.assertEquals( "unexpected number of persons" , 2 , read.getResultsPerPerson().size() );
+		Assert.assertEquals(
+				"unexpected value",
+				1E-20,
+				read.getResultsPerPerson().get( Id.createPersonId( 2 ) ).getAccessibilities().get( "nocar" ),
+				0 );
+
+		try ( AccessibilityCheckpoint checkpoint = new AccessibilityCheckpoint( file , read , 1 ) ) {
+			checkpoint.append( Id.createPersonId( 3 ) , createResult( 1.2 , 3.45 ) );
+		}
+
+		final AccessibilityComputationResult resumed = AccessibilityCheckpoint.read( file );
+		Assert.assertEquals( "unexpected number of persons after resume" , 3 , resumed.getResultsPerPerson().size() );
+		Assert.assertEquals(
+				"unexpected value after resume",
+				3.45,
+				resumed.getResultsPerPerson().get( Id.createPersonId( 3 ) ).getAccessibilities().get( "nocar" ),
+				0 );
+	}
+
+	@Test
+	public void testDiagnosticsAreKeptApartFromAccessibilities() {
+		final String file = utils.getOutputDirectory()+"/checkpoint.dat";
+
+		try ( AccessibilityCheckpoint checkpoint = new AccessibilityCheckpoint( file , null , 1 ) ) {
+			final AccessibilityComputationResult.PersonAccessibilityComputationResult withDiagnostic = createResult( 1.5 , -2 );
+			withDiagnostic.addDiagnostic( "sampleSize" , 120 );
+			checkpoint.append( Id.createPersonId( 1 ) , withDiagnostic );
+			checkpoint.append( Id.createPersonId( 2 ) , createResult( 0.1 , 1E-20 ) );
+		}
+
+		final AccessibilityComputationResult read = AccessibilityCheckpoint.read( file );
+		Assert.assertEquals( "unexpected number of persons" , 2 , read.getResultsPerPerson().size() );
+		Assert.assertEquals( "unexpected types" , new HashSet<>( Arrays.asList( "all" , "nocar" ) ) , read.getTypes() );
+		Assert.assertEquals( "unexpected diagnostic types" , Collections.singleton( "sampleSize" ) , read.getDiagnosticTypes() );
+		Assert.assertEquals(
+				"unexpected diagnostic",
+				120,
+				read.getDiagnostic( read.getPersonIndex( Id.createPersonId( 1 ) ) , "sampleSize" ),
+				0 );
+		Assert.assertTrue(
+				"unexpected diagnostic",
+				Double.isNaN( read.getDiagnostic( read.getPersonIndex( Id.createPersonId( 2 ) ) , "sampleSize" ) ) );
+		Assert.assertEquals(
+				"unexpected value",
+				-2,
+				read.getResultsPerPerson().get( Id.createPersonId( 1 ) ).getAccessibilities().get( "nocar" ),
+				0 );
+	}
+
+	private static AccessibilityComputationResult.PersonAccessibilityComputationResult createResult(
+			final double all,
+			final double nocar ) {
+		final AccessibilityComputationResult.PersonAccessibilityComputationResult result =
+				new AccessibilityComputationResult.PersonAccessibilityComputationResult();
+		result.addAccessibility( "all" , all );
+		result.addAccessibility( "nocar" , nocar );
+		return result;
+	}
+}
@@ -0,0 +1,81 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * @author thibautd
+ */
+public class AccessibilityComputationResultTest {
+	@Test
+	public void testConcurrentWritesWithNewTypes() {
+		final int nPersons = 10000;
+		final List<Id<Person>> ids = new ArrayList<>();
+		for ( int i = 0; i < nPersons; i++ ) ids.add( Id.createPersonId( i ) );
+
+		final AccessibilityComputationResult result = new AccessibilityComputationResult( ids );
+
+		// every person has a different combination of types, so that types get registered concurrently
+		IntStream.range( 0 , nPersons ).parallel().forEach( i -> {
+			final AccessibilityComputationResult.PersonAccessibilityComputationResult personResult =
+					new AccessibilityComputationResult.PersonAccessibilityComputationResult();
+			personResult.addAccessibility( "all" , i );
+			personResult.addAccessibility( "type"+( i % 7 ) , -i );
+			result.addResults( ids.get( i ) , personResult );
+		} );
+
+		Assert.assertEquals( "unexpected number of types" , 8 , result.getTypes().size() );
+		Assert.assertEquals( "unexpected number of persons" , nPersons , result.getResultsPerPerson().size() );
+		for ( int i = 0; i < nPersons; i++ ) {
+			final int index = result.getPersonIndex( ids.get( i ) );
+			Assert.assertEquals( "unexpected value for all" , i , result.getAccessibility( index , "all" ) , 0 );
+			Assert.assertEquals( "unexpected value for own type" , -i , result.getAccessibility( index , "type"+( i % 7 ) ) , 0 );
+			Assert.assertTrue( "unexpected value for other type" , Double.isNaN( result.getAccessibility( index , "type"+( ( i + 1 ) % 7 ) ) ) );
+		}
+	}
+
+	@Test
+	public void testPersonsWithoutResultsAreNotListed() {
+		final List<Id<Person>> ids = new ArrayList<>();
+		for ( int i = 0; i < 3; i++ ) ids.add( Id.createPersonId( i ) );
+
+		final AccessibilityComputationResult result = new AccessibilityComputationResult( ids );
+		final AccessibilityComputationResult.PersonAccessibilityComputationResult personResult =
+				new AccessibilityComputationResult.PersonAccessibilityComputationResult();
+		personResult.addAccessibility( "all" , 1 );
+		result.addResults( ids.get( 1 ) , personResult );
+
+		Assert.assertEquals( "unexpected number of persons" , 1 , result.getResultsPerPerson().size() );
+		Assert.assertFalse( "unexpected results" , result.hasResults( ids.get( 0 ) ) );
+		Assert.assertNull( "unexpected results" , result.getResultsPerPerson().get( ids.get( 2 ) ) );
+		Assert.assertEquals(
+				"unexpected value",
+				1,
+				result.getResultsPerPerson().get( ids.get( 1 ) ).getAccessibilities().get( "all" ),
+				0 );
+	}
+}
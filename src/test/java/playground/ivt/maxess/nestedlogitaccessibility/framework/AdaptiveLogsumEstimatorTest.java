@@ -0,0 +1,101 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author thibautd
+ */
+public class AdaptiveLogsumEstimatorTest {
+	@Test
+	public void testIdenticalBatchesHaveNoError() {
+		final List<double[]> batches = Arrays.asList(
+				new double[]{ 1.5 , -2 },
+				new double[]{ 1.5 , -2 },
+				new double[]{ 1.5 , -2 } );
+		Assert.assertEquals(
+				"unexpected standard error",
+				0,
+				AdaptiveLogsumEstimator.calcMaxStandardError( batches ),
+				1E-12 );
+	}
+
+	@Test
+	public void testSingleBatchHasInfiniteError() {
+		Assert.assertEquals(
+				"unexpected standard error",
+				Double.POSITIVE_INFINITY,
+				AdaptiveLogsumEstimator.calcMaxStandardError( Arrays.<double[]>asList( new double[]{ 1 } ) ),
+				0 );
+	}
+
+	@Test
+	public void testEmptySituationsAreIgnored() {
+		final List<double[]> batches = Arrays.asList(
+				new double[]{ 1 , Double.NEGATIVE_INFINITY },
+				new double[]{ 1 , Double.NEGATIVE_INFINITY } );
+		Assert.assertEquals(
+				"unexpected standard error",
+				0,
+				AdaptiveLogsumEstimator.calcMaxStandardError( batches ),
+				1E-12 );
+	}
+
+	@Test
+	public void testErrorMatchesSpreadOfBatchLogsums() {
+		// logsums of batches of destinations with i.i.d. utilities: the logsum of the union of k batches has a spread
+		// that the estimate should approximately reproduce
+		final Random random = new Random( 20170215 );
+		final int k = 10;
+		final int batchSize = 10;
+		final int nReplications = 2000;
+
+		final double[] unionLogsums = new double[ nReplications ];
+		double averageEstimate = 0;
+		for ( int r = 0; r < nReplications; r++ ) {
+			final List<double[]> batches = new ArrayList<>();
+			final double[] all = new double[ k * batchSize ];
+			for ( int b = 0; b < k; b++ ) {
+				for ( int i = 0; i < batchSize; i++ ) all[ b * batchSize + i ] = 2 * random.nextGaussian();
+				batches.add( new double[]{ LogSumExpCalculator.logSumExp( all , b * batchSize , ( b + 1 ) * batchSize ) } );
+			}
+			unionLogsums[ r ] = LogSumExpCalculator.logSumExp( all , 0 , all.length );
+			averageEstimate += AdaptiveLogsumEstimator.calcMaxStandardError( batches ) / nReplications;
+		}
+
+		double mean = 0;
+		for ( double l : unionLogsums ) mean += l / nReplications;
+		double variance = 0;
+		for ( double l : unionLogsums ) variance += ( l - mean ) * ( l - mean ) / ( nReplications - 1 );
+
+		final double empiricalError = Math.sqrt( variance );
+		Assert.assertEquals(
+				"estimated standard error far from empirical one",
+				empiricalError,
+				averageEstimate,
+				0.3 * empiricalError );
+	}
+}
@@ -0,0 +1,270 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.pt.routes.ExperimentalTransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author thibautd
+ */
+public class InfrastructureUsageTest {
+	private static final double TILE_SIZE = 1000;
+
+	@Rule
+	public final MatsimTestUtils utils = new MatsimTestUtils();
+
+	@Test
+	public void testRemovedLinkIsFoundInBaseNetwork() {
+		final Scenario base = createScenario();
+		addLink( base.getNetwork() , "removed" , 0 );
+		addLink( base.getNetwork() , "far" , 10 );
+
+		final Scenario variant = createScenario();
+		addLink( variant.getNetwork() , "far" , 10 );
+
+		final String file = utils.getOutputDirectory()+"/usage.dat";
+		try ( InfrastructureUsageFile usageFile = new InfrastructureUsageFile( file , TILE_SIZE , null , 1 ) ) {
+			usageFile.append( Id.createPersonId( "affected" ) , createLinkUsage( base , "removed" ) );
+			usageFile.append( Id.createPersonId( "unaffected" ) , createLinkUsage( base , "far" ) );
+		}
+
+		final InfrastructureUsage changes = createUsage( variant );
+		try {
+			changes.addChangedLink( Id.createLinkId( "removed" ) , null );
+			Assert.fail( "a link in no network should be rejected" );
+		}
+		catch ( IllegalArgumentException e ) {
+			// expected
+		}
+		changes.addChangedLink( Id.createLinkId( "removed" ) , base.getNetwork() );
+
+		Assert.assertEquals(
+				"unexpected unaffected persons",
+				Collections.singleton( Id.createPersonId( "unaffected" ) ),
+				InfrastructureUsageFile.readUnaffectedPersons( file , changes ) );
+	}
+
+	@Test
+	public void testAddedLineAffectsPersonsAroundItsStops() {
+		final Scenario base = createScenario();
+		addLink( base.getNetwork() , "near" , 0 );
+		addLink( base.getNetwork() , "far" , 10 );
+
+		final Scenario variant = createScenario();
+		addLink( variant.getNetwork() , "near" , 0 );
+		addLink( variant.getNetwork() , "far" , 10 );
+		final TransitSchedule schedule = variant.getTransitSchedule();
+		final TransitScheduleFactory factory = schedule.getFactory();
+		final TransitStopFacility stop =
+				factory.createTransitStopFacility(
+						Id.create( "newStop" , TransitStopFacility.class ),
+						new Coord( 500 , 100 ),
+						false );
+		schedule.addStopFacility( stop );
+		final TransitLine line = factory.createTransitLine( Id.create( "newLine" , TransitLine.class ) );
+		final TransitRouteStop routeStop = factory.createTransitRouteStop( stop , 0 , 0 );
+		final TransitRoute route =
+				factory.createTransitRoute(
+						Id.create( "route" , TransitRoute.class ),
+						null,
+						Arrays.asList( routeStop , routeStop ),
+						"bus" );
+		line.addRoute( route );
+		schedule.addTransitLine( line );
+
+		final String file = utils.getOutputDirectory()+"/usage.dat";
+		try ( InfrastructureUsageFile usageFile = new InfrastructureUsageFile( file , TILE_SIZE , null , 1 ) ) {
+			usageFile.append( Id.createPersonId( "affected" ) , createLinkUsage( base , "near" ) );
+			usageFile.append( Id.createPersonId( "unaffected" ) , createLinkUsage( base , "far" ) );
+		}
+
+		final InfrastructureUsage changes = createUsage( variant );
+		changes.addChangedTransitLine( line.getId() , base.getTransitSchedule() );
+
+		Assert.assertEquals(
+				"unexpected unaffected persons",
+				Collections.singleton( Id.createPersonId( "unaffected" ) ),
+				InfrastructureUsageFile.readUnaffectedPersons( file , changes ) );
+	}
+
+	@Test
+	public void testTruncatedLinesAreIgnoredAndResumeKeepsResumedPersons() throws IOException {
+		final Scenario scenario = createScenario();
+		addLink( scenario.getNetwork() , "link" , 0 );
+
+		final String file = utils.getOutputDirectory()+"/usage.dat";
+		try ( InfrastructureUsageFile usageFile = new InfrastructureUsageFile( file , TILE_SIZE , null , 1 ) ) {
+			usageFile.append( Id.createPersonId( 1 ) , createLinkUsage( scenario , "link" ) );
+			usageFile.append( Id.createPersonId( 2 ) , createLinkUsage( scenario , "link" ) );
+		}
+
+		// simulate a run killed while writing
+		try ( BufferedWriter writer = IOUtils.getAppendingBufferedWriter( file ) ) {
+			writer.write( "3\t12" );
+		}
+
+		final InfrastructureUsage noChange = createUsage( scenario );
+		Assert.assertEquals(
+				"unexpected persons read",
+				new HashSet<>( Arrays.asList( Id.createPersonId( 1 ) , Id.createPersonId( 2 ) ) ),
+				InfrastructureUsageFile.readUnaffectedPersons( file , noChange ) );
+
+		// person 2 not in the checkpoint: it will be computed again
+		final Set<Id<Person>> resumed = Collections.singleton( Id.createPersonId( 1 ) );
+		try ( InfrastructureUsageFile usageFile = new InfrastructureUsageFile( file , TILE_SIZE , resumed , 1 ) ) {
+			usageFile.append( Id.createPersonId( 3 ) , createLinkUsage( scenario , "link" ) );
+		}
+
+		Assert.assertEquals(
+				"unexpected persons after resume",
+				new HashSet<>( Arrays.asList( Id.createPersonId( 1 ) , Id.createPersonId( 3 ) ) ),
+				InfrastructureUsageFile.readUnaffectedPersons( file , noChange ) );
+	}
+
+	@Test
+	public void testIntermediateStopsAreRecorded() {
+		final Scenario scenario = createScenario();
+		addLink( scenario.getNetwork() , "far" , 20 );
+		final TransitSchedule schedule = scenario.getTransitSchedule();
+		final TransitScheduleFactory factory = schedule.getFactory();
+		final List<TransitRouteStop> routeStops = new ArrayList<>();
+		for ( int i = 0; i < 3; i++ ) {
+			final TransitStopFacility stop =
+					factory.createTransitStopFacility(
+							Id.create( "stop"+i , TransitStopFacility.class ),
+							new Coord( 500 , i * 5 * TILE_SIZE + 100 ),
+							false );
+			schedule.addStopFacility( stop );
+			routeStops.add( factory.createTransitRouteStop( stop , i * 60 , i * 60 ) );
+		}
+		final TransitLine line = factory.createTransitLine( Id.create( "line" , TransitLine.class ) );
+		final TransitRoute route =
+				factory.createTransitRoute(
+						Id.create( "route" , TransitRoute.class ),
+						null,
+						routeStops,
+						"bus" );
+		line.addRoute( route );
+		schedule.addTransitLine( line );
+
+		final String file = utils.getOutputDirectory()+"/usage.dat";
+		try ( InfrastructureUsageFile usageFile = new InfrastructureUsageFile( file , TILE_SIZE , null , 1 ) ) {
+			final InfrastructureUsage usage = createUsage( scenario );
+			usage.addTransitRoute(
+					new ExperimentalTransitRoute(
+							routeStops.get( 0 ).getStopFacility(),
+							line,
+							route,
+							routeStops.get( 2 ).getStopFacility() ) );
+			usageFile.append( Id.createPersonId( "affected" ) , usage );
+			usageFile.append( Id.createPersonId( "unaffected" ) , createLinkUsage( scenario , "far" ) );
+		}
+
+		// the leg passes by, but does not board nor alight at the changed stop
+		final InfrastructureUsage changes = createUsage( scenario );
+		changes.addChangedStop( Id.create( "stop1" , TransitStopFacility.class ) , null );
+
+		Assert.assertEquals(
+				"unexpected unaffected persons",
+				Collections.singleton( Id.createPersonId( "unaffected" ) ),
+				InfrastructureUsageFile.readUnaffectedPersons( file , changes ) );
+	}
+
+	@Test
+	public void testUsageIsCopiedFromBaseFile() {
+		final Scenario scenario = createScenario();
+		addLink( scenario.getNetwork() , "link" , 0 );
+
+		final String baseFile = utils.getOutputDirectory()+"/base-usage.dat";
+		try ( InfrastructureUsageFile usageFile = new InfrastructureUsageFile( baseFile , TILE_SIZE , null , 1 ) ) {
+			usageFile.append( Id.createPersonId( 1 ) , createLinkUsage( scenario , "link" ) );
+			usageFile.append( Id.createPersonId( 2 ) , createLinkUsage( scenario , "link" ) );
+		}
+
+		// person 1 copied from the base run, person 3 recomputed
+		final String file = utils.getOutputDirectory()+"/usage.dat";
+		try ( InfrastructureUsageFile usageFile = new InfrastructureUsageFile( file , TILE_SIZE , null , 1 ) ) {
+			usageFile.copyFrom( baseFile , Collections.singleton( Id.createPersonId( 1 ) ) );
+			usageFile.append( Id.createPersonId( 3 ) , createLinkUsage( scenario , "link" ) );
+		}
+
+		Assert.assertEquals(
+				"unexpected persons",
+				new HashSet<>( Arrays.asList( Id.createPersonId( 1 ) , Id.createPersonId( 3 ) ) ),
+				InfrastructureUsageFile.readUnaffectedPersons( file , createUsage( scenario ) ) );
+	}
+
+	private static Scenario createScenario() {
+		final Scenario scenario = ScenarioUtils.createScenario( ConfigUtils.createConfig() );
+		scenario.getConfig().transit().setUseTransit( true );
+		return scenario;
+	}
+
+	private static InfrastructureUsage createUsage( final Scenario scenario ) {
+		return new InfrastructureUsage( scenario.getNetwork() , scenario.getTransitSchedule() , TILE_SIZE );
+	}
+
+	private static InfrastructureUsage createLinkUsage( final Scenario scenario , final String link ) {
+		final InfrastructureUsage usage = createUsage( scenario );
+		usage.addLink( Id.createLinkId( link ) );
+		return usage;
+	}
+
+	/**
+	 * Adds a link within the tile row y, between nodes specific to the link.
+	 */
+	private static void addLink( final Network network , final String id , final int tileY ) {
+		final double y = tileY * TILE_SIZE + TILE_SIZE / 2;
+		final Node from = network.getFactory().createNode( Id.createNodeId( id+"-from" ) , new Coord( 100 , y ) );
+		final Node to = network.getFactory().createNode( Id.createNodeId( id+"-to" ) , new Coord( 900 , y ) );
+		network.addNode( from );
+		network.addNode( to );
+		final Link link = network.getFactory().createLink( Id.createLinkId( id ) , from , to );
+		network.addLink( link );
+	}
+}
@@ -0,0 +1,93 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * @author thibautd
+ */
+public class LogSumExpCalculatorTest {
+	private static final double EPSILON = 1E-9;
+
+	@Test
+	public void testConsistentWithNaiveComputation() {
+		final Random random = new Random( 42 );
+		final double[] terms = new double[ 100 ];
+
+		double sum = 0;
+		final LogSumExpCalculator calculator = new LogSumExpCalculator();
+		for ( int i = 0; i < terms.length; i++ ) {
+			terms[ i ] = 10 * random.nextGaussian();
+			sum += Math.exp( terms[ i ] );
+			calculator.addTerm( terms[ i ] );
+		}
+
+		Assert.assertEquals( "unexpected streaming logsum" , Math.log( sum ) , calculator.computeLogsumExp() , EPSILON );
+		Assert.assertEquals( "unexpected batch logsum" , Math.log( sum ) , LogSumExpCalculator.logSumExp( terms , 0 , terms.length ) , EPSILON );
+		Assert.assertEquals(
+				"unexpected logsum of slice",
+				Math.log( Math.exp( terms[ 10 ] ) + Math.exp( terms[ 11 ] ) ),
+				LogSumExpCalculator.logSumExp( terms , 10 , 12 ),
+				EPSILON );
+	}
+
+	@Test
+	public void testNoUnderflowForVeryNegativeTerms() {
+		testConstantTerms( -2000 );
+	}
+
+	@Test
+	public void testNoOverflowForVeryPositiveTerms() {
+		testConstantTerms( 2000 );
+	}
+
+	private void testConstantTerms( final double term ) {
+		final double[] terms = new double[ 10 ];
+		final LogSumExpCalculator calculator = new LogSumExpCalculator();
+		for ( int i = 0; i < terms.length; i++ ) {
+			terms[ i ] = term;
+			calculator.addTerm( term );
+		}
+
+		final double expected = term + Math.log( terms.length );
+		Assert.assertEquals( "unexpected streaming logsum" , expected , calculator.computeLogsumExp() , EPSILON );
+		Assert.assertEquals( "unexpected batch logsum" , expected , LogSumExpCalculator.logSumExp( terms , 0 , terms.length ) , EPSILON );
+		Assert.assertEquals( "unexpected scaled batch logsum" , 2 * term + Math.log( terms.length ) , LogSumExpCalculator.logSumExp( 2 , terms , 0 , terms.length ) , EPSILON );
+	}
+
+	@Test
+	public void testReset() {
+		final LogSumExpCalculator calculator = new LogSumExpCalculator();
+		calculator.addTerm( 100 );
+		calculator.reset();
+		Assert.assertTrue( "calculator should be empty after reset" , calculator.isEmpty() );
+
+		calculator.addTerm( 1 );
+		Assert.assertEquals( "unexpected logsum after reset" , 1 , calculator.computeLogsumExp() , EPSILON );
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void testFailsWhenEmpty() {
+		new LogSumExpCalculator().computeLogsumExp();
+	}
+}
@@ -0,0 +1,158 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.framework;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * @author thibautd
+ */
+public class PackedNestedChoiceSetTest {
+	private static final double EPSILON = 1E-9;
+
+	@Test
+	public void testConsistentWithNestedFormula() {
+		final Random random = new Random( 20160926 );
+		final PackedNestedChoiceSet packed = new PackedNestedChoiceSet( 1 , 1 );
+
+		for ( int trial = 0; trial < 100; trial++ ) {
+			final int nNests = 1 + random.nextInt( 6 );
+			final double mu = 0.5 + random.nextDouble();
+			final double[][] utilities = new double[ nNests ][];
+			final double[] mus = new double[ nNests ];
+
+			packed.clear();
+			for ( int n = 0; n < nNests; n++ ) {
+				mus[ n ] = mu * ( 1 + 5 * random.nextDouble() );
+				utilities[ n ] = new double[ random.nextInt( 50 ) ];
+				packed.startNest( mus[ n ] );
+				for ( int i = 0; i < utilities[ n ].length; i++ ) {
+					utilities[ n ][ i ] = 20 * random.nextGaussian();
+					packed.addUtility( utilities[ n ][ i ] );
+				}
+			}
+
+			boolean hasAlternatives = false;
+			final LogSumExpCalculator calculator = new LogSumExpCalculator();
+			for ( int n = 0; n < nNests; n++ ) {
+				if ( utilities[ n ].length == 0 ) continue;
+				hasAlternatives = true;
+				final LogSumExpCalculator nestCalculator = new LogSumExpCalculator();
+				for ( double u : utilities[ n ] ) nestCalculator.addTerm( mus[ n ] * u );
+				calculator.addTerm( ( mu / mus[ n ] ) * nestCalculator.computeLogsumExp() );
+			}
+			if ( !hasAlternatives ) continue;
+
+			Assert.assertEquals(
+					"unexpected expected maximum utility for trial "+trial,
+					calculator.computeLogsumExp() / mu,
+					packed.computeExpectedMaximumUtility( mu ),
+					EPSILON );
+		}
+	}
+
+	@Test
+	public void testEmptyNestsAreIgnored() {
+		final PackedNestedChoiceSet packed = new PackedNestedChoiceSet();
+		packed.startNest( 1 );
+		packed.startNest( 2 );
+		packed.addUtility( 1 );
+		packed.addUtility( 2 );
+		packed.startNest( 3 );
+
+		Assert.assertEquals( "unexpected number of nests" , 3 , packed.getNumberOfNests() );
+		Assert.assertEquals( "unexpected start of empty nest" , 2 , packed.getNestStart( 2 ) );
+		Assert.assertEquals( "unexpected end of empty nest" , 2 , packed.getNestEnd( 2 ) );
+
+		final double expected = Math.log( Math.exp( 2 * 1 ) + Math.exp( 2 * 2 ) ) / 2;
+		Assert.assertEquals(
+				"unexpected expected maximum utility",
+				expected,
+				packed.computeExpectedMaximumUtility( 1 ),
+				EPSILON );
+	}
+
+	@Test
+	public void testMaskedConsistentWithSeparateSituations() {
+		final Random random = new Random( 20161003 );
+		final int nSituations = 5;
+		final PackedNestedChoiceSet masked = new PackedNestedChoiceSet( 1 , 1 );
+		final PackedNestedChoiceSet separate = new PackedNestedChoiceSet( 1 , 1 );
+		final double[] results = new double[ nSituations ];
+
+		for ( int trial = 0; trial < 100; trial++ ) {
+			final int nNests = 1 + random.nextInt( 6 );
+			final double mu = 0.5 + random.nextDouble();
+			final double[][] utilities = new double[ nNests ][];
+			final long[][] masks = new long[ nNests ][];
+			final double[] mus = new double[ nNests ];
+
+			masked.clear();
+			long allMasks = 0;
+			for ( int n = 0; n < nNests; n++ ) {
+				mus[ n ] = mu * ( 1 + 5 * random.nextDouble() );
+				utilities[ n ] = new double[ random.nextInt( 50 ) ];
+				masks[ n ] = new long[ utilities[ n ].length ];
+				masked.startNest( mus[ n ] );
+				for ( int i = 0; i < utilities[ n ].length; i++ ) {
+					utilities[ n ][ i ] = 20 * random.nextGaussian();
+					masks[ n ][ i ] = random.nextInt( 1 << nSituations );
+					allMasks |= masks[ n ][ i ];
+					masked.addUtility( utilities[ n ][ i ] , masks[ n ][ i ] );
+				}
+			}
+			if ( allMasks != ( 1 << nSituations ) - 1 ) continue;
+
+			masked.computeExpectedMaximumUtilities( mu , nSituations , results );
+
+			for ( int s = 0; s < nSituations; s++ ) {
+				separate.clear();
+				for ( int n = 0; n < nNests; n++ ) {
+					separate.startNest( mus[ n ] );
+					for ( int i = 0; i < utilities[ n ].length; i++ ) {
+						if ( ( masks[ n ][ i ] & ( 1L << s ) ) != 0 ) separate.addUtility( utilities[ n ][ i ] );
+					}
+				}
+
+				Assert.assertEquals(
+						"unexpected expected maximum utility for trial "+trial+" and situation "+s,
+						separate.computeExpectedMaximumUtility( mu ),
+						results[ s ],
+						EPSILON );
+			}
+		}
+	}
+
+	@Test
+	public void testMaskedDoesNotUnderflow() {
+		final PackedNestedChoiceSet packed = new PackedNestedChoiceSet();
+		packed.startNest( 1 );
+		packed.addUtility( 0 , 1 );
+		packed.addUtility( 1000 , 2 );
+
+		final double[] results = new double[ 2 ];
+		packed.computeExpectedMaximumUtilities( 1 , 2 , results );
+
+		Assert.assertEquals( "unexpected expected maximum utility for first situation" , 0 , results[ 0 ] , EPSILON );
+		Assert.assertEquals( "unexpected expected maximum utility for second situation" , 1000 , results[ 1 ] , EPSILON );
+	}
+}
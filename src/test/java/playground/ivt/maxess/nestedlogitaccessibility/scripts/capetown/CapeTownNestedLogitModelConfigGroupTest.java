@@ -0,0 +1,132 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.scripts.capetown;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.facilities.ActivityFacilities;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.facilities.FacilitiesUtils;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.Alternative;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.PersonFeatureTable;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.Utility;
+import playground.ivt.maxess.prepareforbiogeme.tripbased.Trip;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * @author thibautd
+ */
+public class CapeTownNestedLogitModelConfigGroupTest {
+	private static final double EPSILON = 1E-9;
+
+	@Test
+	public void testSpecificationGivesSameUtilitiesAsHandWrittenModel() {
+		final Random random = new Random( 20161017 );
+
+		final CapeTownNestedLogitModelConfigGroup pars = new CapeTownNestedLogitModelConfigGroup();
+		pars.setAscCar( random.nextGaussian() );
+		pars.setAscPt( random.nextGaussian() );
+		pars.setAscWalk( random.nextGaussian() );
+		pars.setAscRide( random.nextGaussian() );
+		pars.setAscTaxi( random.nextGaussian() );
+		pars.setBetaTtCar( random.nextGaussian() );
+		pars.setBetaTtPt( random.nextGaussian() );
+		pars.setBetaTtWalk( random.nextGaussian() );
+		pars.setBetaTtRide( random.nextGaussian() );
+		pars.setBetaTtTaxi( random.nextGaussian() );
+		pars.setBetaNCarsPerPerson( random.nextGaussian() );
+
+		final List<Person> persons = new ArrayList<>();
+		final Map<Id<Person>, Double> nCarsPerPerson = new HashMap<>();
+		for ( int i = 0; i < 20; i++ ) {
+			final Person person = PopulationUtils.getFactory().createPerson( Id.createPersonId( i ) );
+			persons.add( person );
+			nCarsPerPerson.put( person.getId() , random.nextInt( 4 ) / ( 1d + random.nextInt( 4 ) ) );
+		}
+
+		final PersonFeatureTable features =
+				new PersonFeatureTable.Builder()
+						.addDoubleFeature( CapeTownPersonFeatures.N_CARS_PER_PERSON , p -> nCarsPerPerson.get( p.getId() ) )
+						.build( persons );
+		final Utility<CapeTownModeNests> utility = pars.toUtilitySpecification().compile( features );
+
+		final ActivityFacilities facilities = FacilitiesUtils.createActivityFacilities();
+		final ActivityFacility origin =
+				facilities.getFactory().createActivityFacility( Id.create( "o" , ActivityFacility.class ) , new Coord( 0 , 0 ) );
+		final ActivityFacility destination =
+				facilities.getFactory().createActivityFacility( Id.create( "d" , ActivityFacility.class ) , new Coord( 1000 , 0 ) );
+
+		for ( Person person : persons ) {
+			for ( CapeTownModeNests nest : CapeTownModeNests.values() ) {
+				final Leg leg = PopulationUtils.createLeg( nest.name() );
+				leg.setTravelTime( random.nextDouble() * 7200 );
+				final Alternative<CapeTownModeNests> alternative =
+						new Alternative<>(
+								nest,
+								Id.create( nest.name() , Alternative.class ),
+								new Trip( origin , Collections.singletonList( leg ) , destination ) );
+
+				Assert.assertEquals(
+						"unexpected utility for "+person.getId()+" in nest "+nest,
+						calcExpectedUtility( pars , nCarsPerPerson.get( person.getId() ) , alternative ),
+						utility.calcUtility( person , alternative ),
+						EPSILON );
+			}
+		}
+	}
+
+	// the hand-written utility that the specification replaced
+	private static double calcExpectedUtility(
+			final CapeTownNestedLogitModelConfigGroup pars,
+			final double nCarsPerPerson,
+			final Alternative<CapeTownModeNests> a ) {
+		final double logTT = Math.log( 1 + a.getAlternative().getTravelTime() );
+		switch ( a.getNestId() ) {
+			case car:
+				return pars.getAscCar() +
+						pars.getBetaTtCar() * logTT +
+						pars.getBetaNCarsPerPerson() * nCarsPerPerson;
+			case pt:
+				return pars.getAscPt() +
+						pars.getBetaTtPt() * logTT;
+			case walk:
+				return pars.getAscWalk() +
+						pars.getBetaTtWalk() * logTT;
+			case ride:
+				return pars.getAscRide() +
+						pars.getBetaTtRide() * logTT;
+			case taxi:
+				return pars.getAscTaxi() +
+						pars.getBetaTtTaxi() * logTT;
+			default:
+				throw new RuntimeException( "unknown nest "+a.getNestId() );
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.nestedlogitaccessibility.scripts.simpleleisure;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.facilities.ActivityFacilities;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.facilities.FacilitiesUtils;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.Alternative;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.PersonFeatureTable;
+import playground.ivt.maxess.nestedlogitaccessibility.framework.Utility;
+import playground.ivt.maxess.nestedlogitaccessibility.scripts.ModeNests;
+import playground.ivt.maxess.prepareforbiogeme.tripbased.Trip;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * @author thibautd
+ */
+public class SimpleNestedLogitUtilityConfigGroupTest {
+	private static final double EPSILON = 1E-9;
+
+	@Test
+	public void testSpecificationGivesSameUtilitiesAsHandWrittenModel() {
+		final Random random = new Random( 20161017 );
+
+		final SimpleNestedLogitUtilityConfigGroup pars = new SimpleNestedLogitUtilityConfigGroup();
+		pars.setAscCar( random.nextGaussian() );
+		pars.setAscPt( random.nextGaussian() );
+		pars.setAscBike( random.nextGaussian() );
+		pars.setAscWalk( random.nextGaussian() );
+		pars.setBetaTtCar( random.nextGaussian() );
+		pars.setBetaTtPt( random.nextGaussian() );
+		pars.setBetaTtPtGa( random.nextGaussian() );
+		pars.setBetaTtPtHt( random.nextGaussian() );
+		pars.setBetaTtPtLocal( random.nextGaussian() );
+		pars.setBetaTtBike( random.nextGaussian() );
+		pars.setBetaLicenseBike( random.nextGaussian() );
+		pars.setBetaTtWalk( random.nextGaussian() );
+
+		final List<Person> persons = new ArrayList<>();
+		final Map<String, Map<Id<Person>, Boolean>> values = new HashMap<>();
+		for ( String feature : new String[]{
+				SimpleNestedLogitPersonFeatures.HAS_GA,
+				SimpleNestedLogitPersonFeatures.HAS_HT,
+				SimpleNestedLogitPersonFeatures.HAS_LOCAL_ABO,
+				SimpleNestedLogitPersonFeatures.HAS_LICENSE } ) {
+			values.put( feature , new HashMap<>() );
+		}
+		for ( int i = 0; i < 20; i++ ) {
+			final Person person = PopulationUtils.getFactory().createPerson( Id.createPersonId( i ) );
+			persons.add( person );
+			for ( Map<Id<Person>, Boolean> v : values.values() ) v.put( person.getId() , random.nextBoolean() );
+		}
+
+		final PersonFeatureTable.Builder builder = new PersonFeatureTable.Builder();
+		for ( Map.Entry<String, Map<Id<Person>, Boolean>> e : values.entrySet() ) {
+			builder.addBooleanFeature( e.getKey() , p -> e.getValue().get( p.getId() ) );
+		}
+		final Utility<ModeNests> utility = pars.toUtilitySpecification().compile( builder.build( persons ) );
+
+		final ActivityFacilities facilities = FacilitiesUtils.createActivityFacilities();
+		final ActivityFacility origin =
+				facilities.getFactory().createActivityFacility( Id.create( "o" , ActivityFacility.class ) , new Coord( 0 , 0 ) );
+		final ActivityFacility destination =
+				facilities.getFactory().createActivityFacility( Id.create( "d" , ActivityFacility.class ) , new Coord( 1000 , 0 ) );
+
+		for ( Person person : persons ) {
+			for ( ModeNests nest : ModeNests.values() ) {
+				final List<Alternative<ModeNests>> alternatives = new ArrayList<>();
+				for ( int i = 0; i < 3; i++ ) {
+					final Leg leg = PopulationUtils.createLeg( nest.name() );
+					leg.setTravelTime( random.nextDouble() * 7200 );
+					alternatives.add(
+							new Alternative<>(
+									nest,
+									Id.create( nest.name()+i , Alternative.class ),
+									new Trip( origin , Collections.singletonList( leg ) , destination ) ) );
+				}
+
+				final double[] batch = new double[ alternatives.size() ];
+				utility.calcUtilities( person , nest , alternatives , batch );
+				for ( int i = 0; i < alternatives.size(); i++ ) {
+					final double expected = calcExpectedUtility( pars , values , person.getId() , alternatives.get( i ) );
+					Assert.assertEquals(
+							"unexpected utility for "+person.getId()+" in nest "+nest,
+							expected,
+							utility.calcUtility( person , alternatives.get( i ) ),
+							EPSILON );
+					Assert.assertEquals(
+							"unexpected batch utility for "+person.getId()+" in nest "+nest,
+							expected,
+							batch[ i ],
+							EPSILON );
+				}
+			}
+		}
+	}
+
+	// the hand-written utility that the specification replaced
+	private static double calcExpectedUtility(
+			final SimpleNestedLogitUtilityConfigGroup pars,
+			final Map<String, Map<Id<Person>, Boolean>> values,
+			final Id<Person> person,
+			final Alternative<ModeNests> a ) {
+		final double logTT = Math.log( 1 + a.getAlternative().getTravelTime() );
+		switch ( a.getNestId() ) {
+			case car:
+				return pars.getAscCar() +
+						pars.getBetaTtCar() * logTT;
+			case pt:
+				final double hasGA = values.get( SimpleNestedLogitPersonFeatures.HAS_GA ).get( person ) ? 1 : 0;
+				final double hasHT = values.get( SimpleNestedLogitPersonFeatures.HAS_HT ).get( person ) ? 1 : 0;
+				final double hasLocal = values.get( SimpleNestedLogitPersonFeatures.HAS_LOCAL_ABO ).get( person ) ? 1 : 0;
+				return pars.getAscPt() +
+						pars.getBetaTtPt() * logTT +
+						pars.getBetaTtPtGa() * hasGA * logTT +
+						pars.getBetaTtPtHt() * hasHT * logTT +
+						pars.getBetaTtPtLocal() * hasLocal * logTT;
+			case bike:
+				final double hasLicense = values.get( SimpleNestedLogitPersonFeatures.HAS_LICENSE ).get( person ) ? 1 : 0;
+				return pars.getAscBike() +
+						pars.getBetaTtBike() * logTT +
+						pars.getBetaLicenseBike() * hasLicense;
+			case walk:
+				return pars.getAscWalk() +
+						pars.getBetaTtWalk() * logTT;
+			default:
+				throw new RuntimeException( "unknown nest "+a.getNestId() );
+		}
+	}
+}
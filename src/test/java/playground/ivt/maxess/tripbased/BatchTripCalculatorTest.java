@@ -0,0 +1,94 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.maxess.tripbased;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.PlansCalcRouteConfigGroup.ModeRoutingParams;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.router.TeleportationRoutingModule;
+import org.matsim.core.router.TripRouter;
+import org.matsim.facilities.ActivityFacilities;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.facilities.FacilitiesUtils;
+import playground.ivt.maxess.prepareforbiogeme.tripbased.BatchTripCalculator;
+import playground.ivt.maxess.prepareforbiogeme.tripbased.Trip;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author thibautd
+ */
+public class BatchTripCalculatorTest {
+	@Test
+	public void testSameAsTeleportationRoutingModule() {
+		final Config config = ConfigUtils.createConfig();
+		final ModeRoutingParams params = config.plansCalcRoute().getModeRoutingParams().get( TransportMode.walk );
+
+		final TripRouter router = new TripRouter();
+		final TeleportationRoutingModule teleportation =
+				new TeleportationRoutingModule(
+						TransportMode.walk,
+						PopulationUtils.getFactory(),
+						params.getTeleportedModeSpeed(),
+						params.getBeelineDistanceFactor() );
+		router.setRoutingModule( TransportMode.walk , teleportation );
+
+		final Random random = new Random( 20161017 );
+		final ActivityFacilities facilities = FacilitiesUtils.createActivityFacilities();
+		final ActivityFacility origin = createFacility( facilities , random , 0 );
+		final List<ActivityFacility> destinations = new ArrayList<>();
+		for ( int i = 1; i <= 100; i++ ) destinations.add( createFacility( facilities , random , i ) );
+
+		final List<Trip> trips =
+				new BatchTripCalculator( router , config.plansCalcRoute() ).calcTrips(
+						TransportMode.walk,
+						origin,
+						destinations,
+						12 * 3600,
+						null );
+
+		for ( int i = 0; i < destinations.size(); i++ ) {
+			final Trip trip = trips.get( i );
+			Assert.assertTrue( "expected skim trip" , trip.isSkimOnly() );
+
+			final Leg expected = (Leg) teleportation.calcRoute( origin , destinations.get( i ) , 12 * 3600 , null ).get( 0 );
+			final Leg actual = trip.getLegsOnly().get( 0 );
+
+			Assert.assertEquals( "unexpected travel time" , expected.getTravelTime() , trip.getTravelTime() , 0 );
+			Assert.assertEquals( "unexpected leg travel time" , expected.getTravelTime() , actual.getTravelTime() , 0 );
+			Assert.assertEquals( "unexpected distance" , expected.getRoute().getDistance() , actual.getRoute().getDistance() , 0 );
+			Assert.assertEquals( "unexpected mode" , expected.getMode() , actual.getMode() );
+		}
+	}
+
+	private static ActivityFacility createFacility( final ActivityFacilities facilities , final Random random , final int id ) {
+		return facilities.getFactory().createActivityFacility(
+				Id.create( id , ActivityFacility.class ),
+				new Coord( random.nextDouble() * 10000 , random.nextDouble() * 10000 ) );
+	}
+}
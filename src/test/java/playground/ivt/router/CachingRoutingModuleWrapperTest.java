@@ -0,0 +1,137 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.router.LinkWrapperFacility;
+import org.matsim.core.router.StageActivityTypes;
+import org.matsim.core.router.costcalculators.FreespeedTravelTimeAndDisutility;
+import org.matsim.facilities.Facility;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author thibautd
+ */
+public class CachingRoutingModuleWrapperTest {
+	@Test
+	public void testSkimsAreCachedWithoutHidingRoutes() {
+		final Network network = NetworkUtils.createNetwork();
+		final Node a = createNode( network , "a" , 0 );
+		final Node b = createNode( network , "b" , 1000 );
+		final Node c = createNode( network , "c" , 2000 );
+		final Link ab = createLink( network , a , b );
+		final Link bc = createLink( network , b , c );
+		final Link ca = createLink( network , c , a );
+
+		final FreespeedTravelTimeAndDisutility tt = new FreespeedTravelTimeAndDisutility( new PlanCalcScoreConfigGroup() );
+		final CountingModule counting = new CountingModule( new OneToManyNetworkRoutingModule( TransportMode.car , network , tt , tt ) );
+		final CachingRoutingModuleWrapper wrapper =
+				new CachingRoutingModuleWrapper( false , TripSoftCache.LocationType.link , counting );
+
+		final Facility origin = new LinkWrapperFacility( ab );
+		final List<Facility> destinations = Arrays.asList( new LinkWrapperFacility( bc ) , new LinkWrapperFacility( ca ) );
+
+		final List<TripSkim> skims = wrapper.calcSkims( origin , destinations , 0 , null );
+		Assert.assertEquals( "unexpected number of skimmed trips" , 2 , counting.nSkims );
+
+		final List<TripSkim> cachedSkims = wrapper.calcSkims( origin , destinations , 0 , null );
+		Assert.assertEquals( "skims not cached" , 2 , counting.nSkims );
+		for ( int i = 0; i < skims.size(); i++ ) {
+			Assert.assertEquals( "unexpected cached travel time" , skims.get( i ).getTravelTime() , cachedSkims.get( i ).getTravelTime() , 0 );
+			Assert.assertEquals( "unexpected cached distance" , skims.get( i ).getDistance() , cachedSkims.get( i ).getDistance() , 0 );
+		}
+
+		final Leg leg = (Leg) wrapper.calcRoute( origin , destinations.get( 1 ) , 0 , null ).get( 0 );
+		Assert.assertEquals( "cached skim used as route" , 1 , counting.nRoutes );
+		Assert.assertEquals( "unexpected route" ,
+				Collections.singletonList( bc.getId() ),
+				( (NetworkRoute) leg.getRoute() ).getLinkIds() );
+		Assert.assertEquals( "route and skim differ" , skims.get( 1 ).getTravelTime() , leg.getTravelTime() , 0 );
+
+		wrapper.calcRoute( origin , destinations.get( 1 ) , 0 , null );
+		Assert.assertEquals( "route not cached" , 1 , counting.nRoutes );
+	}
+
+	private static Node createNode( final Network network , final String id , final double x ) {
+		final Node n = network.getFactory().createNode( Id.createNodeId( id ) , new Coord( x , 0 ) );
+		network.addNode( n );
+		return n;
+	}
+
+	private static Link createLink( final Network network , final Node from , final Node to ) {
+		final Link l = network.getFactory().createLink( Id.createLinkId( from.getId()+"-"+to.getId() ) , from , to );
+		l.setLength( 1000 );
+		l.setFreespeed( 10 );
+		l.setCapacity( 1000 );
+		l.setAllowedModes( Collections.singleton( TransportMode.car ) );
+		network.addLink( l );
+		return l;
+	}
+
+	private static class CountingModule implements SkimRoutingModule {
+		private final OneToManyNetworkRoutingModule delegate;
+		private int nSkims = 0;
+		private int nRoutes = 0;
+
+		private CountingModule( final OneToManyNetworkRoutingModule delegate ) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public List<TripSkim> calcSkims(
+				final Facility fromFacility,
+				final List<? extends Facility> toFacilities,
+				final double departureTime,
+				final Person person ) {
+			nSkims += toFacilities.size();
+			return delegate.calcSkims( fromFacility , toFacilities , departureTime , person );
+		}
+
+		@Override
+		public List<? extends PlanElement> calcRoute(
+				final Facility fromFacility,
+				final Facility toFacility,
+				final double departureTime,
+				final Person person ) {
+			nRoutes++;
+			return delegate.calcRoute( fromFacility , toFacility , departureTime , person );
+		}
+
+		@Override
+		public StageActivityTypes getStageActivityTypes() {
+			return delegate.getStageActivityTypes();
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.router.DijkstraFactory;
+import org.matsim.core.router.LinkWrapperFacility;
+import org.matsim.core.router.TripRouter;
+import org.matsim.core.router.TripRouterFactoryBuilderWithDefaults;
+import org.matsim.core.router.costcalculators.FreespeedTravelTimeAndDisutility;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.facilities.Facility;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author thibautd
+ */
+public class OneToManyNetworkRoutingModuleTest {
+	@Test
+	public void testSameTravelTimesAsDijkstra() {
+		final Random random = new Random( 20161017 );
+		final Network network = createGrid( random , 10 );
+		final List<Link> links = new ArrayList<>( network.getLinks().values() );
+
+		final FreespeedTravelTimeAndDisutility tt = new FreespeedTravelTimeAndDisutility( new PlanCalcScoreConfigGroup() );
+		final OneToManyNetworkRoutingModule module = new OneToManyNetworkRoutingModule( TransportMode.car , network , tt , tt );
+		final LeastCostPathCalculator dijkstra = new DijkstraFactory().createPathCalculator( network , tt , tt );
+
+		for ( int i = 0; i < 20; i++ ) {
+			final Link origin = links.get( random.nextInt( links.size() ) );
+			final List<Facility> destinations = new ArrayList<>();
+			for ( int j = 0; j < 10; j++ ) destinations.add( new LinkWrapperFacility( links.get( random.nextInt( links.size() ) ) ) );
+			// same link as origin is a special case
+			destinations.add( new LinkWrapperFacility( origin ) );
+
+			final List<List<? extends PlanElement>> trips =
+					module.calcRoutes( new LinkWrapperFacility( origin ) , destinations , 0 , null );
+
+			Assert.assertEquals( destinations.size() , trips.size() );
+			for ( int j = 0; j < destinations.size(); j++ ) {
+				final Link destination = network.getLinks().get( destinations.get( j ).getLinkId() );
+				final Leg leg = (Leg) trips.get( j ).get( 0 );
+
+				final double expected = destination == origin ? 0 :
+						(int) dijkstra.calcLeastCostPath( origin.getToNode() , destination.getFromNode() , 0 , null , null ).travelTime;
+
+				Assert.assertEquals( "unexpected travel time from "+origin.getId()+" to "+destination.getId() ,
+						expected , leg.getTravelTime() , 1E-6 );
+				Assert.assertEquals( "batch and single route differ" ,
+						leg.getTravelTime(),
+						( (Leg) module.calcRoute( new LinkWrapperFacility( origin ) , destinations.get( j ) , 0 , null ).get( 0 ) ).getTravelTime(),
+						1E-6 );
+			}
+		}
+	}
+
+	@Test
+	public void testSameLegsAsDefaultNetworkRoutingModule() {
+		final Random random = new Random( 20161018 );
+		final Scenario scenario = ScenarioUtils.createScenario( ConfigUtils.createConfig() );
+		fillGrid( scenario.getNetwork() , random , 10 );
+		final List<Link> links = new ArrayList<>( scenario.getNetwork().getLinks().values() );
+
+		final FreespeedTravelTimeAndDisutility tt = new FreespeedTravelTimeAndDisutility( scenario.getConfig().planCalcScore() );
+		final OneToManyNetworkRoutingModule module =
+				new OneToManyNetworkRoutingModule( TransportMode.car , scenario.getNetwork() , tt , tt );
+
+		final TripRouterFactoryBuilderWithDefaults builder = new TripRouterFactoryBuilderWithDefaults();
+		builder.setTravelTime( tt );
+		builder.setTravelDisutility( tt );
+		final TripRouter tripRouter = builder.build( scenario ).get();
+
+		for ( int i = 0; i < 20; i++ ) {
+			final Facility origin = new LinkWrapperFacility( links.get( random.nextInt( links.size() ) ) );
+			final List<Facility> destinations = new ArrayList<>();
+			for ( int j = 0; j < 10; j++ ) destinations.add( new LinkWrapperFacility( links.get( random.nextInt( links.size() ) ) ) );
+			destinations.add( origin );
+
+			final double departureTime = random.nextInt( 24 * 3600 ) + random.nextDouble();
+			final List<List<? extends PlanElement>> trips = module.calcRoutes( origin , destinations , departureTime , null );
+			final List<TripSkim> skims = module.calcSkims( origin , destinations , departureTime , null );
+
+			for ( int j = 0; j < destinations.size(); j++ ) {
+				final Leg leg = (Leg) trips.get( j ).get( 0 );
+				final Leg expected = (Leg) tripRouter.calcRoute( TransportMode.car , origin , destinations.get( j ) , departureTime , null ).get( 0 );
+
+				final String od = " from "+origin.getLinkId()+" to "+destinations.get( j ).getLinkId();
+				Assert.assertEquals( "unexpected travel time"+od , expected.getTravelTime() , leg.getTravelTime() , 1E-9 );
+				Assert.assertEquals( "unexpected distance"+od , expected.getRoute().getDistance() , leg.getRoute().getDistance() , 1E-6 );
+				Assert.assertEquals( "unexpected links"+od ,
+						( (NetworkRoute) expected.getRoute() ).getLinkIds(),
+						( (NetworkRoute) leg.getRoute() ).getLinkIds() );
+
+				Assert.assertEquals( "skim and leg travel times differ"+od , leg.getTravelTime() , skims.get( j ).getTravelTime() , 1E-9 );
+				Assert.assertEquals( "skim and leg distances differ"+od , leg.getRoute().getDistance() , skims.get( j ).getDistance() , 1E-6 );
+			}
+		}
+	}
+
+	private static Network createGrid( final Random random , final int size ) {
+		final Network network = NetworkUtils.createNetwork();
+		fillGrid( network , random , size );
+		return network;
+	}
+
+	private static void fillGrid( final Network network , final Random random , final int size ) {
+		final Node[][] nodes = new Node[ size ][ size ];
+		for ( int x = 0; x < size; x++ ) {
+			for ( int y = 0; y < size; y++ ) {
+				nodes[ x ][ y ] = network.getFactory().createNode( Id.createNodeId( x+"_"+y ) , new Coord( x * 1000 , y * 1000 ) );
+				network.addNode( nodes[ x ][ y ] );
+			}
+		}
+
+		for ( int x = 0; x < size; x++ ) {
+			for ( int y = 0; y < size; y++ ) {
+				if ( x + 1 < size ) {
+					addLink( network , random , nodes[ x ][ y ] , nodes[ x + 1 ][ y ] );
+					addLink( network , random , nodes[ x + 1 ][ y ] , nodes[ x ][ y ] );
+				}
+				if ( y + 1 < size ) {
+					addLink( network , random , nodes[ x ][ y ] , nodes[ x ][ y + 1 ] );
+					addLink( network , random , nodes[ x ][ y + 1 ] , nodes[ x ][ y ] );
+				}
+			}
+		}
+	}
+
+	private static void addLink( final Network network , final Random random , final Node from , final Node to ) {
+		final Link l = network.getFactory().createLink( Id.createLinkId( from.getId()+"-"+to.getId() ) , from , to );
+		l.setLength( 1000 );
+		l.setFreespeed( 5 + random.nextDouble() * 30 );
+		l.setCapacity( 1000 );
+		l.setAllowedModes( Collections.singleton( TransportMode.car ) );
+		network.addLink( l );
+	}
+}
@@ -0,0 +1,138 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author thibautd
+ */
+public class SkimStoreTest {
+	@Rule
+	public final MatsimTestUtils utils = new MatsimTestUtils();
+
+	private static final List<String> MODES = Arrays.asList( TransportMode.car , TransportMode.pt );
+
+	@Test
+	public void testSkimsAreReusedOnlyForSameFingerprint() {
+		final String file = utils.getOutputDirectory()+"/skims.dat";
+		final Network network = createNetwork();
+		final Id<Link> a = Id.createLinkId( "a" );
+		final Id<Link> b = Id.createLinkId( "b" );
+
+		try ( SkimStore store = new SkimStore( file , 1 , network , MODES , 900 , 1024 * 1024 ) ) {
+			Assert.assertNull( "unexpected skim in new store" , store.get( TransportMode.pt , a , b , 0 ) );
+			store.putAll(
+					TransportMode.pt,
+					a,
+					Arrays.asList( a , b ),
+					0,
+					Arrays.asList(
+							new TripSkim( TransportMode.pt , 0 , 0 , 0 , 0 , 0 ),
+							new TripSkim( TransportMode.pt , 0 , 1234 , 5678 , 2 , 321 ) ) );
+		}
+
+		try ( SkimStore store = new SkimStore( file , 1 , network , MODES , 900 , 1024 * 1024 ) ) {
+			final TripSkim skim = store.get( TransportMode.pt , a , b , 600 );
+			Assert.assertNotNull( "skim not persisted" , skim );
+			Assert.assertEquals( "unexpected travel time" , 1234 , skim.getTravelTime() , 0 );
+			Assert.assertEquals( "unexpected distance" , 5678 , skim.getDistance() , 0 );
+			Assert.assertEquals( "unexpected transfers" , 2 , skim.getNumberOfTransfers() );
+			Assert.assertEquals( "unexpected access/egress time" , 321 , skim.getAccessEgressTime() , 0 );
+
+			Assert.assertNull( "unexpected skim for other mode" , store.get( TransportMode.car , a , b , 600 ) );
+			Assert.assertNull( "unexpected skim for other time bin" , store.get( TransportMode.pt , a , b , 900 ) );
+			Assert.assertNull( "unexpected skim for other direction" , store.get( TransportMode.pt , b , a , 600 ) );
+		}
+
+		try ( SkimStore store = new SkimStore( file , 2 , network , MODES , 900 , 1024 * 1024 ) ) {
+			Assert.assertNull( "skim not invalidated" , store.get( TransportMode.pt , a , b , 600 ) );
+		}
+	}
+
+	@Test
+	public void testSameFileCanBeOpenedTwice() throws Exception {
+		final String file = utils.getOutputDirectory()+"/skims.dat";
+		final Network network = createNetwork();
+		final Id<Link> a = Id.createLinkId( "a" );
+		final Id<Link> b = Id.createLinkId( "b" );
+
+		try ( SkimStore first = new SkimStore( file , 1 , network , MODES , 900 , 1024 * 1024 );
+				SkimStore second = new SkimStore( file , 1 , network , MODES , 900 , 1024 * 1024 ) ) {
+			// concurrent writes lock the file concurrently from the same JVM
+			final List<Throwable> errors = Collections.synchronizedList( new ArrayList<>() );
+			final Thread[] threads = {
+					new Thread( () -> writeBins( first , a , b , 100 , errors ) ),
+					new Thread( () -> writeBins( second , b , a , 200 , errors ) ) };
+			for ( Thread t : threads ) t.start();
+			for ( Thread t : threads ) t.join();
+
+			Assert.assertEquals( "unexpected errors" , Collections.emptyList() , errors );
+			Assert.assertEquals( "skim of first store not seen by second" , 100 , second.get( TransportMode.car , a , b , 0 ).getTravelTime() , 0 );
+			Assert.assertEquals( "skim of second store not seen by first" , 200 , first.get( TransportMode.car , b , a , 0 ).getTravelTime() , 0 );
+		}
+	}
+
+	private static void writeBins(
+			final SkimStore store,
+			final Id<Link> from,
+			final Id<Link> to,
+			final double travelTime,
+			final List<Throwable> errors ) {
+		try {
+			for ( int bin = 0; bin < 96; bin++ ) {
+				store.putAll(
+						TransportMode.car,
+						from,
+						Collections.singletonList( to ),
+						bin * 900,
+						Collections.singletonList( new TripSkim( TransportMode.car , bin * 900 , travelTime , 1000 , 0 , 0 ) ) );
+			}
+		}
+		catch ( Throwable t ) {
+			errors.add( t );
+		}
+	}
+
+	private static Network createNetwork() {
+		final Network network = NetworkUtils.createNetwork();
+		final Node n1 = network.getFactory().createNode( Id.createNodeId( 1 ) , new Coord( 0 , 0 ) );
+		final Node n2 = network.getFactory().createNode( Id.createNodeId( 2 ) , new Coord( 1000 , 0 ) );
+		network.addNode( n1 );
+		network.addNode( n2 );
+		network.addLink( network.getFactory().createLink( Id.createLinkId( "a" ) , n1 , n2 ) );
+		network.addLink( network.getFactory().createLink( Id.createLinkId( "b" ) , n2 , n1 ) );
+		return network;
+	}
+}
@@ -0,0 +1,112 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.GenericRouteImpl;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author thibautd
+ */
+public class TripRecordTest {
+	@Test
+	public void testNetworkTripIsRestored() {
+		final NetworkRoute route =
+				RouteUtils.createLinkNetworkRouteImpl(
+						Id.createLinkId( "start" ),
+						Arrays.asList( Id.createLinkId( 1 ) , Id.createLinkId( 2 ) , Id.createLinkId( 3 ) ),
+						Id.createLinkId( "end" ) );
+		route.setTravelTime( 123 );
+		route.setTravelCost( 45 );
+		route.setDistance( 6789 );
+
+		final Leg leg = PopulationUtils.createLeg( TransportMode.car );
+		leg.setRoute( route );
+		leg.setDepartureTime( 12 * 3600 );
+		leg.setTravelTime( 123 );
+
+		final Activity interaction = PopulationUtils.createActivityFromCoordAndLinkId( "interaction" , new Coord( 1 , 2 ) , Id.createLinkId( "end" ) );
+		interaction.setMaximumDuration( 0 );
+
+		final TripRecord record = TripRecord.create( Arrays.asList( leg , interaction ) );
+		Assert.assertEquals( "unexpected travel time" , 123 , record.getTravelTime() , 0 );
+		Assert.assertEquals( "unexpected distance" , 6789 , record.getDistance() , 0 );
+		Assert.assertTrue( "expected route information" , record.hasRoutes() );
+
+		final List<PlanElement> restored = record.createPlanElements();
+		Assert.assertEquals( "unexpected number of elements" , 2 , restored.size() );
+
+		final Leg restoredLeg = (Leg) restored.get( 0 );
+		Assert.assertNotSame( "leg not copied" , leg , restoredLeg );
+		Assert.assertEquals( "unexpected mode" , leg.getMode() , restoredLeg.getMode() );
+		Assert.assertEquals( "unexpected departure" , leg.getDepartureTime() , restoredLeg.getDepartureTime() , 0 );
+		Assert.assertEquals( "unexpected travel time" , leg.getTravelTime() , restoredLeg.getTravelTime() , 0 );
+
+		final NetworkRoute restoredRoute = (NetworkRoute) restoredLeg.getRoute();
+		Assert.assertEquals( "unexpected start link" , route.getStartLinkId() , restoredRoute.getStartLinkId() );
+		Assert.assertEquals( "unexpected links" , route.getLinkIds() , restoredRoute.getLinkIds() );
+		Assert.assertEquals( "unexpected end link" , route.getEndLinkId() , restoredRoute.getEndLinkId() );
+		Assert.assertEquals( "unexpected cost" , route.getTravelCost() , restoredRoute.getTravelCost() , 0 );
+		Assert.assertEquals( "unexpected distance" , route.getDistance() , restoredRoute.getDistance() , 0 );
+
+		final Activity restoredActivity = (Activity) restored.get( 1 );
+		Assert.assertNotSame( "activity not copied" , interaction , restoredActivity );
+		Assert.assertEquals( "unexpected type" , interaction.getType() , restoredActivity.getType() );
+		Assert.assertEquals( "unexpected link" , interaction.getLinkId() , restoredActivity.getLinkId() );
+	}
+
+	@Test
+	public void testTransitSkim() {
+		final TripRecord record =
+				TripRecord.create(
+						Arrays.asList(
+								createLeg( TransportMode.walk , 300 ),
+								createLeg( TransportMode.pt , 600 ),
+								createLeg( TransportMode.transit_walk , 60 ),
+								createLeg( TransportMode.pt , 900 ),
+								createLeg( TransportMode.walk , 120 ) ) );
+
+		final TripSkim skim = record.toSkim();
+		Assert.assertEquals( "unexpected mode" , TransportMode.pt , skim.getMode() );
+		Assert.assertEquals( "unexpected travel time" , 1980 , skim.getTravelTime() , 0 );
+		Assert.assertEquals( "unexpected number of transfers" , 1 , skim.getNumberOfTransfers() );
+		Assert.assertEquals( "unexpected access/egress time" , 420 , skim.getAccessEgressTime() , 0 );
+	}
+
+	private static Leg createLeg( final String mode, final double travelTime ) {
+		final Leg leg = PopulationUtils.createLeg( mode );
+		leg.setRoute( new GenericRouteImpl( Id.createLinkId( "a" ) , Id.createLinkId( "b" ) ) );
+		leg.getRoute().setDistance( travelTime );
+		leg.setTravelTime( travelTime );
+		return leg;
+	}
+}
@@ -0,0 +1,43 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author thibautd
+ */
+public class FrequencySketchTest {
+	@Test
+	public void testCountersSaturateAndAreHalved() {
+		final FrequencySketch sketch = new FrequencySketch( 1024 );
+
+		for ( int i = 0; i < 20; i++ ) sketch.increment( 1 );
+		for ( int i = 0; i < 6; i++ ) sketch.increment( 2 );
+		Assert.assertEquals( "unexpected saturated frequency" , 15 , sketch.frequency( 1 ) );
+		Assert.assertEquals( "unexpected frequency" , 6 , sketch.frequency( 2 ) );
+		Assert.assertEquals( "unexpected frequency of unseen key" , 0 , sketch.frequency( 3 ) );
+
+		// the reset period is ten times the width, which is 1024 for 1024 expected entries
+		for ( int i = 26; i < 10 * 1024; i++ ) sketch.increment( 3 );
+		Assert.assertEquals( "unexpected halved frequency" , 7 , sketch.frequency( 1 ) );
+		Assert.assertEquals( "unexpected halved frequency" , 3 , sketch.frequency( 2 ) );
+	}
+}
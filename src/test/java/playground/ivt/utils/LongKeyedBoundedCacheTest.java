@@ -0,0 +1,82 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * @author thibautd
+ */
+public class LongKeyedBoundedCacheTest {
+	@Test
+	public void testValuesAreConsistentWithEvictions() {
+		final LongKeyedBoundedCache<String> cache = new LongKeyedBoundedCache<>( 1000 , 10 , 1 , v -> 10 );
+		final Random random = new Random( 123 );
+
+		for ( int i = 0; i < 100000; i++ ) {
+			// packed keys, as for origin-destination pairs
+			final long key = ( (long) random.nextInt( 30 ) << 32 ) | random.nextInt( 30 );
+			final String cached = cache.get( key );
+			if ( cached != null ) Assert.assertEquals( "unexpected value" , Long.toString( key ) , cached );
+			else cache.put( key , Long.toString( key ) );
+
+			Assert.assertTrue( "weight above bound: "+cache.getWeight() , cache.getWeight() <= 1000 );
+			Assert.assertEquals( "inconsistent weight" , 10L * cache.size() , cache.getWeight() );
+		}
+		Assert.assertTrue( "expected evictions" , cache.getEvictions() > 0 );
+	}
+
+	@Test
+	public void testFrequentEntriesSurviveScan() {
+		final LongKeyedBoundedCache<String> cache = new LongKeyedBoundedCache<>( 1000 , 10 , 1 , String::length );
+
+		for ( int i = 0; i < 100; i++ ) cache.put( i , "0123456789" );
+		for ( int r = 0; r < 5; r++ ) {
+			for ( int i = 0; i < 100; i++ ) Assert.assertNotNull( cache.get( i ) );
+		}
+
+		// keys requested only once should not flush the frequently requested ones
+		for ( int i = 100; i < 1100; i++ ) {
+			if ( cache.get( i ) == null ) cache.put( i , "0123456789" );
+		}
+
+		for ( int i = 0; i < 100; i++ ) {
+			Assert.assertNotNull( "frequent entry "+i+" was evicted" , cache.get( i ) );
+		}
+		Assert.assertTrue( "expected rejections" , cache.getRejections() > 0 );
+	}
+
+	@Test
+	public void testReservedWeightCountsInBound() {
+		final LongKeyedBoundedCache<String> cache = new LongKeyedBoundedCache<>( 1000 , 10 , 1 , String::length );
+		for ( int i = 0; i < 100; i++ ) cache.put( i , "0123456789" );
+		Assert.assertEquals( "unexpected weight" , 1000 , cache.getWeight() );
+
+		cache.reserveWeight( 500 );
+		cache.put( 100 , "0123456789" );
+		Assert.assertTrue( "reserved weight not counted: "+cache.getWeight() , cache.getWeight() <= 500 );
+
+		cache.reserveWeight( 500 );
+		cache.put( 101 , "0123456789" );
+		Assert.assertEquals( "no space left for entries" , 0 , cache.getWeight() );
+	}
+}